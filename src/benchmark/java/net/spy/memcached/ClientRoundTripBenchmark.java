@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure complete client round trips, from the calling thread through the
+ * IO thread to an in-process {@link FakeAsciiServer} and back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ClientRoundTripBenchmark {
+
+  private static final int BULK_KEYS = 10;
+
+  @Param({"32", "4096"})
+  private int valueSize;
+
+  private FakeAsciiServer server;
+  private MemcachedClient client;
+  private String value;
+  private List<String> bulkKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new FakeAsciiServer();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.TEXT).build(),
+      Arrays.asList(server.getAddress()));
+    char[] chars = new char[valueSize];
+    Arrays.fill(chars, 'v');
+    value = new String(chars);
+    bulkKeys = new ArrayList<String>(BULK_KEYS);
+    for (int i = 0; i < BULK_KEYS; i++) {
+      String k = "benchmark:bulk:" + i;
+      bulkKeys.add(k);
+      client.set(k, 0, value).get();
+    }
+    client.set("benchmark:hit", 0, value).get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.shutdown(5, TimeUnit.SECONDS);
+    server.close();
+  }
+
+  @Benchmark
+  public Object getHit() {
+    return client.get("benchmark:hit");
+  }
+
+  @Benchmark
+  public Boolean set() throws Exception {
+    return client.set("benchmark:set", 0, value).get();
+  }
+
+  @Benchmark
+  public Map<String, Object> getBulk() {
+    return client.getBulk(bulkKeys);
+  }
+}
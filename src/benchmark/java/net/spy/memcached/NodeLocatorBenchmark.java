@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the cost of finding the primary node for a key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class NodeLocatorBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"CONSISTENT", "ARRAY_MOD", "JUMP", "RENDEZVOUS"})
+  private ConnectionFactoryBuilder.Locator locatorType;
+
+  @Param({"4", "32", "256"})
+  private int nodeCount;
+
+  private NodeLocator locator;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new MockMemcachedNode(
+          InetSocketAddress.createUnresolved("10.0.0." + (i % 250),
+              11211 + i / 250)));
+    }
+    locator = new ConnectionFactoryBuilder().setLocatorType(locatorType)
+        .build().createLocator(nodes);
+    keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "benchmark:key:" + i;
+    }
+  }
+
+  @Benchmark
+  public MemcachedNode getPrimary() {
+    next = (next + 1) & (KEYS - 1);
+    return locator.getPrimary(keys[next]);
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contend on a node input queue with 64 producers and a single consumer
+ * draining it the way the IO thread does, for each of the queue factories.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Group)
+public class OperationQueueBenchmark {
+
+  private static final long MAX_BLOCK_MILLIS = 100;
+
+  @Param({"array", "linked", "mpsc"})
+  private String factory;
+
+  @Param({"16384"})
+  private int capacity;
+
+  private BlockingQueue<Operation> queue;
+  private Operation op;
+
+  @Setup
+  public void setUp() {
+    OperationQueueFactory f;
+    if (factory.equals("array")) {
+      f = new ArrayOperationQueueFactory(capacity);
+    } else if (factory.equals("linked")) {
+      f = new LinkedOperationQueueFactory();
+    } else if (factory.equals("mpsc")) {
+      f = new MpscOperationQueueFactory(capacity);
+    } else {
+      throw new IllegalArgumentException("Unknown factory: " + factory);
+    }
+    queue = f.create();
+    op = new AsciiOperationFactory().noop(new OperationCallback() {
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    });
+  }
+
+  /**
+   * Per consumer thread drain buffer, like the node's write queue.
+   */
+  @State(Scope.Thread)
+  public static class DrainBuffer {
+    private final List<Operation> ops = new ArrayList<Operation>(256);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(64)
+  public boolean offer() throws InterruptedException {
+    return queue.offer(op, MAX_BLOCK_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public int drain(DrainBuffer buf) {
+    buf.ops.clear();
+    return queue.drainTo(buf.ops, 256);
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measure ascii get response parsing from a canned buffer, both when the
+ * whole response is available at once and when it arrives in small reads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AsciiParsingBenchmark {
+
+  @Param({"1", "16"})
+  private int keyCount;
+
+  @Param({"32", "4096"})
+  private int valueSize;
+
+  @Param({"0", "1024"})
+  private int readSize;
+
+  private List<String> keys;
+  private ByteBuffer response;
+
+  @Setup
+  public void setUp() throws IOException {
+    keys = new ArrayList<String>(keyCount);
+    StringBuilder sb = new StringBuilder();
+    StringBuilder value = new StringBuilder(valueSize);
+    for (int i = 0; i < valueSize; i++) {
+      value.append((char) ('a' + i % 26));
+    }
+    for (int i = 0; i < keyCount; i++) {
+      String k = "benchmark:key:" + i;
+      keys.add(k);
+      sb.append("VALUE ").append(k).append(" 0 ").append(valueSize)
+        .append("\r\n").append(value).append("\r\n");
+    }
+    sb.append("END\r\n");
+    byte[] bytes = sb.toString().getBytes("UTF-8");
+    // Responses are read through a direct buffer by the connection.
+    response = ByteBuffer.allocateDirect(bytes.length);
+    response.put(bytes);
+    response.flip();
+  }
+
+  @Benchmark
+  public void parseGetResponse(Blackhole bh) throws IOException {
+    GetOperationImpl op = new GetOperationImpl(keys, new Sink(bh));
+    ByteBuffer b = response.duplicate();
+    if (readSize == 0) {
+      op.readFromBuffer(b);
+      return;
+    }
+    int end = b.limit();
+    for (int pos = 0; pos < end; pos += readSize) {
+      b.limit(Math.min(end, pos + readSize));
+      b.position(pos);
+      op.readFromBuffer(b);
+    }
+  }
+
+  static final class Sink implements GetOperation.BufferCallback {
+    private final Blackhole bh;
+
+    Sink(Blackhole b) {
+      bh = b;
+    }
+
+    public void gotData(String key, int flags, ByteBuffer data) {
+      bh.consume(data.remaining());
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      bh.consume(data);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // not measured
+    }
+
+    public void complete() {
+      // not measured
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measure binary get response parsing from a canned buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BinaryParsingBenchmark {
+
+  private static final int OPAQUE_OFFSET = 12;
+
+  @Param({"32", "4096"})
+  private int valueSize;
+
+  private ByteBuffer response;
+
+  @Setup
+  public void setUp() {
+    byte[] value = new byte[valueSize];
+    response = ByteBuffer.allocate(24 + 4 + valueSize);
+    response.put((byte) 0x81);
+    response.put(GetOperationImpl.GET_CMD);
+    response.putShort((short) 0);
+    response.put((byte) 4);
+    response.put((byte) 0);
+    response.putShort((short) 0);
+    response.putInt(4 + valueSize);
+    response.putInt(0);
+    response.putLong(0);
+    response.putInt(0);
+    response.put(value);
+    response.flip();
+  }
+
+  @Benchmark
+  public void parseGetResponse(Blackhole bh) throws IOException {
+    GetOperationImpl op = new GetOperationImpl("k", new Sink(bh));
+    ByteBuffer b = response.duplicate();
+    b.putInt(OPAQUE_OFFSET, op.opaque);
+    op.readFromBuffer(b);
+  }
+
+  static final class Sink implements GetOperation.BufferCallback {
+    private final Blackhole bh;
+
+    Sink(Blackhole b) {
+      bh = b;
+    }
+
+    public void gotData(String key, int flags, ByteBuffer data) {
+      bh.consume(data.get(data.position()));
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      bh.consume(data);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // not measured
+    }
+
+    public void complete() {
+      // not measured
+    }
+  }
+}
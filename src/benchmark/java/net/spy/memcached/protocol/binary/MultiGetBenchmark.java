@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.protocol.BufferPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the serialization of binary multi-get requests, with and without
+ * a request buffer pool on the handling node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MultiGetBenchmark {
+
+  @Param({"10", "100", "1000"})
+  private int keyCount;
+
+  @Param({"false", "true"})
+  private boolean pooled;
+
+  private List<String> keys;
+  private MockMemcachedNode node;
+
+  @Setup
+  public void setUp() {
+    keys = new ArrayList<String>(keyCount);
+    for (int i = 0; i < keyCount; i++) {
+      keys.add("benchmark:key:" + i);
+    }
+    final BufferPool pool = pooled
+        ? new BufferPool(new NoopMetricCollector()) : null;
+    node = new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost", 11211)) {
+      @Override
+      public BufferPool getBufferPool() {
+        return pool;
+      }
+    };
+  }
+
+  @Benchmark
+  public ByteBuffer initialize() {
+    MultiGetOperationImpl op = new MultiGetOperationImpl(keys,
+        new BinaryParsingBenchmark.Sink(null));
+    op.setHandlingNode(node);
+    op.initialize();
+    ByteBuffer rv = op.getBuffer();
+    // Let a pooled buffer go back the way it does once it has been written.
+    op.writing();
+    op.writeComplete();
+    return rv;
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure {@link SerializingTranscoder} encoding and decoding.
+ *
+ * The payloads cover the string fast path, a string big enough to be
+ * compressed and a serialized object.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SerializingTranscoderBenchmark {
+
+  @Param({"string", "compressedString", "object"})
+  private String payload;
+
+  private SerializingTranscoder tc;
+  private Object value;
+  private CachedData encoded;
+
+  @Setup
+  public void setUp() {
+    tc = new SerializingTranscoder();
+    if ("string".equals(payload)) {
+      value = repeat("spymemcached ", 8);
+    } else if ("compressedString".equals(payload)) {
+      value = repeat("spymemcached ", 4096);
+    } else if ("object".equals(payload)) {
+      Map<String, Object> m = new HashMap<String, Object>();
+      for (int i = 0; i < 16; i++) {
+        m.put("field" + i, i % 2 == 0 ? Integer.valueOf(i) : "value " + i);
+      }
+      value = m;
+    } else {
+      throw new IllegalArgumentException("Unknown payload " + payload);
+    }
+    encoded = tc.encode(value);
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder sb = new StringBuilder(s.length() * times);
+    for (int i = 0; i < times; i++) {
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public CachedData encode() {
+    return tc.encode(value);
+  }
+
+  @Benchmark
+  public Object decode() {
+    return tc.decode(encoded);
+  }
+
+  /**
+   * Decode the way the client does for a response still in the read buffer:
+   * in place when possible, otherwise through a copy.
+   */
+  @Benchmark
+  public Object decodeFromBuffer() {
+    ByteBuffer b = ByteBuffer.wrap(encoded.getData());
+    int flags = encoded.getFlags();
+    if (tc.decodesFromBuffer(flags)) {
+      return tc.decode(flags, b);
+    }
+    byte[] copy = new byte[b.remaining()];
+    b.get(copy);
+    return tc.decode(new CachedData(flags, copy, tc.getMaxSize()));
+  }
+}
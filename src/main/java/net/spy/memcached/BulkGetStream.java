@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.internal.BulkGetSubscriber;
+import net.spy.memcached.internal.BulkGetSubscription;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A bulk get whose results are pushed to a {@link BulkGetSubscriber} as
+ * they are parsed instead of being collected in a map.
+ *
+ * Keys are grouped by node up front but only sent in chunks cut against the
+ * demand of the subscriber, round robin over the nodes so all of them make
+ * progress at once. A chunk reserves one unit of demand per key, so the
+ * subscriber is never sent more values and misses than it requested, and at
+ * most that many keys are ever in flight. Keys a chunk did not return are
+ * reported as misses once it completes, or as an error if it failed.
+ *
+ * All state is guarded by this object, which also serializes the signals.
+ * Operations are only enqueued after the lock has been released, since that
+ * may block on a full input queue. For the same reason chunks planned from
+ * within a callback on the IO thread are enqueued by the executor instead.
+ * Operations are only cancelled after the lock has been released as well,
+ * since the IO thread holds the lock of an operation while it delivers to
+ * its chunk, which then takes this one.
+ */
+final class BulkGetStream<T> extends SpyObject implements
+    BulkGetSubscription {
+
+  private final MemcachedConnection conn;
+  private final OperationFactory opFact;
+  private final Transcoder<T> tc;
+  private final NearCache nearCache;
+  private final long[] stamps;
+  private final BulkGetSubscriber<T> subscriber;
+  private final int chunkSize;
+  private final ExecutorService executor;
+
+  private final List<MemcachedNode> nodes;
+  private final List<List<String>> nodeKeys;
+  private final int[] sent;
+  private int nextNode = 0;
+  private int unsent;
+
+  private long credit = 0;
+  private final Set<Chunk> inFlight = new HashSet<Chunk>();
+  private List<Chunk> toSend = new ArrayList<Chunk>();
+  private List<Chunk> toCancel = new ArrayList<Chunk>();
+  private boolean cancelled = false;
+  private boolean completed = false;
+  private boolean sendScheduled = false;
+
+  private final Runnable sender = new Runnable() {
+    public void run() {
+      synchronized (BulkGetStream.this) {
+        sendScheduled = false;
+      }
+      send();
+    }
+  };
+
+  BulkGetStream(MemcachedConnection c, OperationFactory of,
+      Transcoder<T> t, NearCache nc, Map<MemcachedNode, Collection<String>> ks,
+      BulkGetSubscriber<T> s, int size, ExecutorService es) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive: "
+        + size);
+    }
+    conn = c;
+    opFact = of;
+    tc = t;
+    nearCache = nc;
+    stamps = nc == null ? null : nc.stamps();
+    subscriber = s;
+    chunkSize = size;
+    executor = es;
+    nodes = new ArrayList<MemcachedNode>(ks.size());
+    nodeKeys = new ArrayList<List<String>>(ks.size());
+    for (Map.Entry<MemcachedNode, Collection<String>> me : ks.entrySet()) {
+      nodes.add(me.getKey());
+      nodeKeys.add(new ArrayList<String>(me.getValue()));
+      unsent += me.getValue().size();
+    }
+    sent = new int[nodes.size()];
+  }
+
+  /**
+   * Subscribe the subscriber and send whatever it requested right away.
+   */
+  void start() {
+    synchronized (this) {
+      try {
+        subscriber.onSubscribe(this);
+      } catch (RuntimeException e) {
+        subscriberFailed(e);
+      }
+      completeIfDone();
+    }
+    cancelDropped();
+    send();
+  }
+
+  public void request(long n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("Must request a positive number of "
+        + "keys: " + n);
+    }
+    synchronized (this) {
+      if (cancelled || completed) {
+        return;
+      }
+      credit = credit + n < 0 ? Long.MAX_VALUE : credit + n;
+      plan();
+    }
+    // When requesting from within a signal, whoever delivered it sends.
+    if (!Thread.holdsLock(this)) {
+      cancelDropped();
+      send();
+    }
+  }
+
+  public void cancel() {
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      drop();
+    }
+    // When cancelling from within a signal, whoever delivered it cancels.
+    if (!Thread.holdsLock(this)) {
+      cancelDropped();
+    }
+  }
+
+  /**
+   * Cut chunks for as many keys as there is credit for; must hold the lock.
+   */
+  private void plan() {
+    while (!cancelled && credit > 0 && unsent > 0) {
+      int i = nextNode;
+      while (sent[i] == nodeKeys.get(i).size()) {
+        i = (i + 1) % nodes.size();
+      }
+      nextNode = (i + 1) % nodes.size();
+      List<String> keys = nodeKeys.get(i);
+      int n = (int) Math.min(Math.min(credit, chunkSize),
+        keys.size() - sent[i]);
+      List<String> chunkKeys = new ArrayList<String>(n);
+      Map<String, CachedData> hits = null;
+      for (int j = 0; j < n; j++) {
+        String key = keys.get(sent[i]);
+        keys.set(sent[i]++, null);
+        CachedData cached = nearCache == null ? null : nearCache.get(key);
+        if (cached != null) {
+          if (hits == null) {
+            hits = new HashMap<String, CachedData>();
+          }
+          hits.put(key, cached);
+        } else {
+          chunkKeys.add(key);
+        }
+      }
+      unsent -= n;
+      credit -= n;
+      if (!chunkKeys.isEmpty()) {
+        Chunk c = new Chunk(nodes.get(i), chunkKeys);
+        inFlight.add(c);
+        toSend.add(c);
+      }
+      // Signal only now that the state is consistent, since the subscriber
+      // may request more from within the signal.
+      if (hits != null) {
+        for (Map.Entry<String, CachedData> me : hits.entrySet()) {
+          if (!cancelled) {
+            deliver(nodes.get(i), me.getKey(), me.getValue());
+          }
+        }
+      }
+    }
+    completeIfDone();
+  }
+
+  /**
+   * Enqueue the chunks planned so far, outside the lock.
+   */
+  private void send() {
+    List<Chunk> chunks;
+    while ((chunks = takeToSend()) != null) {
+      for (Chunk c : chunks) {
+        try {
+          conn.addOperation(c.node, c.op);
+        } catch (RuntimeException e) {
+          c.failed(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Have the executor enqueue the chunks planned so far, so that the IO
+   * thread never blocks on a full input queue.
+   */
+  private void sendLater() {
+    synchronized (this) {
+      if (toSend.isEmpty() || sendScheduled) {
+        return;
+      }
+      sendScheduled = true;
+    }
+    try {
+      executor.execute(sender);
+    } catch (RejectedExecutionException e) {
+      List<Chunk> chunks;
+      while ((chunks = takeToSend()) != null) {
+        for (Chunk c : chunks) {
+          c.failed(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancel the operations of the chunks dropped so far, outside the lock.
+   */
+  private void cancelDropped() {
+    List<Chunk> chunks;
+    synchronized (this) {
+      if (toCancel.isEmpty()) {
+        return;
+      }
+      chunks = toCancel;
+      toCancel = new ArrayList<Chunk>();
+    }
+    for (Chunk c : chunks) {
+      c.cancel();
+    }
+  }
+
+  private synchronized List<Chunk> takeToSend() {
+    if (toSend.isEmpty()) {
+      return null;
+    }
+    List<Chunk> rv = toSend;
+    toSend = new ArrayList<Chunk>();
+    return rv;
+  }
+
+  /**
+   * Decode and report a value; must hold the lock.
+   */
+  private void deliver(MemcachedNode node, String key, CachedData d) {
+    T value;
+    try {
+      value = tc.decode(d);
+    } catch (RuntimeException e) {
+      signalError(node, Collections.singletonList(key), e);
+      return;
+    }
+    try {
+      subscriber.onValue(key, value);
+    } catch (RuntimeException e) {
+      subscriberFailed(e);
+    }
+  }
+
+  private void signalError(MemcachedNode node, Collection<String> keys,
+      Throwable cause) {
+    SocketAddress sa = node.getSocketAddress();
+    try {
+      subscriber.onError(sa, keys, cause);
+    } catch (RuntimeException e) {
+      subscriberFailed(e);
+    }
+  }
+
+  private void completeIfDone() {
+    if (!cancelled && !completed && unsent == 0 && inFlight.isEmpty()) {
+      completed = true;
+      try {
+        subscriber.onComplete();
+      } catch (RuntimeException e) {
+        getLogger().warn("Bulk get subscriber failed on completion", e);
+      }
+    }
+  }
+
+  /**
+   * A subscriber threw from a signal, which must not reach the IO thread.
+   */
+  private void subscriberFailed(RuntimeException e) {
+    getLogger().warn("Bulk get subscriber failed, cancelling the stream", e);
+    drop();
+  }
+
+  /**
+   * Stop the stream and leave the chunks in flight to be cancelled once the
+   * lock is released; must hold the lock.
+   */
+  private void drop() {
+    cancelled = true;
+    unsent = 0;
+    toSend.clear();
+    toCancel.addAll(inFlight);
+  }
+
+  /**
+   * The keys sent to one node in one operation.
+   */
+  private final class Chunk implements GetOperation.Callback {
+
+    private final MemcachedNode node;
+    private final Set<String> remaining;
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final Operation op;
+
+    Chunk(MemcachedNode n, Collection<String> keys) {
+      node = n;
+      remaining = new HashSet<String>(keys);
+      op = opFact.get(keys, this);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      if (status.getStatusCode() == StatusCode.ERR_NOT_MY_VBUCKET) {
+        pending.addAndGet(Integer.parseInt(status.getMessage()));
+      }
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      CachedData d = new CachedData(flags, data, tc.getMaxSize());
+      if (nearCache != null) {
+        nearCache.put(key, d, 0, stamps);
+      }
+      synchronized (BulkGetStream.this) {
+        if (!cancelled && remaining.remove(key)) {
+          deliver(node, key, d);
+        }
+      }
+      cancelDropped();
+      sendLater();
+    }
+
+    public void complete() {
+      if (pending.decrementAndGet() > 0) {
+        return;
+      }
+      synchronized (BulkGetStream.this) {
+        if (!inFlight.contains(this)) {
+          return;
+        }
+        // Stay in flight while signalling, so that a request from within a
+        // signal cannot complete the stream early.
+        if (!cancelled && !remaining.isEmpty()) {
+          Throwable failure = failure();
+          if (failure == null) {
+            for (String key : remaining) {
+              if (cancelled) {
+                break;
+              }
+              try {
+                subscriber.onMiss(key);
+              } catch (RuntimeException e) {
+                subscriberFailed(e);
+                break;
+              }
+            }
+          } else {
+            signalError(node, new ArrayList<String>(remaining), failure);
+          }
+          remaining.clear();
+        }
+        inFlight.remove(this);
+        completeIfDone();
+      }
+      cancelDropped();
+      sendLater();
+    }
+
+    /**
+     * The operation could not be enqueued at all.
+     */
+    void failed(RuntimeException e) {
+      synchronized (BulkGetStream.this) {
+        if (inFlight.contains(this)) {
+          if (!cancelled) {
+            signalError(node, new ArrayList<String>(remaining), e);
+          }
+          inFlight.remove(this);
+          completeIfDone();
+        }
+      }
+      cancelDropped();
+    }
+
+    /**
+     * Cancel the operation unless it already finished, e.g. because this
+     * chunk is the one currently completing.
+     */
+    void cancel() {
+      if (op.getState() != OperationState.COMPLETE && !op.isTimedOut()) {
+        op.cancel();
+      }
+    }
+
+    private Throwable failure() {
+      if (op.hasErrored()) {
+        return op.getException();
+      }
+      if (op.isTimedOut()) {
+        return new CheckedOperationTimeoutException("Operation timed out.",
+          op);
+      }
+      if (op.isCancelled()) {
+        return new CancellationException("Cancelled");
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.TranscodeService;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A single get operation shared by every caller asking for the same key
+ * while it is in flight.
+ *
+ * Callers {@link #join(Transcoder) join} with their own transcoder and get
+ * their own future. The value is decoded once per caller, so callers never
+ * see each other's objects. Cancelling one caller's future only detaches that
+ * caller; the operation itself is cancelled once nobody waits for it anymore.
+ * Timing out while waiting fails only the caller that gave up, the timeout
+ * is counted against the connection once no matter how many callers gave up.
+ *
+ * As soon as the first response arrives the get is closed: it is removed from
+ * the pending map and later callers start a new operation.
+ */
+final class CoalescedGet implements GetOperation.BufferCallback {
+
+  private final String key;
+  private final ConcurrentMap<String, CoalescedGet> pending;
+  private final TranscodeService tcService;
+  private final NearCache nearCache;
+  private final long[] stamps;
+  private final long operationTimeout;
+  private final ExecutorService executorService;
+
+  private final List<Waiter<?>> waiters = new ArrayList<Waiter<?>>();
+  private boolean closed = false;
+  private volatile Operation op;
+  private final AtomicBoolean timeoutCounted = new AtomicBoolean();
+
+  CoalescedGet(String k, ConcurrentMap<String, CoalescedGet> p,
+      TranscodeService tcs, NearCache nc, long[] s, long timeout,
+      ExecutorService service) {
+    key = k;
+    pending = p;
+    tcService = tcs;
+    nearCache = nc;
+    stamps = s;
+    operationTimeout = timeout;
+    executorService = service;
+  }
+
+  /**
+   * Attach a caller to this get.
+   *
+   * @param tc the caller's transcoder
+   * @return the caller's future, or null if the get already closed
+   */
+  <T> GetFuture<T> join(Transcoder<T> tc) {
+    Waiter<T> w = new Waiter<T>(tc);
+    synchronized (this) {
+      if (closed) {
+        return null;
+      }
+      waiters.add(w);
+    }
+    return w;
+  }
+
+  /**
+   * Set the operation serving this get, before it is published.
+   */
+  void setOperation(Operation o) {
+    op = o;
+  }
+
+  /**
+   * Give up on a get whose operation could not be enqueued; every caller
+   * still waiting is cancelled.
+   */
+  void abort() {
+    for (Waiter<?> w : close()) {
+      w.cancelled(false);
+    }
+  }
+
+  private synchronized List<Waiter<?>> close() {
+    if (!closed) {
+      closed = true;
+      pending.remove(key, this);
+    }
+    return new ArrayList<Waiter<?>>(waiters);
+  }
+
+  /**
+   * Detach a cancelled caller.
+   *
+   * @return true if the operation has not been written yet
+   */
+  private boolean leave(Waiter<?> w) {
+    boolean last = false;
+    synchronized (this) {
+      waiters.remove(w);
+      if (!closed && waiters.isEmpty()) {
+        closed = true;
+        pending.remove(key, this);
+        last = true;
+      }
+    }
+    Operation o = op;
+    if (o == null) {
+      return true;
+    }
+    // Called outside of the lock since the operation may be delivering a
+    // callback to us while holding its own.
+    if (last) {
+      o.cancel();
+    }
+    return o.getState() == OperationState.WRITE_QUEUED;
+  }
+
+  @Override
+  public void gotData(String k, int flags, byte[] data) {
+    assert key.equals(k) : "Wrong key returned";
+    if (nearCache != null) {
+      nearCache.put(key, new CachedData(flags, data, CachedData.MAX_SIZE), 0,
+          stamps);
+    }
+    for (Waiter<?> w : close()) {
+      w.gotData(flags, data);
+    }
+  }
+
+  @Override
+  public void gotData(String k, int flags, ByteBuffer data) {
+    List<Waiter<?>> ws = close();
+    if (nearCache != null || ws.size() > 1) {
+      // Every caller decodes on its own, so the view can't be handed out.
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      gotData(k, flags, bytes);
+    } else {
+      assert key.equals(k) : "Wrong key returned";
+      for (Waiter<?> w : ws) {
+        w.gotData(flags, data);
+      }
+    }
+  }
+
+  @Override
+  public void receivedStatus(OperationStatus status) {
+    for (Waiter<?> w : close()) {
+      w.set(status);
+    }
+  }
+
+  @Override
+  public void complete() {
+    for (Waiter<?> w : close()) {
+      w.complete();
+    }
+  }
+
+  /**
+   * One caller's view of the shared get.
+   */
+  private final class Waiter<T> extends GetFuture<T> {
+    private final Transcoder<T> tc;
+    private final CountDownLatch latch;
+    private volatile Future<T> val;
+    private volatile boolean cancelled = false;
+
+    Waiter(Transcoder<T> t) {
+      this(t, new CountDownLatch(1));
+    }
+
+    private Waiter(Transcoder<T> t, CountDownLatch l) {
+      super(l, operationTimeout, key, executorService);
+      tc = t;
+      latch = l;
+    }
+
+    void gotData(int flags, byte[] data) {
+      val = tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+    }
+
+    void gotData(int flags, ByteBuffer data) {
+      val = tcService.decode(tc, flags, data);
+    }
+
+    void set(OperationStatus status) {
+      if (!cancelled) {
+        set(val, status);
+      }
+    }
+
+    void complete() {
+      if (!cancelled) {
+        latch.countDown();
+        signalComplete();
+      }
+    }
+
+    boolean cancelled(boolean detach) {
+      if (isDone()) {
+        return false;
+      }
+      boolean rv = detach ? leave(this) : true;
+      cancelled = true;
+      set(null, new CancelledOperationStatus());
+      latch.countDown();
+      signalComplete();
+      return rv;
+    }
+
+    @Override
+    public boolean cancel(boolean ign) {
+      return cancelled(true);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled || latch.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      try {
+        return get(operationTimeout, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        throw new RuntimeException("Timed out waiting for operation", e);
+      }
+    }
+
+    @Override
+    public T get(long duration, TimeUnit units) throws InterruptedException,
+        TimeoutException, ExecutionException {
+      Operation o = op;
+      if (!latch.await(duration, units)) {
+        // Unlike a plain get the shared operation is left alone, other
+        // callers may still be willing to wait for it.
+        if (timeoutCounted.compareAndSet(false, true)) {
+          MemcachedConnection.opTimedOut(o);
+        }
+        throw new CheckedOperationTimeoutException(
+            "Timed out waiting for operation", o);
+      }
+      if (cancelled || o.isCancelled()) {
+        throw new ExecutionException(new CancellationException("Cancelled"));
+      }
+      if (o.hasErrored()) {
+        throw new ExecutionException(o.getException());
+      }
+      if (o.isTimedOut()) {
+        throw new ExecutionException(new CheckedOperationTimeoutException(
+            "Operation timed out.", o));
+      }
+      MemcachedConnection.opSucceeded(o);
+      Future<T> v = val;
+      return v == null ? null : v.get();
+    }
+  }
+}
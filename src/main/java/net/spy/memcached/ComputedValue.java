@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * A computed value along with its logical expiry and the time it took to
+ * compute, as stored by {@link MemcachedClient#getOrCompute}.
+ */
+public class ComputedValue<T> {
+  private final T value;
+  private final long expiry;
+  private final long computeTime;
+
+  /**
+   * Construct a new ComputedValue.
+   *
+   * @param v the value
+   * @param e the time the value expires in milliseconds since the epoch,
+   *          {@link Long#MAX_VALUE} if it never does
+   * @param c the time it took to compute the value in milliseconds
+   */
+  public ComputedValue(T v, long e, long c) {
+    value = v;
+    expiry = e;
+    computeTime = c;
+  }
+
+  /**
+   * Get the value.
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Get the time the value expires in milliseconds since the epoch.
+   */
+  public long getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * Get the time it took to compute the value in milliseconds.
+   */
+  public long getComputeTime() {
+    return computeTime;
+  }
+
+  /**
+   * Decide whether the value should be refreshed now.
+   *
+   * <p>
+   * Expired values are always refreshed. Before that a value is refreshed
+   * with a probability growing towards its expiry, the longer it takes to
+   * compute the earlier (XFetch): the remaining time to live is compared
+   * with the computation time scaled by beta and by -ln(random), which is
+   * exponentially distributed. Clients reading a hot value thus refresh it
+   * one at a time and shortly before it expires.
+   * </p>
+   *
+   * @param now the current time in milliseconds since the epoch
+   * @param beta how early to refresh, 0 to only refresh expired values
+   * @param random a uniformly distributed random number in (0, 1]
+   * @return true if the value should be refreshed
+   */
+  public boolean shouldRefresh(long now, double beta, double random) {
+    if (now >= expiry) {
+      return true;
+    }
+    if (beta <= 0 || computeTime <= 0 || expiry == Long.MAX_VALUE) {
+      return false;
+    }
+    return now - computeTime * beta * Math.log(random) >= expiry;
+  }
+
+  @Override
+  public String toString() {
+    return "{ComputedValue " + value + " expiry=" + expiry + " computeTime="
+      + computeTime + "}";
+  }
+}
@@ -36,6 +36,7 @@ import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.transcoders.Transcoder;
 
 /**
@@ -201,4 +202,112 @@ public interface ConnectionFactory {
    * @return the time in milliseconds.
    */
   long getAuthWaitTime();
+
+  /**
+   * The number of selector loops (and therefore I/O threads) the nodes of a
+   * connection are split across.
+   *
+   * @return the number of I/O threads, at least 1.
+   */
+  int getIOThreadCount();
+
+  /**
+   * If true, operation buffers are handed to the socket directly with a
+   * gathering write instead of being copied into the node's write buffer
+   * first.
+   */
+  boolean useGatheringWrites();
+
+  /**
+   * The approximate number of bytes the client may keep in its
+   * {@link NearCache}.
+   *
+   * @return the near cache budget, 0 to disable the near cache.
+   */
+  long getNearCacheMaxBytes();
+
+  /**
+   * How long a value may be served from the {@link NearCache}.
+   *
+   * @return the time in milliseconds.
+   */
+  long getNearCacheTTL();
+
+  /**
+   * If true, concurrent gets for the same key share a single operation.
+   */
+  boolean shouldCoalesceGets();
+
+  /**
+   * The tick of the timer which expires operations once the operation
+   * timeout has passed.
+   *
+   * Outstanding operations are completed as timed out at most one tick after
+   * their deadline, even if nobody waits on their futures.
+   *
+   * @return the tick in milliseconds, or 0 to only time out operations when
+   *         waiting on them.
+   */
+  long getOperationTimeoutTick();
+
+  /**
+   * The number of connections opened to each server.
+   *
+   * With more than one connection, each server is represented by a
+   * {@link PooledMemcachedNode} spreading operations over its connections.
+   */
+  int getConnectionsPerNode();
+
+  /**
+   * How operations are spread over the connections to a server.
+   */
+  PooledMemcachedNode.Selection getConnectionSelection();
+
+  /**
+   * If true, text protocol stores, concatenations, deletes and touches are
+   * sent with noreply and complete once they are written.
+   */
+  boolean useAsciiNoReply();
+
+  /**
+   * If true, every batch of noreply operations is followed by a version
+   * command, and the operations of the batch only complete once it has been
+   * answered.
+   *
+   * Batches are formed while optimizing, see {@link #shouldOptimize()}.
+   */
+  boolean useNoReplyFence();
+
+  /**
+   * The factor scaling how early cached values are refreshed ahead of their
+   * expiry by {@link MemcachedClient#getOrCompute}.
+   *
+   * A value is refreshed once the remaining time to live falls below its
+   * computation time, multiplied by this factor and a random factor with
+   * exponential distribution. 0 disables early refreshes, values above 1
+   * refresh earlier.
+   */
+  double getEarlyRefreshBeta();
+
+  /**
+   * Sample one in this many keyed operations to track the hottest keys of
+   * each node, see {@link MemcachedClient#getHotKeys()}.
+   *
+   * 0 disables hot key tracking.
+   */
+  int getHotKeySampling();
+
+  /**
+   * The number of nodes keys found hot by sampling are kept on, see
+   * {@link MemcachedClient#setHotKeyReplicas(String, int)}.
+   *
+   * 1 keeps hot keys on their primary node only.
+   */
+  int getHotKeyReplicas();
+
+  /**
+   * The tracer which samples operations and receives the timestamps of
+   * their lifecycle, or null to not trace operations.
+   */
+  OperationTracer getOperationTracer();
 }
@@ -34,7 +34,9 @@ import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -77,6 +79,27 @@ public class ConnectionFactoryBuilder {
   protected MetricCollector collector = null;
   protected ExecutorService executorService = null;
   protected long authWaitTime = DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME;
+  protected int ioThreadCount = DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT;
+  protected boolean useGatheringWrites = false;
+  protected long nearCacheMaxBytes =
+      DefaultConnectionFactory.DEFAULT_NEAR_CACHE_MAX_BYTES;
+  protected long nearCacheTTL = DefaultConnectionFactory.DEFAULT_NEAR_CACHE_TTL;
+  protected boolean shouldCoalesceGets = false;
+  protected long opTimeoutTick =
+      DefaultConnectionFactory.DEFAULT_OPERATION_TIMEOUT_TICK;
+  protected int connectionsPerNode =
+      DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE;
+  protected PooledMemcachedNode.Selection connectionSelection =
+      DefaultConnectionFactory.DEFAULT_CONNECTION_SELECTION;
+  protected boolean asciiNoReply = false;
+  protected boolean noReplyFence = false;
+  protected double earlyRefreshBeta =
+      DefaultConnectionFactory.DEFAULT_EARLY_REFRESH_BETA;
+  protected int hotKeySampling =
+      DefaultConnectionFactory.DEFAULT_HOT_KEY_SAMPLING;
+  protected int hotKeyReplicas =
+      DefaultConnectionFactory.DEFAULT_HOT_KEY_REPLICAS;
+  protected OperationTracer operationTracer = null;
 
   /**
    * Set the operation queue factory.
@@ -103,8 +126,27 @@ public class ConnectionFactoryBuilder {
     setEnableMetrics(cf.enableMetrics());
     setListenerExecutorService(cf.getListenerExecutorService());
     setAuthWaitTime(cf.getAuthWaitTime());
+    setIOThreadCount(cf.getIOThreadCount());
+    setUseGatheringWrites(cf.useGatheringWrites());
+    setNearCacheMaxBytes(cf.getNearCacheMaxBytes());
+    setNearCacheTTL(cf.getNearCacheTTL());
+    setShouldCoalesceGets(cf.shouldCoalesceGets());
+    setOperationTimeoutTick(cf.getOperationTimeoutTick());
+    setConnectionsPerNode(cf.getConnectionsPerNode());
+    setConnectionSelection(cf.getConnectionSelection());
+    setAsciiNoReply(cf.useAsciiNoReply());
+    setNoReplyFence(cf.useNoReplyFence());
+    setEarlyRefreshBeta(cf.getEarlyRefreshBeta());
+    setHotKeySampling(cf.getHotKeySampling());
+    setHotKeyReplicas(cf.getHotKeyReplicas());
+    setOperationTracer(cf.getOperationTracer());
   }
 
+  /**
+   * Set the operation (input) queue factory.
+   *
+   * @see net.spy.memcached.ops.MpscOperationQueueFactory
+   */
   public ConnectionFactoryBuilder setOpQueueFactory(OperationQueueFactory q) {
     opQueueFactory = q;
     return this;
@@ -199,6 +241,137 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set to true to let concurrent gets for the same key share a single
+   * operation.
+   *
+   * Callers asking for a key while a get for it is already in flight attach
+   * to that get instead of queueing their own. Each caller still decodes
+   * with its own transcoder and may cancel without affecting the others.
+   */
+  public ConnectionFactoryBuilder setShouldCoalesceGets(boolean c) {
+    shouldCoalesceGets = c;
+    return this;
+  }
+
+  /**
+   * Set the tick (in milliseconds) of the timer expiring operations.
+   *
+   * Operations still outstanding once the operation timeout has passed are
+   * completed as timed out within one tick, firing their listeners, and
+   * are never written if they are still queued. Set to 0 to only time
+   * operations out when waiting on their futures.
+   */
+  public ConnectionFactoryBuilder setOperationTimeoutTick(long t) {
+    opTimeoutTick = t;
+    return this;
+  }
+
+  /**
+   * Set the number of connections opened to each server.
+   *
+   * Operations for a server are spread over its connections, so a large
+   * value or a slow response only delays the operations queued behind it
+   * on the same connection. Each connection reconnects on its own.
+   */
+  public ConnectionFactoryBuilder setConnectionsPerNode(int count) {
+    assert count > 0 : "At least one connection per node is needed";
+    if (count > 0) {
+      connectionsPerNode = count;
+    }
+    return this;
+  }
+
+  /**
+   * Set how operations are spread over the connections to a server.
+   */
+  public ConnectionFactoryBuilder setConnectionSelection(
+      PooledMemcachedNode.Selection s) {
+    connectionSelection = s;
+    return this;
+  }
+
+  /**
+   * Set to true to send text protocol stores, concatenations, deletes and
+   * touches with noreply.
+   *
+   * Their futures complete once the command has been written, without
+   * waiting for the server, and failures are not reported. Increments and
+   * decrements still wait for the new value, which they return. Custom
+   * operation factories passed to {@link #setOpFact(OperationFactory)} are
+   * left alone.
+   */
+  public ConnectionFactoryBuilder setAsciiNoReply(boolean to) {
+    asciiNoReply = to;
+    return this;
+  }
+
+  /**
+   * Set to true to follow each batch of noreply operations with a version
+   * command, so they only complete once the server confirmed processing
+   * the batch.
+   *
+   * Consecutive noreply operations are batched into one write while
+   * optimizing, so this needs {@link #setShouldOptimize(boolean)}.
+   */
+  public ConnectionFactoryBuilder setNoReplyFence(boolean to) {
+    noReplyFence = to;
+    return this;
+  }
+
+  /**
+   * Set how early {@link MemcachedClient#getOrCompute} refreshes values
+   * ahead of their expiry, 0 disables early refreshes.
+   *
+   * @see ConnectionFactory#getEarlyRefreshBeta()
+   */
+  public ConnectionFactoryBuilder setEarlyRefreshBeta(double beta) {
+    assert beta >= 0 : "Early refresh beta must not be negative";
+    if (beta >= 0) {
+      earlyRefreshBeta = beta;
+    }
+    return this;
+  }
+
+  /**
+   * Track the hottest keys of each node by sampling one in this many keyed
+   * operations, 0 disables tracking.
+   *
+   * @see ConnectionFactory#getHotKeySampling()
+   */
+  public ConnectionFactoryBuilder setHotKeySampling(int oneIn) {
+    assert oneIn >= 0 : "Hot key sampling must not be negative";
+    if (oneIn >= 0) {
+      hotKeySampling = oneIn;
+    }
+    return this;
+  }
+
+  /**
+   * Keep keys found hot by sampling on this many nodes, spreading their
+   * reads across them. Needs {@link #setHotKeySampling(int)}.
+   *
+   * @see ConnectionFactory#getHotKeyReplicas()
+   */
+  public ConnectionFactoryBuilder setHotKeyReplicas(int replicas) {
+    assert replicas > 0 : "Hot key replicas must be positive";
+    if (replicas > 0) {
+      hotKeyReplicas = replicas;
+    }
+    return this;
+  }
+
+  /**
+   * Set the tracer told about the lifecycle of operations it samples.
+   *
+   * @param tracer the tracer to use, or null to not trace operations.
+   * @see ConnectionFactory#getOperationTracer()
+   */
+  public ConnectionFactoryBuilder setOperationTracer(OperationTracer tracer) {
+    operationTracer = tracer;
+    return this;
+  }
+
   /**
    * Set the read buffer size.
    */
@@ -239,6 +412,9 @@ public class ConnectionFactoryBuilder {
     case BINARY:
       opFact = new BinaryOperationFactory();
       break;
+    case META:
+      opFact = new MetaOperationFactory();
+      break;
     default:
       assert false : "Unhandled protocol: " + prot;
     }
@@ -326,6 +502,66 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the number of I/O threads the nodes are split across.
+   *
+   * Each thread runs its own selector loop over its share of the nodes, so
+   * the client is no longer bound to a single core. Nodes are assigned to
+   * the threads round-robin in the order of the server list.
+   *
+   * @param count the number of I/O threads (defaults to 1).
+   */
+  public ConnectionFactoryBuilder setIOThreadCount(int count) {
+    assert count > 0 : "At least one I/O thread is needed";
+    if (count > 0) {
+      ioThreadCount = count;
+    }
+    return this;
+  }
+
+  /**
+   * Set to true to write operation buffers to the socket with a single
+   * gathering write instead of copying them into the write buffer first.
+   *
+   * Large values then go out in one system call without the extra copy,
+   * at the cost of keeping each buffer until it is fully written.
+   */
+  public ConnectionFactoryBuilder setUseGatheringWrites(boolean to) {
+    useGatheringWrites = to;
+    return this;
+  }
+
+  /**
+   * Enable an in-process near cache in front of the servers.
+   *
+   * Gets and bulk gets are answered locally for keys fetched recently, and
+   * writes made through the client invalidate the local copy. Writes from
+   * other clients are only seen once the entry expires.
+   *
+   * @param maxBytes the approximate memory budget, 0 disables the cache
+   *          (the default).
+   */
+  public ConnectionFactoryBuilder setNearCacheMaxBytes(long maxBytes) {
+    assert maxBytes >= 0 : "Near cache size can't be negative";
+    if (maxBytes >= 0) {
+      nearCacheMaxBytes = maxBytes;
+    }
+    return this;
+  }
+
+  /**
+   * Set how long a value may be served from the near cache, in milliseconds.
+   *
+   * Entries fetched with an expiration shorter than this expire with it.
+   */
+  public ConnectionFactoryBuilder setNearCacheTTL(long ttl) {
+    assert ttl > 0 : "Near cache TTL must be positive";
+    if (ttl > 0) {
+      nearCacheTTL = ttl;
+    }
+    return this;
+  }
+
   /**
    * Get the ConnectionFactory set up with the provided parameters.
    */
@@ -357,6 +593,10 @@ public class ConnectionFactoryBuilder {
           return new ArrayModNodeLocator(nodes, getHashAlg());
         case CONSISTENT:
           return new KetamaNodeLocator(nodes, getHashAlg());
+        case JUMP:
+          return new JumpHashNodeLocator(nodes, getHashAlg());
+        case RENDEZVOUS:
+          return new RendezvousNodeLocator(nodes, getHashAlg());
         default:
           throw new IllegalStateException("Unhandled locator type: " + locator);
         }
@@ -383,7 +623,14 @@ public class ConnectionFactoryBuilder {
 
       @Override
       public OperationFactory getOperationFactory() {
-        return opFact == null ? super.getOperationFactory() : opFact;
+        if (opFact == null) {
+          return super.getOperationFactory();
+        }
+        if (asciiNoReply && opFact.getClass() == AsciiOperationFactory.class
+            && !((AsciiOperationFactory) opFact).isNoReply()) {
+          return new AsciiOperationFactory(true);
+        }
+        return opFact;
       }
 
       @Override
@@ -460,6 +707,76 @@ public class ConnectionFactoryBuilder {
       public long getAuthWaitTime() {
         return authWaitTime;
       }
+
+      @Override
+      public int getIOThreadCount() {
+        return ioThreadCount;
+      }
+
+      @Override
+      public boolean useGatheringWrites() {
+        return useGatheringWrites;
+      }
+
+      @Override
+      public long getNearCacheMaxBytes() {
+        return nearCacheMaxBytes;
+      }
+
+      @Override
+      public long getNearCacheTTL() {
+        return nearCacheTTL;
+      }
+
+      @Override
+      public boolean shouldCoalesceGets() {
+        return shouldCoalesceGets;
+      }
+
+      @Override
+      public long getOperationTimeoutTick() {
+        return opTimeoutTick;
+      }
+
+      @Override
+      public int getConnectionsPerNode() {
+        return connectionsPerNode;
+      }
+
+      @Override
+      public PooledMemcachedNode.Selection getConnectionSelection() {
+        return connectionSelection;
+      }
+
+      @Override
+      public boolean useAsciiNoReply() {
+        return asciiNoReply;
+      }
+
+      @Override
+      public boolean useNoReplyFence() {
+        return noReplyFence;
+      }
+
+      @Override
+      public double getEarlyRefreshBeta() {
+        return earlyRefreshBeta;
+      }
+
+      @Override
+      public int getHotKeySampling() {
+        return hotKeySampling;
+      }
+
+      @Override
+      public int getHotKeyReplicas() {
+        return hotKeyReplicas;
+      }
+
+      @Override
+      public OperationTracer getOperationTracer() {
+        return operationTracer;
+      }
     };
 
   }
@@ -475,7 +792,12 @@ public class ConnectionFactoryBuilder {
     /**
      * Use the binary protocol.
      */
-    BINARY
+    BINARY,
+    /**
+     * Use the meta commands of the text protocol, needs memcached 1.6 or
+     * later.
+     */
+    META
   }
 
   /**
@@ -496,6 +818,19 @@ public class ConnectionFactoryBuilder {
     /**
      * VBucket support.
      */
-    VBUCKET
+    VBUCKET,
+    /**
+     * Jump consistent hash.
+     *
+     * Keys are spread over the node list without a continuum. Only appending
+     * or removing nodes at the end of the list keeps key movement minimal.
+     */
+    JUMP,
+    /**
+     * Rendezvous (highest random weight) hashing.
+     *
+     * Adding or removing any node only moves the keys owned by that node.
+     */
+    RENDEZVOUS
   }
 }
@@ -47,8 +47,11 @@ import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.metrics.NoopMetricCollector;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.SerializingTranscoder;
@@ -125,6 +128,55 @@ public class DefaultConnectionFactory extends SpyObject implements
    */
   public static final long DEFAULT_AUTH_WAIT_TIME = 1000;
 
+  /**
+   * By default, all nodes are handled by a single I/O thread.
+   */
+  public static final int DEFAULT_IO_THREAD_COUNT = 1;
+
+  /**
+   * The near cache is disabled by default.
+   */
+  public static final long DEFAULT_NEAR_CACHE_MAX_BYTES = 0;
+
+  /**
+   * Values are served from the near cache for at most a second by default.
+   */
+  public static final long DEFAULT_NEAR_CACHE_TTL = 1000;
+
+  /**
+   * Outstanding operations are checked for expiry every 10 milliseconds.
+   */
+  public static final long DEFAULT_OPERATION_TIMEOUT_TICK = 10;
+
+  /**
+   * A single connection is opened to each server by default.
+   */
+  public static final int DEFAULT_CONNECTIONS_PER_NODE = 1;
+
+  /**
+   * Pooled connections are picked by their outstanding operations by
+   * default.
+   */
+  public static final PooledMemcachedNode.Selection
+    DEFAULT_CONNECTION_SELECTION =
+      PooledMemcachedNode.Selection.LEAST_OUTSTANDING;
+
+  /**
+   * Computed values are refreshed ahead of expiry by about their
+   * computation time by default.
+   */
+  public static final double DEFAULT_EARLY_REFRESH_BETA = 1.0;
+
+  /**
+   * Hot keys are not tracked by default.
+   */
+  public static final int DEFAULT_HOT_KEY_SAMPLING = 0;
+
+  /**
+   * Hot keys are only kept on their primary node by default.
+   */
+  public static final int DEFAULT_HOT_KEY_REPLICAS = 1;
+
   protected final int opQueueLen;
   private final int readBufSize;
   private final HashAlgorithm hashAlg;
@@ -170,7 +222,16 @@ public class DefaultConnectionFactory extends SpyObject implements
       int bufSize) {
 
     OperationFactory of = getOperationFactory();
-    if (of instanceof AsciiOperationFactory) {
+    if (of instanceof MetaOperationFactory) {
+      return new MetaMemcachedNodeImpl(sa, c, bufSize,
+          createReadOperationQueue(),
+          createWriteOperationQueue(),
+          createOperationQueue(),
+          getOpQueueMaxBlockTime(),
+          getOperationTimeout(),
+          getAuthWaitTime(),
+          this);
+    } else if (of instanceof AsciiOperationFactory) {
       return new AsciiMemcachedNodeImpl(sa, c, bufSize,
           createReadOperationQueue(),
           createWriteOperationQueue(),
@@ -278,6 +339,140 @@ public class DefaultConnectionFactory extends SpyObject implements
     return DEFAULT_AUTH_WAIT_TIME;
   }
 
+  /**
+   * @return the number of selector loops the nodes are split across.
+   */
+  @Override
+  public int getIOThreadCount() {
+    return DEFAULT_IO_THREAD_COUNT;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useGatheringWrites()
+   */
+  @Override
+  public boolean useGatheringWrites() {
+    return false;
+  }
+
+  /**
+   * @return the near cache budget in bytes, 0 when disabled.
+   */
+  @Override
+  public long getNearCacheMaxBytes() {
+    return DEFAULT_NEAR_CACHE_MAX_BYTES;
+  }
+
+  /**
+   * @return how long, in milliseconds, near cache entries may be served.
+   */
+  @Override
+  public long getNearCacheTTL() {
+    return DEFAULT_NEAR_CACHE_TTL;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#shouldCoalesceGets()
+   */
+  @Override
+  public boolean shouldCoalesceGets() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getOperationTimeoutTick()
+   */
+  @Override
+  public long getOperationTimeoutTick() {
+    return DEFAULT_OPERATION_TIMEOUT_TICK;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionsPerNode()
+   */
+  @Override
+  public int getConnectionsPerNode() {
+    return DEFAULT_CONNECTIONS_PER_NODE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionSelection()
+   */
+  @Override
+  public PooledMemcachedNode.Selection getConnectionSelection() {
+    return DEFAULT_CONNECTION_SELECTION;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useAsciiNoReply()
+   */
+  @Override
+  public boolean useAsciiNoReply() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useNoReplyFence()
+   */
+  @Override
+  public boolean useNoReplyFence() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getEarlyRefreshBeta()
+   */
+  @Override
+  public double getEarlyRefreshBeta() {
+    return DEFAULT_EARLY_REFRESH_BETA;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getHotKeySampling()
+   */
+  @Override
+  public int getHotKeySampling() {
+    return DEFAULT_HOT_KEY_SAMPLING;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getHotKeyReplicas()
+   */
+  @Override
+  public int getHotKeyReplicas() {
+    return DEFAULT_HOT_KEY_REPLICAS;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getOperationTracer()
+   */
+  @Override
+  public OperationTracer getOperationTracer() {
+    return null;
+  }
+
   /**
    * Returns the stored {@link ExecutorService} for listeners.
    *
@@ -340,7 +535,7 @@ public class DefaultConnectionFactory extends SpyObject implements
    * @see net.spy.memcached.ConnectionFactory#getOperationFactory()
    */
   public OperationFactory getOperationFactory() {
-    return new AsciiOperationFactory();
+    return new AsciiOperationFactory(useAsciiNoReply());
   }
 
   /*
@@ -470,9 +665,23 @@ public class DefaultConnectionFactory extends SpyObject implements
       + ", Op Queue Length: " + getOpQueueLen() + ", Op Max Queue Block Time"
       + getOpQueueMaxBlockTime() + ", Max Timeout Exception Threshold: "
       + getTimeoutExceptionThreshold() + ", Read Buffer Size: "
-      + getReadBufSize() + ", Transcoder: " + getDefaultTranscoder()
+      + getReadBufSize() + ", IO Threads: " + getIOThreadCount()
+      + ", Transcoder: " + getDefaultTranscoder()
       + ", Operation Factory: " + getOperationFactory() + " isDaemon: "
       + isDaemon() + ", Optimized: " + shouldOptimize() + ", Using Nagle: "
-      + useNagleAlgorithm() + ", ConnectionFactory: " + getName();
+      + useNagleAlgorithm() + ", Gathering Writes: " + useGatheringWrites()
+      + ", Near Cache Max Bytes: " + getNearCacheMaxBytes()
+      + ", Near Cache TTL: " + getNearCacheTTL()
+      + ", Coalesce Gets: " + shouldCoalesceGets()
+      + ", Operation Timeout Tick: " + getOperationTimeoutTick()
+      + ", Connections Per Node: " + getConnectionsPerNode()
+      + ", Connection Selection: " + getConnectionSelection()
+      + ", Ascii No Reply: " + useAsciiNoReply()
+      + ", No Reply Fence: " + useNoReplyFence()
+      + ", Early Refresh Beta: " + getEarlyRefreshBeta()
+      + ", Hot Key Sampling: " + getHotKeySampling()
+      + ", Hot Key Replicas: " + getHotKeyReplicas()
+      + ", Operation Tracer: " + getOperationTracer()
+      + ", ConnectionFactory: " + getName();
   }
 }
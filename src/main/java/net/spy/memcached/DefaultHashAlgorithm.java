@@ -161,4 +161,17 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
     md5.update(KeyUtil.getKeyBytes(k));
     return md5.digest();
   }
+
+  /**
+   * Spread the bits of a (possibly 32-bit) hash over 64 bits using the
+   * MurmurHash3 finalizer.
+   */
+  static long mix64(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
 }
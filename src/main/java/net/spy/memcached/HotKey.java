@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * A frequently used key, as estimated by sampling operations.
+ */
+public final class HotKey {
+
+  private final String key;
+  private final String node;
+  private final double rate;
+
+  /**
+   * Create a hot key.
+   *
+   * @param key the key
+   * @param node the address of the node the key was sent to
+   * @param rate the estimated number of operations per second on the key
+   */
+  public HotKey(String key, String node, double rate) {
+    this.key = key;
+    this.node = node;
+    this.rate = rate;
+  }
+
+  /**
+   * Get the key.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the address of the node the key was sent to.
+   */
+  public String getNode() {
+    return node;
+  }
+
+  /**
+   * Get the estimated number of operations per second on the key.
+   */
+  public double getRate() {
+    return rate;
+  }
+
+  @Override
+  public String toString() {
+    return "{HotKey key=" + key + ", node=" + node + ", rate=" + rate + "}";
+  }
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.ConcatenationOperation;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Copies hot keys to several nodes and spreads their reads.
+ *
+ * A replicated key lives on its primary node and the next distinct nodes of
+ * its {@link NodeLocator#getSequence(String) sequence}. Keys are replicated
+ * when marked with {@link #setReplicas(String, int)}, or while a
+ * {@link HotKeyTracker} finds them hot.
+ *
+ * Plain gets go to a random replica, but only to one known to hold the key:
+ * a replica is filled when a set written through to it succeeded, or when
+ * a copy was added to it from the primary, and emptied again by every other
+ * write. A get picking a replica which isn't filled is answered by the
+ * primary, while the value is copied from the primary to the replica in the
+ * background for at most {@link #REPAIR_EXPIRATION} seconds. A get is always
+ * sent as is, so cancelling it, its errors and its timeouts behave as for
+ * any other get. Sets are sent to all replicas, every other write goes to
+ * the primary and deletes the key from the other replicas so they cannot
+ * serve stale values. This also holds when the failure mode redistributes a
+ * write off an inactive primary, while reads then simply go where they were
+ * redistributed. Writes of bulk mutations, which are sent per node instead
+ * of per key, delete their keys from the other replicas the same way. Keys
+ * which stop being replicated are deleted from their replicas as well. All other operations, including gets with CAS values,
+ * only go to the primary.
+ */
+final class HotKeyReplicator extends SpyObject
+    implements HotKeyTracker.Listener {
+
+  /**
+   * Expiration, in seconds, of values copied to a replica after it missed.
+   * This bounds how long a copy outlives the value on the primary.
+   */
+  static final int REPAIR_EXPIRATION = 30;
+
+  private static final Ignore IGNORE = new Ignore();
+
+  private static final long FILLING = 0;
+
+  private final MemcachedConnection conn;
+  private final OperationFactory opFact;
+  private final HotKeyTracker tracker;
+  private final int hotReplicas;
+  private final ConcurrentMap<String, Replicas> keys =
+      new ConcurrentHashMap<String, Replicas>();
+
+  /**
+   * Create a replicator.
+   *
+   * @param conn the connection to send operations through
+   * @param opFact the factory creating the replica operations
+   * @param tracker the tracker finding hot keys, or null to only replicate
+   *          marked keys
+   * @param hotReplicas the number of nodes hot keys are kept on
+   */
+  HotKeyReplicator(MemcachedConnection conn, OperationFactory opFact,
+      HotKeyTracker tracker, int hotReplicas) {
+    this.conn = conn;
+    this.opFact = opFact;
+    this.tracker = tracker;
+    this.hotReplicas = hotReplicas;
+    if (tracker != null) {
+      tracker.setListener(this);
+    }
+  }
+
+  /**
+   * Set the number of nodes a key is kept on.
+   *
+   * @param key the key
+   * @param count the number of nodes, 1 or less stops replicating the key
+   */
+  void setReplicas(String key, int count) {
+    Replicas old = count > 1 ? keys.put(key, new Replicas(count, true))
+        : keys.remove(key);
+    if (old != null) {
+      invalidate(key, old, null);
+    }
+  }
+
+  /**
+   * Send an operation to the replicas of its key.
+   *
+   * <p>Writes keep the replicas in sync even if the failure mode moved them
+   * off the primary, reads are only spread while the primary is used.</p>
+   *
+   * @param key the key of the operation
+   * @param primary the primary node of the key
+   * @param placeIn the node the operation was placed on
+   * @param o the operation
+   * @return false if the key is not replicated or the operation should just
+   *         be sent to placeIn by the caller
+   */
+  boolean route(String key, MemcachedNode primary, MemcachedNode placeIn,
+      Operation o) {
+    if (tracker == null && keys.isEmpty()) {
+      return false;
+    }
+    Replicas r = keys.get(key);
+    if (r == null) {
+      if (tracker == null || !tracker.isHot(key, primary)) {
+        return false;
+      }
+      r = new Replicas(hotReplicas, false);
+      Replicas existing = keys.putIfAbsent(key, r);
+      if (existing != null) {
+        r = existing;
+      }
+    }
+    List<MemcachedNode> nodes = r.resolve(key, primary);
+    if (nodes.size() < 2) {
+      return false;
+    }
+    if (o instanceof GetOperation) {
+      return placeIn == primary && read(key, r, (GetOperation) o);
+    }
+    if (o instanceof StoreOperation
+        && ((StoreOperation) o).getStoreType() == StoreType.set) {
+      StoreOperation so = (StoreOperation) o;
+      conn.addOperation(placeIn, o);
+      for (int i = 1; i < nodes.size(); i++) {
+        if (nodes.get(i) != placeIn) {
+          conn.addOperation(nodes.get(i), opFact.store(StoreType.set, key,
+              so.getFlags(), so.getExpiration(), so.getData(),
+              new Fill(r, nodes.get(i), expiry(so.getExpiration()))));
+        }
+      }
+      return true;
+    }
+    if (o instanceof StoreOperation || o instanceof CASOperation
+        || o instanceof ConcatenationOperation
+        || o instanceof MutatorOperation || o instanceof DeleteOperation
+        || o instanceof TouchOperation
+        || o instanceof GetAndTouchOperation) {
+      conn.addOperation(placeIn, o);
+      invalidate(key, r, placeIn);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Keep the replicas of a key in sync with a write which was sent to a node
+   * without going through {@link #route}.
+   *
+   * @param key the key written
+   * @param placeIn the node the write was sent to
+   */
+  void written(String key, MemcachedNode placeIn) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    Replicas r = keys.get(key);
+    if (r != null && r.resolve(key, conn.getLocator().getPrimary(key))
+        .size() > 1) {
+      invalidate(key, r, placeIn);
+    }
+  }
+
+  @Override
+  public void cooled(String key, MemcachedNode node) {
+    Replicas r = keys.get(key);
+    if (r != null && !r.marked && keys.remove(key, r)) {
+      invalidate(key, r, null);
+    }
+  }
+
+  /**
+   * Send a get to a random replica holding the key, or start copying the
+   * key to the replica and leave the get to the primary.
+   */
+  private boolean read(String key, Replicas r, GetOperation o) {
+    List<MemcachedNode> nodes = r.nodes;
+    int i = ThreadLocalRandom.current().nextInt(nodes.size());
+    MemcachedNode replica = nodes.get(i);
+    if (i == 0 || !replica.isActive()) {
+      return false;
+    }
+    Long expiry = r.filled.get(replica);
+    long now = System.currentTimeMillis();
+    if (expiry != null && expiry > now) {
+      conn.addOperation(replica, o);
+      return true;
+    }
+    if (expiry == null ? r.filled.putIfAbsent(replica, FILLING) == null
+        : expiry != FILLING && r.filled.replace(replica, expiry, FILLING)) {
+      conn.addOperation(nodes.get(0), opFact.get(key,
+          new Repair(r, replica)));
+    }
+    return false;
+  }
+
+  private void invalidate(String key, Replicas r, MemcachedNode skip) {
+    r.generation.incrementAndGet();
+    List<MemcachedNode> nodes = r.nodes;
+    for (int i = 1; i < nodes.size(); i++) {
+      if (nodes.get(i) != skip) {
+        r.filled.remove(nodes.get(i));
+        conn.addOperation(nodes.get(i), opFact.delete(key, IGNORE));
+      }
+    }
+  }
+
+  /**
+   * The time in milliseconds a value stored with the given expiration
+   * expires at.
+   */
+  private static long expiry(int exp) {
+    if (exp == 0) {
+      return Long.MAX_VALUE;
+    }
+    // memcached takes anything above 30 days for an absolute time.
+    return exp > 60 * 60 * 24 * 30 ? exp * 1000L
+        : System.currentTimeMillis() + exp * 1000L;
+  }
+
+  /**
+   * The nodes a key is kept on, the primary first.
+   */
+  private final class Replicas {
+    private final int count;
+    private final boolean marked;
+    private volatile List<MemcachedNode> nodes = Collections.emptyList();
+
+    /**
+     * When the copy on each replica known to hold the key expires, or
+     * {@link #FILLING} while a copy is added.
+     */
+    private final ConcurrentMap<MemcachedNode, Long> filled =
+        new ConcurrentHashMap<MemcachedNode, Long>();
+
+    /**
+     * Counts the invalidations, copies stored before the last one are
+     * gone.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    Replicas(int count, boolean marked) {
+      this.count = count;
+      this.marked = marked;
+    }
+
+    List<MemcachedNode> resolve(String key, MemcachedNode primary) {
+      List<MemcachedNode> rv = nodes;
+      if (rv.isEmpty()) {
+        rv = new ArrayList<MemcachedNode>(count);
+        rv.add(primary);
+        Iterator<MemcachedNode> i = conn.getLocator().getSequence(key);
+        while (rv.size() < count && i.hasNext()) {
+          MemcachedNode n = i.next();
+          if (!rv.contains(n)) {
+            rv.add(n);
+          }
+        }
+        nodes = rv;
+      }
+      return rv;
+    }
+  }
+
+  /**
+   * Copies a value from the primary to a replica.
+   */
+  private final class Repair implements GetOperation.Callback {
+    private final Replicas r;
+    private final MemcachedNode replica;
+    private final Fill fill;
+    private boolean found;
+
+    Repair(Replicas r, MemcachedNode replica) {
+      this.r = r;
+      this.replica = replica;
+      fill = new Fill(r, replica, expiry(REPAIR_EXPIRATION));
+    }
+
+    @Override
+    public void gotData(String k, int flags, byte[] data) {
+      found = true;
+      conn.addOperation(replica, opFact.store(StoreType.add, k, flags,
+          REPAIR_EXPIRATION, data, fill));
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus s) {
+      // only the value matters
+    }
+
+    @Override
+    public void complete() {
+      if (!found) {
+        r.filled.remove(replica, FILLING);
+      }
+    }
+  }
+
+  /**
+   * Marks a replica filled once a copy was stored on it.
+   */
+  private static final class Fill implements StoreOperation.Callback {
+    private final Replicas r;
+    private final MemcachedNode replica;
+    private final long expiry;
+    private final int generation;
+    private boolean stored;
+
+    Fill(Replicas r, MemcachedNode replica, long expiry) {
+      this.r = r;
+      this.replica = replica;
+      this.expiry = expiry;
+      generation = r.generation.get();
+    }
+
+    @Override
+    public void gotData(String key, long cas) {
+      // ignored
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus status) {
+      // An add which didn't store found a copy there already.
+      stored = status.isSuccess()
+          || status.getStatusCode() == StatusCode.ERR_NOT_STORED;
+    }
+
+    @Override
+    public void complete() {
+      if (!stored || r.generation.get() != generation) {
+        r.filled.remove(replica, FILLING);
+        return;
+      }
+      r.filled.put(replica, expiry);
+      // Invalidated in the meantime, the copy may be deleted already.
+      if (r.generation.get() != generation) {
+        r.filled.remove(replica, expiry);
+      }
+    }
+  }
+
+  /**
+   * Callback of the operations keeping replicas in sync, which nobody waits
+   * for.
+   */
+  private static final class Ignore implements StoreOperation.Callback,
+      DeleteOperation.Callback {
+    @Override
+    public void gotData(String key, long cas) {
+      // ignored
+    }
+
+    @Override
+    public void gotData(long cas) {
+      // ignored
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus status) {
+      // ignored
+    }
+
+    @Override
+    public void complete() {
+      // ignored
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.util.CountMinSketch;
+
+/**
+ * Tracks the hottest keys of each node by sampling keyed operations.
+ *
+ * One in {@link #getSampling()} operations is counted in a count-min sketch
+ * of the node it was sent to, next to a small heap of the keys with the
+ * highest estimates. Both are reset at the end of every window, turning the
+ * heap into the hottest keys of that window with their estimated rate.
+ * Operations that are not sampled only cost a thread local random number,
+ * sampled ones take a lock on their node only.
+ *
+ * The hottest keys are available from {@link #getHotKeys()}, over JMX, and
+ * the rate of the hottest key of every node is reported to the
+ * {@link MetricCollector} at the end of each window. Of these, only keys
+ * reaching both a minimum rate and a minimum share of the operations of
+ * their node are {@link #isHot(String, MemcachedNode) hot}, so a quiet node
+ * or a node with evenly spread keys has none. A {@link Listener} is told
+ * about keys which were hot in a window but no longer in the next.
+ */
+public final class HotKeyTracker extends SpyObject implements HotKeysMXBean {
+
+  /**
+   * Histogram updated with the rate of the hottest key of each node, in
+   * operations per second, whenever a window ends.
+   */
+  public static final String HOTTEST_KEY_RATE_METRIC =
+      "[MEM] Hottest Key Rate (ops/s)";
+
+  /**
+   * Prefix of the JMX object names the trackers are registered under.
+   */
+  public static final String OBJECT_NAME_PREFIX =
+      "net.spy.memcached:type=HotKeys,name=";
+
+  /**
+   * Default number of keys kept for each node.
+   */
+  public static final int DEFAULT_TOP_KEYS = 10;
+
+  /**
+   * Default length of a window, in milliseconds.
+   */
+  public static final long DEFAULT_WINDOW = 10000;
+
+  /**
+   * Default rate, in operations per second, a key needs to be hot.
+   */
+  public static final double DEFAULT_MIN_RATE = 100;
+
+  /**
+   * Default share of the operations of its node a key needs to be hot.
+   */
+  public static final double DEFAULT_MIN_SHARE = 0.05;
+
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1024;
+  private static final AtomicInteger IDS = new AtomicInteger();
+
+  private final int sampling;
+  private final int topKeys;
+  private final long windowNanos;
+  private final double minRate;
+  private final double minShare;
+  private final HistogramHandle hottestRate;
+  private final ConcurrentMap<MemcachedNode, NodeKeys> nodes =
+      new ConcurrentHashMap<MemcachedNode, NodeKeys>();
+  private volatile ObjectName objectName;
+  private volatile Listener listener;
+
+  /**
+   * Create a tracker with the default number of keys and window.
+   *
+   * @param sampling sample one in this many operations
+   * @param metrics the collector to report the hottest rates to
+   */
+  public HotKeyTracker(int sampling, MetricCollector metrics) {
+    this(sampling, DEFAULT_TOP_KEYS, DEFAULT_WINDOW, metrics);
+  }
+
+  /**
+   * Create a tracker.
+   *
+   * @param sampling sample one in this many operations
+   * @param topKeys the number of keys to keep for each node
+   * @param window the length of a window, in milliseconds
+   * @param metrics the collector to report the hottest rates to
+   */
+  public HotKeyTracker(int sampling, int topKeys, long window,
+      MetricCollector metrics) {
+    this(sampling, topKeys, window, DEFAULT_MIN_RATE, DEFAULT_MIN_SHARE,
+        metrics);
+  }
+
+  /**
+   * Create a tracker.
+   *
+   * @param sampling sample one in this many operations
+   * @param topKeys the number of keys to keep for each node
+   * @param window the length of a window, in milliseconds
+   * @param minRate the rate, in operations per second, a key needs to be hot
+   * @param minShare the share of the operations of its node, between 0 and
+   *          1, a key needs to be hot
+   * @param metrics the collector to report the hottest rates to
+   */
+  public HotKeyTracker(int sampling, int topKeys, long window,
+      double minRate, double minShare, MetricCollector metrics) {
+    if (sampling < 1) {
+      throw new IllegalArgumentException("Invalid sampling: " + sampling);
+    }
+    if (topKeys < 1) {
+      throw new IllegalArgumentException("Invalid number of keys: "
+          + topKeys);
+    }
+    if (window <= 0) {
+      throw new IllegalArgumentException("Invalid window: " + window);
+    }
+    if (minRate < 0) {
+      throw new IllegalArgumentException("Invalid rate: " + minRate);
+    }
+    if (minShare < 0 || minShare > 1) {
+      throw new IllegalArgumentException("Invalid share: " + minShare);
+    }
+    this.sampling = sampling;
+    this.topKeys = topKeys;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+    this.minRate = minRate;
+    this.minShare = minShare;
+    hottestRate = metrics.getHistogram(HOTTEST_KEY_RATE_METRIC);
+  }
+
+  /**
+   * Possibly count an operation on the given key.
+   *
+   * @param key the key of the operation
+   * @param node the node the operation is sent to
+   */
+  public void sample(String key, MemcachedNode node) {
+    if (sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0) {
+      record(key, node, System.nanoTime());
+    }
+  }
+
+  void record(String key, MemcachedNode node, long now) {
+    NodeKeys keys = nodes.get(node);
+    if (keys == null) {
+      keys = new NodeKeys(node, now);
+      NodeKeys existing = nodes.putIfAbsent(node, keys);
+      if (existing != null) {
+        keys = existing;
+      }
+    }
+    notify(keys.add(key, now), node);
+  }
+
+  /**
+   * Check if a key was among the hottest keys of its node in the last
+   * completed window, with at least the minimum rate and share.
+   *
+   * @param key the key to check
+   * @param node the node the key belongs to
+   * @return true if the key is hot
+   */
+  public boolean isHot(String key, MemcachedNode node) {
+    NodeKeys keys = nodes.get(node);
+    return keys != null && keys.hot.contains(key);
+  }
+
+  /**
+   * Set the listener told about keys which are no longer hot.
+   *
+   * @param l the listener, or null
+   */
+  public void setListener(Listener l) {
+    listener = l;
+  }
+
+  private void notify(List<String> cooled, MemcachedNode node) {
+    Listener l = listener;
+    if (cooled == null || l == null) {
+      return;
+    }
+    for (String key : cooled) {
+      l.cooled(key, node);
+    }
+  }
+
+  @Override
+  public List<HotKey> getHotKeys() {
+    return getHotKeys(System.nanoTime());
+  }
+
+  List<HotKey> getHotKeys(long now) {
+    List<HotKey> rv = new ArrayList<HotKey>();
+    for (Map.Entry<MemcachedNode, NodeKeys> e : nodes.entrySet()) {
+      NodeKeys keys = e.getValue();
+      notify(keys.roll(now), e.getKey());
+      rv.addAll(keys.last);
+    }
+    Collections.sort(rv, BY_RATE);
+    return rv;
+  }
+
+  @Override
+  public int getSampling() {
+    return sampling;
+  }
+
+  /**
+   * Register this tracker with the platform MBean server.
+   */
+  public void register() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME_PREFIX
+          + IDS.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    } catch (JMException e) {
+      getLogger().warn("Could not register hot key tracker", e);
+    }
+  }
+
+  /**
+   * Unregister this tracker from the platform MBean server.
+   */
+  public void unregister() {
+    ObjectName name = objectName;
+    if (name == null) {
+      return;
+    }
+    objectName = null;
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(name);
+    } catch (JMException e) {
+      getLogger().warn("Could not unregister hot key tracker", e);
+    }
+  }
+
+  /**
+   * Get the name this tracker is registered under.
+   *
+   * @return the name, or null if it is not registered
+   */
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+
+  private static final Comparator<HotKey> BY_RATE = new Comparator<HotKey>() {
+    @Override
+    public int compare(HotKey a, HotKey b) {
+      return Double.compare(b.getRate(), a.getRate());
+    }
+  };
+
+  private static final Comparator<Counted> BY_COUNT =
+      new Comparator<Counted>() {
+        @Override
+        public int compare(Counted a, Counted b) {
+          return a.count < b.count ? -1 : (a.count == b.count ? 0 : 1);
+        }
+      };
+
+  /**
+   * Told about keys which were hot in a window but no longer in the next.
+   */
+  public interface Listener {
+
+    /**
+     * Called once a key is no longer hot, never while a lock is held.
+     *
+     * @param key the key
+     * @param node the node the key belongs to
+     */
+    void cooled(String key, MemcachedNode node);
+  }
+
+  private static final class Counted {
+    private final String key;
+    private int count;
+
+    Counted(String key, int count) {
+      this.key = key;
+      this.count = count;
+    }
+  }
+
+  /**
+   * The sketch and heaviest keys of one node in the current window.
+   */
+  private final class NodeKeys {
+    private final String address;
+    private final CountMinSketch sketch =
+        new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final Map<String, Counted> counted =
+        new HashMap<String, Counted>();
+    private final PriorityQueue<Counted> heap =
+        new PriorityQueue<Counted>(topKeys, BY_COUNT);
+    private long windowStart;
+    private int total;
+    private volatile List<HotKey> last = Collections.emptyList();
+    private volatile Set<String> hot = Collections.emptySet();
+
+    NodeKeys(MemcachedNode node, long now) {
+      address = String.valueOf(node.getSocketAddress());
+      windowStart = now;
+    }
+
+    /**
+     * Count a key, returning the keys which cooled down if this ended the
+     * window.
+     */
+    synchronized List<String> add(String key, long now) {
+      List<String> cooled = roll(now);
+      total++;
+      int estimate = sketch.add(key);
+      Counted c = counted.get(key);
+      if (c != null) {
+        heap.remove(c);
+        c.count = estimate;
+        heap.add(c);
+      } else if (heap.size() < topKeys) {
+        c = new Counted(key, estimate);
+        counted.put(key, c);
+        heap.add(c);
+      } else if (estimate > heap.peek().count) {
+        counted.remove(heap.poll().key);
+        c = new Counted(key, estimate);
+        counted.put(key, c);
+        heap.add(c);
+      }
+      return cooled;
+    }
+
+    /**
+     * End the window if it is over, returning the keys which were hot in
+     * the previous window but not in this one, or null if it is not over.
+     */
+    synchronized List<String> roll(long now) {
+      long elapsed = now - windowStart;
+      if (elapsed < windowNanos) {
+        return null;
+      }
+      double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+      List<HotKey> keys = new ArrayList<HotKey>(heap.size());
+      Set<String> nowHot = new HashSet<String>();
+      for (Counted c : heap) {
+        double rate = c.count * (double) sampling / seconds;
+        keys.add(new HotKey(c.key, address, rate));
+        if (rate >= minRate && c.count >= minShare * total) {
+          nowHot.add(c.key);
+        }
+      }
+      Collections.sort(keys, BY_RATE);
+      if (!keys.isEmpty()) {
+        hottestRate.update((int) Math.min(Integer.MAX_VALUE,
+            keys.get(0).getRate()));
+      }
+      List<String> cooled = new ArrayList<String>();
+      for (String key : hot) {
+        if (!nowHot.contains(key)) {
+          cooled.add(key);
+        }
+      }
+      last = Collections.unmodifiableList(keys);
+      hot = nowHot;
+      sketch.clear();
+      counted.clear();
+      heap.clear();
+      total = 0;
+      windowStart = now;
+      return cooled;
+    }
+  }
+}
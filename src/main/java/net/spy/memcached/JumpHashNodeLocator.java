@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * NodeLocator implementation based on Lamping and Veach's Jump Consistent
+ * Hash.
+ *
+ * <p>
+ * Jump hash needs no continuum and no per-node memory: the bucket for a key is
+ * computed in O(log n) from the key's hash alone. When a node is appended to
+ * the end of the node list only about 1/(n+1) of the keys move, and all of
+ * them move onto the new node; removing the last node likewise only moves the
+ * keys that lived on it. Removing a node from the middle of the list shifts
+ * every node after it, so this locator is best suited to server lists that
+ * only grow or shrink at the tail.
+ * </p>
+ *
+ * <p>
+ * The failover sequence for a key visits every other node exactly once. Each
+ * step re-seeds the key and jumps over the nodes that have not been returned
+ * yet, so the order is deterministic per key and spreads the load of a failed
+ * node evenly over the survivors.
+ * </p>
+ */
+public final class JumpHashNodeLocator implements NodeLocator {
+
+  private static final long JUMP_MULTIPLIER = 2862933555777941757L;
+  private static final long RESEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+  private final HashAlgorithm hashAlg;
+
+  private volatile MemcachedNode[] nodes;
+
+  /**
+   * Construct a JumpHashNodeLocator over the given list of nodes and using the
+   * given hash algorithm.
+   *
+   * @param n the list of nodes
+   * @param alg the hash algorithm
+   */
+  public JumpHashNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
+    super();
+    nodes = n.toArray(new MemcachedNode[n.size()]);
+    hashAlg = alg;
+  }
+
+  private JumpHashNodeLocator(MemcachedNode[] n, HashAlgorithm alg) {
+    super();
+    nodes = n;
+    hashAlg = alg;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Arrays.asList(nodes);
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    MemcachedNode[] n = nodes;
+    return n[jump(hashAlg.hash(k), n.length)];
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    MemcachedNode[] n = nodes;
+    long hash = hashAlg.hash(k);
+    return new NodeIterator(n, hash, jump(hash, n.length));
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    MemcachedNode[] current = nodes;
+    MemcachedNode[] n = new MemcachedNode[current.length];
+    for (int i = 0; i < current.length; i++) {
+      n[i] = new MemcachedNodeROImpl(current[i]);
+    }
+    return new JumpHashNodeLocator(n, hashAlg);
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> newNodes) {
+    this.nodes = newNodes.toArray(new MemcachedNode[newNodes.size()]);
+  }
+
+  /**
+   * Map a key hash onto one of the given number of buckets.
+   *
+   * @param key the hash of the key
+   * @param buckets the number of buckets, must be positive
+   * @return a bucket in the range [0, buckets)
+   */
+  static int jump(long key, int buckets) {
+    long b = -1;
+    long j = 0;
+    while (j < buckets) {
+      b = j;
+      key = key * JUMP_MULTIPLIER + 1;
+      j = (long) ((b + 1) * ((double) (1L << 31)
+          / (double) ((key >>> 33) + 1)));
+    }
+    assert b >= 0 && b < buckets : "Invalid bucket " + b + " of " + buckets;
+    return (int) b;
+  }
+
+  static class NodeIterator implements Iterator<MemcachedNode> {
+
+    private final MemcachedNode[] nodes;
+    private final long hash;
+    private final int start;
+    private int[] remaining;
+    private int left;
+    private int step = 0;
+
+    NodeIterator(MemcachedNode[] n, long keyHash, int primary) {
+      nodes = n;
+      hash = keyHash;
+      start = primary;
+      left = n.length - 1;
+    }
+
+    public boolean hasNext() {
+      return left > 0;
+    }
+
+    public MemcachedNode next() {
+      if (left <= 0) {
+        throw new NoSuchElementException();
+      }
+      if (remaining == null) {
+        remaining = new int[left];
+        for (int i = 0, r = 0; i < nodes.length; i++) {
+          if (i != start) {
+            remaining[r++] = i;
+          }
+        }
+      }
+      step++;
+      // Re-seeding through a finalizer keeps each step independent of the
+      // previous ones; a plain offset would correlate with the primary.
+      long seed = DefaultHashAlgorithm.mix64(hash + step * RESEED_INCREMENT);
+      int pick = jump(seed, left);
+      int rv = remaining[pick];
+      // Keep the surviving candidates in list order so the sequence stays
+      // stable for nodes appended at the tail.
+      System.arraycopy(remaining, pick + 1, remaining, pick, left - pick - 1);
+      left--;
+      return nodes[rv];
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove a node");
+    }
+  }
+}
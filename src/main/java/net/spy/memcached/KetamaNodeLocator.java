@@ -29,12 +29,13 @@ import net.spy.memcached.util.KetamaNodeLocatorConfiguration;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
@@ -49,7 +50,7 @@ import java.util.TreeMap;
  */
 public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 
-  private volatile TreeMap<Long, MemcachedNode> ketamaNodes;
+  private volatile Continuum continuum;
   private volatile Collection<MemcachedNode> allNodes;
 
   private final HashAlgorithm hashAlg;
@@ -128,12 +129,12 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
     setKetamaNodes(nodes);
   }
 
-  private KetamaNodeLocator(TreeMap<Long, MemcachedNode> smn,
+  private KetamaNodeLocator(Continuum c,
       Collection<MemcachedNode> an, HashAlgorithm alg,
       Map<InetSocketAddress, Integer> nodeWeights,
       KetamaNodeLocatorConfiguration conf) {
     super();
-    ketamaNodes = smn;
+    continuum = c;
     allNodes = an;
     hashAlg = alg;
     config = conf;
@@ -152,48 +153,45 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
   }
 
   long getMaxKey() {
-    return getKetamaNodes().lastKey();
+    long[] points = continuum.points;
+    return points[points.length - 1];
   }
 
   MemcachedNode getNodeForKey(long hash) {
-    final MemcachedNode rv;
-    if (!ketamaNodes.containsKey(hash)) {
-      // Java 1.6 adds a ceilingKey method, but I'm still stuck in 1.5
-      // in a lot of places, so I'm doing this myself.
-      SortedMap<Long, MemcachedNode> tailMap = getKetamaNodes().tailMap(hash);
-      if (tailMap.isEmpty()) {
-        hash = getKetamaNodes().firstKey();
-      } else {
-        hash = tailMap.firstKey();
-      }
-    }
-    rv = getKetamaNodes().get(hash);
-    return rv;
+    return continuum.getNodeForKey(hash);
   }
 
   public Iterator<MemcachedNode> getSequence(String k) {
     // Seven searches gives us a 1 in 2^7 chance of hitting the
     // same dead node all of the time.
-    return new KetamaIterator(k, 7, getKetamaNodes(), hashAlg);
+    return new KetamaIterator(k, 7, continuum, hashAlg);
   }
 
   public NodeLocator getReadonlyCopy() {
-    TreeMap<Long, MemcachedNode> smn =
-        new TreeMap<Long, MemcachedNode>(getKetamaNodes());
-    Collection<MemcachedNode> an =
-        new ArrayList<MemcachedNode>(allNodes.size());
+    Continuum c = continuum;
+    Map<MemcachedNode, MemcachedNode> readonly =
+        new IdentityHashMap<MemcachedNode, MemcachedNode>();
+    MemcachedNode[] nodes = new MemcachedNode[c.nodes.length];
 
-    // Rewrite the values a copy of the map.
-    for (Map.Entry<Long, MemcachedNode> me : smn.entrySet()) {
-      smn.put(me.getKey(), new MemcachedNodeROImpl(me.getValue()));
+    // Share one read-only view per node across all of its points.
+    for (int i = 0; i < nodes.length; i++) {
+      MemcachedNode ro = readonly.get(c.nodes[i]);
+      if (ro == null) {
+        ro = new MemcachedNodeROImpl(c.nodes[i]);
+        readonly.put(c.nodes[i], ro);
+      }
+      nodes[i] = ro;
     }
 
     // Copy the allNodes collection.
+    Collection<MemcachedNode> an =
+        new ArrayList<MemcachedNode>(allNodes.size());
     for (MemcachedNode n : allNodes) {
       an.add(new MemcachedNodeROImpl(n));
     }
 
-    return new KetamaNodeLocator(smn, an, hashAlg, weights, config);
+    return new KetamaNodeLocator(new Continuum(c.points, nodes), an, hashAlg,
+        weights, config);
   }
 
   @Override
@@ -203,10 +201,15 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
   }
 
   /**
-   * @return the ketamaNodes
+   * @return a copy of the continuum as a map from point to node
    */
   protected TreeMap<Long, MemcachedNode> getKetamaNodes() {
-    return ketamaNodes;
+    Continuum c = continuum;
+    TreeMap<Long, MemcachedNode> rv = new TreeMap<Long, MemcachedNode>();
+    for (int i = 0; i < c.points.length; i++) {
+      rv.put(c.points[i], c.nodes[i]);
+    }
+    return rv;
   }
 
   /**
@@ -260,7 +263,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
       }
     }
     assert newNodeMap.size() == numReps * nodes.size();
-    ketamaNodes = newNodeMap;
+    continuum = new Continuum(newNodeMap);
   }
 
   private List<Long> ketamaNodePositionsAtIteration(MemcachedNode node, int iteration) {
@@ -275,4 +278,50 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
       }
       return positions;
   }
+
+  /**
+   * The points of the continuum in ascending order along with the node each
+   * of them maps to.
+   *
+   * Instances are never modified, so a locator update only has to swap the
+   * reference to become visible to all readers at once.
+   */
+  static final class Continuum {
+    private final long[] points;
+    private final MemcachedNode[] nodes;
+
+    Continuum(TreeMap<Long, MemcachedNode> map) {
+      points = new long[map.size()];
+      nodes = new MemcachedNode[map.size()];
+      int i = 0;
+      for (Map.Entry<Long, MemcachedNode> me : map.entrySet()) {
+        points[i] = me.getKey();
+        nodes[i] = me.getValue();
+        i++;
+      }
+    }
+
+    private Continuum(long[] p, MemcachedNode[] n) {
+      points = p;
+      nodes = n;
+    }
+
+    /**
+     * Find the node owning the first point at or after the given hash,
+     * wrapping around to the first point at the end of the continuum.
+     */
+    MemcachedNode getNodeForKey(long hash) {
+      if (points.length == 0) {
+        return null;
+      }
+      int i = Arrays.binarySearch(points, hash);
+      if (i < 0) {
+        i = -i - 1;
+        if (i == points.length) {
+          i = 0;
+        }
+      }
+      return nodes[i];
+    }
+  }
 }
@@ -28,9 +28,14 @@ import net.spy.memcached.auth.AuthThreadMonitor;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.BulkGetSubscriber;
+import net.spy.memcached.internal.BulkGetSubscription;
 import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletableFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.ConcatenationType;
@@ -38,6 +43,7 @@ import net.spy.memcached.ops.DeleteOperation;
 import net.spy.memcached.ops.GetAndTouchOperation;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.MetaGetOperation;
 import net.spy.memcached.ops.Mutator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
@@ -48,7 +54,9 @@ import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.transcoders.ComputedValueTranscoder;
 import net.spy.memcached.transcoders.TranscodeService;
 import net.spy.memcached.transcoders.Transcoder;
 import net.spy.memcached.util.StringUtils;
@@ -56,16 +64,21 @@ import net.spy.memcached.util.StringUtils;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
@@ -74,7 +87,12 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -141,6 +159,11 @@ import java.util.concurrent.atomic.AtomicReference;
 public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     ConnectionObserver {
 
+  /**
+   * The most mutations a bulk mutation sends to a node in one run.
+   */
+  private static final int MAX_BULK_MUTATIONS = 1024;
+
   protected volatile boolean shuttingDown;
 
   protected final long operationTimeout;
@@ -163,6 +186,21 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   private final ScheduledExecutorService scheduledExecutorService;
 
+  protected final NearCache nearCache;
+
+  private final ConcurrentMap<String, CoalescedGet> pendingGets;
+
+  private final ConcurrentMap<String, CompletableFuture<Object>> computations =
+    new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+  private final double earlyRefreshBeta;
+
+  /**
+   * Runs the loaders of early refreshes, so slow loaders never hold up
+   * listeners.
+   */
+  private final ThreadPoolExecutor refreshExecutor;
+
   /**
    * Get a memcache client operating on the specified memcached locations.
    *
@@ -215,6 +253,26 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     operationTimeout = cf.getOperationTimeout();
     authDescriptor = cf.getAuthDescriptor();
     executorService = cf.getListenerExecutorService();
+    nearCache = cf.getNearCacheMaxBytes() > 0
+        ? new NearCache(cf.getNearCacheMaxBytes(), cf.getNearCacheTTL(),
+            cf.getMetricCollector())
+        : null;
+    pendingGets = cf.shouldCoalesceGets()
+        ? new ConcurrentHashMap<String, CoalescedGet>()
+        : null;
+    earlyRefreshBeta = cf.getEarlyRefreshBeta();
+    int refreshThreads = Runtime.getRuntime().availableProcessors();
+    refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads,
+      60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Memcached refresh");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    refreshExecutor.allowCoreThreadTimeOut(true);
     if (authDescriptor != null) {
       addObserver(this);
     }
@@ -276,6 +334,50 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return mconn.getLocator().getReadonlyCopy();
   }
 
+  /**
+   * Get the hottest keys of each node, estimated by sampling keyed
+   * operations over the last completed window.
+   *
+   * @return the hot keys, hottest first, empty unless hot key sampling is
+   *         enabled with {@link ConnectionFactoryBuilder#setHotKeySampling}
+   */
+  @Override
+  public List<HotKey> getHotKeys() {
+    return mconn.getHotKeys();
+  }
+
+  /**
+   * Keep a key on several nodes, spreading its reads across them.
+   *
+   * The key is kept on its primary node and the next nodes of its
+   * {@link NodeLocator#getSequence(String) sequence}. Plain gets go to any
+   * of them, sets are sent to all and other writes remove the copies. Keys
+   * found hot are replicated the same way, see
+   * {@link ConnectionFactoryBuilder#setHotKeyReplicas(int)}.
+   *
+   * @param key the key
+   * @param replicas the number of nodes to keep the key on, 1 stops
+   *          replicating it and removes the copies
+   */
+  @Override
+  public void setHotKeyReplicas(String key, int replicas) {
+    StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+    mconn.setHotKeyReplicas(key, replicas);
+  }
+
+  /**
+   * Get the latencies of answered operations by type, node and phase.
+   *
+   * Latencies are recorded unless metrics are disabled, see
+   * {@link ConnectionFactoryBuilder#setEnableMetrics}.
+   *
+   * @return the latencies, or null if metrics are disabled
+   */
+  @Override
+  public OperationLatencies getOperationLatencies() {
+    return mconn.getOperationLatencies();
+  }
+
   /**
    * Get the default transcoder that's in use.
    *
@@ -286,6 +388,15 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return transcoder;
   }
 
+  /**
+   * Get the near cache kept in front of the servers.
+   *
+   * @return the near cache, or null if it is disabled
+   */
+  public NearCache getNearCache() {
+    return nearCache;
+  }
+
   @Override
   public CountDownLatch broadcastOp(final BroadcastOpFactory of) {
     return broadcastOp(of, mconn.getLocator().getAll(), true);
@@ -306,7 +417,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   }
 
   private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
-      String key, int exp, T value, Transcoder<T> tc) {
+      final String key, int exp, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv =
@@ -325,11 +436,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
             @Override
             public void complete() {
+              invalidateLocal(key);
               latch.countDown();
               rv.signalComplete();
             }
           });
     rv.setOperation(op);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     return rv;
   }
@@ -340,7 +453,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   }
 
   private <T> OperationFuture<Boolean> asyncCat(ConcatenationType catType,
-      long cas, String key, T value, Transcoder<T> tc) {
+      long cas, final String key, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
@@ -354,15 +467,36 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
+            invalidateLocal(key);
             latch.countDown();
             rv.signalComplete();
           }
         });
     rv.setOperation(op);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     return rv;
   }
 
+  /**
+   * Drop a key from the near cache and stop new gets from joining one that
+   * is already in flight.
+   *
+   * Called both before a write is queued and once it completed, so neither a
+   * read racing the write nor one issued while it is in flight can keep the
+   * old value around.
+   *
+   * @param key the key being written
+   */
+  private void invalidateLocal(String key) {
+    if (nearCache != null) {
+      nearCache.invalidate(key);
+    }
+    if (pendingGets != null) {
+      pendingGets.remove(key);
+    }
+  }
+
   /**
    * Touch the given key to reset its expiration time with the default
    * transcoder.
@@ -406,11 +540,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
+        invalidateLocal(key);
         latch.countDown();
         rv.signalComplete();
       }
     });
     rv.setOperation(op);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     return rv;
   }
@@ -625,7 +761,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public <T> OperationFuture<CASResponse>
-  asyncCAS(String key, long casId, int exp, T value, Transcoder<T> tc) {
+  asyncCAS(final String key, long casId, int exp, T value,
+      Transcoder<T> tc) {
     CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASResponse> rv =
@@ -651,11 +788,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
             }
             @Override
             public void complete() {
+              invalidateLocal(key);
               latch.countDown();
               rv.signalComplete();
             }
           });
     rv.setOperation(op);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     return rv;
   }
@@ -1021,11 +1160,28 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc) {
+    final long[] stamps;
+    if (nearCache != null) {
+      CachedData cached = nearCache.get(key);
+      if (cached != null) {
+        GetFuture<T> rv = new GetFuture<T>(new CountDownLatch(0),
+          operationTimeout, key, executorService);
+        rv.set(tcService.decode(tc, cached), NearCache.HIT_STATUS);
+        rv.signalComplete();
+        return rv;
+      }
+      stamps = nearCache.stamps();
+    } else {
+      stamps = null;
+    }
+    if (pendingGets != null) {
+      return coalescedGet(key, tc, stamps);
+    }
 
     final CountDownLatch latch = new CountDownLatch(1);
     final GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key,
       executorService);
-    Operation op = opFact.get(key, new GetOperation.Callback() {
+    Operation op = opFact.get(key, new GetOperation.BufferCallback() {
       private Future<T> val;
 
       @Override
@@ -1036,8 +1192,24 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       @Override
       public void gotData(String k, int flags, byte[] data) {
         assert key.equals(k) : "Wrong key returned";
-        val =
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+        CachedData d = new CachedData(flags, data, tc.getMaxSize());
+        if (nearCache != null) {
+          nearCache.put(key, d, 0, stamps);
+        }
+        val = tcService.decode(tc, d);
+      }
+
+      @Override
+      public void gotData(String k, int flags, ByteBuffer data) {
+        assert key.equals(k) : "Wrong key returned";
+        if (nearCache != null) {
+          // The near cache needs its own copy of the value.
+          byte[] bytes = new byte[data.remaining()];
+          data.get(bytes);
+          gotData(k, flags, bytes);
+        } else {
+          val = tcService.decode(tc, flags, data);
+        }
       }
 
       @Override
@@ -1051,6 +1223,37 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Join the get in flight for the key, or start one others can join.
+   */
+  private <T> GetFuture<T> coalescedGet(String key, Transcoder<T> tc,
+      long[] stamps) {
+    while (true) {
+      CoalescedGet flight = pendingGets.get(key);
+      if (flight != null) {
+        GetFuture<T> rv = flight.join(tc);
+        if (rv != null) {
+          return rv;
+        }
+      }
+      CoalescedGet created = new CoalescedGet(key, pendingGets, tcService,
+          nearCache, stamps, operationTimeout, executorService);
+      GetFuture<T> rv = created.join(tc);
+      Operation op = opFact.get(key, created);
+      created.setOperation(op);
+      if (flight == null ? pendingGets.putIfAbsent(key, created) == null
+          : pendingGets.replace(key, flight, created)) {
+        try {
+          mconn.enqueueOperation(key, op);
+        } catch (RuntimeException e) {
+          created.abort();
+          throw e;
+        }
+        return rv;
+      }
+    }
+  }
+
   /**
    * Get the given key asynchronously and decode with the default transcoder.
    *
@@ -1124,6 +1327,145 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGets(key, transcoder);
   }
 
+  /**
+   * Get the given key asynchronously along with the flags coordinating its
+   * recaching, which needs the meta protocol.
+   *
+   * <p>
+   * Once the remaining time to live of an item drops below the recache
+   * time, or after it was marked stale with {@link #invalidate}, exactly one
+   * client gets the win flag while all others keep getting the current
+   * value. The winner is expected to recompute and store the value.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to fetch
+   * @param recacheTtl the remaining time to live below which the next
+   *          client wins, 0 for none
+   * @param vivifyTtl the time to live of a placeholder created on a miss so
+   *          that only the first client to miss wins, 0 for none
+   * @param tc the transcoder to serialize and unserialize value
+   * @return a future holding the value and its flags, the value is null on a
+   *         miss and may be empty for a placeholder
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the meta protocol isn't used
+   */
+  @Override
+  public <T> OperationFuture<MetaValue<T>> asyncMetaGet(final String key,
+      int recacheTtl, int vivifyTtl, final Transcoder<T> tc) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final OperationFuture<MetaValue<T>> rv =
+      new OperationFuture<MetaValue<T>>(key, latch, operationTimeout,
+      executorService);
+
+    Operation op = metaOperationFactory().metaGet(key, recacheTtl, vivifyTtl,
+        new MetaGetOperation.Callback() {
+        private MetaValue<T> val;
+
+        @Override
+        public void receivedStatus(OperationStatus status) {
+          rv.set(val, status);
+        }
+
+        @Override
+        public void gotData(String k, int flags, long cas, byte[] data,
+            int meta) {
+          assert key.equals(k) : "Wrong key returned";
+          T value = data == null ? null
+            : tc.decode(new CachedData(flags, data, tc.getMaxSize()));
+          val = new MetaValue<T>(cas, value,
+              (meta & MetaGetOperation.WIN) != 0,
+              (meta & MetaGetOperation.STALE) != 0,
+              (meta & MetaGetOperation.WIN_TOKEN_SENT) != 0);
+        }
+
+        @Override
+        public void complete() {
+          latch.countDown();
+          rv.signalComplete();
+        }
+      });
+    rv.setOperation(op);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Get the given key asynchronously along with the flags coordinating its
+   * recaching and decode using the default transcoder.
+   *
+   * @param key the key to fetch
+   * @param recacheTtl the remaining time to live below which the next
+   *          client wins, 0 for none
+   * @param vivifyTtl the time to live of a placeholder created on a miss, 0
+   *          for none
+   * @return a future holding the value and its flags
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the meta protocol isn't used
+   * @see #asyncMetaGet(String, int, int, Transcoder)
+   */
+  @Override
+  public OperationFuture<MetaValue<Object>> asyncMetaGet(String key,
+      int recacheTtl, int vivifyTtl) {
+    return asyncMetaGet(key, recacheTtl, vivifyTtl, transcoder);
+  }
+
+  /**
+   * Mark the given key stale instead of deleting it, which needs the meta
+   * protocol.
+   *
+   * The next {@link #asyncMetaGet} still returns the old value, flagged as
+   * stale, and gives exactly one client the win flag to recompute it.
+   *
+   * @param key the key to invalidate
+   * @param staleTtl the time to live of the stale item, 0 to leave it
+   *          unchanged
+   * @return whether or not the item was found
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the meta protocol isn't used
+   */
+  @Override
+  public OperationFuture<Boolean> invalidate(final String key, int staleTtl) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
+        latch, operationTimeout, executorService);
+
+    DeleteOperation op = metaOperationFactory().invalidate(key, staleTtl,
+        new DeleteOperation.Callback() {
+        @Override
+        public void receivedStatus(OperationStatus s) {
+          rv.set(s.isSuccess(), s);
+        }
+
+        @Override
+        public void gotData(long cas) {
+          rv.setCas(cas);
+        }
+
+        @Override
+        public void complete() {
+          invalidateLocal(key);
+          latch.countDown();
+          rv.signalComplete();
+        }
+      });
+    rv.setOperation(op);
+    invalidateLocal(key);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  private MetaOperationFactory metaOperationFactory() {
+    if (!(opFact instanceof MetaOperationFactory)) {
+      throw new UnsupportedOperationException("Meta gets and invalidations "
+        + "need the meta protocol");
+    }
+    return (MetaOperationFactory) opFact;
+  }
+
   /**
    * Gets (with CAS support) with a single key.
    *
@@ -1262,6 +1604,171 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return get(key, transcoder);
   }
 
+  /**
+   * Get a value, computing and storing it if it is missing.
+   *
+   * <p>
+   * The value is stored along with its logical expiry and the time it took
+   * to compute. Ahead of the expiry a single read refreshes it in the
+   * background, with a probability growing the closer the expiry is and the
+   * longer the computation takes (see {@link ComputedValue#shouldRefresh}
+   * and {@link ConnectionFactory#getEarlyRefreshBeta()}), while all reads
+   * keep getting the current value. The item itself is kept for the stale
+   * time past the logical expiry, during which reads still get the old value
+   * while a refresh runs. A read only computes the value itself when it
+   * misses, and concurrent misses on this client share one computation.
+   * </p>
+   *
+   * <p>
+   * Refreshes run on a pool of their own and computed values are stored
+   * without waiting for the store to complete. Values are stored with the
+   * flags {@code 0x40000000}, see {@link ComputedValueTranscoder}.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param ttl the logical time to live in seconds, 0 to never refresh
+   * @param staleTtl how many seconds past the logical expiry the value may
+   *          still be served while it is refreshed
+   * @param loader computes the value
+   * @param tc the transcoder to serialize and unserialize the value
+   * @return the cached or computed value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded, also while waiting for the computation of another
+   *           read
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws RuntimeException wrapping the exception thrown by the loader
+   */
+  @Override
+  public <T> T getOrCompute(String key, int ttl, int staleTtl,
+      Callable<? extends T> loader, Transcoder<T> tc) {
+    ComputedValueTranscoder<T> ctc = new ComputedValueTranscoder<T>(tc);
+    ComputedValue<T> cv = get(key, ctc);
+    if (cv == null) {
+      return compute(key, ttl, staleTtl, loader, ctc);
+    }
+    if (cv.shouldRefresh(System.currentTimeMillis(), earlyRefreshBeta,
+        1.0 - ThreadLocalRandom.current().nextDouble())) {
+      refresh(key, ttl, staleTtl, loader, ctc);
+    }
+    return cv.getValue();
+  }
+
+  /**
+   * Get a value, computing and storing it if it is missing.
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param ttl the logical time to live in seconds, 0 to never refresh
+   * @param loader computes the value
+   * @param tc the transcoder to serialize and unserialize the value
+   * @return the cached or computed value
+   * @see #getOrCompute(String, int, int, Callable, Transcoder)
+   */
+  @Override
+  public <T> T getOrCompute(String key, int ttl, Callable<? extends T> loader,
+      Transcoder<T> tc) {
+    return getOrCompute(key, ttl, 0, loader, tc);
+  }
+
+  /**
+   * Get a value, computing and storing it with the default transcoder if it
+   * is missing.
+   *
+   * @param key the key to get
+   * @param ttl the logical time to live in seconds, 0 to never refresh
+   * @param loader computes the value
+   * @return the cached or computed value
+   * @see #getOrCompute(String, int, int, Callable, Transcoder)
+   */
+  @Override
+  public Object getOrCompute(String key, int ttl, Callable<?> loader) {
+    return getOrCompute(key, ttl, 0, loader, transcoder);
+  }
+
+  /**
+   * Compute a missing value, or wait for the computation already running on
+   * this client.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T compute(String key, int ttl, int staleTtl,
+      Callable<? extends T> loader, ComputedValueTranscoder<T> tc) {
+    CompletableFuture<Object> mine = new CompletableFuture<Object>();
+    CompletableFuture<Object> running = computations.putIfAbsent(key, mine);
+    if (running != null) {
+      try {
+        return (T) running.get(operationTimeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException("Interrupted waiting for value", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Exception computing value", e.getCause());
+      } catch (TimeoutException e) {
+        throw new OperationTimeoutException("Timeout waiting for value"
+          + buildTimeoutMessage(operationTimeout, TimeUnit.MILLISECONDS), e);
+      }
+    }
+    try {
+      T value = load(key, ttl, staleTtl, loader, tc);
+      mine.complete(value);
+      return value;
+    } catch (RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      computations.remove(key, mine);
+    }
+  }
+
+  /**
+   * Refresh a value in the background unless it is computed already.
+   */
+  private <T> void refresh(final String key, final int ttl,
+      final int staleTtl, final Callable<? extends T> loader,
+      final ComputedValueTranscoder<T> tc) {
+    final CompletableFuture<Object> mine = new CompletableFuture<Object>();
+    if (computations.putIfAbsent(key, mine) != null) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            mine.complete(load(key, ttl, staleTtl, loader, tc));
+          } catch (RuntimeException e) {
+            getLogger().warn("Failed to refresh " + key, e);
+            mine.completeExceptionally(e);
+          } finally {
+            computations.remove(key, mine);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      computations.remove(key, mine);
+      getLogger().warn("Couldn't refresh " + key, e);
+    }
+  }
+
+  private <T> T load(String key, int ttl, int staleTtl,
+      Callable<? extends T> loader, ComputedValueTranscoder<T> tc) {
+    long start = System.nanoTime();
+    T value;
+    try {
+      value = loader.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Exception computing value for " + key, e);
+    }
+    long now = System.currentTimeMillis();
+    long computeTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+        - start);
+    set(key, ttl == 0 ? 0 : ttl + staleTtl, new ComputedValue<T>(value,
+        ttl == 0 ? Long.MAX_VALUE : now + ttl * 1000L, computeTime), tc);
+    return value;
+  }
+
   /**
    * Asynchronously get a bunch of objects from the cache.
    *
@@ -1291,34 +1798,22 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final Map<MemcachedNode, Collection<String>> chunks =
         new HashMap<MemcachedNode, Collection<String>>();
     final NodeLocator locator = mconn.getLocator();
+    final long[] stamps = nearCache == null ? null : nearCache.stamps();
 
     while (keyIter.hasNext() && tcIter.hasNext()) {
       String key = keyIter.next();
-      tcMap.put(key, tcIter.next());
+      Transcoder<T> keyTc = tcIter.next();
       StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
-      final MemcachedNode primaryNode = locator.getPrimary(key);
-      MemcachedNode node = null;
-      if (primaryNode.isActive()) {
-        node = primaryNode;
-      } else {
-        for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
-            && i.hasNext();) {
-          MemcachedNode n = i.next();
-          if (n.isActive()) {
-            node = n;
-          }
-        }
-        if (node == null) {
-          node = primaryNode;
+      if (nearCache != null) {
+        CachedData cached = nearCache.get(key);
+        if (cached != null) {
+          // Only the keys that miss go to the network.
+          m.put(key, tcService.decode(keyTc, cached));
+          continue;
         }
       }
-      assert node != null : "Didn't find a node for " + key;
-      Collection<String> ks = chunks.get(node);
-      if (ks == null) {
-        ks = new ArrayList<String>();
-        chunks.put(node, ks);
-      }
-      ks.add(key);
+      tcMap.put(key, keyTc);
+      addToChunk(chunks, locator, key);
     }
 
     final AtomicInteger pendingChunks = new AtomicInteger(chunks.size());
@@ -1326,8 +1821,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(initialLatchCount);
     final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
     final BulkGetFuture<T> rv = new BulkGetFuture<T>(m, ops, latch, executorService);
+    if (chunks.isEmpty() && !m.isEmpty()) {
+      rv.setStatus(NearCache.HIT_STATUS);
+    }
 
-    GetOperation.Callback cb = new GetOperation.Callback() {
+    GetOperation.Callback cb = new GetOperation.BufferCallback() {
       @Override
       @SuppressWarnings("synthetic-access")
       public void receivedStatus(OperationStatus status) {
@@ -1340,8 +1838,22 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       @Override
       public void gotData(String k, int flags, byte[] data) {
         Transcoder<T> tc = tcMap.get(k);
-        m.put(k,
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize())));
+        CachedData d = new CachedData(flags, data, tc.getMaxSize());
+        if (nearCache != null) {
+          nearCache.put(k, d, 0, stamps);
+        }
+        m.put(k, tcService.decode(tc, d));
+      }
+
+      @Override
+      public void gotData(String k, int flags, ByteBuffer data) {
+        if (nearCache != null) {
+          byte[] bytes = new byte[data.remaining()];
+          data.get(bytes);
+          gotData(k, flags, bytes);
+        } else {
+          m.put(k, tcService.decode(tcMap.get(k), flags, data));
+        }
       }
 
       @Override
@@ -1369,6 +1881,37 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Add the key to the chunk of the node it should be fetched from: its
+   * primary if active, otherwise the first active node in its sequence.
+   */
+  private static void addToChunk(Map<MemcachedNode, Collection<String>> chunks,
+      NodeLocator locator, String key) {
+    final MemcachedNode primaryNode = locator.getPrimary(key);
+    MemcachedNode node = null;
+    if (primaryNode.isActive()) {
+      node = primaryNode;
+    } else {
+      for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
+          && i.hasNext();) {
+        MemcachedNode n = i.next();
+        if (n.isActive()) {
+          node = n;
+        }
+      }
+      if (node == null) {
+        node = primaryNode;
+      }
+    }
+    assert node != null : "Didn't find a node for " + key;
+    Collection<String> ks = chunks.get(node);
+    if (ks == null) {
+      ks = new ArrayList<String>();
+      chunks.put(node, ks);
+    }
+    ks.add(key);
+  }
+
   /**
    * Asynchronously get a bunch of objects from the cache.
    *
@@ -1512,6 +2055,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASValue<T>> rv = new OperationFuture<CASValue<T>>(
         key, latch, operationTimeout, executorService);
+    final long[] stamps = nearCache == null ? null : nearCache.stamps();
 
     Operation op = opFact.getAndTouch(key, exp,
         new GetAndTouchOperation.Callback() {
@@ -1531,9 +2075,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
           @Override
           public void gotData(String k, int flags, long cas, byte[] data) {
             assert k.equals(key) : "Wrong key returned";
-            val =
-                new CASValue<T>(cas, tc.decode(new CachedData(flags, data,
-                    tc.getMaxSize())));
+            CachedData d = new CachedData(flags, data, tc.getMaxSize());
+            if (nearCache != null) {
+              // The new expiration is known here, so it caps the entry.
+              nearCache.put(key, d, exp, stamps);
+            }
+            val = new CASValue<T>(cas, tc.decode(d));
           }
         });
     rv.setOperation(op);
@@ -1758,9 +2305,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
-  private long mutate(Mutator m, String key, long by, long def, int exp) {
+  private long mutate(Mutator m, final String key, long by, long def,
+      int exp) {
     final AtomicLong rv = new AtomicLong();
     final CountDownLatch latch = new CountDownLatch(1);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, opFact.mutate(m, key, by, def, exp,
         new OperationCallback() {
         @Override
@@ -1773,6 +2322,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
         @Override
         public void complete() {
+          invalidateLocal(key);
           latch.countDown();
         }
       }));
@@ -1988,9 +2538,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
-  private OperationFuture<Long> asyncMutate(Mutator m, String key, long by,
-      long def, int exp) {
-    if (!(opFact instanceof BinaryOperationFactory) && (def != 0 || exp != -1)) {
+  private OperationFuture<Long> asyncMutate(Mutator m, final String key,
+      long by, long def, int exp) {
+    if (!(opFact instanceof BinaryOperationFactory
+        || opFact instanceof MetaOperationFactory)
+        && (def != 0 || exp != -1)) {
       throw new UnsupportedOperationException("Default value or expiration "
         + "time are not supported on the async mutate methods. Use either the "
         + "binary protocol or the sync variant.");
@@ -2008,10 +2560,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
+            invalidateLocal(key);
             latch.countDown();
             rv.signalComplete();
           }
         });
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     rv.setOperation(op);
     return rv;
@@ -2316,7 +2870,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    *           full to accept any more requests
    */
   @Override
-  public OperationFuture<Boolean> delete(String key, long cas) {
+  public OperationFuture<Boolean> delete(final String key, long cas) {
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
         latch, operationTimeout, executorService);
@@ -2334,6 +2888,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       @Override
       public void complete() {
+        invalidateLocal(key);
         latch.countDown();
         rv.signalComplete();
       }
@@ -2347,28 +2902,803 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     }
 
     rv.setOperation(op);
+    invalidateLocal(key);
     mconn.enqueueOperation(key, op);
     return rv;
   }
 
   /**
-   * Flush all caches from all servers with a delay of application.
+   * Get the given key, completing the returned stage straight from the
+   * operation callback.
    *
-   * @param delay the period of time to delay, in seconds
-   * @return whether or not the operation was accepted
+   * Dependent stages run on the thread completing the operation, normally
+   * the IO thread, unless an async variant is used. The value is decoded on
+   * that thread as well. The stage fails with a
+   * {@link net.spy.memcached.internal.CheckedOperationTimeoutException} once
+   * the operation timeout expires it, which needs a positive operation
+   * timeout tick (see
+   * {@link ConnectionFactoryBuilder#setOperationTimeoutTick(long)}).
+   *
+   * @param <T>
+   * @param key the key to fetch
+   * @param tc the transcoder to unserialize the value
+   * @return a stage holding the value, or null if there is none
    * @throws IllegalStateException in the rare circumstance where queue is too
    *           full to accept any more requests
    */
   @Override
-  public OperationFuture<Boolean> flush(final int delay) {
-    final AtomicReference<Boolean> flushResult =
-        new AtomicReference<Boolean>(null);
-    final ConcurrentLinkedQueue<Operation> ops =
-        new ConcurrentLinkedQueue<Operation>();
-    CountDownLatch blatch = broadcastOp(new BroadcastOpFactory() {
+  public <T> CompletionStage<T> getStage(final String key,
+      final Transcoder<T> tc) {
+    final OperationCompletableFuture<T> rv =
+      new OperationCompletableFuture<T>();
+    final long[] stamps;
+    if (nearCache != null) {
+      CachedData cached = nearCache.get(key);
+      if (cached != null) {
+        completeDecoded(rv, tc, cached);
+        return rv;
+      }
+      stamps = nearCache.stamps();
+    } else {
+      stamps = null;
+    }
+    Operation op = opFact.get(key, new GetOperation.Callback() {
+      private CachedData val;
+
       @Override
-      public Operation newOp(final MemcachedNode n,
-          final CountDownLatch latch) {
+      public void receivedStatus(OperationStatus status) {
+        // The outcome is taken from the operation itself.
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        assert key.equals(k) : "Wrong key returned";
+        val = new CachedData(flags, data, tc.getMaxSize());
+        if (nearCache != null) {
+          nearCache.put(key, val, 0, stamps);
+        }
+      }
+
+      @Override
+      public void complete() {
+        completeDecoded(rv, tc, val);
+      }
+    });
+    rv.setOperation(op);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Get the given key with the default transcoder, completing the returned
+   * stage straight from the operation callback.
+   *
+   * @param key the key to fetch
+   * @return a stage holding the value, or null if there is none
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public CompletionStage<Object> getStage(String key) {
+    return getStage(key, transcoder);
+  }
+
+  /**
+   * Get the values for multiple keys, completing the returned stage straight
+   * from the operation callbacks once every node answered.
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to unserialize the values
+   * @return a stage holding the values of the keys that were found
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public <T> CompletionStage<Map<String, T>> getBulkStage(
+      Collection<String> keys, final Transcoder<T> tc) {
+    final OperationCompletableFuture<Map<String, T>> rv =
+      new OperationCompletableFuture<Map<String, T>>();
+    final Map<String, CachedData> found =
+      new ConcurrentHashMap<String, CachedData>();
+    final Map<MemcachedNode, Collection<String>> chunks =
+        new HashMap<MemcachedNode, Collection<String>>();
+    final NodeLocator locator = mconn.getLocator();
+    final long[] stamps = nearCache == null ? null : nearCache.stamps();
+
+    for (String key : keys) {
+      StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+      if (nearCache != null) {
+        CachedData cached = nearCache.get(key);
+        if (cached != null) {
+          found.put(key, cached);
+          continue;
+        }
+      }
+      addToChunk(chunks, locator, key);
+    }
+    if (chunks.isEmpty()) {
+      completeDecoded(rv, tc, found);
+      return rv;
+    }
+
+    final AtomicInteger pendingChunks = new AtomicInteger(chunks.size());
+    GetOperation.Callback cb = new GetOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        if (status.getStatusCode() == StatusCode.ERR_NOT_MY_VBUCKET) {
+          pendingChunks.addAndGet(Integer.parseInt(status.getMessage()));
+        }
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        CachedData d = new CachedData(flags, data, tc.getMaxSize());
+        if (nearCache != null) {
+          nearCache.put(k, d, 0, stamps);
+        }
+        found.put(k, d);
+      }
+
+      @Override
+      public void complete() {
+        if (pendingChunks.decrementAndGet() <= 0) {
+          completeDecoded(rv, tc, found);
+        }
+      }
+    };
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      mops.put(me.getKey(), opFact.get(me.getValue(), cb));
+    }
+    rv.setOperations(new ArrayList<Operation>(mops.values()));
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Get the values for multiple keys with the default transcoder, completing
+   * the returned stage straight from the operation callbacks.
+   *
+   * @param keys the keys to request
+   * @return a stage holding the values of the keys that were found
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getBulkStage(Collection, Transcoder)
+   */
+  @Override
+  public CompletionStage<Map<String, Object>> getBulkStage(
+      Collection<String> keys) {
+    return getBulkStage(keys, transcoder);
+  }
+
+  /**
+   * Stream the values of many keys to a subscriber as each node's response
+   * is parsed, rather than collecting them in a map.
+   *
+   * Nothing is fetched until the subscriber requests keys from the
+   * subscription it is handed. Keys are sent in chunks of at most the given
+   * size per node, and only as many keys as were requested are ever in
+   * flight. Cancelling the subscription drops the keys not sent yet and
+   * cancels the chunks in flight.
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to unserialize the values
+   * @param subscriber receives each value, miss and per node error
+   * @param chunkSize the maximum number of keys sent in one operation
+   * @return the subscription, also handed to the subscriber
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> BulkGetSubscription getBulkStream(Collection<String> keys,
+      Transcoder<T> tc, BulkGetSubscriber<T> subscriber, int chunkSize) {
+    final Map<MemcachedNode, Collection<String>> chunks =
+        new LinkedHashMap<MemcachedNode, Collection<String>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (String key : keys) {
+      StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+      addToChunk(chunks, locator, key);
+    }
+    mconn.checkState();
+    BulkGetStream<T> rv = new BulkGetStream<T>(mconn, opFact, tc, nearCache,
+      chunks, subscriber, chunkSize, executorService);
+    rv.start();
+    return rv;
+  }
+
+  /**
+   * Stream the values of many keys to a subscriber in chunks of at most
+   * {@link #DEFAULT_STREAM_CHUNK_SIZE} keys per node.
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to unserialize the values
+   * @param subscriber receives each value, miss and per node error
+   * @return the subscription, also handed to the subscriber
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getBulkStream(Collection, Transcoder, BulkGetSubscriber, int)
+   */
+  @Override
+  public <T> BulkGetSubscription getBulkStream(Collection<String> keys,
+      Transcoder<T> tc, BulkGetSubscriber<T> subscriber) {
+    return getBulkStream(keys, tc, subscriber, DEFAULT_STREAM_CHUNK_SIZE);
+  }
+
+  /**
+   * Stream the values of many keys decoded with the default transcoder to a
+   * subscriber.
+   *
+   * @param keys the keys to request
+   * @param subscriber receives each value, miss and per node error
+   * @return the subscription, also handed to the subscriber
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getBulkStream(Collection, Transcoder, BulkGetSubscriber, int)
+   */
+  @Override
+  public BulkGetSubscription getBulkStream(Collection<String> keys,
+      BulkGetSubscriber<Object> subscriber) {
+    return getBulkStream(keys, transcoder, subscriber);
+  }
+
+  /**
+   * Set an object in the cache, completing the returned stage straight from
+   * the operation callback.
+   *
+   * @param <T>
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @param tc the transcoder to serialize the value
+   * @return a stage indicating whether the value was stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public <T> CompletionStage<Boolean> setStage(final String key, int exp,
+      T o, Transcoder<T> tc) {
+    CachedData co = tc.encode(o);
+    final OperationCompletableFuture<Boolean> rv =
+      new OperationCompletableFuture<Boolean>();
+    Operation op = opFact.store(StoreType.set, key, co.getFlags(), exp,
+        co.getData(), new StoreOperation.Callback() {
+          private boolean stored;
+
+          @Override
+          public void receivedStatus(OperationStatus val) {
+            stored = val.isSuccess();
+          }
+
+          @Override
+          public void gotData(String key, long cas) {
+            // not needed
+          }
+
+          @Override
+          public void complete() {
+            invalidateLocal(key);
+            rv.operationsComplete(stored);
+          }
+        });
+    rv.setOperation(op);
+    invalidateLocal(key);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Set an object in the cache with the default transcoder, completing the
+   * returned stage straight from the operation callback.
+   *
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @return a stage indicating whether the value was stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #setStage(String, int, Object, Transcoder)
+   */
+  @Override
+  public CompletionStage<Boolean> setStage(String key, int exp, Object o) {
+    return setStage(key, exp, o, transcoder);
+  }
+
+  /**
+   * Delete the given key from the cache, completing the returned stage
+   * straight from the operation callback.
+   *
+   * @param key the key to delete
+   * @return a stage indicating whether the key was deleted
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public CompletionStage<Boolean> deleteStage(final String key) {
+    final OperationCompletableFuture<Boolean> rv =
+      new OperationCompletableFuture<Boolean>();
+    Operation op = opFact.delete(key, new DeleteOperation.Callback() {
+      private boolean deleted;
+
+      @Override
+      public void receivedStatus(OperationStatus s) {
+        deleted = s.isSuccess();
+      }
+
+      @Override
+      public void gotData(long cas) {
+        // not needed
+      }
+
+      @Override
+      public void complete() {
+        invalidateLocal(key);
+        rv.operationsComplete(deleted);
+      }
+    });
+    rv.setOperation(op);
+    invalidateLocal(key);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Compare and set an object in the cache, completing the returned stage
+   * straight from the operation callback.
+   *
+   * @param <T>
+   * @param key the key
+   * @param casId the CAS identifier (from a gets operation)
+   * @param exp the expiration of this object
+   * @param value the new value
+   * @param tc the transcoder to serialize the value
+   * @return a stage holding the outcome of the CAS
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public <T> CompletionStage<CASResponse> casStage(final String key,
+      long casId, int exp, T value, Transcoder<T> tc) {
+    CachedData co = tc.encode(value);
+    final OperationCompletableFuture<CASResponse> rv =
+      new OperationCompletableFuture<CASResponse>();
+    Operation op = opFact.cas(StoreType.set, key, casId, co.getFlags(), exp,
+        co.getData(), new StoreOperation.Callback() {
+          private CASResponse response;
+
+          @Override
+          public void receivedStatus(OperationStatus val) {
+            if (val instanceof CASOperationStatus) {
+              response = ((CASOperationStatus) val).getCASResponse();
+            }
+          }
+
+          @Override
+          public void gotData(String key, long cas) {
+            // not needed
+          }
+
+          @Override
+          public void complete() {
+            invalidateLocal(key);
+            rv.operationsComplete(response);
+          }
+        });
+    rv.setOperation(op);
+    invalidateLocal(key);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Compare and set an object in the cache with the default transcoder,
+   * completing the returned stage straight from the operation callback.
+   *
+   * @param key the key
+   * @param casId the CAS identifier (from a gets operation)
+   * @param exp the expiration of this object
+   * @param value the new value
+   * @return a stage holding the outcome of the CAS
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #casStage(String, long, int, Object, Transcoder)
+   */
+  @Override
+  public CompletionStage<CASResponse> casStage(String key, long casId,
+      int exp, Object value) {
+    return casStage(key, casId, exp, value, transcoder);
+  }
+
+  /**
+   * Increment the given key, completing the returned stage straight from the
+   * operation callback.
+   *
+   * @param key key to increment
+   * @param by the amount to increment the value by
+   * @return a stage holding the incremented value, or -1 if the increment
+   *         failed
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #getStage(String, Transcoder)
+   */
+  @Override
+  public CompletionStage<Long> incrStage(final String key, long by) {
+    final OperationCompletableFuture<Long> rv =
+      new OperationCompletableFuture<Long>();
+    Operation op = opFact.mutate(Mutator.incr, key, by, 0, -1,
+        new OperationCallback() {
+          private long value = -1;
+
+          @Override
+          public void receivedStatus(OperationStatus s) {
+            if (s.isSuccess()) {
+              value = Long.parseLong(s.getMessage());
+            }
+          }
+
+          @Override
+          public void complete() {
+            invalidateLocal(key);
+            rv.operationsComplete(value);
+          }
+        });
+    rv.setOperation(op);
+    invalidateLocal(key);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Store many values, pipelining the sets of each node as quiet commands
+   * closed by a single noop.
+   *
+   * @param <T>
+   * @param items the values to store by key
+   * @param exp the expiration of the items
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> CompletableFuture<Map<String, OperationStatus>> setBulk(
+      Map<String, ? extends T> items, int exp, Transcoder<T> tc) {
+    List<BulkMutation> mutations = new ArrayList<BulkMutation>(items.size());
+    for (Map.Entry<String, ? extends T> me : items.entrySet()) {
+      CachedData co = tc.encode(me.getValue());
+      mutations.add(BulkMutation.set(me.getKey(), co.getFlags(), exp,
+        co.getData()));
+    }
+    return bulkMutate(mutations);
+  }
+
+  /**
+   * Store many values with the default transcoder.
+   *
+   * @param items the values to store by key
+   * @param exp the expiration of the items
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #setBulk(Map, int, Transcoder)
+   */
+  @Override
+  public CompletableFuture<Map<String, OperationStatus>> setBulk(
+      Map<String, ?> items, int exp) {
+    return setBulk(items, exp, transcoder);
+  }
+
+  /**
+   * Delete many keys in one pipelined run per node.
+   *
+   * @param keys the keys to delete
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #setBulk(Map, int, Transcoder)
+   */
+  @Override
+  public CompletableFuture<Map<String, OperationStatus>> deleteBulk(
+      Collection<String> keys) {
+    List<BulkMutation> mutations = new ArrayList<BulkMutation>(keys.size());
+    for (String key : keys) {
+      mutations.add(BulkMutation.delete(key));
+    }
+    return bulkMutate(mutations);
+  }
+
+  /**
+   * Reset the expiration of many keys in one pipelined run per node.
+   *
+   * Touch has no quiet binary command, so every key is answered.
+   *
+   * @param keys the keys to touch
+   * @param exp the new expiration of the keys
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #setBulk(Map, int, Transcoder)
+   */
+  @Override
+  public CompletableFuture<Map<String, OperationStatus>> touchBulk(
+      Collection<String> keys, int exp) {
+    List<BulkMutation> mutations = new ArrayList<BulkMutation>(keys.size());
+    for (String key : keys) {
+      mutations.add(BulkMutation.touch(key, exp));
+    }
+    return bulkMutate(mutations);
+  }
+
+  /**
+   * Increment many existing counters in one pipelined run per node.
+   *
+   * Successful quiet increments are not answered, so the statuses do not
+   * carry the new values.
+   *
+   * @param keys the counters to increment
+   * @param by the amount to increment them by
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #setBulk(Map, int, Transcoder)
+   */
+  @Override
+  public CompletableFuture<Map<String, OperationStatus>> incrBulk(
+      Collection<String> keys, long by) {
+    return incrBulk(keys, by, 0, -1);
+  }
+
+  /**
+   * Increment many counters in one pipelined run per node, creating the
+   * missing ones.
+   *
+   * @param keys the counters to increment
+   * @param by the amount to increment them by
+   * @param def the value of counters that do not exist yet
+   * @param exp the expiration of created counters, -1 to not create them
+   * @return a future holding the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if counters are to be created over
+   *           the ASCII protocol
+   * @see #incrBulk(Collection, long)
+   */
+  @Override
+  public CompletableFuture<Map<String, OperationStatus>> incrBulk(
+      Collection<String> keys, long by, long def, int exp) {
+    if (exp != -1 && !(opFact instanceof BinaryOperationFactory
+        || opFact instanceof MetaOperationFactory)) {
+      throw new UnsupportedOperationException("Creating counters in bulk is "
+        + "not supported for ASCII protocol");
+    }
+    List<BulkMutation> mutations = new ArrayList<BulkMutation>(keys.size());
+    for (String key : keys) {
+      mutations.add(BulkMutation.mutate(Mutator.incr, key, by, def, exp));
+    }
+    return bulkMutate(mutations);
+  }
+
+  /**
+   * Send the mutations, grouped per node into runs of at most
+   * {@link #MAX_BULK_MUTATIONS} over the binary protocol and one operation
+   * per key over the ASCII protocol. A later mutation of a key replaces an
+   * earlier one.
+   */
+  private CompletableFuture<Map<String, OperationStatus>> bulkMutate(
+      Collection<BulkMutation> mutations) {
+    final OperationCompletableFuture<Map<String, OperationStatus>> rv =
+      new OperationCompletableFuture<Map<String, OperationStatus>>();
+    final ConcurrentMap<String, OperationStatus> statuses =
+      new ConcurrentHashMap<String, OperationStatus>();
+    final boolean binary = opFact instanceof BinaryOperationFactory;
+    final Map<String, BulkMutation> byKey =
+      new LinkedHashMap<String, BulkMutation>();
+    for (BulkMutation m : mutations) {
+      StringUtils.validateKey(m.getKey(), binary);
+      byKey.put(m.getKey(), m);
+    }
+    if (byKey.isEmpty()) {
+      rv.complete(statuses);
+      return rv;
+    }
+
+    final AtomicInteger pending = new AtomicInteger(byKey.size());
+    BulkMutationOperation.Callback cb = new BulkMutationOperation.Callback() {
+      @Override
+      public void gotStatus(String key, OperationStatus status) {
+        if (statuses.putIfAbsent(key, status) == null) {
+          invalidateLocal(key);
+          if (pending.decrementAndGet() == 0) {
+            rv.complete(statuses);
+          }
+        }
+      }
+
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        // The outcome of every key is reported through gotStatus.
+      }
+
+      @Override
+      public void complete() {
+        // Completion is driven by the per key statuses.
+      }
+    };
+
+    mconn.checkState();
+    if (!binary) {
+      Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+      for (BulkMutation m : byKey.values()) {
+        ops.put(m.getKey(), singleMutation(m, cb));
+      }
+      rv.setOperations(new ArrayList<Operation>(ops.values()));
+      for (Map.Entry<String, Operation> me : ops.entrySet()) {
+        invalidateLocal(me.getKey());
+        mconn.enqueueOperation(me.getKey(), me.getValue());
+      }
+      return rv;
+    }
+
+    final Map<MemcachedNode, Collection<String>> chunks =
+        new HashMap<MemcachedNode, Collection<String>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (String key : byKey.keySet()) {
+      invalidateLocal(key);
+      addToChunk(chunks, locator, key);
+    }
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    List<Operation> ops = new ArrayList<Operation>();
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      List<BulkMutation> run = new ArrayList<BulkMutation>();
+      for (String key : me.getValue()) {
+        run.add(byKey.get(key));
+        if (run.size() == MAX_BULK_MUTATIONS) {
+          nodes.add(me.getKey());
+          ops.add(opFact.bulkMutate(run, cb));
+          run = new ArrayList<BulkMutation>();
+        }
+      }
+      if (!run.isEmpty()) {
+        nodes.add(me.getKey());
+        ops.add(opFact.bulkMutate(run, cb));
+      }
+    }
+    rv.setOperations(ops);
+    for (int i = 0; i < ops.size(); i++) {
+      mconn.addOperation(nodes.get(i), ops.get(i));
+    }
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      for (String key : me.getValue()) {
+        mconn.keyWritten(key, me.getKey());
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Build the single key operation performing a mutation, for protocols
+   * without quiet commands.
+   */
+  private Operation singleMutation(BulkMutation m,
+      BulkMutationOperation.Callback cb) {
+    KeyStatusCallback kcb = new KeyStatusCallback(m.getKey(), cb);
+    switch (m.getType()) {
+    case SET:
+      return opFact.store(StoreType.set, m.getKey(), m.getFlags(),
+        m.getExpiration(), m.getData(), kcb);
+    case DELETE:
+      return opFact.delete(m.getKey(), kcb);
+    case TOUCH:
+      return opFact.touch(m.getKey(), m.getExpiration(), kcb);
+    default:
+      return opFact.mutate(m.getType() == BulkMutation.Type.INCR
+        ? Mutator.incr : Mutator.decr, m.getKey(), m.getBy(), m.getDefault(),
+        m.getExpiration(), kcb);
+    }
+  }
+
+  /**
+   * Reports the last status of a single key operation as the status of its
+   * key in a bulk mutation.
+   */
+  private static class KeyStatusCallback implements StoreOperation.Callback,
+      DeleteOperation.Callback {
+    private final String key;
+    private final BulkMutationOperation.Callback cb;
+    private OperationStatus status;
+
+    KeyStatusCallback(String k, BulkMutationOperation.Callback c) {
+      key = k;
+      cb = c;
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    @Override
+    public void gotData(String k, long cas) {
+      // Only the status is reported.
+    }
+
+    @Override
+    public void gotData(long cas) {
+      // Only the status is reported.
+    }
+
+    @Override
+    public void complete() {
+      cb.gotStatus(key, status == null ? new OperationStatus(false,
+        "Operation was not answered", StatusCode.ERR_INTERNAL) : status);
+    }
+  }
+
+  /**
+   * Decode a value on the completing thread and complete the stage with it,
+   * or with the decoding failure.
+   */
+  private static <T> void completeDecoded(OperationCompletableFuture<T> rv,
+      Transcoder<T> tc, CachedData d) {
+    T val;
+    try {
+      val = d == null ? null : tc.decode(d);
+    } catch (RuntimeException e) {
+      rv.completeExceptionally(e);
+      return;
+    }
+    rv.operationsComplete(val);
+  }
+
+  /**
+   * Decode the values found by a bulk get and complete the stage with them.
+   */
+  private static <T> void completeDecoded(
+      OperationCompletableFuture<Map<String, T>> rv, Transcoder<T> tc,
+      Map<String, CachedData> found) {
+    Map<String, T> m = new HashMap<String, T>(found.size() * 2);
+    try {
+      for (Map.Entry<String, CachedData> me : found.entrySet()) {
+        m.put(me.getKey(), tc.decode(me.getValue()));
+      }
+    } catch (RuntimeException e) {
+      rv.completeExceptionally(e);
+      return;
+    }
+    rv.operationsComplete(m);
+  }
+
+  /**
+   * Flush all caches from all servers with a delay of application.
+   *
+   * @param delay the period of time to delay, in seconds
+   * @return whether or not the operation was accepted
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public OperationFuture<Boolean> flush(final int delay) {
+    final AtomicReference<Boolean> flushResult =
+        new AtomicReference<Boolean>(null);
+    final ConcurrentLinkedQueue<Operation> ops =
+        new ConcurrentLinkedQueue<Operation>();
+    if (nearCache != null) {
+      nearCache.clear();
+    }
+    CountDownLatch blatch = broadcastOp(new BroadcastOpFactory() {
+      @Override
+      public Operation newOp(final MemcachedNode n,
+          final CountDownLatch latch) {
         Operation op = opFact.flush(delay, new OperationCallback() {
           @Override
           public void receivedStatus(OperationStatus s) {
@@ -2377,6 +3707,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           @Override
           public void complete() {
+            if (nearCache != null) {
+              nearCache.clear();
+            }
             latch.countDown();
           }
         });
@@ -2510,6 +3843,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         getLogger().warn("Failed shutting down the ExecutorService: ", ex);
       }
     }
+    refreshExecutor.shutdown();
     try {
       // Conditionally wait
       if (timeout > 0) {
@@ -2609,7 +3943,17 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       if (authDescriptor.authThresholdReached()) {
         shutdown();
       }
-      authMonitor.authConnection(mconn, opFact, authDescriptor, findNode(sa));
+      MemcachedNode node = findNode(sa);
+      if (node instanceof PooledMemcachedNode) {
+        // Every connection of a pool authenticates on its own.
+        PooledMemcachedNode pool = (PooledMemcachedNode) node;
+        MemcachedNode conn;
+        while ((conn = pool.pollConnected()) != null) {
+          authMonitor.authConnection(mconn, opFact, authDescriptor, conn);
+        }
+      } else {
+        authMonitor.authConnection(mconn, opFact, authDescriptor, node);
+      }
     }
   }
 
@@ -24,14 +24,21 @@
 package net.spy.memcached;
 
 import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetSubscriber;
+import net.spy.memcached.internal.BulkGetSubscription;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.transcoders.Transcoder;
 
 import java.net.SocketAddress;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +53,12 @@ public interface MemcachedClientIF {
    */
   int MAX_KEY_LENGTH = 250;
 
+  /**
+   * Default maximum number of keys sent to a node in one operation by a
+   * streaming bulk get.
+   */
+  int DEFAULT_STREAM_CHUNK_SIZE = 100;
+
   Collection<SocketAddress> getAvailableServers();
 
   Collection<SocketAddress> getUnavailableServers();
@@ -54,6 +67,12 @@ public interface MemcachedClientIF {
 
   NodeLocator getNodeLocator();
 
+  List<HotKey> getHotKeys();
+
+  void setHotKeyReplicas(String key, int replicas);
+
+  OperationLatencies getOperationLatencies();
+
   Future<Boolean> append(long cas, String key, Object val);
 
   Future<Boolean> append(String key, Object val);
@@ -118,6 +137,22 @@ public interface MemcachedClientIF {
 
   Future<CASValue<Object>> asyncGets(String key);
 
+  <T> Future<MetaValue<T>> asyncMetaGet(String key, int recacheTtl,
+      int vivifyTtl, Transcoder<T> tc);
+
+  Future<MetaValue<Object>> asyncMetaGet(String key, int recacheTtl,
+      int vivifyTtl);
+
+  Future<Boolean> invalidate(String key, int staleTtl);
+
+  <T> T getOrCompute(String key, int ttl, int staleTtl,
+      Callable<? extends T> loader, Transcoder<T> tc);
+
+  <T> T getOrCompute(String key, int ttl, Callable<? extends T> loader,
+      Transcoder<T> tc);
+
+  Object getOrCompute(String key, int ttl, Callable<?> loader);
+
   <T> CASValue<T> gets(String key, Transcoder<T> tc);
 
   CASValue<Object> gets(String key);
@@ -216,6 +251,57 @@ public interface MemcachedClientIF {
 
   Future<Boolean> delete(String key, long cas);
 
+  <T> CompletionStage<T> getStage(String key, Transcoder<T> tc);
+
+  CompletionStage<Object> getStage(String key);
+
+  <T> CompletionStage<Map<String, T>> getBulkStage(Collection<String> keys,
+      Transcoder<T> tc);
+
+  CompletionStage<Map<String, Object>> getBulkStage(Collection<String> keys);
+
+  <T> BulkGetSubscription getBulkStream(Collection<String> keys,
+      Transcoder<T> tc, BulkGetSubscriber<T> subscriber, int chunkSize);
+
+  <T> BulkGetSubscription getBulkStream(Collection<String> keys,
+      Transcoder<T> tc, BulkGetSubscriber<T> subscriber);
+
+  BulkGetSubscription getBulkStream(Collection<String> keys,
+      BulkGetSubscriber<Object> subscriber);
+
+  <T> CompletionStage<Boolean> setStage(String key, int exp, T o,
+      Transcoder<T> tc);
+
+  CompletionStage<Boolean> setStage(String key, int exp, Object o);
+
+  CompletionStage<Boolean> deleteStage(String key);
+
+  <T> CompletionStage<CASResponse> casStage(String key, long casId, int exp,
+      T value, Transcoder<T> tc);
+
+  CompletionStage<CASResponse> casStage(String key, long casId, int exp,
+      Object value);
+
+  CompletionStage<Long> incrStage(String key, long by);
+
+  <T> CompletableFuture<Map<String, OperationStatus>> setBulk(
+      Map<String, ? extends T> items, int exp, Transcoder<T> tc);
+
+  CompletableFuture<Map<String, OperationStatus>> setBulk(
+      Map<String, ?> items, int exp);
+
+  CompletableFuture<Map<String, OperationStatus>> deleteBulk(
+      Collection<String> keys);
+
+  CompletableFuture<Map<String, OperationStatus>> touchBulk(
+      Collection<String> keys, int exp);
+
+  CompletableFuture<Map<String, OperationStatus>> incrBulk(
+      Collection<String> keys, long by);
+
+  CompletableFuture<Map<String, OperationStatus>> incrBulk(
+      Collection<String> keys, long by, long def, int exp);
+
   Future<Boolean> flush(int delay);
 
   Future<Boolean> flush();
@@ -27,7 +27,11 @@ import net.spy.memcached.compat.SpyThread;
 import net.spy.memcached.compat.log.Logger;
 import net.spy.memcached.compat.log.LoggerFactory;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.MeterHandle;
 import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricGauge;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.KeyedOperation;
@@ -37,8 +41,12 @@ import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationException;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.ops.VBucketAware;
+import net.spy.memcached.protocol.BufferPool;
+import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
+import net.spy.memcached.protocol.TimerWheel;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.protocol.binary.MultiGetOperationImpl;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
@@ -62,17 +70,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Main class for handling connections to a memcached cluster.
@@ -109,6 +119,12 @@ public class MemcachedConnection extends SpyThread {
    */
   private static final int MAX_CLONE_COUNT = 100;
 
+  /**
+   * How long shutdown waits, in total, for the additional selector threads
+   * to finish.
+   */
+  private static final long SELECTOR_JOIN_MILLIS = 1000;
+
   private static final String RECON_QUEUE_METRIC =
     "[MEM] Reconnecting Nodes (ReconnectQueue)";
   private static final String SHUTD_QUEUE_METRIC =
@@ -129,6 +145,15 @@ public class MemcachedConnection extends SpyThread {
     "[MEM] Response Rate: Failure";
   private static final String OVERALL_RESPONSE_SUCC_METRIC =
     "[MEM] Response Rate: Success";
+  private static final String OVERALL_RESPONSE_TIMEOUT_METRIC =
+    "[MEM] Response Rate: Timed Out";
+  private static final String NODE_INPUT_QUEUE_METRIC = "[MEM] Input Queue: ";
+  private static final String NODE_WRITE_QUEUE_METRIC = "[MEM] Write Queue: ";
+  private static final String NODE_READ_QUEUE_METRIC = "[MEM] Read Queue: ";
+  private static final String NODE_BYTES_TO_WRITE_METRIC =
+    "[MEM] Bytes To Write: ";
+  private static final String NODE_RECONNECTS_METRIC =
+    "[MEM] Reconnect Attempts: ";
 
   /**
    * If the connection is alread shut down or shutting down.
@@ -142,6 +167,9 @@ public class MemcachedConnection extends SpyThread {
 
   /**
    * Holds the current {@link Selector} to use.
+   *
+   * If more than one I/O thread is configured, this is the selector of the
+   * first loop (driven by this thread).
    */
   protected Selector selector = null;
 
@@ -160,12 +188,6 @@ public class MemcachedConnection extends SpyThread {
    */
   private final long maxDelay;
 
-  /**
-   * Contains the current number of empty select() calls, which could indicate
-   * bugs.
-   */
-  private int emptySelects = 0;
-
   /**
    * The buffer size that will be used when reading from the server.
    */
@@ -179,6 +201,9 @@ public class MemcachedConnection extends SpyThread {
   /**
    * AddedQueue is used to track the QueueAttachments for which operations
    * have recently been queued.
+   *
+   * If more than one I/O thread is configured, this is the queue of the
+   * first loop (driven by this thread).
    */
   protected final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
 
@@ -188,6 +213,34 @@ public class MemcachedConnection extends SpyThread {
    */
   private final SortedMap<Long, MemcachedNode> reconnectQueue;
 
+  /**
+   * All selector loops of this connection, the first one being driven by
+   * this thread and wrapping {@link #selector} and {@link #addedQueue}.
+   */
+  private final SelectorLoop[] loops;
+
+  /**
+   * Maps each node to the selector loop which owns its channel. Only
+   * populated if more than one loop is in use.
+   */
+  private final Map<MemcachedNode, SelectorLoop> nodeLoops;
+
+  /**
+   * Maps each connection of a {@link PooledMemcachedNode} to its pool. Only
+   * populated if more than one connection per node is used.
+   */
+  private final Map<MemcachedNode, PooledMemcachedNode> pools;
+
+  /**
+   * The threads driving all but the first selector loop.
+   */
+  private final List<SelectorThread> selectorThreads;
+
+  /**
+   * Index of the loop the next created node will be bound to.
+   */
+  private int nextLoop = 0;
+
   /**
    * True if not shutting down or shut down.
    */
@@ -241,6 +294,27 @@ public class MemcachedConnection extends SpyThread {
    */
   protected final MetricType metricType;
 
+  /**
+   * Handles to the metrics updated by the IO threads, resolved once after
+   * {@link #registerMetrics()} so updating them needs no lookup by name.
+   */
+  private final HistogramHandle bytesReadHistogram;
+  private final HistogramHandle bytesWrittenHistogram;
+  private final HistogramHandle timeOnWireHistogram;
+  private final MeterHandle requestMeter;
+  private final MeterHandle responseMeter;
+  private final MeterHandle successMeter;
+  private final MeterHandle failureMeter;
+  private final MeterHandle retryMeter;
+  private final MeterHandle timeoutMeter;
+  private final CounterHandle reconnectCounter;
+  private final CounterHandle shutdownCounter;
+
+  /**
+   * The names of the gauges registered for the nodes.
+   */
+  private final List<String> gauges = new ArrayList<String>();
+
   /**
    * The selector wakeup delay, defaults to 1000ms.
    */
@@ -251,6 +325,37 @@ public class MemcachedConnection extends SpyThread {
    */
   private final int retryQueueSize;
 
+  /**
+   * Expires operations once the operation timeout has passed, driven by the
+   * first selector loop. Null if operations only time out when waited on.
+   */
+  private final TimerWheel timeouts;
+
+  /**
+   * The operations expired by the last tick, only used by the first loop.
+   */
+  private final List<Operation> expiredOps = new ArrayList<Operation>();
+
+  /**
+   * Samples keyed operations to find the hottest keys, null if disabled.
+   */
+  private final HotKeyTracker hotKeys;
+
+  /**
+   * Keeps replicated keys on several nodes and spreads their reads.
+   */
+  private final HotKeyReplicator replicator;
+
+  /**
+   * Latencies of answered operations, null if metrics are off.
+   */
+  private final OperationLatencies latencies;
+
+  /**
+   * Samples operations and receives their lifecycle, null if disabled.
+   */
+  private final OperationTracer tracer;
+
   /**
    * Construct a {@link MemcachedConnection}.
    *
@@ -274,6 +379,10 @@ public class MemcachedConnection extends SpyThread {
     opFact = opfactory;
     timeoutExceptionThreshold = f.getTimeoutExceptionThreshold();
     selector = Selector.open();
+    loops = createSelectorLoops(Math.max(1, f.getIOThreadCount()));
+    nodeLoops = new ConcurrentHashMap<MemcachedNode, SelectorLoop>();
+    pools = new ConcurrentHashMap<MemcachedNode, PooledMemcachedNode>();
+    selectorThreads = new ArrayList<SelectorThread>(loops.length - 1);
     retryOps = Collections.synchronizedList(new ArrayList<Operation>());
     nodesToShutdown = new ConcurrentLinkedQueue<MemcachedNode>();
     listenerExecutorService = f.getListenerExecutorService();
@@ -294,17 +403,94 @@ public class MemcachedConnection extends SpyThread {
         Integer.toString(DEFAULT_RETRY_QUEUE_SIZE)));
     getLogger().info("Setting retryQueueSize to " + retryQueueSize);
 
-    List<MemcachedNode> connections = createConnections(a);
-    locator = f.createLocator(connections);
+    long tick = f.getOperationTimeoutTick();
+    timeouts = tick > 0 ? new TimerWheel(tick) : null;
 
     metrics = f.getMetricCollector();
     metricType = f.enableMetrics();
+    registerComponentMetrics(f.getHotKeySampling() > 0);
+
+    List<MemcachedNode> connections = createConnections(a);
+    locator = f.createLocator(connections);
+
+    latencies = metricType == MetricType.OFF ? null : new OperationLatencies();
+    tracer = f.getOperationTracer();
+    hotKeys = f.getHotKeySampling() > 0
+        ? new HotKeyTracker(f.getHotKeySampling(), metrics) : null;
+    replicator = new HotKeyReplicator(this, opFact,
+        f.getHotKeyReplicas() > 1 ? hotKeys : null, f.getHotKeyReplicas());
 
     registerMetrics();
+    bytesReadHistogram = metrics.getHistogram(OVERALL_AVG_BYTES_READ_METRIC);
+    bytesWrittenHistogram =
+      metrics.getHistogram(OVERALL_AVG_BYTES_WRITE_METRIC);
+    timeOnWireHistogram =
+      metrics.getHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
+    requestMeter = metrics.getMeter(OVERALL_REQUEST_METRIC);
+    responseMeter = metrics.getMeter(OVERALL_RESPONSE_METRIC);
+    successMeter = metrics.getMeter(OVERALL_RESPONSE_SUCC_METRIC);
+    failureMeter = metrics.getMeter(OVERALL_RESPONSE_FAIL_METRIC);
+    retryMeter = metrics.getMeter(OVERALL_RESPONSE_RETRY_METRIC);
+    timeoutMeter = metrics.getMeter(OVERALL_RESPONSE_TIMEOUT_METRIC);
+    reconnectCounter = metrics.getCounter(RECON_QUEUE_METRIC);
+    shutdownCounter = metrics.getCounter(SHUTD_QUEUE_METRIC);
+    if (hotKeys != null) {
+      hotKeys.register();
+    }
 
     setName("Memcached IO over " + this);
     setDaemon(f.isDaemon());
     start();
+    startSelectorThreads(f.isDaemon());
+  }
+
+  /**
+   * Create the selector loops, where the first loop always wraps the
+   * selector and queues driven by this thread.
+   *
+   * @param count the number of loops to create.
+   * @return the selector loops.
+   * @throws IOException if a selector could not be opened.
+   */
+  private SelectorLoop[] createSelectorLoops(final int count)
+    throws IOException {
+    SelectorLoop[] rv = new SelectorLoop[count];
+    rv[0] = new SelectorLoop(selector, addedQueue, reconnectQueue);
+    for (int i = 1; i < count; i++) {
+      rv[i] = new SelectorLoop(Selector.open(),
+        new ConcurrentLinkedQueue<MemcachedNode>(),
+        new TreeMap<Long, MemcachedNode>());
+    }
+    return rv;
+  }
+
+  /**
+   * Start the threads for all but the first selector loop.
+   *
+   * @param daemon if the threads should be daemon threads.
+   */
+  private void startSelectorThreads(final boolean daemon) {
+    for (int i = 1; i < loops.length; i++) {
+      SelectorThread t = new SelectorThread(loops[i],
+        "Memcached IO #" + i + " over " + this);
+      t.setDaemon(daemon);
+      selectorThreads.add(t);
+      t.start();
+    }
+  }
+
+  /**
+   * Returns the selector loop which owns the given node.
+   *
+   * @param node the node to look up.
+   * @return the owning loop, or the first loop if the node is unknown.
+   */
+  private SelectorLoop loopFor(final MemcachedNode node) {
+    if (loops.length == 1) {
+      return loops[0];
+    }
+    SelectorLoop loop = nodeLoops.get(node);
+    return loop == null ? loops[0] : loop;
   }
 
   /**
@@ -322,6 +508,9 @@ public class MemcachedConnection extends SpyThread {
       metrics.addHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
       metrics.addMeter(OVERALL_RESPONSE_METRIC);
       metrics.addMeter(OVERALL_REQUEST_METRIC);
+      metrics.addMeter(NearCache.HIT_METRIC);
+      metrics.addMeter(NearCache.MISS_METRIC);
+      metrics.addMeter(NearCache.EVICTION_METRIC);
 
       if (metricType.equals(MetricType.DEBUG)) {
         metrics.addCounter(RECON_QUEUE_METRIC);
@@ -329,13 +518,91 @@ public class MemcachedConnection extends SpyThread {
         metrics.addMeter(OVERALL_RESPONSE_RETRY_METRIC);
         metrics.addMeter(OVERALL_RESPONSE_SUCC_METRIC);
         metrics.addMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        metrics.addMeter(OVERALL_RESPONSE_TIMEOUT_METRIC);
+        registerNodeGauges();
+      }
+    }
+  }
+
+  /**
+   * Register the metrics of the buffer pools and the hot key tracker.
+   *
+   * These resolve their metrics when they are created, so this runs before
+   * the connections and the tracker exist.
+   *
+   * @param hotKeys whether hot keys are tracked.
+   */
+  private void registerComponentMetrics(boolean hotKeys) {
+    if (metricType.equals(MetricType.DEBUG)
+      || metricType.equals(MetricType.PERFORMANCE)) {
+      metrics.addMeter(BufferPool.HIT_METRIC);
+      metrics.addMeter(BufferPool.MISS_METRIC);
+      if (hotKeys) {
+        metrics.addHistogram(HotKeyTracker.HOTTEST_KEY_RATE_METRIC);
       }
     }
   }
 
+  /**
+   * Register gauges for the queues, pending bytes and reconnect attempts of
+   * every connection.
+   */
+  private void registerNodeGauges() {
+    Map<String, Integer> seen = new HashMap<String, Integer>();
+    for (final MemcachedNode node : getChannelNodes()) {
+      String name = String.valueOf(node.getSocketAddress());
+      Integer count = seen.get(name);
+      seen.put(name, count == null ? 1 : count + 1);
+      if (count != null) {
+        name += " #" + count;
+      }
+      if (node instanceof TCPMemcachedNodeImpl) {
+        final TCPMemcachedNodeImpl tcp = (TCPMemcachedNodeImpl) node;
+        addGauge(NODE_INPUT_QUEUE_METRIC + name, new MetricGauge() {
+          @Override
+          public long getValue() {
+            return tcp.getInputQueueSize();
+          }
+        });
+        addGauge(NODE_WRITE_QUEUE_METRIC + name, new MetricGauge() {
+          @Override
+          public long getValue() {
+            return tcp.getWriteQueueSize();
+          }
+        });
+        addGauge(NODE_READ_QUEUE_METRIC + name, new MetricGauge() {
+          @Override
+          public long getValue() {
+            return tcp.getReadQueueSize();
+          }
+        });
+      }
+      addGauge(NODE_BYTES_TO_WRITE_METRIC + name, new MetricGauge() {
+        @Override
+        public long getValue() {
+          return node.getBytesRemainingToWrite();
+        }
+      });
+      addGauge(NODE_RECONNECTS_METRIC + name, new MetricGauge() {
+        @Override
+        public long getValue() {
+          return node.getReconnectCount();
+        }
+      });
+    }
+  }
+
+  private void addGauge(String name, MetricGauge gauge) {
+    metrics.addGauge(name, gauge);
+    gauges.add(name);
+  }
+
   /**
    * Create connections for the given list of addresses.
    *
+   * If more than one connection per node is configured, each address is
+   * represented by a {@link PooledMemcachedNode} holding its connections.
+   *
    * @param addrs the list of addresses to connect to.
    * @return addrs list of {@link MemcachedNode}s.
    * @throws IOException if connecting was not successful.
@@ -343,48 +610,118 @@ public class MemcachedConnection extends SpyThread {
   protected List<MemcachedNode> createConnections(
     final Collection<InetSocketAddress> addrs) throws IOException {
     List<MemcachedNode> connections = new ArrayList<MemcachedNode>(addrs.size());
+    int perNode = Math.max(1, connectionFactory.getConnectionsPerNode());
 
     for (SocketAddress sa : addrs) {
-      SocketChannel ch = SocketChannel.open();
-      ch.configureBlocking(false);
-      MemcachedNode qa = connectionFactory.createMemcachedNode(sa, ch, bufSize);
-      qa.setConnection(this);
-      int ops = 0;
-      Socket socket = ch.socket();
-      socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
-      socket.setKeepAlive(connectionFactory.getKeepAlive());
-      
-      try {
-        if (ch.connect(sa)) {
-          getLogger().info("Connected to %s immediately", qa);
-          connected(qa);
-        } else {
-          getLogger().info("Added %s to connect queue", qa);
-          ops = SelectionKey.OP_CONNECT;
+      MemcachedNode[] nodes = new MemcachedNode[perNode];
+      for (int i = 0; i < perNode; i++) {
+        SocketChannel ch = SocketChannel.open();
+        ch.configureBlocking(false);
+        nodes[i] = connectionFactory.createMemcachedNode(sa, ch, bufSize);
+        nodes[i].setConnection(this);
+      }
+      if (perNode == 1) {
+        connections.add(nodes[0]);
+      } else {
+        PooledMemcachedNode pool = new PooledMemcachedNode(sa, nodes,
+          connectionFactory.getConnectionSelection(),
+          connectionFactory.getAuthDescriptor() != null);
+        for (MemcachedNode qa : nodes) {
+          pools.put(qa, pool);
         }
-
-        selector.wakeup();
-        qa.setSk(ch.register(selector, ops, qa));
-        assert ch.isConnected()
-            || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
-            : "Not connected, and not wanting to connect";
-      } catch (SocketException e) {
-        getLogger().warn("Socket error on initial connect", e);
-        queueReconnect(qa);
+        connections.add(pool);
+      }
+      for (MemcachedNode qa : nodes) {
+        connect(qa);
       }
-      connections.add(qa);
     }
 
     return connections;
   }
 
+  /**
+   * Bind a new node to a selector loop and start connecting its channel.
+   *
+   * @param qa the node to connect.
+   * @throws IOException if the socket could not be configured.
+   */
+  private void connect(final MemcachedNode qa) throws IOException {
+    SocketChannel ch = qa.getChannel();
+    SelectorLoop loop = loops[nextLoop++ % loops.length];
+    if (loops.length > 1) {
+      nodeLoops.put(qa, loop);
+    }
+    int ops = 0;
+    Socket socket = ch.socket();
+    socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
+    socket.setKeepAlive(connectionFactory.getKeepAlive());
+
+    try {
+      if (ch.connect(qa.getSocketAddress())) {
+        getLogger().info("Connected to %s immediately", qa);
+        connected(qa);
+      } else {
+        getLogger().info("Added %s to connect queue", qa);
+        ops = SelectionKey.OP_CONNECT;
+      }
+
+      loop.selector.wakeup();
+      qa.setSk(ch.register(loop.selector, ops, qa));
+      assert ch.isConnected()
+          || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
+          : "Not connected, and not wanting to connect";
+    } catch (SocketException e) {
+      getLogger().warn("Socket error on initial connect", e);
+      queueReconnect(qa);
+    }
+  }
+
+  /**
+   * All nodes owning a channel, which are the connections of pooled nodes
+   * and all other nodes of the locator.
+   *
+   * @return the nodes owning a channel.
+   */
+  private Collection<MemcachedNode> getChannelNodes() {
+    Collection<MemcachedNode> all = locator.getAll();
+    if (pools.isEmpty()) {
+      return all;
+    }
+    List<MemcachedNode> rv = new ArrayList<MemcachedNode>();
+    for (MemcachedNode node : all) {
+      if (node instanceof PooledMemcachedNode) {
+        rv.addAll(((PooledMemcachedNode) node).getConnections());
+      } else {
+        rv.add(node);
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Pick the connection to queue an operation on.
+   *
+   * @param node the node the operation is meant for.
+   * @return a connection of the node if it is pooled, the node otherwise.
+   */
+  private static MemcachedNode selectConnection(final MemcachedNode node) {
+    if (node instanceof PooledMemcachedNode) {
+      return ((PooledMemcachedNode) node).select();
+    }
+    return node;
+  }
+
   /**
    * Make sure that the current selectors make sense.
    *
+   * @param loop the loop whose nodes should be checked.
    * @return true if they do.
    */
-  private boolean selectorsMakeSense() {
-    for (MemcachedNode qa : locator.getAll()) {
+  private boolean selectorsMakeSense(final SelectorLoop loop) {
+    for (MemcachedNode qa : getChannelNodes()) {
+      if (loopFor(qa) != loop) {
+        continue;
+      }
       if (qa.getSk() != null && qa.getSk().isValid()) {
         if (qa.getChannel().isConnected()) {
           int sops = qa.getSk().interestOps();
@@ -418,36 +755,53 @@ public class MemcachedConnection extends SpyThread {
    * dispatches the underlying read/write calls if needed.
    */
   public void handleIO() throws IOException {
+    handleIO(loops[0]);
+  }
+
+  /**
+   * Handle all IO that flows through the given selector loop.
+   *
+   * @param loop the selector loop to handle IO for.
+   */
+  private void handleIO(final SelectorLoop loop) throws IOException {
     if (shutDown) {
       getLogger().debug("No IO while shut down.");
       return;
     }
 
-    handleInputQueue();
+    loop.wakeupPending.set(false);
+    handleInputQueue(loop);
     getLogger().debug("Done dealing with queue.");
 
     long delay = wakeupDelay;
-    if (!reconnectQueue.isEmpty()) {
+    if (!loop.reconnectQueue.isEmpty()) {
       long now = System.currentTimeMillis();
-      long then = reconnectQueue.firstKey();
+      long then = loop.reconnectQueue.firstKey();
       delay = Math.max(then - now, 1);
     }
+    if (timeouts != null && loop == loops[0]) {
+      long tick = timeouts.nextDelay(System.nanoTime());
+      if (tick > 0 && tick < delay) {
+        delay = tick;
+      }
+    }
     getLogger().debug("Selecting with delay of %sms", delay);
-    assert selectorsMakeSense() : "Selectors don't make sense.";
-    int selected = selector.select(delay);
+    assert selectorsMakeSense(loop) : "Selectors don't make sense.";
+    int selected = loop.selector.select(delay);
 
     if (shutDown) {
       return;
-    } else if (selected == 0 && addedQueue.isEmpty()) {
+    } else if (selected == 0 && loop.addedQueue.isEmpty()) {
       handleWokenUpSelector();
-    } else if (selector.selectedKeys().isEmpty()) {
-      handleEmptySelects();
+    } else if (loop.selector.selectedKeys().isEmpty()) {
+      handleEmptySelects(loop);
     } else {
       getLogger().debug("Selected %d, selected %d keys", selected,
-        selector.selectedKeys().size());
-      emptySelects = 0;
+        loop.selector.selectedKeys().size());
+      loop.emptySelects = 0;
 
-      Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+      Iterator<SelectionKey> iterator =
+        loop.selector.selectedKeys().iterator();
       while(iterator.hasNext()) {
         SelectionKey sk = iterator.next();
         handleIO(sk);
@@ -455,7 +809,7 @@ public class MemcachedConnection extends SpyThread {
       }
     }
 
-    handleOperationalTasks();
+    handleOperationalTasks(loop);
   }
 
   /**
@@ -480,33 +834,44 @@ public class MemcachedConnection extends SpyThread {
    * needs to be checked on a regular basis that has nothing to do directly
    * with reading and writing data.
    *
+   * @param loop the selector loop to handle the tasks for.
    * @throws IOException if an error happens during shutdown queue handling.
    */
-  private void handleOperationalTasks() throws IOException {
-    checkPotentiallyTimedOutConnection();
+  private void handleOperationalTasks(final SelectorLoop loop)
+    throws IOException {
+    checkPotentiallyTimedOutConnection(loop);
+
+    if (timeouts != null && loop == loops[0]) {
+      expireOperations();
+    }
 
-    if (!shutDown && !reconnectQueue.isEmpty()) {
-      attemptReconnects();
+    if (!shutDown && !loop.reconnectQueue.isEmpty()) {
+      attemptReconnects(loop);
     }
 
     if (!retryOps.isEmpty()) {
-      ArrayList<Operation> operations = new ArrayList<Operation>(retryOps);
-      retryOps.clear();
+      ArrayList<Operation> operations;
+      synchronized (retryOps) {
+        operations = new ArrayList<Operation>(retryOps);
+        retryOps.clear();
+      }
       redistributeOperations(operations);
     }
 
-    handleShutdownQueue();
+    handleShutdownQueue(loop);
   }
 
   /**
    * Helper method for {@link #handleIO()} to handle empty select calls.
+   *
+   * @param loop the selector loop which selected nothing.
    */
-  private void handleEmptySelects() {
+  private void handleEmptySelects(final SelectorLoop loop) {
     getLogger().debug("No selectors ready, interrupted: %b",
       Thread.interrupted());
 
-    if (++emptySelects > DOUBLE_CHECK_EMPTY) {
-      for (SelectionKey sk : selector.keys()) {
+    if (++loop.emptySelects > DOUBLE_CHECK_EMPTY) {
+      for (SelectionKey sk : loop.selector.keys()) {
         getLogger().debug("%s has %s, interested in %s", sk, sk.readyOps(),
           sk.interestOps());
         if (sk.readyOps() != 0) {
@@ -516,20 +881,22 @@ public class MemcachedConnection extends SpyThread {
           lostConnection((MemcachedNode) sk.attachment());
         }
       }
-      assert emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
+      assert loop.emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
     }
   }
 
   /**
    * Check if nodes need to be shut down and do so if needed.
    *
+   * @param loop the selector loop whose nodes should be shut down.
    * @throws IOException if the channel could not be closed properly.
    */
-  private void handleShutdownQueue() throws IOException {
+  private void handleShutdownQueue(final SelectorLoop loop)
+    throws IOException {
     for (MemcachedNode qa : nodesToShutdown) {
-      if (!addedQueue.contains(qa)) {
+      if (loopFor(qa) == loop && !loop.addedQueue.contains(qa)) {
         nodesToShutdown.remove(qa);
-        metrics.decrementCounter(SHUTD_QUEUE_METRIC);
+        shutdownCounter.decrement(1);
         Collection<Operation> notCompletedOperations = qa.destroyInputQueue();
         if (qa.getChannel() != null) {
           qa.getChannel().close();
@@ -540,6 +907,7 @@ public class MemcachedConnection extends SpyThread {
           }
           getLogger().debug("Shut down channel %s", qa.getChannel());
         }
+        nodeLoops.remove(qa);
         redistributeOperations(notCompletedOperations);
       }
     }
@@ -547,12 +915,14 @@ public class MemcachedConnection extends SpyThread {
 
   /**
    * Check if one or more nodes exceeded the timeout Threshold.
+   *
+   * @param loop the selector loop whose nodes should be checked.
    */
-  private void checkPotentiallyTimedOutConnection() {
+  private void checkPotentiallyTimedOutConnection(final SelectorLoop loop) {
     boolean stillCheckingTimeouts = true;
     while (stillCheckingTimeouts) {
       try {
-        for (SelectionKey sk : selector.keys()) {
+        for (SelectionKey sk : loop.selector.keys()) {
           MemcachedNode mn = (MemcachedNode) sk.attachment();
           if (mn.getContinuousTimeout() > timeoutExceptionThreshold) {
             getLogger().warn("%s exceeded continuous timeout threshold", sk);
@@ -568,21 +938,59 @@ public class MemcachedConnection extends SpyThread {
     }
   }
 
+  /**
+   * Time out all operations whose deadline has passed.
+   *
+   * Operations which have not been written yet are marked as such so they
+   * are dropped from the write queue instead of being sent. Operations
+   * already on the wire count towards the continuous timeouts of their
+   * node, just like when a caller gives up waiting on them.
+   */
+  private void expireOperations() {
+    timeouts.expire(System.nanoTime(), expiredOps);
+    if (expiredOps.isEmpty()) {
+      return;
+    }
+    long timeout = connectionFactory.getOperationTimeout();
+    for (Operation op : expiredOps) {
+      synchronized (op) {
+        if (op.isCancelled() || op.isTimedOut()
+          || op.getState() == OperationState.COMPLETE) {
+          continue;
+        }
+        if (op.getState() == OperationState.WRITE_QUEUED) {
+          op.isTimedOut(timeout);
+        } else {
+          opTimedOut(op);
+          op.timeOut();
+        }
+      }
+      getLogger().debug("Expired %s", op);
+      timeoutMeter.mark();
+    }
+    expiredOps.clear();
+  }
+
   /**
    * Handle any requests that have been made against the client.
+   *
+   * @param loop the selector loop whose queue should be handled.
    */
-  private void handleInputQueue() {
-    if (!addedQueue.isEmpty()) {
+  private void handleInputQueue(final SelectorLoop loop) {
+    if (!loop.addedQueue.isEmpty()) {
       getLogger().debug("Handling queue");
-      Collection<MemcachedNode> toAdd = new HashSet<MemcachedNode>();
-      Collection<MemcachedNode> todo = new HashSet<MemcachedNode>();
+      List<MemcachedNode> todo = loop.todo;
+      List<MemcachedNode> toAdd = loop.toAdd;
 
       MemcachedNode qaNode;
-      while ((qaNode = addedQueue.poll()) != null) {
-        todo.add(qaNode);
+      while ((qaNode = loop.addedQueue.poll()) != null) {
+        if (loop.seen.put(qaNode, Boolean.TRUE) == null) {
+          todo.add(qaNode);
+        }
       }
 
-      for (MemcachedNode node : todo) {
+      for (int i = 0; i < todo.size(); i++) {
+        MemcachedNode node = todo.get(i);
         boolean readyForIO = false;
         if (node.isActive()) {
           if (node.getCurrentWriteOp() != null) {
@@ -605,7 +1013,28 @@ public class MemcachedConnection extends SpyThread {
         }
         node.fixupOps();
       }
-      addedQueue.addAll(toAdd);
+      loop.addedQueue.addAll(toAdd);
+      todo.clear();
+      toAdd.clear();
+      loop.seen.clear();
+    }
+  }
+
+  /**
+   * Wake up the given selector loop, unless a wakeup is already pending for
+   * its current select cycle.
+   *
+   * The loop clears the flag before it drains its added queue, so a node
+   * queued after that drain always either finds the flag clear and wakes the
+   * selector, or was queued early enough to be seen by the drain.
+   *
+   * @param loop the selector loop to wake up.
+   */
+  private void wakeUp(final SelectorLoop loop) {
+    if (!loop.wakeupPending.get()
+      && loop.wakeupPending.compareAndSet(false, true)) {
+      Selector s = loop.selector.wakeup();
+      assert s == loop.selector : "Wakeup returned the wrong selector.";
     }
   }
 
@@ -636,6 +1065,10 @@ public class MemcachedConnection extends SpyThread {
     assert node.getChannel().isConnected() : "Not connected.";
     int rt = node.getReconnectCount();
     node.connected();
+    PooledMemcachedNode pool = pools.get(node);
+    if (pool != null) {
+      pool.connected(node);
+    }
 
     for (ConnectionObserver observer : connObservers) {
       observer.connectionEstablished(node.getSocketAddress(), rt);
@@ -793,7 +1226,7 @@ public class MemcachedConnection extends SpyThread {
     }
 
     connected(node);
-    addedQueue.offer(node);
+    loopFor(node).addedQueue.offer(node);
     if (node.getWbuf().hasRemaining()) {
       handleWrites(node);
     }
@@ -810,7 +1243,7 @@ public class MemcachedConnection extends SpyThread {
     boolean canWriteMore = node.getBytesRemainingToWrite() > 0;
     while (canWriteMore) {
       int wrote = node.writeSome();
-      metrics.updateHistogram(OVERALL_AVG_BYTES_WRITE_METRIC, wrote);
+      bytesWrittenHistogram.update(wrote);
       node.fillWriteBuffer(shouldOptimize);
       canWriteMore = wrote > 0 && node.getBytesRemainingToWrite() > 0;
     }
@@ -832,7 +1265,7 @@ public class MemcachedConnection extends SpyThread {
     ByteBuffer rbuf = node.getRbuf();
     final SocketChannel channel = node.getChannel();
     int read = channel.read(rbuf);
-    metrics.updateHistogram(OVERALL_AVG_BYTES_READ_METRIC, read);
+    bytesReadHistogram.update(read);
     if (read < 0) {
       currentOp = handleReadsWhenChannelEndOfStream(currentOp, node, rbuf);
     }
@@ -845,11 +1278,15 @@ public class MemcachedConnection extends SpyThread {
           throw new IllegalStateException("No read operation.");
         }
 
-        long timeOnWire =
-          System.nanoTime() - currentOp.getWriteCompleteTimestamp();
-        metrics.updateHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC,
-          (int)(timeOnWire / 1000));
-        metrics.markMeter(OVERALL_RESPONSE_METRIC);
+        if (metricType != MetricType.OFF) {
+          long timeOnWire =
+            System.nanoTime() - currentOp.getWriteCompleteTimestamp();
+          timeOnWireHistogram.update((int) (timeOnWire / 1000));
+          responseMeter.mark();
+        }
+        if (tracer != null) {
+          currentOp.trace(OperationTracer.Event.FIRST_BYTE);
+        }
         synchronized(currentOp) {
           readBufferAndLogMetrics(currentOp, rbuf, node);
         }
@@ -880,10 +1317,13 @@ public class MemcachedConnection extends SpyThread {
       assert op == currentOp : "Expected to pop " + currentOp + " got "
         + op;
 
+      if (latencies != null) {
+        latencies.record(op, node, System.nanoTime());
+      }
       if (op.hasErrored()) {
-        metrics.markMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        failureMeter.mark();
       } else {
-        metrics.markMeter(OVERALL_RESPONSE_SUCC_METRIC);
+        successMeter.mark();
       }
     } else if (currentOp.getState() == OperationState.RETRY) {
       handleRetryInformation(currentOp.getErrorMsg());
@@ -896,7 +1336,7 @@ public class MemcachedConnection extends SpyThread {
         + op;
 
       retryOperation(currentOp);
-      metrics.markMeter(OVERALL_RESPONSE_RETRY_METRIC);
+      retryMeter.mark();
     }
   }
 
@@ -993,12 +1433,14 @@ public class MemcachedConnection extends SpyThread {
     long delay = (long) Math.min(maxDelay, Math.pow(2,
         node.getReconnectCount()) * 1000);
     long reconnectTime = System.currentTimeMillis() + delay;
-    while (reconnectQueue.containsKey(reconnectTime)) {
+    SortedMap<Long, MemcachedNode> nodeReconnectQueue =
+      loopFor(node).reconnectQueue;
+    while (nodeReconnectQueue.containsKey(reconnectTime)) {
       reconnectTime++;
     }
 
-    reconnectQueue.put(reconnectTime, node);
-    metrics.incrementCounter(RECON_QUEUE_METRIC);
+    nodeReconnectQueue.put(reconnectTime, node);
+    reconnectCounter.increment(1);
 
     node.setupResend();
     if (failureMode == FailureMode.Redistribute) {
@@ -1058,7 +1500,9 @@ public class MemcachedConnection extends SpyThread {
     // The operation gets redistributed but has never been actually written,
     // it we just straight re-add it without cloning.
     if (op.getState() == OperationState.WRITE_QUEUED && op.getHandlingNode() != null) {
-      addOperation(op.getHandlingNode(), op);
+      // Let pooled nodes pick a connection which is still alive.
+      MemcachedNode pool = pools.get(op.getHandlingNode());
+      addOperation(pool == null ? op.getHandlingNode() : pool, op);
       return;
     }
 
@@ -1101,8 +1545,10 @@ public class MemcachedConnection extends SpyThread {
    *
    * Note that if a socket error arises during reconnect, the node is scheduled
    * for re-reconnect immediately.
+   *
+   * @param loop the selector loop whose nodes should be reconnected.
    */
-  private void attemptReconnects() {
+  private void attemptReconnects(final SelectorLoop loop) {
     final long now = System.currentTimeMillis();
     final Map<MemcachedNode, Boolean> seen =
       new IdentityHashMap<MemcachedNode, Boolean>();
@@ -1110,11 +1556,12 @@ public class MemcachedConnection extends SpyThread {
     SocketChannel ch = null;
 
 
-    Iterator<MemcachedNode> i = reconnectQueue.headMap(now).values().iterator();
+    Iterator<MemcachedNode> i =
+      loop.reconnectQueue.headMap(now).values().iterator();
     while(i.hasNext()) {
       final MemcachedNode node = i.next();
       i.remove();
-      metrics.decrementCounter(RECON_QUEUE_METRIC);
+      reconnectCounter.decrement(1);
 
       try {
         if (!belongsToCluster(node)) {
@@ -1133,13 +1580,13 @@ public class MemcachedConnection extends SpyThread {
           int ops = 0;
           if (ch.connect(node.getSocketAddress())) {
             connected(node);
-            addedQueue.offer(node);
+            loop.addedQueue.offer(node);
             getLogger().info("Immediately reconnected to %s", node);
             assert ch.isConnected();
           } else {
             ops = SelectionKey.OP_CONNECT;
           }
-          node.registerChannel(ch, ch.register(selector, ops, node));
+          node.registerChannel(ch, ch.register(loop.selector, ops, node));
           assert node.getChannel() == ch : "Channel was lost.";
         } else {
           getLogger().debug("Skipping duplicate reconnect request for %s",
@@ -1187,6 +1634,48 @@ public class MemcachedConnection extends SpyThread {
     return locator;
   }
 
+  /**
+   * Returns the hottest keys of each node seen in the last completed window.
+   *
+   * @return the hot keys, hottest first, empty if hot key sampling is
+   *         disabled.
+   */
+  public List<HotKey> getHotKeys() {
+    return hotKeys == null ? Collections.<HotKey>emptyList()
+        : hotKeys.getHotKeys();
+  }
+
+  /**
+   * Keep a key on several nodes, spreading its reads across them.
+   *
+   * @param key the key
+   * @param replicas the number of nodes to keep the key on, 1 stops
+   *        replicating it.
+   */
+  public void setHotKeyReplicas(String key, int replicas) {
+    replicator.setReplicas(key, replicas);
+  }
+
+  /**
+   * Keep the replicas of a key in sync with a write which was added to a
+   * node directly instead of by its key, as bulk mutations are.
+   *
+   * @param key the key written.
+   * @param node the node the write was added to.
+   */
+  public void keyWritten(final String key, final MemcachedNode node) {
+    replicator.written(key, node);
+  }
+
+  /**
+   * Returns the latencies of answered operations by type, node and phase.
+   *
+   * @return the latencies, or null if metrics are disabled.
+   */
+  public OperationLatencies getOperationLatencies() {
+    return latencies;
+  }
+
   /**
    * Enqueue the given {@link Operation} with the used key.
    *
@@ -1240,7 +1729,12 @@ public class MemcachedConnection extends SpyThread {
 
     assert o.isCancelled() || placeIn != null : "No node found for key " + key;
     if (placeIn != null) {
-      addOperation(placeIn, o);
+      if (hotKeys != null) {
+        hotKeys.sample(key, primary);
+      }
+      if (!replicator.route(key, primary, placeIn, o)) {
+        addOperation(placeIn, o);
+      }
     } else {
       assert o.isCancelled() : "No node found for " + key + " (and not "
         + "immediately cancelled)";
@@ -1250,43 +1744,72 @@ public class MemcachedConnection extends SpyThread {
   /**
    * Insert an operation on the given node to the beginning of the queue.
    *
-   * @param node the node where to insert the {@link Operation}.
+   * @param to the node where to insert the {@link Operation}, or the pool
+   *          to pick a connection from.
    * @param o the operation to insert.
    */
-  public void insertOperation(final MemcachedNode node, final Operation o) {
+  public void insertOperation(final MemcachedNode to, final Operation o) {
+    MemcachedNode node = selectConnection(to);
     o.setHandlingNode(node);
     o.initialize();
+    traceEnqueued(o);
     node.insertOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    SelectorLoop loop = loopFor(node);
+    loop.addedQueue.offer(node);
+    requestMeter.mark();
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeUp(loop);
     getLogger().debug("Added %s to %s", o, node);
   }
 
   /**
    * Enqueue an operation on the given node.
    *
-   * @param node the node where to enqueue the {@link Operation}.
+   * @param to the node where to enqueue the {@link Operation}, or the pool
+   *          to pick a connection from.
    * @param o the operation to add.
    */
-  protected void addOperation(final MemcachedNode node, final Operation o) {
+  protected void addOperation(final MemcachedNode to, final Operation o) {
+    MemcachedNode node = selectConnection(to);
     if (!node.isAuthenticated()) {
       retryOperation(o);
       return;
     }
     o.setHandlingNode(node);
     o.initialize();
+    traceEnqueued(o);
     node.addOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    SelectorLoop loop = loopFor(node);
+    if (timeouts != null
+      && timeouts.schedule(o, connectionFactory.getOperationTimeout())
+      && loop != loops[0]) {
+      wakeUp(loops[0]);
+    }
+    loop.addedQueue.offer(node);
+    requestMeter.mark();
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeUp(loop);
     getLogger().debug("Added %s to %s", o, node);
   }
 
+  /**
+   * Sample an operation about to be enqueued for tracing, and tell its
+   * tracer that it is enqueued.
+   *
+   * @param o the operation to enqueue.
+   */
+  private void traceEnqueued(final Operation o) {
+    if (tracer == null) {
+      return;
+    }
+    if (o.getTracer() == null && tracer.isTraced(o)) {
+      o.setTracer(tracer);
+      tracer.traced(o, OperationTracer.Event.CREATED,
+        o.getCreationTimestamp());
+    }
+    o.trace(OperationTracer.Event.ENQUEUED);
+  }
+
   /**
    * Enqueue the given list of operations on each handling node.
    *
@@ -1321,15 +1844,18 @@ public class MemcachedConnection extends SpyThread {
     for (MemcachedNode node : nodes) {
       getLogger().debug("broadcast Operation: node = " + node);
       Operation op = of.newOp(node, latch);
+      MemcachedNode conn = selectConnection(node);
+      op.setHandlingNode(conn);
       op.initialize();
-      node.addOp(op);
-      op.setHandlingNode(node);
-      addedQueue.offer(node);
-      metrics.markMeter(OVERALL_REQUEST_METRIC);
+      traceEnqueued(op);
+      conn.addOp(op);
+      loopFor(conn).addedQueue.offer(conn);
+      requestMeter.mark();
     }
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    for (SelectorLoop loop : loops) {
+      wakeUp(loop);
+    }
     return latch;
   }
 
@@ -1338,10 +1864,18 @@ public class MemcachedConnection extends SpyThread {
    */
   public void shutdown() throws IOException {
     shutDown = true;
+    if (hotKeys != null) {
+      hotKeys.unregister();
+    }
+    for (String gauge : gauges) {
+      metrics.removeGauge(gauge);
+    }
     try {
-      Selector s = selector.wakeup();
-      assert s == selector : "Wakeup returned the wrong selector.";
-      for (MemcachedNode node : locator.getAll()) {
+      for (SelectorLoop loop : loops) {
+        Selector s = loop.selector.wakeup();
+        assert s == loop.selector : "Wakeup returned the wrong selector.";
+      }
+      for (MemcachedNode node : getChannelNodes()) {
         if (node.getChannel() != null) {
           node.getChannel().close();
           node.setSk(null);
@@ -1353,11 +1887,38 @@ public class MemcachedConnection extends SpyThread {
         }
       }
 
-      selector.close();
-      getLogger().debug("Shut down selector %s", selector);
+      for (SelectorLoop loop : loops) {
+        loop.selector.close();
+        getLogger().debug("Shut down selector %s", loop.selector);
+      }
     } finally {
       running = false;
     }
+    joinSelectorThreads();
+    nodeLoops.clear();
+  }
+
+  /**
+   * Wait a bounded time for the additional selector threads to finish after
+   * their selectors were closed.
+   */
+  private void joinSelectorThreads() {
+    long end = System.currentTimeMillis() + SELECTOR_JOIN_MILLIS;
+    for (SelectorThread t : selectorThreads) {
+      long left = end - System.currentTimeMillis();
+      if (t == Thread.currentThread() || left <= 0) {
+        continue;
+      }
+      try {
+        t.join(left);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (t.isAlive()) {
+        getLogger().warn("Selector thread %s did not shut down", t.getName());
+      }
+    }
   }
 
   @Override
@@ -1455,9 +2016,19 @@ public class MemcachedConnection extends SpyThread {
    */
   @Override
   public void run() {
+    runLoop(loops[0]);
+  }
+
+  /**
+   * Handle IO on the given selector loop as long as the application is
+   * running.
+   *
+   * @param loop the selector loop to drive.
+   */
+  private void runLoop(final SelectorLoop loop) {
     while (running) {
       try {
-        handleIO();
+        handleIO(loop);
       } catch (IOException e) {
         logRunException(e);
       } catch (CancelledKeyException e) {
@@ -1516,4 +2087,75 @@ public class MemcachedConnection extends SpyThread {
     retryOps.add(op);
   }
 
+  /**
+   * The state of a single selector loop.
+   *
+   * Every node is bound to exactly one loop, which owns its channel
+   * registration, the drain of its input queue, its reconnects and the
+   * checks for continuous timeouts.
+   */
+  private static final class SelectorLoop {
+
+    private final Selector selector;
+
+    private final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
+
+    private final SortedMap<Long, MemcachedNode> reconnectQueue;
+
+    /**
+     * Set once a wakeup has been requested for the current select cycle, so
+     * that concurrent producers issue at most one wakeup between two
+     * selects.
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * Nodes drained from the added queue, reused across cycles.
+     */
+    private final List<MemcachedNode> todo = new ArrayList<MemcachedNode>();
+
+    /**
+     * Identity set over {@link #todo} to skip nodes queued more than once.
+     */
+    private final Map<MemcachedNode, Boolean> seen =
+      new IdentityHashMap<MemcachedNode, Boolean>();
+
+    /**
+     * Inactive nodes to put back on the added queue, reused across cycles.
+     */
+    private final List<MemcachedNode> toAdd = new ArrayList<MemcachedNode>();
+
+    /**
+     * Contains the current number of empty select() calls, which could
+     * indicate bugs.
+     */
+    private int emptySelects = 0;
+
+    SelectorLoop(final Selector selector,
+      final ConcurrentLinkedQueue<MemcachedNode> addedQueue,
+      final SortedMap<Long, MemcachedNode> reconnectQueue) {
+      this.selector = selector;
+      this.addedQueue = addedQueue;
+      this.reconnectQueue = reconnectQueue;
+    }
+  }
+
+  /**
+   * Thread driving one of the additional selector loops.
+   */
+  private final class SelectorThread extends SpyThread {
+
+    private final SelectorLoop loop;
+
+    SelectorThread(final SelectorLoop loop, final String name) {
+      super(name);
+      this.loop = loop;
+    }
+
+    @Override
+    public void run() {
+      runLoop(loop);
+    }
+  }
+
 }
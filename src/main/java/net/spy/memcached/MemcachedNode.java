@@ -31,6 +31,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.BufferPool;
 
 /**
  * Interface defining a connection to a memcached server.
@@ -242,4 +243,20 @@ public interface MemcachedNode {
   MemcachedConnection getConnection();
 
   void setConnection(MemcachedConnection connection);
+
+  /**
+   * Get the pool request buffers for this node are borrowed from.
+   *
+   * @return the pool, or null if operations should allocate their own.
+   */
+  BufferPool getBufferPool();
+
+  /**
+   * The number of operations queued on this node or waiting for their
+   * response.
+   *
+   * @return an estimate of the outstanding operations, as the queues may be
+   *         changing concurrently.
+   */
+  int getOutstandingOps();
 }
@@ -31,6 +31,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.BufferPool;
 
 public class MemcachedNodeROImpl implements MemcachedNode {
 
@@ -200,4 +201,14 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public BufferPool getBufferPool() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int getOutstandingOps() {
+    return root.getOutstandingOps();
+  }
+
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * A value returned by a meta get, along with the flags memcached uses to
+ * let exactly one client recache a hot or stale item.
+ */
+public class MetaValue<T> extends CASValue<T> {
+  private final boolean win;
+  private final boolean stale;
+  private final boolean winTokenSent;
+
+  /**
+   * Construct a new MetaValue.
+   *
+   * @param c the CAS identifier
+   * @param v the value, null on a miss
+   * @param w true if this client won the right to recache the item
+   * @param s true if the item was marked stale
+   * @param t true if another client already won the right to recache
+   */
+  public MetaValue(long c, T v, boolean w, boolean s, boolean t) {
+    super(c, v);
+    win = w;
+    stale = s;
+    winTokenSent = t;
+  }
+
+  /**
+   * True if this client should recompute and store the value.
+   */
+  public boolean isWin() {
+    return win;
+  }
+
+  /**
+   * True if the value was marked stale by an invalidation.
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  /**
+   * True if another client is already recomputing the value.
+   */
+  public boolean isWinTokenSent() {
+    return winTokenSent;
+  }
+
+  @Override
+  public String toString() {
+    return "{MetaValue " + getCas() + "/" + getValue() + " win=" + win
+      + " stale=" + stale + " winTokenSent=" + winTokenSent + "}";
+  }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.metrics.MeterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * A bounded, in-process cache of raw values kept in front of the servers.
+ *
+ * Entries are stored as {@link CachedData} so every hit is decoded afresh
+ * with the caller's transcoder and callers never share mutable objects. The
+ * cache is split into segments, each an access ordered LRU map guarded by
+ * its own lock and holding an equal share of the configured byte budget.
+ *
+ * Every entry lives for at most the configured time to live, further capped
+ * by the memcached expiration when it is known. Writes made through the
+ * owning client invalidate the key. A lookup that misses takes a snapshot of
+ * the segment {@link #stamps() stamps} before going to the network and only
+ * stores the value it gets back if its key was not invalidated in between,
+ * so a slow read can never resurrect a value that was overwritten locally.
+ * Each segment remembers its last {@link #MAX_INVALIDATIONS} invalidated
+ * keys, only lookups older than the ones it forgot are dropped for every
+ * key of the segment.
+ *
+ * Hits, misses and evictions are reported to the {@link MetricCollector}.
+ */
+public final class NearCache {
+
+  /**
+   * Meter marked whenever a lookup was served from the near cache.
+   */
+  public static final String HIT_METRIC = "[MEM] Near Cache: Hit";
+
+  /**
+   * Meter marked whenever a lookup had to go to the servers.
+   */
+  public static final String MISS_METRIC = "[MEM] Near Cache: Miss";
+
+  /**
+   * Meter marked whenever an entry was evicted to stay within the budget.
+   */
+  public static final String EVICTION_METRIC = "[MEM] Near Cache: Eviction";
+
+  /**
+   * Status given to futures completed from the near cache.
+   */
+  public static final OperationStatus HIT_STATUS =
+      new OperationStatus(true, "NEAR_CACHE_HIT", StatusCode.SUCCESS);
+
+  /**
+   * Default number of segments.
+   */
+  public static final int DEFAULT_SEGMENTS = 16;
+
+  /**
+   * Approximate number of bytes an entry costs besides its key and value.
+   */
+  static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * Number of invalidated keys remembered per segment.
+   */
+  static final int MAX_INVALIDATIONS = 256;
+
+  /**
+   * Expiration values above this are absolute unix times (30 days).
+   */
+  private static final int MAX_RELATIVE_EXP = 60 * 60 * 24 * 30;
+
+  private final Segment[] segments;
+  private final long segmentBudget;
+  private final long ttlMillis;
+  private final MeterHandle hitMeter;
+  private final MeterHandle missMeter;
+  private final MeterHandle evictionMeter;
+
+  /**
+   * Create a near cache with the default number of segments.
+   *
+   * @param maxBytes the approximate upper bound of memory to use
+   * @param ttl how long, in milliseconds, an entry may be served
+   * @param metrics the collector to report hits, misses and evictions to
+   */
+  public NearCache(long maxBytes, long ttl, MetricCollector metrics) {
+    this(maxBytes, ttl, metrics, DEFAULT_SEGMENTS);
+  }
+
+  /**
+   * Create a near cache.
+   *
+   * @param maxBytes the approximate upper bound of memory to use
+   * @param ttl how long, in milliseconds, an entry may be served
+   * @param metrics the collector to report hits, misses and evictions to
+   * @param segmentCount the number of segments, rounded up to a power of two
+   */
+  public NearCache(long maxBytes, long ttl, MetricCollector metrics,
+      int segmentCount) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Invalid near cache size: "
+          + maxBytes);
+    }
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("Invalid near cache TTL: " + ttl);
+    }
+    if (segmentCount <= 0) {
+      throw new IllegalArgumentException("Invalid segment count: "
+          + segmentCount);
+    }
+    int n = Integer.highestOneBit(segmentCount);
+    if (n < segmentCount) {
+      n <<= 1;
+    }
+    segments = new Segment[n];
+    for (int i = 0; i < n; i++) {
+      segments[i] = new Segment();
+    }
+    segmentBudget = Math.max(1, maxBytes / n);
+    ttlMillis = ttl;
+    hitMeter = metrics.getMeter(HIT_METRIC);
+    missMeter = metrics.getMeter(MISS_METRIC);
+    evictionMeter = metrics.getMeter(EVICTION_METRIC);
+  }
+
+  /**
+   * Look up a live entry.
+   *
+   * @param key the key to look up
+   * @return the cached value, or null if there is none or it expired
+   */
+  public CachedData get(String key) {
+    Segment s = segments[indexFor(key)];
+    long now = System.nanoTime();
+    Entry e;
+    synchronized (s) {
+      e = s.get(key);
+      if (e != null && e.expires - now <= 0) {
+        s.remove(key);
+        s.weight -= e.weight;
+        e = null;
+      }
+    }
+    if (e == null) {
+      missMeter.mark();
+      return null;
+    }
+    hitMeter.mark();
+    return e.data;
+  }
+
+  /**
+   * Snapshot the invalidation stamps of all segments.
+   *
+   * Take the snapshot before sending the request whose result will be passed
+   * to {@link #put(String, CachedData, int, long[])}.
+   *
+   * @return the current stamps
+   */
+  public long[] stamps() {
+    long[] rv = new long[segments.length];
+    for (int i = 0; i < rv.length; i++) {
+      synchronized (segments[i]) {
+        rv[i] = segments[i].stamp;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Store a value fetched from the servers.
+   *
+   * The value is dropped if the key was invalidated since the stamps were
+   * taken, if the value alone exceeds a segment's budget or if the
+   * expiration says it is already gone.
+   *
+   * @param key the key
+   * @param data the raw value
+   * @param exp the memcached expiration of the value, 0 if unknown
+   * @param stamps the stamps taken before the value was requested
+   */
+  public void put(String key, CachedData data, int exp, long[] stamps) {
+    long ttl = ttlFor(exp);
+    if (ttl <= 0) {
+      return;
+    }
+    long w = weigh(key, data);
+    if (w > segmentBudget) {
+      return;
+    }
+    int idx = indexFor(key);
+    Segment s = segments[idx];
+    long expires = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl);
+    int evicted = 0;
+    synchronized (s) {
+      if (s.invalidatedSince(key, stamps[idx])) {
+        return;
+      }
+      Entry old = s.put(key, new Entry(data, expires, w));
+      if (old != null) {
+        s.weight -= old.weight;
+      }
+      s.weight += w;
+      // The new entry is the most recently used one and fits on its own, so
+      // this never evicts it.
+      for (Iterator<Entry> i = s.values().iterator(); s.weight > segmentBudget
+          && i.hasNext();) {
+        s.weight -= i.next().weight;
+        i.remove();
+        evicted++;
+      }
+    }
+    for (int i = 0; i < evicted; i++) {
+      evictionMeter.mark();
+    }
+  }
+
+  /**
+   * Drop a key and make any in-flight lookup for it skip populating.
+   *
+   * @param key the key that changed
+   */
+  public void invalidate(String key) {
+    Segment s = segments[indexFor(key)];
+    synchronized (s) {
+      s.invalidate(key);
+      Entry e = s.remove(key);
+      if (e != null) {
+        s.weight -= e.weight;
+      }
+    }
+  }
+
+  /**
+   * Drop every entry.
+   */
+  public void clear() {
+    for (Segment s : segments) {
+      synchronized (s) {
+        s.invalidateAll();
+        s.clear();
+        s.weight = 0;
+      }
+    }
+  }
+
+  /**
+   * Get the number of entries, including expired ones not yet dropped.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    int rv = 0;
+    for (Segment s : segments) {
+      synchronized (s) {
+        rv += s.size();
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Get the approximate number of bytes held.
+   *
+   * @return the weight of all entries
+   */
+  public long getWeight() {
+    long rv = 0;
+    for (Segment s : segments) {
+      synchronized (s) {
+        rv += s.weight;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Get the time to live of entries.
+   *
+   * @return the time to live in milliseconds
+   */
+  public long getTTL() {
+    return ttlMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "NearCache{segments=" + segments.length + ", segmentBudget="
+        + segmentBudget + ", ttl=" + ttlMillis + "}";
+  }
+
+  private long ttlFor(int exp) {
+    if (exp < 0) {
+      return 0;
+    }
+    if (exp == 0) {
+      return ttlMillis;
+    }
+    long remaining = exp <= MAX_RELATIVE_EXP ? exp * 1000L
+        : exp * 1000L - System.currentTimeMillis();
+    return Math.min(ttlMillis, remaining);
+  }
+
+  private int indexFor(String key) {
+    int h = key.hashCode();
+    return (h ^ (h >>> 16)) & (segments.length - 1);
+  }
+
+  static long weigh(String key, CachedData data) {
+    return ENTRY_OVERHEAD + 2L * key.length() + data.getData().length;
+  }
+
+  private static final class Entry {
+    private final CachedData data;
+    private final long expires;
+    private final long weight;
+
+    Entry(CachedData d, long exp, long w) {
+      data = d;
+      expires = exp;
+      weight = w;
+    }
+  }
+
+  private static final class Segment extends LinkedHashMap<String, Entry> {
+    private static final long serialVersionUID = 1L;
+
+    private long weight;
+    private long stamp;
+
+    /**
+     * The stamp of the last invalidation of each remembered key, oldest
+     * first.
+     */
+    private final LinkedHashMap<String, Long> invalidated =
+        new LinkedHashMap<String, Long>();
+
+    /**
+     * Lookups with a stamp below this may have missed a forgotten
+     * invalidation.
+     */
+    private long floor;
+
+    Segment() {
+      super(16, 0.75f, true);
+    }
+
+    void invalidate(String key) {
+      stamp++;
+      invalidated.remove(key);
+      invalidated.put(key, stamp);
+      if (invalidated.size() > MAX_INVALIDATIONS) {
+        Iterator<Long> i = invalidated.values().iterator();
+        floor = i.next();
+        i.remove();
+      }
+    }
+
+    void invalidateAll() {
+      stamp++;
+      floor = stamp;
+      invalidated.clear();
+    }
+
+    boolean invalidatedSince(String key, long since) {
+      if (since < floor) {
+        return true;
+      }
+      Long last = invalidated.get(key);
+      return last != null && last > since;
+    }
+  }
+}
@@ -23,6 +23,8 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -163,6 +165,16 @@ public interface OperationFactory {
   ReplicaGetsOperation replicaGets(String key, int index,
     ReplicaGetsOperation.Callback callback);
 
+  /**
+   * Create a pipelined run of mutations on keys of the same node.
+   *
+   * @param mutations the mutations to send
+   * @param cb the callback receiving the status of each key
+   * @return a new BulkMutationOperation
+   */
+  BulkMutationOperation bulkMutate(Collection<BulkMutation> mutations,
+    BulkMutationOperation.Callback cb);
+
   /**
    * Create a getl operation. A getl gets the value for a key and then locks the
    * value for a given amount of time. The maximum default lock time is 30
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.spy.memcached.metrics.LatencyHistogram;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.ConcatenationOperation;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetlOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Latency histograms of answered operations by type, node and phase.
+ *
+ * Every operation read back from a server is recorded once it completed:
+ * the time from its creation until it was written ({@link Phase#QUEUE}),
+ * from then until its answer was read ({@link Phase#WIRE}), and the time
+ * its callback took ({@link Phase#CALLBACK}). The histograms are created on
+ * first use and recorded without locking, see {@link LatencyHistogram}.
+ *
+ * Operations which were folded into a merged operation to be sent together
+ * are recorded one by one with their own type once the merged operation
+ * completed, queued from their own creation until the merged operation was
+ * written. Operations sent without reply are only recorded when a fence
+ * confirmed them this way.
+ */
+public final class OperationLatencies {
+
+  /**
+   * The types operations are grouped by.
+   */
+  public enum Type {
+    GET, MULTIGET, SET, CAS, DELETE, INCR, TOUCH, OTHER
+  }
+
+  /**
+   * The phases of an operation.
+   */
+  public enum Phase {
+    /**
+     * Waiting in the input and write queues and being written.
+     */
+    QUEUE,
+    /**
+     * Waiting for and reading the answer.
+     */
+    WIRE,
+    /**
+     * Running the callback of the completed operation.
+     */
+    CALLBACK
+  }
+
+  private static final int TYPES = Type.values().length;
+  private static final int PHASES = Phase.values().length;
+
+  private final ConcurrentMap<SocketAddress,
+      AtomicReferenceArray<LatencyHistogram>> nodes = new ConcurrentHashMap<
+        SocketAddress, AtomicReferenceArray<LatencyHistogram>>();
+
+  /**
+   * Record a completed operation, or the operations folded into it.
+   *
+   * @param op the operation
+   * @param node the node it was read from
+   * @param now the time its callback returned
+   */
+  void record(Operation op, MemcachedNode node, long now) {
+    long complete = op.getCompleteTimestamp();
+    long written = op.getWriteCompleteTimestamp();
+    if (complete == 0 || written == 0) {
+      return;
+    }
+    AtomicReferenceArray<LatencyHistogram> histograms =
+        nodes.get(node.getSocketAddress());
+    if (histograms == null) {
+      histograms = new AtomicReferenceArray<LatencyHistogram>(TYPES * PHASES);
+      AtomicReferenceArray<LatencyHistogram> existing =
+          nodes.putIfAbsent(node.getSocketAddress(), histograms);
+      if (existing != null) {
+        histograms = existing;
+      }
+    }
+    List<Operation> folded = op.getFoldedOperations();
+    if (folded.isEmpty()) {
+      record(histograms, op, written, complete, now);
+    } else {
+      for (Operation f : folded) {
+        record(histograms, f, written, complete, now);
+      }
+    }
+  }
+
+  private static void record(
+      AtomicReferenceArray<LatencyHistogram> histograms, Operation op,
+      long written, long complete, long now) {
+    int base = typeOf(op).ordinal() * PHASES;
+    histogram(histograms, base + Phase.QUEUE.ordinal())
+        .record(written - op.getCreationTimestamp());
+    histogram(histograms, base + Phase.WIRE.ordinal())
+        .record(complete - written);
+    histogram(histograms, base + Phase.CALLBACK.ordinal())
+        .record(now - complete);
+  }
+
+  /**
+   * Get the nodes latencies were recorded for.
+   */
+  public Set<SocketAddress> getNodes() {
+    return Collections.unmodifiableSet(nodes.keySet());
+  }
+
+  /**
+   * Get the latencies of one type, node and phase.
+   *
+   * @param type the type of operations
+   * @param node the address of the node
+   * @param phase the phase
+   * @return a snapshot of the latencies in nanoseconds
+   */
+  public LatencyHistogram.Snapshot getSnapshot(Type type, SocketAddress node,
+      Phase phase) {
+    AtomicReferenceArray<LatencyHistogram> histograms = nodes.get(node);
+    LatencyHistogram h = histograms == null ? null
+        : histograms.get(type.ordinal() * PHASES + phase.ordinal());
+    return h == null ? LatencyHistogram.Snapshot.EMPTY : h.snapshot();
+  }
+
+  /**
+   * Get the latencies of one type and phase across all nodes.
+   *
+   * @param type the type of operations
+   * @param phase the phase
+   * @return a snapshot of the latencies in nanoseconds
+   */
+  public LatencyHistogram.Snapshot getSnapshot(Type type, Phase phase) {
+    LatencyHistogram.Snapshot rv = LatencyHistogram.Snapshot.EMPTY;
+    for (SocketAddress node : nodes.keySet()) {
+      rv = rv.merge(getSnapshot(type, node, phase));
+    }
+    return rv;
+  }
+
+  static Type typeOf(Operation op) {
+    if (op instanceof GetOperation) {
+      return ((GetOperation) op).getKeys().size() == 1 ? Type.GET
+          : Type.MULTIGET;
+    } else if (op instanceof GetsOperation || op instanceof GetlOperation) {
+      return Type.GET;
+    } else if (op instanceof StoreOperation) {
+      return op instanceof CASOperation
+          && ((CASOperation) op).getCasValue() != 0 ? Type.CAS : Type.SET;
+    } else if (op instanceof CASOperation) {
+      return Type.CAS;
+    } else if (op instanceof ConcatenationOperation) {
+      return Type.SET;
+    } else if (op instanceof DeleteOperation) {
+      return Type.DELETE;
+    } else if (op instanceof MutatorOperation) {
+      return Type.INCR;
+    } else if (op instanceof TouchOperation
+        || op instanceof GetAndTouchOperation) {
+      return Type.TOUCH;
+    }
+    return Type.OTHER;
+  }
+
+  private static LatencyHistogram histogram(
+      AtomicReferenceArray<LatencyHistogram> histograms, int i) {
+    LatencyHistogram h = histograms.get(i);
+    if (h == null) {
+      histograms.compareAndSet(i, null, new LatencyHistogram());
+      h = histograms.get(i);
+    }
+    return h;
+  }
+}
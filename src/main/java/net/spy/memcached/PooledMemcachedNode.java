@@ -0,0 +1,408 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.BufferPool;
+
+/**
+ * A single server reached through several connections.
+ *
+ * <p>
+ * The pool is what the {@link NodeLocator} and the client see, while each of
+ * its connections is a regular {@link MemcachedNode} owning its own channel,
+ * queues and reconnect schedule. Whenever an operation is queued on the pool
+ * the {@link MemcachedConnection} picks one of the connections according to
+ * the configured {@link Selection}, so a large value or a slow response only
+ * holds up the operations behind it on the same connection.
+ * </p>
+ *
+ * <p>
+ * Operations on the queues as a whole, like {@link #setupResend()} or
+ * {@link #destroyInputQueue()}, apply to every connection. Everything
+ * related to a single channel, its buffers and the operations being read or
+ * written is answered by the first connection of the pool.
+ * </p>
+ */
+public final class PooledMemcachedNode extends SpyObject
+  implements MemcachedNode {
+
+  /**
+   * How operations are spread over the connections of a pool.
+   */
+  public enum Selection {
+    /**
+     * Use the connections in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * Use the connection with the fewest operations queued or waiting for
+     * their response.
+     */
+    LEAST_OUTSTANDING
+  }
+
+  private final SocketAddress socketAddress;
+  private final MemcachedNode[] connections;
+  private final Selection selection;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Connections which connected and need to be authenticated, or null if
+   * the connections do not authenticate.
+   */
+  private final Queue<MemcachedNode> toAuthenticate;
+
+  /**
+   * Create a pool.
+   *
+   * @param sa the address of the server.
+   * @param nodes the connections to the server.
+   * @param s how to pick the connection for an operation.
+   * @param authenticate true if connections need to be authenticated after
+   *          they connected.
+   */
+  public PooledMemcachedNode(SocketAddress sa, MemcachedNode[] nodes,
+      Selection s, boolean authenticate) {
+    if (nodes.length == 0) {
+      throw new IllegalArgumentException("A pool needs connections.");
+    }
+    socketAddress = sa;
+    connections = nodes.clone();
+    selection = s;
+    toAuthenticate =
+      authenticate ? new ConcurrentLinkedQueue<MemcachedNode>() : null;
+  }
+
+  /**
+   * Get the connections of this pool.
+   *
+   * @return an unmodifiable list of the connections.
+   */
+  public List<MemcachedNode> getConnections() {
+    return Collections.unmodifiableList(Arrays.asList(connections));
+  }
+
+  /**
+   * Pick the connection to queue the next operation on.
+   *
+   * Connections which are connected and authenticated are preferred. If
+   * there is none, operations are still spread over all connections so
+   * they are sent as soon as one of them is back.
+   *
+   * @return the connection to use.
+   */
+  public MemcachedNode select() {
+    int n = connections.length;
+    if (n == 1) {
+      return connections[0];
+    }
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+    MemcachedNode best = null;
+    int bestOutstanding = Integer.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      MemcachedNode c = connections[(start + i) % n];
+      if (!c.isActive() || !c.isAuthenticated()) {
+        continue;
+      }
+      if (selection == Selection.ROUND_ROBIN) {
+        return c;
+      }
+      int outstanding = c.getOutstandingOps();
+      if (outstanding < bestOutstanding) {
+        best = c;
+        bestOutstanding = outstanding;
+        if (outstanding == 0) {
+          break;
+        }
+      }
+    }
+    return best == null ? connections[start] : best;
+  }
+
+  /**
+   * Note that one of the connections has (re)connected.
+   *
+   * @param node the connection.
+   */
+  void connected(MemcachedNode node) {
+    if (toAuthenticate != null) {
+      toAuthenticate.offer(node);
+    }
+  }
+
+  /**
+   * Get the next connection which connected and still has to be
+   * authenticated.
+   *
+   * @return the connection, or null if there is none.
+   */
+  public MemcachedNode pollConnected() {
+    return toAuthenticate == null ? null : toAuthenticate.poll();
+  }
+
+  public SocketAddress getSocketAddress() {
+    return socketAddress;
+  }
+
+  /**
+   * True if at least one connection is active.
+   */
+  public boolean isActive() {
+    for (MemcachedNode c : connections) {
+      if (c.isActive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * True if at least one connection is authenticated.
+   */
+  public boolean isAuthenticated() {
+    for (MemcachedNode c : connections) {
+      if (c.isAuthenticated()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long lastReadDelta() {
+    long rv = Long.MAX_VALUE;
+    for (MemcachedNode c : connections) {
+      rv = Math.min(rv, c.lastReadDelta());
+    }
+    return rv;
+  }
+
+  public int getReconnectCount() {
+    int rv = Integer.MAX_VALUE;
+    for (MemcachedNode c : connections) {
+      rv = Math.min(rv, c.getReconnectCount());
+    }
+    return rv;
+  }
+
+  public int getContinuousTimeout() {
+    int rv = 0;
+    for (MemcachedNode c : connections) {
+      rv = Math.max(rv, c.getContinuousTimeout());
+    }
+    return rv;
+  }
+
+  public void setContinuousTimeout(boolean timedOut) {
+    for (MemcachedNode c : connections) {
+      c.setContinuousTimeout(timedOut);
+    }
+  }
+
+  public boolean hasReadOp() {
+    for (MemcachedNode c : connections) {
+      if (c.hasReadOp()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean hasWriteOp() {
+    for (MemcachedNode c : connections) {
+      if (c.hasWriteOp()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public int getBytesRemainingToWrite() {
+    int rv = 0;
+    for (MemcachedNode c : connections) {
+      rv += c.getBytesRemainingToWrite();
+    }
+    return rv;
+  }
+
+  public int getOutstandingOps() {
+    int rv = 0;
+    for (MemcachedNode c : connections) {
+      rv += c.getOutstandingOps();
+    }
+    return rv;
+  }
+
+  public MemcachedConnection getConnection() {
+    return connections[0].getConnection();
+  }
+
+  public void setConnection(MemcachedConnection connection) {
+    for (MemcachedNode c : connections) {
+      c.setConnection(connection);
+    }
+  }
+
+  public BufferPool getBufferPool() {
+    return connections[0].getBufferPool();
+  }
+
+  public void addOp(Operation op) {
+    select().addOp(op);
+  }
+
+  public void insertOp(Operation o) {
+    select().insertOp(o);
+  }
+
+  public void copyInputQueue() {
+    for (MemcachedNode c : connections) {
+      c.copyInputQueue();
+    }
+  }
+
+  public Collection<Operation> destroyInputQueue() {
+    List<Operation> rv = new ArrayList<Operation>();
+    for (MemcachedNode c : connections) {
+      rv.addAll(c.destroyInputQueue());
+    }
+    return rv;
+  }
+
+  public void setupResend() {
+    for (MemcachedNode c : connections) {
+      c.setupResend();
+    }
+  }
+
+  public void fillWriteBuffer(boolean optimizeGets) {
+    connections[0].fillWriteBuffer(optimizeGets);
+  }
+
+  public void transitionWriteItem() {
+    connections[0].transitionWriteItem();
+  }
+
+  public Operation getCurrentReadOp() {
+    return connections[0].getCurrentReadOp();
+  }
+
+  public Operation removeCurrentReadOp() {
+    return connections[0].removeCurrentReadOp();
+  }
+
+  public Operation getCurrentWriteOp() {
+    return connections[0].getCurrentWriteOp();
+  }
+
+  public Operation removeCurrentWriteOp() {
+    return connections[0].removeCurrentWriteOp();
+  }
+
+  public int getSelectionOps() {
+    return connections[0].getSelectionOps();
+  }
+
+  public ByteBuffer getRbuf() {
+    return connections[0].getRbuf();
+  }
+
+  public ByteBuffer getWbuf() {
+    return connections[0].getWbuf();
+  }
+
+  public void completedRead() {
+    connections[0].completedRead();
+  }
+
+  public void reconnecting() {
+    connections[0].reconnecting();
+  }
+
+  public void connected() {
+    connections[0].connected();
+  }
+
+  public void registerChannel(SocketChannel ch, SelectionKey selectionKey) {
+    connections[0].registerChannel(ch, selectionKey);
+  }
+
+  public void setChannel(SocketChannel to) {
+    connections[0].setChannel(to);
+  }
+
+  public SocketChannel getChannel() {
+    return connections[0].getChannel();
+  }
+
+  public void setSk(SelectionKey to) {
+    connections[0].setSk(to);
+  }
+
+  public SelectionKey getSk() {
+    return connections[0].getSk();
+  }
+
+  public int writeSome() throws IOException {
+    return connections[0].writeSome();
+  }
+
+  public void fixupOps() {
+    for (MemcachedNode c : connections) {
+      c.fixupOps();
+    }
+  }
+
+  public void authComplete() {
+    connections[0].authComplete();
+  }
+
+  public void setupForAuth() {
+    connections[0].setupForAuth();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{Pool sa=").append(socketAddress)
+      .append(", selection=").append(selection)
+      .append(", connections=").append(Arrays.toString(connections))
+      .append("}");
+    return sb.toString();
+  }
+}
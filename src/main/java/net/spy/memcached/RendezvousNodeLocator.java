@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * NodeLocator implementation using weighted rendezvous (highest random weight)
+ * hashing.
+ *
+ * <p>
+ * Every node is given a score for each key and the key lives on the node with
+ * the highest score. The score is <code>-weight / ln(u)</code>, where
+ * <code>u</code> is a uniform value in (0, 1) derived from the key's hash and
+ * a per-node seed, so each node receives a share of the keys proportional to
+ * its weight. Adding or removing any node, anywhere in the list, only moves the
+ * keys that land on or leave that node.
+ * </p>
+ *
+ * <p>
+ * Lookups are O(n) in the number of nodes, with no continuum to build or keep
+ * in memory. The failover sequence returns the remaining nodes in descending
+ * score order, which is exactly where each key would live if the nodes before
+ * it were removed.
+ * </p>
+ */
+public final class RendezvousNodeLocator implements NodeLocator {
+
+  private static final double UNIT = 1.0 / (1L << 53);
+
+  private final HashAlgorithm hashAlg;
+  private final Map<InetSocketAddress, Integer> weights;
+  private final KetamaNodeKeyFormatter keyFormatter;
+
+  private volatile Ring ring;
+
+  /**
+   * Create a new RendezvousNodeLocator where every node has the same weight.
+   *
+   * @param nodes the List of nodes to use in the locator
+   * @param alg the hash algorithm to use when hashing keys and node names
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg) {
+    this(nodes, alg, Collections.<InetSocketAddress, Integer>emptyMap());
+  }
+
+  /**
+   * Create a new weighted RendezvousNodeLocator.
+   *
+   * @param nodes the List of nodes to use in the locator
+   * @param alg the hash algorithm to use when hashing keys and node names
+   * @param nodeWeights node weights, a map from InetSocketAddress to a
+   *          positive weight. Nodes missing from the map have a weight of 1.
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg,
+      Map<InetSocketAddress, Integer> nodeWeights) {
+    super();
+    hashAlg = alg;
+    weights = nodeWeights;
+    keyFormatter = new KetamaNodeKeyFormatter();
+    ring = buildRing(nodes.toArray(new MemcachedNode[nodes.size()]));
+  }
+
+  private RendezvousNodeLocator(Ring r, HashAlgorithm alg,
+      Map<InetSocketAddress, Integer> nodeWeights,
+      KetamaNodeKeyFormatter formatter) {
+    super();
+    hashAlg = alg;
+    weights = nodeWeights;
+    keyFormatter = formatter;
+    ring = r;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Arrays.asList(ring.nodes);
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    Ring r = ring;
+    long hash = hashAlg.hash(k);
+    int best = 0;
+    double bestScore = r.score(0, hash);
+    for (int i = 1; i < r.nodes.length; i++) {
+      double s = r.score(i, hash);
+      if (s > bestScore) {
+        best = i;
+        bestScore = s;
+      }
+    }
+    return r.nodes[best];
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    Ring r = ring;
+    long hash = hashAlg.hash(k);
+    int n = r.nodes.length;
+    double[] scores = new double[n];
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      scores[i] = r.score(i, hash);
+      order[i] = i;
+    }
+    Arrays.sort(order, new ScoreComparator(scores));
+    return new NodeIterator(r.nodes, order);
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    Ring r = ring;
+    MemcachedNode[] n = new MemcachedNode[r.nodes.length];
+    for (int i = 0; i < n.length; i++) {
+      n[i] = new MemcachedNodeROImpl(r.nodes[i]);
+    }
+    return new RendezvousNodeLocator(new Ring(n, r.seeds, r.weights), hashAlg,
+        weights, keyFormatter);
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> nodes) {
+    ring = buildRing(nodes.toArray(new MemcachedNode[nodes.size()]));
+  }
+
+  private Ring buildRing(MemcachedNode[] nodes) {
+    long[] seeds = new long[nodes.length];
+    double[] w = null;
+    for (int i = 0; i < nodes.length; i++) {
+      String name = keyFormatter.getKeyForNode(nodes[i], 0);
+      seeds[i] = DefaultHashAlgorithm.mix64(hashAlg.hash(name));
+      Integer weight = weights.get(nodes[i].getSocketAddress());
+      if (weight != null && weight.intValue() != 1) {
+        if (weight.intValue() <= 0) {
+          throw new IllegalArgumentException("Invalid weight " + weight
+              + " for " + nodes[i].getSocketAddress());
+        }
+        if (w == null) {
+          w = new double[nodes.length];
+          Arrays.fill(w, 1.0);
+        }
+        w[i] = weight.intValue();
+      }
+    }
+    return new Ring(nodes, seeds, w);
+  }
+
+  /**
+   * Immutable snapshot of the nodes and their precomputed seeds and weights.
+   */
+  static final class Ring {
+    private final MemcachedNode[] nodes;
+    private final long[] seeds;
+    private final double[] weights;
+
+    Ring(MemcachedNode[] n, long[] s, double[] w) {
+      nodes = n;
+      seeds = s;
+      weights = w;
+    }
+
+    double score(int i, long keyHash) {
+      long h = DefaultHashAlgorithm.mix64(keyHash ^ seeds[i]);
+      if (weights == null) {
+        // With equal weights -1/ln(u) is monotonic in u, so the top 53 bits
+        // of the hash can be compared directly without taking a logarithm.
+        return (h >>> 11);
+      }
+      double u = ((h >>> 11) + 0.5) * UNIT;
+      return weights[i] / -Math.log(u);
+    }
+  }
+
+  static final class ScoreComparator implements Comparator<Integer> {
+    private final double[] scores;
+
+    ScoreComparator(double[] s) {
+      scores = s;
+    }
+
+    public int compare(Integer a, Integer b) {
+      int rv = Double.compare(scores[b], scores[a]);
+      return rv != 0 ? rv : a.compareTo(b);
+    }
+  }
+
+  static class NodeIterator implements Iterator<MemcachedNode> {
+
+    private final MemcachedNode[] nodes;
+    private final Integer[] order;
+    // order[0] is the primary, the sequence starts with the runner-up.
+    private int next = 1;
+
+    NodeIterator(MemcachedNode[] n, Integer[] o) {
+      nodes = n;
+      order = o;
+    }
+
+    public boolean hasNext() {
+      return next < order.length;
+    }
+
+    public MemcachedNode next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return nodes[order[next++]];
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove a node");
+    }
+  }
+}
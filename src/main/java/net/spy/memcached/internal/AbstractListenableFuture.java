@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@link AbstractListenableFuture} implements common functionality shared
@@ -109,17 +110,39 @@ public abstract class AbstractListenableFuture
    * @param listener the listener to notify.
    */
   protected void notifyListener(final ExecutorService executor,
-    final Future<?> future, final GenericCompletionListener listener) {
+    final Future<?> future, final GenericCompletionListener<?> listener) {
+    notifyListener(executor, future, listener, null);
+  }
+
+  /**
+   * Notify a listener and, once the given count of running listeners
+   * drops to zero, tell the traced operations that the listeners are done.
+   *
+   * @param executor the executor to run the listener on.
+   * @param future the future which completed.
+   * @param listener the listener to notify.
+   * @param remaining the listeners still running, or null if not traced.
+   */
+  private void notifyListener(final ExecutorService executor,
+    final Future<?> future, final GenericCompletionListener<?> listener,
+    final AtomicInteger remaining) {
+    // The listener was registered for this future, whatever its type.
+    @SuppressWarnings("unchecked")
+    final GenericCompletionListener<Future<?>> typed =
+      (GenericCompletionListener<Future<?>>) listener;
     executor.submit(new Runnable() {
       @Override
       public void run() {
         try {
-          listener.onComplete(future);
+          typed.onComplete(future);
         } catch(Throwable t) {
           getLogger().warn(
             "Exception thrown wile executing " + listener.getClass().getName()
               + ".operationComplete()", t);
         }
+        if (remaining != null && remaining.decrementAndGet() == 0) {
+          listenersDone();
+        }
       }
     });
   }
@@ -147,12 +170,36 @@ public abstract class AbstractListenableFuture
       copy.addAll(listeners);
       listeners = new ArrayList<GenericCompletionListener<? extends Future<T>>>();
     }
+    final AtomicInteger remaining = copy.isEmpty() || !isTraced()
+      ? null : new AtomicInteger(copy.size());
     for (GenericCompletionListener<? extends Future<? super T>> listener
       : copy) {
-      notifyListener(executor(), future, listener);
+      if (remaining == null) {
+        notifyListener(executor(), future, listener);
+      } else {
+        notifyListener(executor(), future, listener, remaining);
+      }
     }
   }
 
+  /**
+   * Whether an operation of this future is traced and wants to know when
+   * its listeners are done.
+   *
+   * @return true if {@link #listenersDone()} should be called.
+   */
+  protected boolean isTraced() {
+    return false;
+  }
+
+  /**
+   * Called once all listeners of a notification have run, only if
+   * {@link #isTraced()}.
+   */
+  protected void listenersDone() {
+    // nothing is traced by default
+  }
+
   /**
    * Remove a listener from the list of registered listeners.
    *
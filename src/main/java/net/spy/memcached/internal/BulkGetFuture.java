@@ -40,6 +40,7 @@ import net.spy.memcached.compat.log.LoggerFactory;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.ops.StatusCode;
 
 /**
@@ -218,6 +219,23 @@ public class BulkGetFuture<T>
     return this;
   }
 
+  @Override
+  protected boolean isTraced() {
+    for (Operation op : ops) {
+      if (op.getTracer() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  protected void listenersDone() {
+    for (Operation op : ops) {
+      op.trace(OperationTracer.Event.LISTENER_DONE);
+    }
+  }
+
   /**
    * Signals that this future is complete.
    */
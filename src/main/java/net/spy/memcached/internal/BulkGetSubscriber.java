@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+
+/**
+ * Receives the results of a streaming bulk get key by key, as each node's
+ * response is parsed.
+ *
+ * Signals are serialized but may come from any IO thread, so implementations
+ * should hand heavy work off rather than block. Apart from
+ * {@link #onSubscribe(BulkGetSubscription)}, the subscriber never gets more
+ * {@link #onValue(String, Object)} and {@link #onMiss(String)} signals than it
+ * {@link BulkGetSubscription#request(long) requested}.
+ *
+ * @param <T> Type of the values fetched
+ */
+public interface BulkGetSubscriber<T> {
+
+  /**
+   * Called once before anything else; nothing is fetched before the
+   * subscriber requests keys from the given subscription.
+   *
+   * @param subscription the subscription to request keys from or cancel
+   */
+  void onSubscribe(BulkGetSubscription subscription);
+
+  /**
+   * A key was found.
+   *
+   * @param key the key
+   * @param value its decoded value
+   */
+  void onValue(String key, T value);
+
+  /**
+   * A key was not found.
+   *
+   * @param key the key
+   */
+  void onMiss(String key);
+
+  /**
+   * Fetching or decoding some keys failed. The stream carries on with the
+   * remaining keys.
+   *
+   * @param node the address of the node the keys were fetched from
+   * @param keys the keys whose outcome is unknown
+   * @param cause the failure
+   */
+  void onError(SocketAddress node, Collection<String> keys, Throwable cause);
+
+  /**
+   * Every key has been reported. Not called once the stream was cancelled.
+   */
+  void onComplete();
+}
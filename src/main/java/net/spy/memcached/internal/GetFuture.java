@@ -102,6 +102,16 @@ public class GetFuture<T>
     return this;
   }
 
+  @Override
+  protected boolean isTraced() {
+    return rv.isTraced();
+  }
+
+  @Override
+  protected void listenersDone() {
+    rv.listenersDone();
+  }
+
   /**
    * Signals that this future is complete.
    */
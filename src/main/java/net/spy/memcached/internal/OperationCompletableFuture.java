@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * A {@link CompletableFuture} completed straight from the callback of the
+ * operations backing it.
+ *
+ * Unlike {@link OperationFuture} there is no latch and no listener executor:
+ * dependent stages run on the thread completing the operation (normally the
+ * IO thread) unless an async variant is used, so they should not block.
+ *
+ * Not intended for general use.
+ *
+ * @param <T> Type of object returned from the operation
+ */
+public class OperationCompletableFuture<T> extends CompletableFuture<T> {
+
+  private volatile Collection<Operation> ops = Collections.emptyList();
+
+  /**
+   * Set the operation backing this future.
+   */
+  public void setOperation(Operation op) {
+    setOperations(Collections.singletonList(op));
+  }
+
+  /**
+   * Set the operations backing this future, e.g. one per node for a bulk
+   * get.
+   */
+  public void setOperations(Collection<Operation> to) {
+    ops = to;
+  }
+
+  /**
+   * Complete this future once all of its operations completed, either with
+   * the given value or with the failure of the first operation that did not
+   * succeed.
+   *
+   * @param value the result if all operations succeeded
+   * @return true if this call completed the future
+   */
+  public boolean operationsComplete(T value) {
+    for (Operation op : ops) {
+      if (op.isCancelled()) {
+        return super.cancel(false);
+      }
+      if (op.hasErrored()) {
+        return completeExceptionally(op.getException());
+      }
+      if (op.isTimedOut()) {
+        return completeExceptionally(new CheckedOperationTimeoutException(
+          "Operation timed out.", op));
+      }
+    }
+    for (Operation op : ops) {
+      MemcachedConnection.opSucceeded(op);
+    }
+    return complete(value);
+  }
+
+  /**
+   * Cancel the backing operations, if still possible, as well as this
+   * future.
+   *
+   * @param mayInterruptIfRunning not used
+   * @return true if this future was cancelled by this call
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean rv = completeExceptionally(new CancellationException("Cancelled"));
+    for (Operation op : ops) {
+      op.cancel();
+    }
+    return rv;
+  }
+}
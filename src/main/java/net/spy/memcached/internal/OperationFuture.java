@@ -27,6 +27,7 @@ import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.ops.StatusCode;
 
 import java.util.concurrent.CancellationException;
@@ -107,7 +108,10 @@ public class OperationFuture<T>
      * @return true if the operation has not yet been written to the network
      */
     public boolean cancel(boolean ign) {
-        assert op != null : "No operation";
+        if (op == null) {
+            // Completed without an operation, e.g. from the near cache.
+            return false;
+        }
         op.cancel();
         notifyListeners();
         return op.getState() == OperationState.WRITE_QUEUED;
@@ -119,7 +123,10 @@ public class OperationFuture<T>
      * @return true if the operation has not yet been written to the network
      */
     public boolean cancel() {
-        assert op != null : "No operation";
+        if (op == null) {
+            // Completed without an operation, e.g. from the near cache.
+            return false;
+        }
         op.cancel();
         notifyListeners();
         return op.getState() == OperationState.WRITE_QUEUED;
@@ -289,8 +296,7 @@ public class OperationFuture<T>
      * @return true if the Operation has been canceled
      */
     public boolean isCancelled() {
-        assert op != null : "No operation";
-        return op.isCancelled();
+        return op != null && op.isCancelled();
     }
 
     /**
@@ -304,9 +310,8 @@ public class OperationFuture<T>
      * @return true if the Operation is done
      */
     public boolean isDone() {
-        assert op != null : "No operation";
-        return latch.getCount() == 0 || op.isCancelled()
-                       || op.getState() == OperationState.COMPLETE;
+        return latch.getCount() == 0 || op != null && (op.isCancelled()
+                       || op.getState() == OperationState.COMPLETE);
     }
 
     @Override
@@ -322,6 +327,16 @@ public class OperationFuture<T>
         return this;
     }
 
+    @Override
+    protected boolean isTraced() {
+        return op != null && op.getTracer() != null;
+    }
+
+    @Override
+    protected void listenersDone() {
+        op.trace(OperationTracer.Event.LISTENER_DONE);
+    }
+
     /**
      * Signals that this future is complete.
      */
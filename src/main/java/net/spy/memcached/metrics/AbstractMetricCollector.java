@@ -37,4 +37,62 @@ public abstract class AbstractMetricCollector  implements MetricCollector {
     incrementCounter(name, 1);
   }
 
+  /**
+   * Get a handle updating the counter by name, override to resolve it once.
+   */
+  @Override
+  public CounterHandle getCounter(final String name) {
+    return new CounterHandle() {
+      @Override
+      public void increment(int amount) {
+        incrementCounter(name, amount);
+      }
+
+      @Override
+      public void decrement(int amount) {
+        decrementCounter(name, amount);
+      }
+    };
+  }
+
+  /**
+   * Get a handle marking the meter by name, override to resolve it once.
+   */
+  @Override
+  public MeterHandle getMeter(final String name) {
+    return new MeterHandle() {
+      @Override
+      public void mark() {
+        markMeter(name);
+      }
+    };
+  }
+
+  /**
+   * Get a handle updating the histogram by name, override to resolve it
+   * once.
+   */
+  @Override
+  public HistogramHandle getHistogram(final String name) {
+    return new HistogramHandle() {
+      @Override
+      public void update(int amount) {
+        updateHistogram(name, amount);
+      }
+    };
+  }
+
+  /**
+   * Gauges are ignored unless overridden.
+   */
+  @Override
+  public void addGauge(String name, MetricGauge gauge) {
+    return;
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    return;
+  }
+
 }
@@ -150,15 +150,17 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
 
   @Override
   public void incrementCounter(String name, int amount) {
-    if (counters.containsKey(name)) {
-      counters.get(name).inc(amount);
+    Counter counter = counters.get(name);
+    if (counter != null) {
+      counter.inc(amount);
     }
   }
 
   @Override
   public void decrementCounter(String name, int amount) {
-    if (counters.containsKey(name)) {
-      counters.get(name).dec(amount);
+    Counter counter = counters.get(name);
+    if (counter != null) {
+      counter.dec(amount);
     }
   }
 
@@ -178,8 +180,9 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
 
   @Override
   public void markMeter(String name) {
-    if (meters.containsKey(name)) {
-      meters.get(name).mark();
+    Meter meter = meters.get(name);
+    if (meter != null) {
+      meter.mark();
     }
   }
 
@@ -199,8 +202,73 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
 
   @Override
   public void updateHistogram(String name, int amount) {
-    if (histograms.containsKey(name)) {
-      histograms.get(name).update(amount);
+    Histogram histogram = histograms.get(name);
+    if (histogram != null) {
+      histogram.update(amount);
+    }
+  }
+
+  @Override
+  public CounterHandle getCounter(String name) {
+    final Counter counter = counters.get(name);
+    if (counter == null) {
+      return NoopMetricHandle.INSTANCE;
+    }
+    return new CounterHandle() {
+      @Override
+      public void increment(int amount) {
+        counter.inc(amount);
+      }
+
+      @Override
+      public void decrement(int amount) {
+        counter.dec(amount);
+      }
+    };
+  }
+
+  @Override
+  public MeterHandle getMeter(String name) {
+    final Meter meter = meters.get(name);
+    if (meter == null) {
+      return NoopMetricHandle.INSTANCE;
     }
+    return new MeterHandle() {
+      @Override
+      public void mark() {
+        meter.mark();
+      }
+    };
+  }
+
+  @Override
+  public HistogramHandle getHistogram(String name) {
+    final Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      return NoopMetricHandle.INSTANCE;
+    }
+    return new HistogramHandle() {
+      @Override
+      public void update(int amount) {
+        histogram.update(amount);
+      }
+    };
+  }
+
+  @Override
+  public void addGauge(String name, final MetricGauge gauge) {
+    if (!registry.getGauges().containsKey(name)) {
+      registry.register(name, new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return gauge.getValue();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    registry.remove(name);
   }
 }
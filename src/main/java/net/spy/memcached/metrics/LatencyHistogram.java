@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ *
+ * Values are counted in log-linear buckets: below 128 every value has its
+ * own bucket, every power of two above is split into 128 buckets, so any
+ * recorded value is known within 1% (two significant digits) up to
+ * {@link #MAX_VALUE}, about 68 seconds. Larger values are counted as the
+ * maximum. Recording is a single atomic increment and never blocks;
+ * {@link #snapshot()} copies the counts into a {@link Snapshot} which can be
+ * queried for percentiles and merged with others.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 7;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int MAX_EXPONENT = 36;
+
+  /**
+   * The largest value told apart from larger ones.
+   */
+  public static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+  static final int BUCKETS = SUB_COUNT * (MAX_EXPONENT - SUB_BITS + 1);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Count a value.
+   *
+   * @param value the latency in nanoseconds, negative values count as 0
+   */
+  public void record(long value) {
+    counts.incrementAndGet(index(value));
+  }
+
+  /**
+   * Copy the current counts.
+   *
+   * Values recorded concurrently may or may not be part of the snapshot.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy);
+  }
+
+  static int index(long value) {
+    long v = Math.min(Math.max(value, 0), MAX_VALUE);
+    if (v < SUB_COUNT) {
+      return (int) v;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+    return SUB_COUNT * shift + (int) (v >>> shift);
+  }
+
+  static long lowestValue(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_COUNT - 1;
+    return (long) (index % SUB_COUNT + SUB_COUNT) << shift;
+  }
+
+  static long highestValue(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    return lowestValue(index) + (1L << (index / SUB_COUNT - 1)) - 1;
+  }
+
+  /**
+   * An immutable copy of the counts of a histogram.
+   */
+  public static final class Snapshot {
+
+    /**
+     * A snapshot without any values.
+     */
+    public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS]);
+
+    private final long[] counts;
+    private final long count;
+
+    private Snapshot(long[] counts) {
+      this.counts = counts;
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+      count = total;
+    }
+
+    /**
+     * Get the number of values.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Get the value below or at which the given percentage of all values
+     * are.
+     *
+     * @param percentile the percentage, between 0 and 100
+     * @return the highest value within 1% of the percentile, or 0 if there
+     *         are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1,
+          (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return MAX_VALUE;
+    }
+
+    /**
+     * Get the largest value, within 1%.
+     */
+    public long getMax() {
+      for (int i = BUCKETS - 1; i >= 0; i--) {
+        if (counts[i] > 0) {
+          return highestValue(i);
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Get the mean of all values, within 1%.
+     */
+    public double getMean() {
+      if (count == 0) {
+        return 0;
+      }
+      double sum = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        if (counts[i] > 0) {
+          sum += counts[i] * (lowestValue(i) + highestValue(i)) / 2.0;
+        }
+      }
+      return sum / count;
+    }
+
+    /**
+     * Combine the values of this and another snapshot.
+     *
+     * @param other the other snapshot
+     * @return a snapshot holding the values of both
+     */
+    public Snapshot merge(Snapshot other) {
+      long[] merged = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        merged[i] = counts[i] + other.counts[i];
+      }
+      return new Snapshot(merged);
+    }
+
+    @Override
+    public String toString() {
+      return "{Snapshot count=" + count + ", p50=" + getValueAtPercentile(50)
+          + ", p99=" + getValueAtPercentile(99) + ", p99.9="
+          + getValueAtPercentile(99.9) + ", max=" + getMax() + "}";
+    }
+  }
+}
@@ -126,4 +126,46 @@ public interface MetricCollector {
    */
   void updateHistogram(String name, int amount);
 
+  /**
+   * Get a handle to a Counter, to update it without a lookup by name.
+   *
+   * @param name the name of the counter.
+   * @return the handle, which discards updates if the counter has not been
+   *   added.
+   */
+  CounterHandle getCounter(String name);
+
+  /**
+   * Get a handle to a Meter, to mark it without a lookup by name.
+   *
+   * @param name the name of the meter.
+   * @return the handle, which discards updates if the meter has not been
+   *   added.
+   */
+  MeterHandle getMeter(String name);
+
+  /**
+   * Get a handle to a Histogram, to update it without a lookup by name.
+   *
+   * @param name the name of the histogram.
+   * @return the handle, which discards updates if the histogram has not been
+   *   added.
+   */
+  HistogramHandle getHistogram(String name);
+
+  /**
+   * Add a Gauge to the Collector.
+   *
+   * @param name the name of the gauge.
+   * @param gauge the value to report.
+   */
+  void addGauge(String name, MetricGauge gauge);
+
+  /**
+   * Remove a Gauge from the Collector.
+   *
+   * @param name the name of the gauge.
+   */
+  void removeGauge(String name);
+
 }
@@ -80,4 +80,19 @@ public final class NoopMetricCollector extends AbstractMetricCollector {
     return;
   }
 
+  @Override
+  public CounterHandle getCounter(String name) {
+    return NoopMetricHandle.INSTANCE;
+  }
+
+  @Override
+  public MeterHandle getMeter(String name) {
+    return NoopMetricHandle.INSTANCE;
+  }
+
+  @Override
+  public HistogramHandle getHistogram(String name) {
+    return NoopMetricHandle.INSTANCE;
+  }
+
 }
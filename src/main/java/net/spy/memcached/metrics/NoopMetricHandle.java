@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+/**
+ * A handle which discards every update, given out for metrics which are not
+ * registered.
+ */
+final class NoopMetricHandle implements CounterHandle, MeterHandle,
+    HistogramHandle {
+
+  static final NoopMetricHandle INSTANCE = new NoopMetricHandle();
+
+  private NoopMetricHandle() {
+    // singleton
+  }
+
+  @Override
+  public void increment(int amount) {
+    return;
+  }
+
+  @Override
+  public void decrement(int amount) {
+    return;
+  }
+
+  @Override
+  public void mark() {
+    return;
+  }
+
+  @Override
+  public void update(int amount) {
+    return;
+  }
+}
@@ -28,6 +28,7 @@ import net.spy.memcached.OperationFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Base class for operation factories.
@@ -104,6 +105,12 @@ public abstract class BaseOperationFactory implements OperationFactory {
       ObserveOperation oo = (ObserveOperation) op;
       rv.add(observe(first(oo.getKeys()), oo.getCasValue(), oo.getIndex(),
         (ObserveOperation.Callback) oo.getCallback()));
+    } else if (op instanceof BulkMutationOperation) {
+      BulkMutationOperation bo = (BulkMutationOperation) op;
+      for (BulkMutation m : bo.getMutations()) {
+        rv.add(bulkMutate(Collections.singletonList(m),
+          bo.getMutationCallback()));
+      }
     } else {
       assert false : "Unhandled operation type: " + op.getClass();
     }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * A single key's mutation within a {@link BulkMutationOperation}.
+ */
+public final class BulkMutation {
+
+  /**
+   * The kind of mutation.
+   */
+  public enum Type {
+    SET, DELETE, TOUCH, INCR, DECR
+  }
+
+  private final Type type;
+  private final String key;
+  private final int flags;
+  private final int expiration;
+  private final byte[] data;
+  private final long by;
+  private final long def;
+
+  private BulkMutation(Type t, String k, int f, int e, byte[] d, long b,
+      long df) {
+    type = t;
+    key = k;
+    flags = f;
+    expiration = e;
+    data = d;
+    by = b;
+    def = df;
+  }
+
+  /**
+   * Unconditionally store a value.
+   */
+  public static BulkMutation set(String key, int flags, int exp,
+      byte[] data) {
+    return new BulkMutation(Type.SET, key, flags, exp, data, 0, 0);
+  }
+
+  /**
+   * Delete a key.
+   */
+  public static BulkMutation delete(String key) {
+    return new BulkMutation(Type.DELETE, key, 0, 0, null, 0, 0);
+  }
+
+  /**
+   * Reset the expiration of a key.
+   */
+  public static BulkMutation touch(String key, int exp) {
+    return new BulkMutation(Type.TOUCH, key, 0, exp, null, 0, 0);
+  }
+
+  /**
+   * Increment or decrement a counter.
+   *
+   * @param m the direction
+   * @param key the key of the counter
+   * @param by the amount to change the counter by
+   * @param def the value to create a missing counter with
+   * @param exp the expiration of a created counter, -1 to not create it
+   */
+  public static BulkMutation mutate(Mutator m, String key, long by, long def,
+      int exp) {
+    return new BulkMutation(m == Mutator.incr ? Type.INCR : Type.DECR, key,
+      0, exp, null, by, def);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public int getExpiration() {
+    return expiration;
+  }
+
+  /**
+   * The value of a set, null for every other type.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  public long getBy() {
+    return by;
+  }
+
+  public long getDefault() {
+    return def;
+  }
+
+  @Override
+  public String toString() {
+    return type + " " + key;
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.Collection;
+
+/**
+ * A pipelined run of mutations on many keys of one node, reporting a status
+ * per key.
+ */
+public interface BulkMutationOperation extends KeyedOperation {
+
+  /**
+   * The mutations that have not been answered yet.
+   */
+  Collection<BulkMutation> getMutations();
+
+  /**
+   * The callback receiving the status of each key.
+   */
+  Callback getMutationCallback();
+
+  /**
+   * Operation callback for bulk mutations.
+   *
+   * Every key gets exactly one {@link #gotStatus(String, OperationStatus)};
+   * if the whole operation is cancelled, times out or fails, the keys not
+   * answered by then get its status.
+   */
+  interface Callback extends OperationCallback {
+    /**
+     * The outcome of the mutation of a key.
+     *
+     * @param key the key
+     * @param status its status
+     */
+    void gotStatus(String key, OperationStatus status);
+  }
+}
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.ops;
 
+import java.nio.ByteBuffer;
+
 /**
  * Get operation.
  */
@@ -40,4 +42,26 @@ public interface GetOperation extends KeyedOperation {
      */
     void gotData(String key, int flags, byte[] data);
   }
+
+  /**
+   * Get callback which receives values as a view on the bytes they were
+   * read into, instead of a copy.
+   *
+   * Operations that support it hand over the value through
+   * {@link #gotData(String, int, ByteBuffer)}, the array based variant is
+   * still used by those which don't.
+   */
+  interface BufferCallback extends Callback {
+    /**
+     * Callback for each result from a get.
+     *
+     * The buffer is read-only and only valid for the duration of this call,
+     * so values needed afterwards have to be decoded or copied right away.
+     *
+     * @param key the key that was retrieved
+     * @param flags the flags for this value
+     * @param data the data stored under this key, from position to limit
+     */
+    void gotData(String key, int flags, ByteBuffer data);
+  }
 }
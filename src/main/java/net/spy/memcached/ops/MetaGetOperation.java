@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * Meta get operation, reporting the flags memcached uses to coordinate
+ * recaching of hot or stale items between clients.
+ */
+public interface MetaGetOperation extends KeyedOperation {
+
+  /**
+   * Flag set if this client won the right to recache the item.
+   */
+  int WIN = 1;
+
+  /**
+   * Flag set if the item was marked stale by an invalidation.
+   */
+  int STALE = 2;
+
+  /**
+   * Flag set if another client already received the win flag.
+   */
+  int WIN_TOKEN_SENT = 4;
+
+  /**
+   * Get the remaining time to live below which the next client gets the win
+   * flag, or 0 if it isn't requested.
+   */
+  int getRecacheTtl();
+
+  /**
+   * Get the time to live of the placeholder created on a miss, or 0 if none
+   * is created.
+   */
+  int getVivifyTtl();
+
+  /**
+   * Operation callback for the meta get request.
+   */
+  interface Callback extends OperationCallback {
+    /**
+     * Callback for the response of a meta get.
+     *
+     * @param key the key that was retrieved
+     * @param flags the flags for this value
+     * @param cas the CAS value for this record
+     * @param data the data stored under this key, null on a miss
+     * @param metaFlags the combination of {@link #WIN}, {@link #STALE} and
+     *          {@link #WIN_TOKEN_SENT} returned with the response
+     */
+    void gotData(String key, int flags, long cas, byte[] data, int metaFlags);
+  }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer operation queue.
+ *
+ * <p>
+ * Producers claim a slot in a power of two ring with a single CAS on the
+ * producer index and then publish the operation into it, so threads adding
+ * operations never contend on a lock with each other or with the IO thread.
+ * The consumer side (poll, peek, drainTo) is meant to be driven by the IO
+ * thread owning the node; the occasional drain from another thread (such as
+ * when an operation is inserted at the head for authentication) is serialized
+ * against it, but never against the producers.
+ * </p>
+ *
+ * <p>
+ * A full queue makes the timed offer spin briefly and then park with an
+ * increasing back off until either a slot frees up or the timeout (normally
+ * the configured opQueueMaxBlockTime) elapses. The iterator is a weakly
+ * consistent snapshot that does not support removal.
+ * </p>
+ */
+public final class MpscOperationQueue extends AbstractQueue<Operation>
+    implements BlockingQueue<Operation> {
+
+  private static final int SPINS = 64;
+  private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<Operation> buffer;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+  private final Object consumerLock = new Object();
+
+  /**
+   * Create a queue holding at most the given number of operations.
+   *
+   * @param cap the maximum number of queued operations
+   */
+  public MpscOperationQueue(int cap) {
+    if (cap <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + cap);
+    }
+    if (cap > 1 << 30) {
+      throw new IllegalArgumentException("Capacity too large: " + cap);
+    }
+    int len = 1;
+    while (len < cap) {
+      len <<= 1;
+    }
+    capacity = cap;
+    mask = len - 1;
+    buffer = new AtomicReferenceArray<Operation>(len);
+  }
+
+  public boolean offer(Operation op) {
+    if (op == null) {
+      throw new NullPointerException();
+    }
+    long p;
+    do {
+      p = producerIndex.get();
+      if (p - consumerIndex.get() >= capacity) {
+        return false;
+      }
+    } while (!producerIndex.compareAndSet(p, p + 1));
+    buffer.lazySet((int) p & mask, op);
+    return true;
+  }
+
+  public boolean offer(Operation op, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    if (offer(op)) {
+      return true;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long park = MIN_PARK_NANOS;
+    for (int i = 0; !offer(op); i++) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      park = backOff(i, Math.min(park, remaining));
+    }
+    return true;
+  }
+
+  public void put(Operation op) throws InterruptedException {
+    long park = MIN_PARK_NANOS;
+    for (int i = 0; !offer(op); i++) {
+      park = backOff(i, park);
+    }
+  }
+
+  public Operation poll() {
+    synchronized (consumerLock) {
+      return take(true);
+    }
+  }
+
+  public Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    Operation rv = poll();
+    if (rv != null) {
+      return rv;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long park = MIN_PARK_NANOS;
+    for (int i = 0; (rv = poll()) == null; i++) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return null;
+      }
+      park = backOff(i, Math.min(park, remaining));
+    }
+    return rv;
+  }
+
+  public Operation take() throws InterruptedException {
+    Operation rv;
+    long park = MIN_PARK_NANOS;
+    for (int i = 0; (rv = poll()) == null; i++) {
+      park = backOff(i, park);
+    }
+    return rv;
+  }
+
+  public Operation peek() {
+    synchronized (consumerLock) {
+      long c = consumerIndex.get();
+      int offset = (int) c & mask;
+      Operation rv = buffer.get(offset);
+      while (rv == null && c != producerIndex.get()) {
+        Thread.yield();
+        rv = buffer.get(offset);
+      }
+      return rv;
+    }
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super Operation> c, int maxElements) {
+    if (c == null) {
+      throw new NullPointerException();
+    }
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    synchronized (consumerLock) {
+      Operation op;
+      // Stop at a slot that has been claimed but not yet published rather
+      // than waiting on its producer; the caller will come back for it.
+      while (n < maxElements && (op = take(false)) != null) {
+        c.add(op);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public int size() {
+    long c;
+    long p;
+    do {
+      c = consumerIndex.get();
+      p = producerIndex.get();
+    } while (c != consumerIndex.get());
+    return (int) Math.max(0, Math.min(p - c, capacity));
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return consumerIndex.get() == producerIndex.get();
+  }
+
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  @Override
+  public Iterator<Operation> iterator() {
+    List<Operation> snapshot = new ArrayList<Operation>(size());
+    long c = consumerIndex.get();
+    long p = producerIndex.get();
+    for (long i = c; i < p; i++) {
+      Operation op = buffer.get((int) i & mask);
+      if (op != null) {
+        snapshot.add(op);
+      }
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  /**
+   * Remove the head of the queue; must be called with the consumer lock held.
+   *
+   * @param wait whether to wait for a claimed slot to be published
+   */
+  private Operation take(boolean wait) {
+    long c = consumerIndex.get();
+    int offset = (int) c & mask;
+    Operation rv = buffer.get(offset);
+    if (rv == null) {
+      if (!wait || c == producerIndex.get()) {
+        return null;
+      }
+      do {
+        Thread.yield();
+        rv = buffer.get(offset);
+      } while (rv == null);
+    }
+    buffer.lazySet(offset, null);
+    consumerIndex.lazySet(c + 1);
+    return rv;
+  }
+
+  /**
+   * Spin, then park for the given time, returning the next park time.
+   */
+  private static long backOff(int attempt, long parkNanos)
+    throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (attempt < SPINS) {
+      Thread.yield();
+      return parkNanos;
+    }
+    LockSupport.parkNanos(parkNanos);
+    return Math.min(parkNanos << 1, MAX_PARK_NANOS);
+  }
+}
@@ -25,6 +25,7 @@ package net.spy.memcached.ops;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import net.spy.memcached.MemcachedNode;
 
@@ -159,6 +160,31 @@ public interface Operation {
    */
   long getWriteCompleteTimestamp();
 
+  /**
+   * Returns the timestamp from the point where the operation was created.
+   */
+  long getCreationTimestamp();
+
+  /**
+   * Returns the timestamp from the point where the operation completed,
+   * right before its callback was told, or 0 if it has not completed.
+   */
+  long getCompleteTimestamp();
+
+  /**
+   * Returns the operations which were folded into this one to be sent along
+   * with it, empty unless this operation merges others.
+   */
+  List<Operation> getFoldedOperations();
+
+  /**
+   * True if this operation is sent without asking the server for a reply.
+   *
+   * Such an operation is never read back and completes as soon as it has
+   * been written.
+   */
+  boolean isNoReply();
+
   /**
    * Returns the raw bytes of the error message content.
    *
@@ -184,4 +210,24 @@ public interface Operation {
    * Sets the clone count for this operation.
    */
   void setCloneCount(int count);
+
+  /**
+   * Returns the tracer receiving the events of this operation, or null if
+   * it is not traced.
+   */
+  OperationTracer getTracer();
+
+  /**
+   * Trace this operation with the given tracer.
+   */
+  void setTracer(OperationTracer tracer);
+
+  /**
+   * Tell the tracer of this operation, if any, that the given event was
+   * reached.
+   *
+   * {@link OperationTracer.Event#FIRST_BYTE} is only reported the first
+   * time.
+   */
+  void trace(OperationTracer.Event event);
 }
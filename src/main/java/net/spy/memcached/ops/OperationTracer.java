@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+/**
+ * Receives the timestamps of the lifecycle of sampled operations.
+ *
+ * <p>When no tracer is configured, or {@link #isTraced(Operation)} turns an
+ * operation down, the operation never sees a tracer and does no tracing
+ * work at all.</p>
+ *
+ * <p>A traced operation reports each {@link Event} once, in order, except
+ * that {@link Event#ENQUEUED} and the write events are reported again if
+ * the operation is retried, and that an operation which times out or is
+ * cancelled skips {@link Event#PARSED}. {@link Event#CALLBACK_DONE} always
+ * ends the events of the operation itself. {@link Event#LISTENER_DONE} is
+ * only reported if listeners were added to its future, and as they run on
+ * the listener executor it may arrive before {@link Event#CALLBACK_DONE}.
+ * </p>
+ *
+ * <p>Tracers are called from the caller, IO and listener threads, so they
+ * must be thread safe and must return quickly.</p>
+ */
+public interface OperationTracer {
+
+  /**
+   * The points of the lifecycle of an operation.
+   */
+  enum Event {
+    /** The operation was created. */
+    CREATED,
+    /** The operation was put on the input queue of its node. */
+    ENQUEUED,
+    /** The operation started being written to the socket. */
+    WRITE_STARTED,
+    /** The operation was fully written to the socket. */
+    WRITE_COMPLETE,
+    /** The first bytes of the answer were read from the socket. */
+    FIRST_BYTE,
+    /** The answer was parsed, right before the callback is told. */
+    PARSED,
+    /** The callback returned, the future is done. */
+    CALLBACK_DONE,
+    /** All listeners of the future have run. */
+    LISTENER_DONE
+  }
+
+  /**
+   * Decide whether to trace the given operation.
+   *
+   * <p>Called before an operation which is not traced yet is enqueued, this
+   * is where sampling happens.</p>
+   *
+   * @param op the operation about to be enqueued
+   * @return true to receive the events of the operation
+   */
+  boolean isTraced(Operation op);
+
+  /**
+   * Receive an event of a traced operation.
+   *
+   * @param op the traced operation
+   * @param event the point of the lifecycle which was reached
+   * @param nanos the {@link System#nanoTime()} at which it was reached
+   */
+  void traced(Operation op, Event event, long nanos);
+}
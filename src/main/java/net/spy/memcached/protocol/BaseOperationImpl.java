@@ -42,6 +42,7 @@ import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.TimedOutOperationStatus;
 
@@ -57,8 +58,15 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       new CancelledOperationStatus();
   public static final OperationStatus TIMED_OUT=
       new TimedOutOperationStatus();
+  /**
+   * Status object for written operations which were sent with noreply.
+   */
+  public static final OperationStatus NO_REPLY =
+      new OperationStatus(true, "NOREPLY", StatusCode.SUCCESS);
   private volatile OperationState state = OperationState.WRITE_QUEUED;
   private ByteBuffer cmd = null;
+  private ByteBuffer pooledCmd = null;
+  private BufferPool cmdPool = null;
   private boolean cancelled = false;
   private OperationException exception = null;
   protected OperationCallback callback = null;
@@ -69,6 +77,10 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   protected Collection<MemcachedNode> notMyVbucketNodes =
       new HashSet<MemcachedNode>();
   private long writeCompleteTimestamp;
+  private volatile long completeTimestamp;
+  private volatile OperationTracer tracer;
+  private boolean firstByteTraced;
+  private List<Operation> folded = Collections.emptyList();
 
   /**
    * If the operation gets cloned, the reference is used to cascade cancellations
@@ -82,6 +94,11 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
    */
   private volatile int cloneCount;
 
+  /**
+   * The pending expiry of this operation, if it has been scheduled.
+   */
+  private TimerWheel.Timeout expiry;
+
   public BaseOperationImpl() {
     super();
     creationTime = System.nanoTime();
@@ -123,9 +140,12 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       }
     }
 
+    clearExpiry();
+    releaseUnsentBuffer();
     wasCancelled();
     callback.receivedStatus(CANCELLED);
     callback.complete();
+    trace(OperationTracer.Event.CALLBACK_DONE);
   }
 
   /**
@@ -148,33 +168,140 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
    */
   protected final synchronized void setBuffer(ByteBuffer to) {
     assert to != null : "Trying to set buffer to null";
+    if (to != pooledCmd) {
+      releaseBuffer();
+    }
     cmd = to;
     cmd.mark();
   }
 
+  /**
+   * Get a buffer of the given size to serialize this operation into.
+   *
+   * The buffer is borrowed from the {@link BufferPool} of the handling node
+   * if there is one, and given back once it has been written or the
+   * operation is cancelled or timed out before being sent.
+   *
+   * @param size the number of bytes needed.
+   * @return a buffer positioned at zero with its limit set to size.
+   */
+  protected final synchronized ByteBuffer allocateBuffer(int size) {
+    MemcachedNode node = handlingNode;
+    BufferPool pool = node == null ? null : node.getBufferPool();
+    releaseBuffer();
+    if (pool == null) {
+      return ByteBuffer.allocate(size);
+    }
+    pooledCmd = pool.borrow(size);
+    cmdPool = pool;
+    return pooledCmd;
+  }
+
+  /**
+   * Give the pooled buffer back if it never started to be written, for
+   * example because the operation got folded into an optimized one.
+   */
+  protected final synchronized void releaseUnsentBuffer() {
+    if (state == OperationState.WRITE_QUEUED) {
+      releaseBuffer();
+    }
+  }
+
+  private void releaseBuffer() {
+    if (pooledCmd != null) {
+      if (cmd == pooledCmd) {
+        cmd = null;
+      }
+      cmdPool.release(pooledCmd);
+      pooledCmd = null;
+      cmdPool = null;
+    }
+  }
+
   /**
    * Transition the state of this operation to the given state.
    */
   protected final synchronized void transitionState(OperationState newState) {
     getLogger().debug("Transitioned state from %s to %s", state, newState);
+    OperationState oldState = state;
     state = newState;
     // Discard our buffer when we no longer need it.
     if(state != OperationState.WRITE_QUEUED
         && state != OperationState.WRITING) {
       cmd = null;
+      if (oldState == OperationState.WRITING
+          && state != OperationState.READING) {
+        // Answered before it was fully written, the buffer may still be in
+        // use for writing so it is not safe to pool it again.
+        pooledCmd = null;
+        cmdPool = null;
+      }
+      releaseBuffer();
     }
     if (state == OperationState.COMPLETE) {
+      clearExpiry();
+      completeTimestamp = System.nanoTime();
+      OperationTracer t = tracer;
+      if (t != null) {
+        t.traced(this, OperationTracer.Event.PARSED, completeTimestamp);
+      }
       callback.complete();
+      trace(OperationTracer.Event.CALLBACK_DONE);
+    }
+  }
+
+  /**
+   * Remember the timeout which expires this operation.
+   *
+   * @param t the scheduled timeout.
+   * @return false if the operation has been scheduled before or is already
+   *         finished, in which case the timeout must not be used.
+   */
+  final synchronized boolean setExpiry(TimerWheel.Timeout t) {
+    if (expiry != null || cancelled || timedout
+        || state == OperationState.COMPLETE) {
+      return false;
+    }
+    expiry = t;
+    return true;
+  }
+
+  private void clearExpiry() {
+    if (expiry != null) {
+      expiry.cancel();
     }
   }
 
   public final void writing() {
+    trace(OperationTracer.Event.WRITE_STARTED);
     transitionState(OperationState.WRITING);
   }
 
   public final void writeComplete() {
     writeCompleteTimestamp = System.nanoTime();
-    transitionState(OperationState.READING);
+    OperationTracer t = tracer;
+    if (t != null) {
+      t.traced(this, OperationTracer.Event.WRITE_COMPLETE,
+        writeCompleteTimestamp);
+    }
+    if (isNoReply()) {
+      callback.receivedStatus(getNoReplyStatus());
+      transitionState(OperationState.COMPLETE);
+    } else {
+      transitionState(OperationState.READING);
+    }
+  }
+
+  public boolean isNoReply() {
+    return false;
+  }
+
+  /**
+   * The status handed to the callback once this operation has been written,
+   * if it was sent with noreply.
+   */
+  protected OperationStatus getNoReplyStatus() {
+    return NO_REPLY;
   }
 
   public abstract void initialize();
@@ -218,6 +345,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   @Override
   public synchronized void timeOut() {
     timedout = true;
+    clearExpiry();
 
     synchronized (clones) {
       Iterator<Operation> i = clones.iterator();
@@ -226,8 +354,10 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       }
     }
 
+    releaseUnsentBuffer();
     callback.receivedStatus(TIMED_OUT);
     callback.complete();
+    trace(OperationTracer.Event.CALLBACK_DONE);
   }
 
   @Override
@@ -242,8 +372,11 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     if (elapsed - creationTime > ttlNanos) {
       timedOutUnsent = true;
       timedout = true;
+      clearExpiry();
+      releaseUnsentBuffer();
       callback.receivedStatus(TIMED_OUT);
       callback.complete();
+      trace(OperationTracer.Event.CALLBACK_DONE);
     } // else
       // timedout would be false, but we cannot allow you to untimeout an
       // operation.  This can happen when the latch timeout is shorter than the
@@ -261,6 +394,34 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     return writeCompleteTimestamp;
   }
 
+  @Override
+  public long getCreationTimestamp() {
+    return creationTime;
+  }
+
+  @Override
+  public long getCompleteTimestamp() {
+    return completeTimestamp;
+  }
+
+  @Override
+  public List<Operation> getFoldedOperations() {
+    return folded;
+  }
+
+  /**
+   * Remember an operation which was folded into this one to be sent along
+   * with it.
+   *
+   * @param op the folded operation.
+   */
+  protected final void addFolded(Operation op) {
+    if (folded.isEmpty()) {
+      folded = new ArrayList<Operation>();
+    }
+    folded.add(op);
+  }
+
   @Override
   public void addClone(Operation op) {
     clones.add(op);
@@ -275,4 +436,29 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   public void setCloneCount(int count) {
     cloneCount = count;
   }
+
+  @Override
+  public OperationTracer getTracer() {
+    return tracer;
+  }
+
+  @Override
+  public void setTracer(OperationTracer t) {
+    tracer = t;
+  }
+
+  @Override
+  public final void trace(OperationTracer.Event event) {
+    OperationTracer t = tracer;
+    if (t == null) {
+      return;
+    }
+    if (event == OperationTracer.Event.FIRST_BYTE) {
+      if (firstByteTraced) {
+        return;
+      }
+      firstByteTraced = true;
+    }
+    t.traced(this, event, System.nanoTime());
+  }
 }
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.spy.memcached.metrics.MeterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+
+/**
+ * A pool of heap buffers used to serialize outgoing requests.
+ *
+ * Buffers are kept in power of two size classes between
+ * {@link #MIN_BUFFER_SIZE} and the configured maximum size, each class
+ * holding a bounded number of idle buffers. Requests larger than the
+ * biggest class are served with a fresh buffer which is simply dropped on
+ * release.
+ *
+ * Buffers may be borrowed and released from any thread. Every borrow is
+ * reported to the {@link MetricCollector} as either a hit or a miss.
+ */
+public final class BufferPool {
+
+  /**
+   * Meter marked whenever a borrowed buffer came out of the pool.
+   */
+  public static final String HIT_METRIC = "[MEM] Request Buffer Pool: Hit";
+
+  /**
+   * Meter marked whenever a borrowed buffer had to be allocated.
+   */
+  public static final String MISS_METRIC = "[MEM] Request Buffer Pool: Miss";
+
+  /**
+   * Size of the smallest size class.
+   */
+  public static final int MIN_BUFFER_SIZE = 64;
+
+  /**
+   * Default size of the biggest size class.
+   */
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 16384;
+
+  /**
+   * Default number of idle buffers kept per size class.
+   */
+  public static final int DEFAULT_BUFFERS_PER_CLASS = 32;
+
+  private static final int MIN_SHIFT =
+      Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+  private final List<BlockingQueue<ByteBuffer>> classes;
+  private final int maxBufferSize;
+  private final MeterHandle hitMeter;
+  private final MeterHandle missMeter;
+
+  /**
+   * Create a pool with the default size classes.
+   *
+   * @param metrics the collector to report hits and misses to.
+   */
+  public BufferPool(MetricCollector metrics) {
+    this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BUFFERS_PER_CLASS, metrics);
+  }
+
+  /**
+   * Create a pool.
+   *
+   * @param maxSize the size of the biggest class, rounded up to a power of
+   *          two.
+   * @param perClass the number of idle buffers kept per size class.
+   * @param metrics the collector to report hits and misses to.
+   */
+  public BufferPool(int maxSize, int perClass, MetricCollector metrics) {
+    assert maxSize >= MIN_BUFFER_SIZE : "Max size too small: " + maxSize;
+    assert perClass > 0 : "Buffers per class must be positive";
+    assert metrics != null : "No metric collector";
+    maxBufferSize = classSize(classOf(maxSize));
+    int count = classOf(maxBufferSize) + 1;
+    classes = new ArrayList<BlockingQueue<ByteBuffer>>(count);
+    for (int i = 0; i < count; i++) {
+      classes.add(new ArrayBlockingQueue<ByteBuffer>(perClass));
+    }
+    hitMeter = metrics.getMeter(HIT_METRIC);
+    missMeter = metrics.getMeter(MISS_METRIC);
+  }
+
+  /**
+   * Borrow a buffer with room for at least the given number of bytes.
+   *
+   * The returned buffer is positioned at zero with its limit set to the
+   * requested size.
+   *
+   * @param size the number of bytes needed.
+   * @return a buffer, which should be given back through
+   *         {@link #release(ByteBuffer)} once it is no longer used.
+   */
+  public ByteBuffer borrow(int size) {
+    ByteBuffer rv = null;
+    int c = -1;
+    if (size <= maxBufferSize) {
+      c = classOf(size);
+      rv = classes.get(c).poll();
+    }
+    if (rv == null) {
+      missMeter.mark();
+      rv = ByteBuffer.allocate(c < 0 ? size : classSize(c));
+    } else {
+      hitMeter.mark();
+      rv.clear();
+    }
+    rv.limit(size);
+    return rv;
+  }
+
+  /**
+   * Give a buffer back to the pool.
+   *
+   * Buffers not matching a size class, or arriving while their class is
+   * full, are left to the garbage collector.
+   *
+   * @param buf the buffer to release.
+   */
+  public void release(ByteBuffer buf) {
+    int cap = buf.capacity();
+    if (!buf.hasArray() || cap > maxBufferSize || cap < MIN_BUFFER_SIZE
+        || Integer.bitCount(cap) != 1) {
+      return;
+    }
+    classes.get(classOf(cap)).offer(buf);
+  }
+
+  /**
+   * Get the number of idle buffers held for the given request size.
+   */
+  int idle(int size) {
+    return classes.get(classOf(size)).size();
+  }
+
+  private static int classOf(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  private static int classSize(int c) {
+    return MIN_BUFFER_SIZE << c;
+  }
+
+  @Override
+  public String toString() {
+    return "{BufferPool max=" + maxBufferSize + ", classes="
+        + classes.size() + "}";
+  }
+}
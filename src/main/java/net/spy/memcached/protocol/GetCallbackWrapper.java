@@ -22,6 +22,8 @@
 
 package net.spy.memcached.protocol;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
@@ -29,7 +31,7 @@ import net.spy.memcached.ops.StatusCode;
 /**
  * Wrapper callback for use in optimized gets.
  */
-public class GetCallbackWrapper implements GetOperation.Callback {
+public class GetCallbackWrapper implements GetOperation.BufferCallback {
 
   private static final OperationStatus END = new OperationStatus(true, "END",
     StatusCode.SUCCESS);
@@ -53,6 +55,21 @@ public class GetCallbackWrapper implements GetOperation.Callback {
     }
   }
 
+  public void gotData(String key, int flags, ByteBuffer data) {
+    assert !completed : "Got data for a completed wrapped op";
+    if (cb instanceof GetOperation.BufferCallback) {
+      ((GetOperation.BufferCallback) cb).gotData(key, flags, data);
+    } else {
+      byte[] copy = new byte[data.remaining()];
+      data.get(copy);
+      cb.gotData(key, flags, copy);
+    }
+    if (--remainingKeys == 0) {
+      // Fake a status line
+      receivedStatus(END);
+    }
+  }
+
   public void receivedStatus(OperationStatus status) {
     if (!completed) {
       cb.receivedStatus(status);
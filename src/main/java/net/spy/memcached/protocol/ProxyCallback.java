@@ -22,6 +22,7 @@
 
 package net.spy.memcached.protocol;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -33,7 +34,7 @@ import net.spy.memcached.ops.OperationStatus;
 /**
  * Proxy callback used for dispatching callbacks over optimized gets.
  */
-public class ProxyCallback implements GetOperation.Callback {
+public class ProxyCallback implements GetOperation.BufferCallback {
 
   private final Map<String, Collection<GetOperation.Callback>> callbacks =
       new HashMap<String, Collection<GetOperation.Callback>>();
@@ -63,6 +64,25 @@ public class ProxyCallback implements GetOperation.Callback {
     }
   }
 
+  public void gotData(String key, int flags, ByteBuffer data) {
+    Collection<GetOperation.Callback> cbs = callbacks.get(key);
+    assert cbs != null : "No callbacks for key " + key;
+    byte[] copy = null;
+    for (GetOperation.Callback c : cbs) {
+      if (c instanceof GetOperation.BufferCallback) {
+        ((GetOperation.BufferCallback) c).gotData(key, flags,
+          data.duplicate());
+      } else {
+        // Array based callbacks share a single copy, just like before.
+        if (copy == null) {
+          copy = new byte[data.remaining()];
+          data.duplicate().get(copy);
+        }
+        c.gotData(key, flags, copy);
+      }
+    }
+  }
+
   public void receivedStatus(OperationStatus status) {
     for (GetOperation.Callback c : allCallbacks) {
       c.receivedStatus(status);
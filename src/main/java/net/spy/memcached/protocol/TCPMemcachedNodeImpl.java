@@ -30,6 +30,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -40,6 +41,7 @@ import net.spy.memcached.FailureMode;
 import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.metrics.NoopMetricCollector;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
@@ -51,6 +53,11 @@ import net.spy.memcached.protocol.binary.TapAckOperationImpl;
 public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     MemcachedNode {
 
+  /**
+   * Maximum number of operation buffers handed to a single gathering write.
+   */
+  private static final int MAX_GATHER = 64;
+
   private final SocketAddress socketAddress;
   private final ByteBuffer rbuf;
   private final ByteBuffer wbuf;
@@ -71,6 +78,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private long defaultOpTimeout;
   private volatile long lastReadTimestamp = System.nanoTime();
   private MemcachedConnection connection;
+  private final BufferPool bufferPool;
+  private final boolean gatheringWrites;
+  private final ByteBuffer[] gatherBufs;
+  private final Operation[] gatherOps;
+  private int gatherCount = 0;
+  private int gatherOffset = 0;
 
   // operation Future.get timeout counter
   private final AtomicInteger continuousTimeout = new AtomicInteger(0);
@@ -97,6 +110,11 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     rbuf = ByteBuffer.allocateDirect(bufSize);
     wbuf = ByteBuffer.allocateDirect(bufSize);
     getWbuf().clear();
+    bufferPool = new BufferPool(fact == null ? new NoopMetricCollector()
+        : fact.getMetricCollector());
+    gatheringWrites = fact != null && fact.useGatheringWrites();
+    gatherBufs = gatheringWrites ? new ByteBuffer[MAX_GATHER] : null;
+    gatherOps = gatheringWrites ? new Operation[MAX_GATHER] : null;
     readQ = rq;
     writeQ = wq;
     inputQueue = iq;
@@ -136,6 +154,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#setupResend()
    */
   public final void setupResend() {
+    List<Operation> gathered = requeueGathered();
+
     // First, reset the current write op, or cancel it if we should
     // be authenticating
     Operation op = getCurrentWriteOp();
@@ -151,14 +171,19 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
       }
     }
     // Now cancel all the pending read operations. Might be better to
-    // to requeue them.
+    // to requeue them. Gathered operations being sent again keep their
+    // place, since they are not put on the read queue a second time.
+    List<Operation> resent = new ArrayList<Operation>(gathered.size());
     while (hasReadOp()) {
       op = removeCurrentReadOp();
-      if (op != getCurrentWriteOp()) {
+      if (!shouldAuth && gathered.contains(op)) {
+        resent.add(op);
+      } else if (op != getCurrentWriteOp()) {
         getLogger().warn("Discarding partially completed op: %s", op);
         op.cancel();
       }
     }
+    readQ.addAll(resent);
 
     while (shouldAuth && hasWriteOp()) {
       op = removeCurrentWriteOp();
@@ -166,6 +191,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
       op.cancel();
     }
 
+    clearGathered();
     getWbuf().clear();
     getRbuf().clear();
     toWrite = 0;
@@ -193,8 +219,11 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#fillWriteBuffer(boolean)
    */
   public final void fillWriteBuffer(boolean shouldOptimize) {
-    if (toWrite == 0 && readQ.remainingCapacity() > 0) {
+    if (gatheringWrites) {
+      gatherWriteBuffers(shouldOptimize);
+    } else if (toWrite == 0 && readQ.remainingCapacity() > 0) {
       getWbuf().clear();
+      optimizeUnstarted(shouldOptimize);
       Operation o=getNextWritableOp();
 
       while(o != null && toWrite < getWbuf().capacity()) {
@@ -204,9 +233,10 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           ByteBuffer obuf = o.getBuffer();
           assert obuf != null : "Didn't get a write buffer from " + o;
           int bytesToCopy = Math.min(getWbuf().remaining(), obuf.remaining());
-          byte[] b = new byte[bytesToCopy];
-          obuf.get(b);
-          getWbuf().put(b);
+          int limit = obuf.limit();
+          obuf.limit(obuf.position() + bytesToCopy);
+          getWbuf().put(obuf);
+          obuf.limit(limit);
           getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
           if (!o.getBuffer().hasRemaining()) {
             o.writeComplete();
@@ -233,6 +263,121 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   }
 
 
+  /**
+   * Collect the buffers of the next writable operations for a gathering
+   * write.
+   *
+   * Unlike the copying mode, operations stay in the WRITING state until
+   * {@link #writeSome()} has put their last byte on the wire, since their
+   * buffers are written as they are.
+   */
+  private void gatherWriteBuffers(boolean shouldOptimize) {
+    if (toWrite > 0 || readQ.remainingCapacity() == 0) {
+      getLogger().debug("Buffer is full, skipping");
+      return;
+    }
+    clearGathered();
+    optimizeUnstarted(shouldOptimize);
+    Operation o = getNextWritableOp();
+    while (o != null) {
+      synchronized (o) {
+        assert o.getState() == OperationState.WRITING;
+        ByteBuffer obuf = o.getBuffer();
+        assert obuf != null : "Didn't get a write buffer from " + o;
+        gatherOps[gatherCount] = o;
+        gatherBufs[gatherCount] = obuf;
+        gatherCount++;
+        toWrite += obuf.remaining();
+      }
+      transitionWriteItem();
+      if (gatherCount == MAX_GATHER || readQ.remainingCapacity() == 0) {
+        break;
+      }
+      preparePending();
+      if (shouldOptimize) {
+        optimize();
+      }
+      o = getNextWritableOp();
+    }
+  }
+
+  /**
+   * Put the gathered operations which were not fully written back in front
+   * of the write queue with their buffers rewound, so they are sent again
+   * just like the current write operation of the copying mode.
+   *
+   * Operations which do not fit into a bounded write queue any more are
+   * not put back.
+   *
+   * @return the operations put back, in order.
+   */
+  private List<Operation> requeueGathered() {
+    List<Operation> rv = new ArrayList<Operation>();
+    if (gatheringWrites) {
+      for (int i = gatherOffset; i < gatherCount; i++) {
+        Operation o = gatherOps[i];
+        synchronized (o) {
+          ByteBuffer buf = o.getBuffer();
+          if (o.getState() == OperationState.WRITING && !o.isCancelled()
+              && buf != null) {
+            buf.reset();
+            rv.add(o);
+          }
+        }
+      }
+      clearGathered();
+    }
+    if (!rv.isEmpty()) {
+      ArrayList<Operation> tmp = new ArrayList<Operation>(rv);
+      if (optimizedOp != null) {
+        tmp.add(optimizedOp);
+        optimizedOp = null;
+      }
+      writeQ.drainTo(tmp);
+      // The write queue may have been refilled to its capacity since the
+      // gathered operations left it, so whatever no longer fits is dropped:
+      // gathered operations stay on the read queue for setupResend to
+      // cancel, the others are cancelled here.
+      for (Operation o : tmp) {
+        if (!writeQ.offer(o) && !rv.remove(o)) {
+          getLogger().warn("Write queue full, discarding op: %s", o);
+          o.cancel();
+        }
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Forget about the operations of the last gathering write.
+   */
+  private void clearGathered() {
+    if (gatheringWrites) {
+      for (int i = 0; i < gatherCount; i++) {
+        gatherBufs[i] = null;
+        gatherOps[i] = null;
+      }
+      gatherCount = 0;
+      gatherOffset = 0;
+    }
+  }
+
+  /**
+   * Optimize the operation at the head of the write queue as well, unless
+   * it already started being written.
+   *
+   * Otherwise the first operation of a burst would always go out on its
+   * own, which for a noreply fence means without being confirmed.
+   */
+  private void optimizeUnstarted(boolean shouldOptimize) {
+    if (shouldOptimize && optimizedOp == null) {
+      Operation o = writeQ.peek();
+      if (o != null && o.getState() == OperationState.WRITE_QUEUED) {
+        optimize();
+      }
+    }
+  }
+
   private Operation getNextWritableOp() {
     Operation o = getCurrentWriteOp();
     while (o != null && o.getState() == OperationState.WRITE_QUEUED) {
@@ -247,7 +392,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           assert o == timedOutOp;
         } else {
           o.writing();
-          if (!(o instanceof TapAckOperationImpl)) {
+          if (!(o instanceof TapAckOperationImpl) && !o.isNoReply()) {
             readQ.add(o);
           }
           return o;
@@ -566,7 +711,26 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#writeSome()
    */
   public final int writeSome() throws IOException {
-    int wrote = channel.write(wbuf);
+    int wrote;
+    if (gatheringWrites) {
+      wrote = (int) channel.write(gatherBufs, gatherOffset,
+          gatherCount - gatherOffset);
+      while (gatherOffset < gatherCount
+          && !gatherBufs[gatherOffset].hasRemaining()) {
+        Operation o = gatherOps[gatherOffset];
+        synchronized (o) {
+          // The server may have answered (e.g. with an error) already.
+          if (o.getState() == OperationState.WRITING) {
+            o.writeComplete();
+          }
+        }
+        gatherBufs[gatherOffset] = null;
+        gatherOps[gatherOffset] = null;
+        gatherOffset++;
+      }
+    } else {
+      wrote = channel.write(wbuf);
+    }
     assert wrote >= 0 : "Wrote negative bytes?";
     toWrite -= wrote;
     assert toWrite >= 0 : "toWrite went negative after writing " + wrote
@@ -656,4 +820,36 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   public void setConnection(MemcachedConnection connection) {
     this.connection = connection;
   }
+
+  @Override
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  @Override
+  public int getOutstandingOps() {
+    return inputQueue.size() + writeQ.size() + readQ.size()
+      + (optimizedOp == null ? 0 : 1);
+  }
+
+  /**
+   * The number of operations added but not yet moved to the write queue.
+   */
+  public int getInputQueueSize() {
+    return inputQueue.size();
+  }
+
+  /**
+   * The number of operations waiting to be written.
+   */
+  public int getWriteQueueSize() {
+    return writeQ.size() + (optimizedOp == null ? 0 : 1);
+  }
+
+  /**
+   * The number of operations written and waiting for their response.
+   */
+  public int getReadQueueSize() {
+    return readQ.size();
+  }
 }
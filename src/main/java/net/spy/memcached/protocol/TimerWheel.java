@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+
+/**
+ * A hashed timing wheel tracking the deadlines of outstanding operations.
+ *
+ * Operations may be scheduled from any thread at constant cost: the new
+ * {@link Timeout} is pushed onto a lock-free stack and only moved into its
+ * bucket by the single thread driving the wheel through
+ * {@link #expire(long, List)}. Each tick that thread looks at one bucket,
+ * so expiring is proportional to the number of timeouts due rather than to
+ * the number of operations in flight.
+ *
+ * Timeouts are cancelled by dropping their operation, which happens as soon
+ * as the operation completes, is cancelled or times out otherwise. The
+ * remaining empty entry is discarded once its bucket comes around.
+ */
+public final class TimerWheel {
+
+  /**
+   * Default number of buckets of a wheel.
+   */
+  public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+  private final long tickNanos;
+  private final Timeout[] buckets;
+  private final int mask;
+  private final long startTime;
+  private final AtomicReference<Timeout> pending =
+      new AtomicReference<Timeout>();
+
+  /**
+   * The next tick to expire, only accessed by the driving thread.
+   */
+  private long tick = 0;
+
+  /**
+   * Number of timeouts in the buckets, only accessed by the driving thread.
+   */
+  private int size = 0;
+
+  /**
+   * True if the buckets were empty after the last expiry.
+   */
+  private volatile boolean idle = true;
+
+  /**
+   * Create a wheel with the default number of buckets.
+   *
+   * @param tickMillis the duration of a tick in milliseconds.
+   */
+  public TimerWheel(long tickMillis) {
+    this(tickMillis, DEFAULT_TICKS_PER_WHEEL);
+  }
+
+  /**
+   * Create a wheel.
+   *
+   * @param tickMillis the duration of a tick in milliseconds.
+   * @param ticksPerWheel the number of buckets, rounded up to a power of
+   *          two.
+   */
+  public TimerWheel(long tickMillis, int ticksPerWheel) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("Tick must be positive.");
+    }
+    if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid ticks per wheel: "
+        + ticksPerWheel);
+    }
+    int n = Integer.highestOneBit(ticksPerWheel);
+    if (n < ticksPerWheel) {
+      n <<= 1;
+    }
+    tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    buckets = new Timeout[n];
+    mask = n - 1;
+    startTime = System.nanoTime();
+  }
+
+  /**
+   * Schedule the expiry of an operation.
+   *
+   * Operations extending {@link BaseOperationImpl} keep a reference to their
+   * timeout so it is cancelled once they finish, and are only scheduled
+   * once: scheduling them again (for example when they are redistributed)
+   * keeps the original deadline.
+   *
+   * @param op the operation to expire.
+   * @param delayMillis the time from now after which it expires.
+   * @return true if the wheel had nothing to expire before, in which case
+   *         the driving thread may need to be woken up.
+   */
+  public boolean schedule(Operation op, long delayMillis) {
+    Timeout t = new Timeout(op, System.nanoTime()
+      + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    if (op instanceof BaseOperationImpl
+        && !((BaseOperationImpl) op).setExpiry(t)) {
+      return false;
+    }
+    Timeout head;
+    do {
+      head = pending.get();
+      t.next = head;
+    } while (!pending.compareAndSet(head, t));
+    return head == null && idle;
+  }
+
+  /**
+   * Collect all operations whose deadline has passed.
+   *
+   * Must only be called from the thread driving this wheel.
+   *
+   * @param now the current {@link System#nanoTime()}.
+   * @param expired the list to add the expired operations to.
+   */
+  public void expire(long now, List<Operation> expired) {
+    transferPending();
+    long elapsed = now - startTime;
+    // A tick is only expired once it has fully passed, so no timeout is
+    // ever reported before its deadline.
+    while ((tick + 1) * tickNanos <= elapsed) {
+      if (size == 0 && pending.get() == null) {
+        tick = elapsed / tickNanos;
+        break;
+      }
+      expireBucket((int) (tick & mask), expired);
+      tick++;
+    }
+    idle = size == 0;
+  }
+
+  /**
+   * The time until the current tick has passed.
+   *
+   * Must only be called from the thread driving this wheel.
+   *
+   * @param now the current {@link System#nanoTime()}.
+   * @return the delay in milliseconds (at least one), or -1 if there is
+   *         nothing to expire.
+   */
+  public long nextDelay(long now) {
+    if (size == 0 && pending.get() == null) {
+      return -1;
+    }
+    long remaining = (tick + 1) * tickNanos - (now - startTime);
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+  }
+
+  private void transferPending() {
+    Timeout t = pending.getAndSet(null);
+    while (t != null) {
+      Timeout next = t.next;
+      if (t.op != null) {
+        long deadlineTick = (t.deadline - startTime) / tickNanos;
+        t.rounds = (deadlineTick - tick) / buckets.length;
+        int idx = (int) (Math.max(deadlineTick, tick) & mask);
+        t.next = buckets[idx];
+        buckets[idx] = t;
+        size++;
+      }
+      t = next;
+    }
+  }
+
+  private void expireBucket(int idx, List<Operation> expired) {
+    Timeout t = buckets[idx];
+    Timeout keep = null;
+    while (t != null) {
+      Timeout next = t.next;
+      Operation op = t.op;
+      if (op == null || op.getState() == OperationState.COMPLETE) {
+        size--;
+      } else if (t.rounds <= 0) {
+        t.op = null;
+        expired.add(op);
+        size--;
+      } else {
+        t.rounds--;
+        t.next = keep;
+        keep = t;
+      }
+      t = next;
+    }
+    buckets[idx] = keep;
+  }
+
+  /**
+   * The pending expiry of a single operation.
+   */
+  public static final class Timeout {
+    private volatile Operation op;
+    private final long deadline;
+    private long rounds;
+    private Timeout next;
+
+    Timeout(Operation o, long d) {
+      op = o;
+      deadline = d;
+    }
+
+    /**
+     * Cancel this timeout, its operation will not be expired.
+     */
+    public void cancel() {
+      op = null;
+    }
+
+    /**
+     * True if the operation has neither expired nor been cancelled yet.
+     */
+    public boolean isPending() {
+      return op != null;
+    }
+  }
+}
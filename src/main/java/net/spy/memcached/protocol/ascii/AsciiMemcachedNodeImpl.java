@@ -39,12 +39,15 @@ import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
  */
 public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 
+  private final boolean noReplyFence;
+
   public AsciiMemcachedNodeImpl(SocketAddress sa, SocketChannel c, int bufSize,
       BlockingQueue<Operation> rq, BlockingQueue<Operation> wq,
       BlockingQueue<Operation> iq, Long opQueueMaxBlockTimeNs, long dt,
       long at, ConnectionFactory fa) {
     // ASCII never does auth
     super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, false, dt, at, fa);
+    noReplyFence = fa != null && fa.useNoReplyFence();
   }
 
   @Override
@@ -59,7 +62,7 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 
         while (writeQ.peek() instanceof GetOperation) {
           GetOperationImpl o = (GetOperationImpl) writeQ.remove();
-          if (!o.isCancelled()) {
+          if (!o.isCancelled() && !o.isTimedOut()) {
             og.addOperation(o);
           }
         }
@@ -71,6 +74,31 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
         getLogger().debug("Set up %s with %s keys and %s callbacks", this,
             pcb.numKeys(), pcb.numCallbacks());
       }
+    } else if (isNoReply(writeQ.peek())) {
+      optimizedOp = writeQ.remove();
+      // A single noreply operation is only wrapped when it needs a fence.
+      if (noReplyFence || isNoReply(writeQ.peek())) {
+        OptimizedNoReplyImpl batch =
+          new OptimizedNoReplyImpl((OperationImpl) optimizedOp, noReplyFence);
+        optimizedOp = batch;
+
+        while (isNoReply(writeQ.peek())
+            && batch.bytes() < getWbuf().capacity()) {
+          OperationImpl o = (OperationImpl) writeQ.remove();
+          if (!o.isCancelled() && !o.isTimedOut()) {
+            batch.addOperation(o);
+          }
+        }
+
+        optimizedOp.initialize();
+        assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+        getLogger().debug("Set up %s with %s noreply operations", this,
+            batch.size());
+      }
     }
   }
+
+  private static boolean isNoReply(Operation op) {
+    return op instanceof OperationImpl && op.isNoReply();
+  }
 }
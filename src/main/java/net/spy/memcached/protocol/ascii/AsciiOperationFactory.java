@@ -24,6 +24,8 @@
 package net.spy.memcached.protocol.ascii;
 
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -67,8 +69,37 @@ import java.util.Map;
  */
 public class AsciiOperationFactory extends BaseOperationFactory {
 
+  private final boolean noReply;
+
+  public AsciiOperationFactory() {
+    this(false);
+  }
+
+  /**
+   * Create an operation factory.
+   *
+   * @param noReply if true, stores, concatenations, deletes and touches are
+   *          sent with noreply and complete once written. Mutations always
+   *          wait for the new value.
+   */
+  public AsciiOperationFactory(boolean noReply) {
+    this.noReply = noReply;
+  }
+
+  /**
+   * True if the operations supporting it are sent with noreply.
+   */
+  public boolean isNoReply() {
+    return noReply;
+  }
+
+  private <T extends OperationImpl> T withNoReply(T op) {
+    op.setNoReply(noReply);
+    return op;
+  }
+
   public DeleteOperation delete(String key, DeleteOperation.Callback cb) {
-    return new DeleteOperationImpl(key, cb);
+    return withNoReply(new DeleteOperationImpl(key, cb));
   }
 
   public DeleteOperation delete(String key, long cas,
@@ -130,12 +161,13 @@ public class AsciiOperationFactory extends BaseOperationFactory {
 
   public StoreOperation store(StoreType storeType, String key, int flags,
       int exp, byte[] data, StoreOperation.Callback cb) {
-    return new StoreOperationImpl(storeType, key, flags, exp, data, cb);
+    return withNoReply(new StoreOperationImpl(storeType, key, flags, exp,
+        data, cb));
   }
 
   public TouchOperation touch(String key, int expiration,
       OperationCallback cb) {
-    return new TouchOperationImpl(key, expiration, cb);
+    return withNoReply(new TouchOperationImpl(key, expiration, cb));
   }
 
   public VersionOperation version(OperationCallback cb) {
@@ -153,7 +185,8 @@ public class AsciiOperationFactory extends BaseOperationFactory {
 
   public ConcatenationOperation cat(ConcatenationType catType, long casId,
       String key, byte[] data, OperationCallback cb) {
-    return new ConcatenationOperationImpl(catType, key, data, cb);
+    return withNoReply(new ConcatenationOperationImpl(catType, key, data,
+        cb));
   }
 
   @Override
@@ -224,4 +257,11 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     throw new UnsupportedOperationException("Replica gets is not supported "
       + "for ASCII protocol");
   }
+
+  @Override
+  public BulkMutationOperation bulkMutate(Collection<BulkMutation> mutations,
+    BulkMutationOperation.Callback cb) {
+    throw new UnsupportedOperationException("Bulk mutations are not "
+      + "supported for ASCII protocol");
+  }
 }
@@ -23,11 +23,13 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
 import net.spy.memcached.KeyUtil;
+import net.spy.memcached.MemcachedClientIF;
 import net.spy.memcached.ops.GetAndTouchOperation;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.GetlOperation;
@@ -50,6 +52,7 @@ public abstract class BaseGetOpImpl extends OperationImpl {
   private static final OperationStatus LOCK_ERROR = new OperationStatus(false,
       "LOCK_ERROR", StatusCode.ERR_TEMP_FAIL);
   private static final byte[] RN_BYTES = "\r\n".getBytes();
+  private static final byte[] VALUE_BYTES = "VALUE ".getBytes();
   private final String cmd;
   private final Collection<String> keys;
   private String currentKey = null;
@@ -57,7 +60,9 @@ public abstract class BaseGetOpImpl extends OperationImpl {
   private final byte[] expBytes;
   private long casValue = 0;
   private int currentFlags = 0;
+  private int currentLength = -1;
   private byte[] data = null;
+  private byte[] keyScratch = null;
   private int readOffset = 0;
   private byte lookingFor = '\0';
   private boolean hasValue;
@@ -102,16 +107,9 @@ public abstract class BaseGetOpImpl extends OperationImpl {
       getLogger().debug("Got line %s", line);
       String[] stuff = line.split(" ");
       assert stuff[0].equals("VALUE");
-      currentKey = stuff[1];
-      currentFlags = Integer.parseInt(stuff[2]);
-      data = new byte[Integer.parseInt(stuff[3])];
-      if (stuff.length > 4) {
-        casValue = Long.parseLong(stuff[4]);
-      }
-      readOffset = 0;
-      hasValue = true;
-      getLogger().debug("Set read type to data");
-      setReadType(OperationReadType.DATA);
+      startValue(stuff[1], Integer.parseInt(stuff[2]),
+          Integer.parseInt(stuff[3]),
+          stuff.length > 4 ? Long.parseLong(stuff[4]) : casValue);
     } else if (line.equals("LOCK_ERROR")) {
       getCallback().receivedStatus(LOCK_ERROR);
       transitionState(OperationState.COMPLETE);
@@ -120,17 +118,76 @@ public abstract class BaseGetOpImpl extends OperationImpl {
     }
   }
 
+  /**
+   * Parse VALUE lines in place, so only the key becomes a string.
+   */
+  @Override
+  protected final void handleLine(ByteBuffer b, int start, int end)
+    throws IOException {
+    if (!LineParser.startsWith(b, start, end, VALUE_BYTES)) {
+      super.handleLine(b, start, end);
+      return;
+    }
+    int keyStart = start + VALUE_BYTES.length;
+    int keyEnd = LineParser.indexOf(b, keyStart, end, (byte) ' ');
+    int flagsEnd = LineParser.indexOf(b, keyEnd + 1, end, (byte) ' ');
+    assert keyEnd > keyStart && flagsEnd > keyEnd : "Malformed VALUE line";
+    int lengthEnd = LineParser.indexOf(b, flagsEnd + 1, end, (byte) ' ');
+    long cas = casValue;
+    if (lengthEnd < 0) {
+      lengthEnd = end;
+    } else {
+      cas = LineParser.parseLong(b, lengthEnd + 1, end);
+    }
+    if (keyScratch == null) {
+      keyScratch = new byte[MemcachedClientIF.MAX_KEY_LENGTH];
+    }
+    startValue(LineParser.decode(b, keyStart, keyEnd, keyScratch),
+        (int) LineParser.parseLong(b, keyEnd + 1, flagsEnd),
+        (int) LineParser.parseLong(b, flagsEnd + 1, lengthEnd), cas);
+  }
+
+  private void startValue(String key, int flags, int length, long cas) {
+    currentKey = key;
+    currentFlags = flags;
+    currentLength = length;
+    casValue = cas;
+    data = null;
+    readOffset = 0;
+    hasValue = true;
+    getLogger().debug("Set read type to data");
+    setReadType(OperationReadType.DATA);
+  }
+
   @Override
   public final void handleRead(ByteBuffer b) {
     assert currentKey != null;
-    assert data != null;
+    assert currentLength >= 0;
     // This will be the case, because we'll clear them when it's not.
-    assert readOffset <= data.length : "readOffset is " + readOffset
-        + " data.length is " + data.length;
+    assert readOffset <= currentLength : "readOffset is " + readOffset
+        + " length is " + currentLength;
 
-    getLogger().debug("readOffset: %d, length: %d", readOffset, data.length);
+    getLogger().debug("readOffset: %d, length: %d", readOffset,
+        currentLength);
+    OperationCallback cb = getCallback();
+    // A value which is completely in the buffer is handed out as a view if
+    // the callback takes one.
+    if (lookingFor == '\0' && data == null
+        && cb instanceof GetOperation.BufferCallback
+        && b.remaining() >= currentLength) {
+      ByteBuffer view = b.slice();
+      view.limit(currentLength);
+      b.position(b.position() + currentLength);
+      ((GetOperation.BufferCallback) cb).gotData(currentKey, currentFlags,
+          view.asReadOnlyBuffer());
+      readOffset = currentLength;
+      lookingFor = '\r';
+    }
     // If we're not looking for termination, we're still looking for data
     if (lookingFor == '\0') {
+      if (data == null) {
+        data = new byte[currentLength];
+      }
       int toRead = data.length - readOffset;
       int available = b.remaining();
       toRead = Math.min(toRead, available);
@@ -140,10 +197,9 @@ public abstract class BaseGetOpImpl extends OperationImpl {
     }
     // Transition us into a ``looking for \r\n'' kind of state if we've
     // read enough and are still in a data state.
-    if (readOffset == data.length && lookingFor == '\0') {
+    if (readOffset == currentLength && lookingFor == '\0') {
       // The callback is most likely a get callback. If it's not, then
       // it's a gets callback.
-      OperationCallback cb = getCallback();
       if (cb instanceof GetOperation.Callback) {
         GetOperation.Callback gcb = (GetOperation.Callback) cb;
         gcb.gotData(currentKey, currentFlags, data);
@@ -185,6 +241,7 @@ public abstract class BaseGetOpImpl extends OperationImpl {
         data = null;
         readOffset = 0;
         currentFlags = 0;
+        currentLength = -1;
         getLogger().debug("Setting read type back to line.");
         setReadType(OperationReadType.LINE);
       }
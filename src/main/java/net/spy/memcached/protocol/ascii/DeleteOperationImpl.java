@@ -63,8 +63,8 @@ final class DeleteOperationImpl extends OperationImpl implements
   @Override
   public void initialize() {
     ByteBuffer b = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
-        + OVERHEAD);
-    setArguments(b, "delete", key);
+        + OVERHEAD + (isNoReply() ? NOREPLY_OVERHEAD : 0));
+    setNoReplyArguments(b, "delete", key);
     b.flip();
     setBuffer(b);
   }
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Byte level helpers to parse response lines in place.
+ *
+ * All methods work on the region between two absolute indexes of a buffer
+ * and never touch its position or limit.
+ */
+final class LineParser {
+
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Status lines which are handed out as constants instead of being decoded
+   * each time they are seen.
+   */
+  private static final String[] KNOWN_LINES = { "END", "STORED",
+    "NOT_STORED", "EXISTS", "NOT_FOUND", "DELETED", "TOUCHED", "OK" };
+
+  private static final byte[][] KNOWN_BYTES;
+
+  static {
+    KNOWN_BYTES = new byte[KNOWN_LINES.length][];
+    for (int i = 0; i < KNOWN_LINES.length; i++) {
+      KNOWN_BYTES[i] = KNOWN_LINES[i].getBytes(UTF_8);
+    }
+  }
+
+  private LineParser() {
+    // Empty
+  }
+
+  /**
+   * Find the first occurrence of a byte.
+   *
+   * @return the index of the byte, or -1 if it is not within [from, to).
+   */
+  static int indexOf(ByteBuffer b, int from, int to, byte c) {
+    for (int i = from; i < to; i++) {
+      if (b.get(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Check if the region starts with the given bytes.
+   */
+  static boolean startsWith(ByteBuffer b, int from, int to, byte[] prefix) {
+    if (to - from < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (b.get(from + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check if the region consists of exactly the given bytes.
+   */
+  static boolean equals(ByteBuffer b, int from, int to, byte[] bytes) {
+    return to - from == bytes.length && startsWith(b, from, to, bytes);
+  }
+
+  /**
+   * Parse an unsigned decimal number.
+   *
+   * @throws NumberFormatException if the region is empty or holds anything
+   *           but digits.
+   */
+  static long parseLong(ByteBuffer b, int from, int to) {
+    if (from >= to) {
+      throw new NumberFormatException("Empty number");
+    }
+    long rv = 0;
+    for (int i = from; i < to; i++) {
+      int d = b.get(i) - '0';
+      if (d < 0 || d > 9) {
+        throw new NumberFormatException("Not a number: "
+            + decode(b, from, to, null));
+      }
+      rv = rv * 10 + d;
+    }
+    return rv;
+  }
+
+  /**
+   * Return the constant for a well known status line.
+   *
+   * @return the constant, or null if the line is not a known one.
+   */
+  static String knownLine(ByteBuffer b, int from, int to) {
+    for (int i = 0; i < KNOWN_BYTES.length; i++) {
+      if (equals(b, from, to, KNOWN_BYTES[i])) {
+        return KNOWN_LINES[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Decode the region as an UTF-8 string.
+   *
+   * @param scratch an array to copy the bytes through if the buffer has no
+   *          accessible array, replaced by a new one if null or too small.
+   */
+  static String decode(ByteBuffer b, int from, int to, byte[] scratch) {
+    int len = to - from;
+    if (b.hasArray()) {
+      return new String(b.array(), b.arrayOffset() + from, len, UTF_8);
+    }
+    byte[] bytes = scratch == null || scratch.length < len
+        ? new byte[len] : scratch;
+    for (int i = 0; i < len; i++) {
+      bytes[i] = b.get(from + i);
+    }
+    return new String(bytes, 0, len, UTF_8);
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Increment or decrement sent as meta arithmetic (ma) command.
+ *
+ * Unlike the classic incr and decr commands this creates a missing counter
+ * with the default value, like the binary protocol does, unless the
+ * expiration is -1.
+ */
+final class MetaArithmeticOperationImpl extends MetaOperationImpl implements
+    MutatorOperation {
+
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  private final Mutator mutator;
+  private final long by;
+  private final long def;
+  private final int exp;
+
+  public MetaArithmeticOperationImpl(Mutator m, String key, long b, long d,
+      int e, OperationCallback cb) {
+    super(key, cb);
+    mutator = m;
+    by = b;
+    def = d;
+    exp = e;
+  }
+
+  @Override
+  protected String getCommand() {
+    return "ma";
+  }
+
+  @Override
+  protected String getArguments() {
+    StringBuilder sb = new StringBuilder("v D").append(by).append(" M")
+      .append(mutator == Mutator.incr ? 'I' : 'D');
+    if (exp != -1) {
+      sb.append(" N").append(exp).append(" J").append(def);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  protected void handleResponse(MetaResponse r) {
+    OperationStatus status;
+    if (r.is(MetaResponse.VALUE)) {
+      status = new OperationStatus(true, new String(r.getData()),
+        StatusCode.SUCCESS);
+    } else if (r.is(MetaResponse.NOT_FOUND)) {
+      status = NOT_FOUND;
+    } else {
+      status = unexpected(r);
+    }
+    getCallback().receivedStatus(status);
+  }
+
+  public long getBy() {
+    return by;
+  }
+
+  public long getDefault() {
+    return def;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Mutator getType() {
+    return mutator;
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Delete sent as meta delete (md) command.
+ *
+ * Instead of removing the item an invalidating delete marks it stale, so
+ * the next meta get still returns the old value along with the win flag
+ * for exactly one client. Deletes are never sent quietly: a quiet md hides
+ * a miss as well, which would be reported as deleted.
+ */
+final class MetaDeleteOperationImpl extends MetaOperationImpl implements
+    DeleteOperation {
+
+  private static final OperationStatus DELETED = new OperationStatus(true,
+      "DELETED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+  private static final OperationStatus EXISTS = new OperationStatus(false,
+      "EXISTS", StatusCode.ERR_EXISTS);
+
+  private final long cas;
+  private final boolean invalidate;
+  private final int staleTtl;
+
+  /**
+   * Create a meta delete.
+   *
+   * @param key the key to delete
+   * @param c the CAS value the item must have, 0 for any
+   * @param inv true to mark the item stale instead of removing it
+   * @param ttl the time to live of a stale item, 0 to leave it unchanged
+   * @param cb the callback
+   */
+  public MetaDeleteOperationImpl(String key, long c, boolean inv, int ttl,
+      DeleteOperation.Callback cb) {
+    super(key, cb);
+    cas = c;
+    invalidate = inv;
+    staleTtl = ttl;
+  }
+
+  @Override
+  protected String getCommand() {
+    return "md";
+  }
+
+  @Override
+  protected String getArguments() {
+    StringBuilder sb = new StringBuilder();
+    if (cas != 0) {
+      sb.append("C").append(cas);
+    }
+    if (invalidate) {
+      sb.append(sb.length() > 0 ? " I" : "I");
+      if (staleTtl > 0) {
+        sb.append(" T").append(staleTtl);
+      }
+    }
+    return sb.toString();
+  }
+
+  @Override
+  protected void handleResponse(MetaResponse r) {
+    OperationStatus status;
+    if (r.is(MetaResponse.NO_VALUE)) {
+      status = DELETED;
+    } else if (r.is(MetaResponse.NOT_FOUND)) {
+      status = NOT_FOUND;
+    } else if (r.is(MetaResponse.EXISTS)) {
+      status = EXISTS;
+    } else {
+      status = unexpected(r);
+    }
+    getCallback().receivedStatus(status);
+  }
+
+  public long getCasValue() {
+    return cas;
+  }
+
+  public boolean isInvalidate() {
+    return invalidate;
+  }
+
+  public int getStaleTtl() {
+    return staleTtl;
+  }
+}
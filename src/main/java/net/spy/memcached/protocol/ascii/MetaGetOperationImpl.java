@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.MetaGetOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Base class for the operations sent as meta get (mg) commands.
+ *
+ * Only the fields the operation needs are requested, so a plain get asks
+ * for the value and flags but not for the CAS value. Misses are answered
+ * with EN, which a pipelined request doesn't send at all.
+ */
+abstract class MetaGetOperationImpl extends MetaOperationImpl {
+
+  private static final OperationStatus END = new OperationStatus(true, "END",
+      StatusCode.SUCCESS);
+  private static final OperationStatus TOUCHED = new OperationStatus(true,
+      "TOUCHED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  private final String arguments;
+
+  protected MetaGetOperationImpl(String key, String args,
+      OperationCallback cb) {
+    super(key, cb);
+    arguments = args;
+  }
+
+  @Override
+  protected final String getCommand() {
+    return "mg";
+  }
+
+  @Override
+  protected final String getArguments() {
+    return arguments;
+  }
+
+  @Override
+  protected final MetaResponse getQuietResponse() {
+    return new MetaResponse(MetaResponse.MISS);
+  }
+
+  @Override
+  protected final void handleResponse(MetaResponse r) {
+    if (r.is(MetaResponse.VALUE) || r.is(MetaResponse.NO_VALUE)) {
+      gotResponse(r);
+      getCallback().receivedStatus(getHitStatus());
+    } else if (r.is(MetaResponse.MISS)) {
+      gotResponse(r);
+      getCallback().receivedStatus(NOT_FOUND);
+    } else {
+      getCallback().receivedStatus(unexpected(r));
+    }
+  }
+
+  /**
+   * Hand the fields of a hit or miss to the callback.
+   */
+  protected abstract void gotResponse(MetaResponse r);
+
+  protected OperationStatus getHitStatus() {
+    return END;
+  }
+
+  private static int flags(MetaResponse r) {
+    return (int) r.getLongFlag('f', 0);
+  }
+
+  private static long cas(MetaResponse r) {
+    return r.getLongFlag('c', 0);
+  }
+
+  /**
+   * Get sent as meta get.
+   */
+  static final class Get extends MetaGetOperationImpl implements
+      GetOperation {
+
+    public Get(String key, GetOperation.Callback cb) {
+      super(key, "v f", cb);
+    }
+
+    @Override
+    protected void gotResponse(MetaResponse r) {
+      if (r.getData() != null) {
+        ((GetOperation.Callback) getCallback()).gotData(getKey(), flags(r),
+            r.getData());
+      }
+    }
+  }
+
+  /**
+   * Gets sent as meta get.
+   */
+  static final class Gets extends MetaGetOperationImpl implements
+      GetsOperation {
+
+    public Gets(String key, GetsOperation.Callback cb) {
+      super(key, "v f c", cb);
+    }
+
+    @Override
+    protected void gotResponse(MetaResponse r) {
+      if (r.getData() != null) {
+        ((GetsOperation.Callback) getCallback()).gotData(getKey(), flags(r),
+            cas(r), r.getData());
+      }
+    }
+  }
+
+  /**
+   * Get and touch sent as meta get updating the expiration.
+   */
+  static final class GetAndTouch extends MetaGetOperationImpl implements
+      GetAndTouchOperation {
+    private final int exp;
+
+    public GetAndTouch(String key, int e, GetAndTouchOperation.Callback cb) {
+      super(key, "v f c T" + e, cb);
+      exp = e;
+    }
+
+    public int getExpiration() {
+      return exp;
+    }
+
+    @Override
+    protected void gotResponse(MetaResponse r) {
+      if (r.getData() != null) {
+        ((GetAndTouchOperation.Callback) getCallback()).gotData(getKey(),
+            flags(r), cas(r), r.getData());
+      }
+    }
+  }
+
+  /**
+   * Touch sent as meta get updating the expiration without a value.
+   */
+  static final class Touch extends MetaGetOperationImpl implements
+      TouchOperation {
+    private final int exp;
+
+    public Touch(String key, int e, OperationCallback cb) {
+      super(key, "T" + e, cb);
+      exp = e;
+    }
+
+    public int getExpiration() {
+      return exp;
+    }
+
+    @Override
+    protected OperationStatus getHitStatus() {
+      return TOUCHED;
+    }
+
+    @Override
+    protected void gotResponse(MetaResponse r) {
+      // Nothing but the status.
+    }
+  }
+
+  /**
+   * Meta get reporting the recache flags.
+   */
+  static final class Meta extends MetaGetOperationImpl implements
+      MetaGetOperation {
+    private final int recacheTtl;
+    private final int vivifyTtl;
+
+    public Meta(String key, int recache, int vivify,
+        MetaGetOperation.Callback cb) {
+      super(key, "v f c" + (recache > 0 ? " R" + recache : "")
+          + (vivify > 0 ? " N" + vivify : ""), cb);
+      recacheTtl = recache;
+      vivifyTtl = vivify;
+    }
+
+    public int getRecacheTtl() {
+      return recacheTtl;
+    }
+
+    public int getVivifyTtl() {
+      return vivifyTtl;
+    }
+
+    @Override
+    protected void gotResponse(MetaResponse r) {
+      int meta = 0;
+      if (r.hasFlag('W')) {
+        meta |= WIN;
+      }
+      if (r.hasFlag('X')) {
+        meta |= STALE;
+      }
+      if (r.hasFlag('Z')) {
+        meta |= WIN_TOKEN_SENT;
+      }
+      ((MetaGetOperation.Callback) getCallback()).gotData(getKey(), flags(r),
+          cas(r), r.getData(), meta);
+    }
+  }
+}
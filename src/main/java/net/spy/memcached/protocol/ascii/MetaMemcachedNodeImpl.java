@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
+
+/**
+ * Memcached node for the meta protocol.
+ *
+ * Consecutive meta commands are pipelined into one write terminated by mn,
+ * the classic commands the meta protocol doesn't replace are sent as they
+ * are.
+ */
+public final class MetaMemcachedNodeImpl extends TCPMemcachedNodeImpl {
+
+  public MetaMemcachedNodeImpl(SocketAddress sa, SocketChannel c, int bufSize,
+      BlockingQueue<Operation> rq, BlockingQueue<Operation> wq,
+      BlockingQueue<Operation> iq, Long opQueueMaxBlockTimeNs, long dt,
+      long at, ConnectionFactory fa) {
+    // The text protocol never does auth
+    super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, false, dt, at, fa);
+  }
+
+  @Override
+  protected void optimize() {
+    // make sure there are at least two meta commands in a row before
+    // attempting to pipeline them.
+    if (writeQ.peek() instanceof MetaOperationImpl) {
+      optimizedOp = writeQ.remove();
+      if (writeQ.peek() instanceof MetaOperationImpl) {
+        MetaPipelineImpl pipeline = new MetaPipelineImpl();
+        pipeline.addOperation((MetaOperationImpl) optimizedOp);
+        optimizedOp = pipeline;
+
+        while (writeQ.peek() instanceof MetaOperationImpl
+            && pipeline.bytes() < getWbuf().capacity()) {
+          MetaOperationImpl o = (MetaOperationImpl) writeQ.remove();
+          if (!o.isCancelled() && !o.isTimedOut()) {
+            pipeline.addOperation(o);
+          }
+        }
+
+        optimizedOp.initialize();
+        assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
+        getLogger().debug("Set up %s with %s meta commands", this,
+            pipeline.size());
+      }
+    }
+  }
+}
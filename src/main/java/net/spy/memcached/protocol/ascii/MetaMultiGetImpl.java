@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.util.Collection;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Multi key get sent as a pipeline of quiet meta gets.
+ *
+ * Only hits are answered, so misses cost nothing but the request.
+ */
+final class MetaMultiGetImpl extends MetaPipelineImpl implements
+    GetOperation {
+
+  private final Collection<String> keys;
+
+  public MetaMultiGetImpl(Collection<String> k, GetOperation.Callback cb) {
+    super(cb);
+    keys = k;
+    GetOperation.Callback values = new ValueCallback(cb);
+    for (String key : k) {
+      addOperation(new MetaGetOperationImpl.Get(key, values));
+    }
+  }
+
+  public Collection<String> getKeys() {
+    return keys;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: meta multiget Keys: " + keys.size();
+  }
+
+  /**
+   * Passes the values on, the outcome is reported by the pipeline.
+   */
+  private static final class ValueCallback implements GetOperation.Callback {
+    private final GetOperation.Callback cb;
+
+    ValueCallback(GetOperation.Callback c) {
+      cb = c;
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      cb.gotData(key, flags, data);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // reported by the pipeline
+    }
+
+    public void complete() {
+      // reported by the pipeline
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.ConcatenationOperation;
+import net.spy.memcached.ops.ConcatenationType;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.MetaGetOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Operation factory for the meta commands of the text protocol.
+ *
+ * Gets, stores, deletes, touches and mutations are sent as meta commands.
+ * Multi key gets are always pipelined, single key commands are pipelined by
+ * the {@link MetaMemcachedNodeImpl} when optimization is enabled through
+ * {@link net.spy.memcached.ConnectionFactory#shouldOptimize()}. Everything
+ * else falls
+ * back to the classic text commands, which memcached accepts on the same
+ * connection. Requires memcached 1.6 or later.
+ */
+public class MetaOperationFactory extends AsciiOperationFactory {
+
+  @Override
+  public DeleteOperation delete(String key, DeleteOperation.Callback cb) {
+    return new MetaDeleteOperationImpl(key, 0, false, 0, cb);
+  }
+
+  @Override
+  public DeleteOperation delete(String key, long cas,
+      DeleteOperation.Callback cb) {
+    return new MetaDeleteOperationImpl(key, cas, false, 0, cb);
+  }
+
+  /**
+   * Mark an item stale instead of deleting it, so the next meta get hands
+   * out the old value along with the win flag.
+   *
+   * @param key the key to invalidate
+   * @param staleTtl the time to live of the stale item, 0 to leave it
+   *          unchanged
+   * @param cb the callback
+   * @return a new DeleteOperation
+   */
+  public DeleteOperation invalidate(String key, int staleTtl,
+      DeleteOperation.Callback cb) {
+    return new MetaDeleteOperationImpl(key, 0, true, staleTtl, cb);
+  }
+
+  @Override
+  public GetAndTouchOperation getAndTouch(String key, int expiration,
+      GetAndTouchOperation.Callback cb) {
+    return new MetaGetOperationImpl.GetAndTouch(key, expiration, cb);
+  }
+
+  @Override
+  public GetOperation get(String key, GetOperation.Callback cb) {
+    return new MetaGetOperationImpl.Get(key, cb);
+  }
+
+  @Override
+  public GetOperation get(Collection<String> keys, GetOperation.Callback cb) {
+    return new MetaMultiGetImpl(keys, cb);
+  }
+
+  @Override
+  public GetsOperation gets(String key, GetsOperation.Callback cb) {
+    return new MetaGetOperationImpl.Gets(key, cb);
+  }
+
+  /**
+   * Get a value along with the flags coordinating its recaching.
+   *
+   * @param key the key to get
+   * @param recacheTtl the remaining time to live below which the next
+   *          client wins the right to recache, 0 for none
+   * @param vivifyTtl the time to live of the placeholder created on a miss
+   *          so that only the first client to miss wins, 0 for none
+   * @param cb the callback
+   * @return a new MetaGetOperation
+   */
+  public MetaGetOperation metaGet(String key, int recacheTtl, int vivifyTtl,
+      MetaGetOperation.Callback cb) {
+    return new MetaGetOperationImpl.Meta(key, recacheTtl, vivifyTtl, cb);
+  }
+
+  @Override
+  public MutatorOperation mutate(Mutator m, String key, long by, long def,
+      int exp, OperationCallback cb) {
+    return new MetaArithmeticOperationImpl(m, key, by, def, exp, cb);
+  }
+
+  @Override
+  public StoreOperation store(StoreType storeType, String key, int flags,
+      int exp, byte[] data, StoreOperation.Callback cb) {
+    return new MetaStoreOperationImpl.Store(storeType, key, flags, exp, data,
+        cb);
+  }
+
+  @Override
+  public TouchOperation touch(String key, int expiration,
+      OperationCallback cb) {
+    return new MetaGetOperationImpl.Touch(key, expiration, cb);
+  }
+
+  @Override
+  public CASOperation cas(StoreType type, String key, long casId, int flags,
+      int exp, byte[] data, StoreOperation.Callback cb) {
+    return new MetaStoreOperationImpl.Cas(type, key, casId, flags, exp, data,
+        cb);
+  }
+
+  @Override
+  public ConcatenationOperation cat(ConcatenationType catType, long casId,
+      String key, byte[] data, OperationCallback cb) {
+    return new MetaStoreOperationImpl.Cat(catType, casId, key, data, cb);
+  }
+
+  @Override
+  public Collection<Operation> clone(KeyedOperation op) {
+    if (op instanceof MetaGetOperation) {
+      MetaGetOperation mg = (MetaGetOperation) op;
+      Collection<Operation> rv = new ArrayList<Operation>(1);
+      rv.add(metaGet(mg.getKeys().iterator().next(), mg.getRecacheTtl(),
+          mg.getVivifyTtl(), (MetaGetOperation.Callback) mg.getCallback()));
+      return rv;
+    } else if (op instanceof MetaDeleteOperationImpl) {
+      MetaDeleteOperationImpl md = (MetaDeleteOperationImpl) op;
+      Collection<Operation> rv = new ArrayList<Operation>(1);
+      rv.add(new MetaDeleteOperationImpl(md.getKeys().iterator().next(),
+          md.getCasValue(), md.isInvalidate(), md.getStaleTtl(),
+          (DeleteOperation.Callback) md.getCallback()));
+      return rv;
+    }
+    return super.clone(op);
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Base class for single key operations sent as meta commands.
+ *
+ * An operation sent on its own is answered in order with a single response.
+ * When it is pipelined by a {@link MetaPipelineImpl} it carries an opaque
+ * token the response echoes and, if it has a default answer, the quiet flag
+ * so that answer isn't sent at all.
+ */
+abstract class MetaOperationImpl extends OperationImpl {
+
+  private static final byte[] QUIET = " q".getBytes();
+  private static final byte[] OPAQUE = " O".getBytes();
+
+  private final String key;
+  private MetaResponse pending;
+
+  protected MetaOperationImpl(String k, OperationCallback cb) {
+    super(cb);
+    key = k;
+  }
+
+  /**
+   * The two letter meta command, for example mg.
+   */
+  protected abstract String getCommand();
+
+  /**
+   * The arguments and request flags following the key.
+   */
+  protected abstract String getArguments();
+
+  /**
+   * The value sent after the command line, null if there is none.
+   */
+  protected byte[] getValue() {
+    return null;
+  }
+
+  /**
+   * The response a quiet request stands for when the server doesn't send
+   * one, or null if the command isn't sent quietly.
+   */
+  protected MetaResponse getQuietResponse() {
+    return null;
+  }
+
+  /**
+   * Report a response to the callback.
+   */
+  protected abstract void handleResponse(MetaResponse r);
+
+  /**
+   * The status for a response code the command doesn't expect.
+   */
+  protected final OperationStatus unexpected(MetaResponse r) {
+    return new OperationStatus(false, r.toString(), StatusCode.ERR_CLIENT);
+  }
+
+  public final Collection<String> getKeys() {
+    return Collections.singleton(key);
+  }
+
+  protected final String getKey() {
+    return key;
+  }
+
+  @Override
+  public void initialize() {
+    setBuffer(encode(-1));
+  }
+
+  /**
+   * Encode this request.
+   *
+   * @param opaque the opaque token to send for a pipelined request, or -1
+   *          for a request answered in order.
+   */
+  final ByteBuffer encode(int opaque) {
+    byte[] cmd = getCommand().getBytes();
+    byte[] keyBytes = KeyUtil.getKeyBytes(key);
+    byte[] args = getArguments().getBytes();
+    byte[] token = opaque < 0 ? null : String.valueOf(opaque).getBytes();
+    boolean quiet = token != null && getQuietResponse() != null;
+    byte[] value = getValue();
+    int size = cmd.length + 1 + keyBytes.length + CRLF.length
+      + (args.length > 0 ? args.length + 1 : 0)
+      + (quiet ? QUIET.length : 0)
+      + (token != null ? OPAQUE.length + token.length : 0)
+      + (value != null ? value.length + CRLF.length : 0);
+    ByteBuffer bb = ByteBuffer.allocate(size);
+    bb.put(cmd);
+    bb.put((byte) ' ');
+    bb.put(keyBytes);
+    if (args.length > 0) {
+      bb.put((byte) ' ');
+      bb.put(args);
+    }
+    if (quiet) {
+      bb.put(QUIET);
+    }
+    if (token != null) {
+      bb.put(OPAQUE);
+      bb.put(token);
+    }
+    bb.put(CRLF);
+    if (value != null) {
+      bb.put(value);
+      bb.put(CRLF);
+    }
+    bb.flip();
+    return bb;
+  }
+
+  @Override
+  public final void handleLine(String line) {
+    MetaResponse r = MetaResponse.parse(line);
+    if (r.hasValue()) {
+      pending = r;
+      setReadType(OperationReadType.DATA);
+    } else {
+      handleResponse(r);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  @Override
+  public final void handleRead(ByteBuffer b) {
+    if (pending.readValue(b)) {
+      MetaResponse r = pending;
+      pending = null;
+      setReadType(OperationReadType.LINE);
+      handleResponse(r);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  /**
+   * Complete an operation which was sent as part of a pipeline.
+   *
+   * @param r the response addressed to this operation, or null if there is
+   *          none.
+   * @param failure the status to report if there is no response.
+   */
+  final synchronized void completePipelined(MetaResponse r,
+      OperationStatus failure) {
+    if (getState() != OperationState.COMPLETE && !isCancelled()
+        && !isTimedOut()) {
+      if (r != null) {
+        handleResponse(r);
+      } else {
+        getCallback().receivedStatus(failure);
+      }
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: " + getCommand() + " Key: " + key + " Args: "
+      + getArguments();
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Pipelines a run of meta commands into a single write terminated by mn.
+ *
+ * Each command carries its index in the run as opaque token, so responses
+ * are matched by the token rather than by their order. Commands with a
+ * default answer are sent quietly, and when the server answers the mn
+ * terminator every command it didn't answer gets its default: a miss for
+ * mg and stored for ms. Errors don't carry the token, so they fail every
+ * command left unanswered.
+ */
+class MetaPipelineImpl extends OperationImpl {
+
+  protected static final OperationStatus END = new OperationStatus(true,
+      "END", StatusCode.SUCCESS);
+  private static final OperationStatus NO_RESPONSE = new OperationStatus(
+      false, "No response to pipelined request", StatusCode.ERR_INTERNAL);
+  private static final byte[] TERMINATOR = "mn\r\n".getBytes();
+
+  private final List<MetaOperationImpl> ops =
+    new ArrayList<MetaOperationImpl>();
+  private MetaResponse pending;
+  private OperationStatus failure;
+  private int byteCount = TERMINATOR.length;
+  private final boolean queued;
+
+  /**
+   * Construct a pipeline for operations which were queued on their own.
+   */
+  public MetaPipelineImpl() {
+    super();
+    setCallback(new PipelineCallback());
+    queued = true;
+  }
+
+  /**
+   * Construct a pipeline reporting its outcome to the given callback.
+   */
+  protected MetaPipelineImpl(OperationCallback cb) {
+    super(cb);
+    queued = false;
+  }
+
+  public void addOperation(MetaOperationImpl op) {
+    ops.add(op);
+    if (queued) {
+      addFolded(op);
+    }
+    if (op.getBuffer() != null) {
+      byteCount += op.getBuffer().remaining();
+    }
+  }
+
+  public int size() {
+    return ops.size();
+  }
+
+  /**
+   * The size of the operations added so far when sent on their own.
+   */
+  public int bytes() {
+    return byteCount;
+  }
+
+  @Override
+  public void initialize() {
+    List<ByteBuffer> requests = new ArrayList<ByteBuffer>(ops.size());
+    int size = TERMINATOR.length;
+    for (int i = 0; i < ops.size(); i++) {
+      ByteBuffer request = ops.get(i).encode(i);
+      size += request.remaining();
+      requests.add(request);
+    }
+    ByteBuffer bb = ByteBuffer.allocate(size);
+    for (ByteBuffer request : requests) {
+      bb.put(request);
+    }
+    bb.put(TERMINATOR);
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  protected final void handleLine(ByteBuffer b, int start, int end)
+    throws IOException {
+    // Errors are answers to the pipelined commands, not to the pipeline.
+    handleLine(LineParser.decode(b, start, end, null));
+  }
+
+  @Override
+  public final void handleLine(String line) {
+    if (line.equals(MetaResponse.END)) {
+      finish();
+    } else if (classifyError(line) != null) {
+      getLogger().warn("Error in meta pipeline %s: %s", this, line);
+      if (failure == null) {
+        failure = new OperationStatus(false, line,
+          StatusCode.fromAsciiLine(line));
+      }
+    } else {
+      MetaResponse r = MetaResponse.parse(line);
+      if (r.hasValue()) {
+        pending = r;
+        setReadType(OperationReadType.DATA);
+      } else {
+        dispatch(r);
+      }
+    }
+  }
+
+  @Override
+  public final void handleRead(ByteBuffer b) {
+    if (pending.readValue(b)) {
+      MetaResponse r = pending;
+      pending = null;
+      setReadType(OperationReadType.LINE);
+      dispatch(r);
+    }
+  }
+
+  private void dispatch(MetaResponse r) {
+    int opaque = r.getOpaque();
+    if (opaque >= 0 && opaque < ops.size()) {
+      ops.get(opaque).completePipelined(r, null);
+    } else {
+      getLogger().warn("Unexpected response in meta pipeline %s: %s", this,
+          r);
+    }
+  }
+
+  private void finish() {
+    for (MetaOperationImpl op : ops) {
+      MetaResponse r = failure == null ? op.getQuietResponse() : null;
+      op.completePipelined(r, failure == null ? NO_RESPONSE : failure);
+    }
+    getCallback().receivedStatus(failure == null ? END : failure);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: meta pipeline Operations: " + ops.size();
+  }
+
+  /**
+   * Fails the pipelined operations which are left when the pipeline didn't
+   * finish, for example because it was cancelled.
+   */
+  private class PipelineCallback implements OperationCallback {
+    private OperationStatus status;
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      OperationStatus f = status == null || status.isSuccess() ? CANCELLED
+        : status;
+      for (MetaOperationImpl op : ops) {
+        op.completePipelined(null, f);
+      }
+    }
+  }
+}
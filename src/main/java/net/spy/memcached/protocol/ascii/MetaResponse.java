@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A response to a meta command.
+ *
+ * A response is a two letter code followed by the return flags the request
+ * asked for, each flag a single character optionally followed by a token.
+ * A VA response also carries the length of the value following the line,
+ * which is read through {@link #readValue(ByteBuffer)}.
+ */
+final class MetaResponse {
+
+  static final String VALUE = "VA";
+  static final String NO_VALUE = "HD";
+  static final String MISS = "EN";
+  static final String NOT_STORED = "NS";
+  static final String EXISTS = "EX";
+  static final String NOT_FOUND = "NF";
+  static final String END = "MN";
+
+  private final String code;
+  private final String[] flags;
+  private final int length;
+  private byte[] data;
+  private int readOffset;
+
+  /**
+   * Construct a response without flags, used for the answer a quiet request
+   * stands for when the server doesn't send one.
+   */
+  MetaResponse(String c) {
+    this(c, new String[0], -1);
+  }
+
+  private MetaResponse(String c, String[] f, int len) {
+    code = c;
+    flags = f;
+    length = len;
+  }
+
+  /**
+   * Parse a response line.
+   */
+  static MetaResponse parse(String line) {
+    String[] parts = line.split(" ");
+    int first = 1;
+    int len = -1;
+    if (parts[0].equals(VALUE)) {
+      assert parts.length > 1 : "VA line without a length: " + line;
+      len = Integer.parseInt(parts[1]);
+      first = 2;
+    }
+    String[] f = new String[parts.length - first];
+    System.arraycopy(parts, first, f, 0, f.length);
+    return new MetaResponse(parts[0], f, len);
+  }
+
+  String getCode() {
+    return code;
+  }
+
+  boolean is(String c) {
+    return code.equals(c);
+  }
+
+  /**
+   * True if a value follows this response line.
+   */
+  boolean hasValue() {
+    return length >= 0;
+  }
+
+  /**
+   * Read the value and its terminating CRLF.
+   *
+   * @return true once the whole value has been read
+   */
+  boolean readValue(ByteBuffer b) {
+    assert hasValue() : "No value follows " + code;
+    if (data == null) {
+      data = new byte[length];
+    }
+    if (readOffset < length) {
+      int toRead = Math.min(length - readOffset, b.remaining());
+      b.get(data, readOffset, toRead);
+      readOffset += toRead;
+    }
+    while (readOffset >= length && readOffset < length + 2
+        && b.hasRemaining()) {
+      byte c = b.get();
+      assert c == (readOffset == length ? '\r' : '\n') : "Expected CRLF "
+        + "after the value, got " + (char) c;
+      readOffset++;
+    }
+    return readOffset == length + 2;
+  }
+
+  /**
+   * The value of a VA response, null for all others.
+   */
+  byte[] getData() {
+    return data;
+  }
+
+  boolean hasFlag(char f) {
+    return getFlag(f) != null;
+  }
+
+  /**
+   * Get the token of a return flag.
+   *
+   * @return the token, an empty string for a flag without one and null if
+   *         the flag isn't set.
+   */
+  String getFlag(char f) {
+    for (String s : flags) {
+      if (s.length() > 0 && s.charAt(0) == f) {
+        return s.substring(1);
+      }
+    }
+    return null;
+  }
+
+  long getLongFlag(char f, long def) {
+    String token = getFlag(f);
+    return token == null || token.length() == 0 ? def
+      : Long.parseLong(token);
+  }
+
+  /**
+   * The opaque token echoed back, or -1 if there is none.
+   */
+  int getOpaque() {
+    return (int) getLongFlag('O', -1);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(code);
+    if (hasValue()) {
+      sb.append(' ').append(length);
+    }
+    for (String s : flags) {
+      sb.append(' ').append(s);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.ConcatenationOperation;
+import net.spy.memcached.ops.ConcatenationType;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Base class for the operations sent as meta set (ms) commands.
+ *
+ * The store mode flag selects between set, add, replace, append and
+ * prepend, and a CAS value may be given for every one of them. Successful
+ * stores are answered with HD, which a pipelined request doesn't send.
+ */
+abstract class MetaStoreOperationImpl extends MetaOperationImpl {
+
+  private static final OperationStatus STORED = new CASOperationStatus(true,
+      "STORED", CASResponse.OK, StatusCode.SUCCESS);
+  private static final OperationStatus NOT_STORED = new CASOperationStatus(
+      false, "NOT_STORED", CASResponse.EXISTS, StatusCode.ERR_NOT_STORED);
+  private static final OperationStatus EXISTS = new CASOperationStatus(false,
+      "EXISTS", CASResponse.EXISTS, StatusCode.ERR_EXISTS);
+  private static final OperationStatus NOT_FOUND = new CASOperationStatus(
+      false, "NOT_FOUND", CASResponse.NOT_FOUND, StatusCode.ERR_NOT_FOUND);
+
+  private final int flags;
+  private final int exp;
+  private final long cas;
+  private final byte[] data;
+  private final char mode;
+
+  protected MetaStoreOperationImpl(String key, int f, int e, long c,
+      byte[] d, char m, OperationCallback cb) {
+    super(key, cb);
+    flags = f;
+    exp = e;
+    cas = c;
+    data = d;
+    mode = m;
+  }
+
+  @Override
+  protected final String getCommand() {
+    return "ms";
+  }
+
+  @Override
+  protected final String getArguments() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(data.length);
+    if (mode == 'S' || mode == 'E' || mode == 'R') {
+      sb.append(" F").append(flags).append(" T").append(exp);
+    }
+    if (cas != 0) {
+      sb.append(" C").append(cas);
+    }
+    return sb.append(" M").append(mode).toString();
+  }
+
+  @Override
+  protected final byte[] getValue() {
+    return data;
+  }
+
+  @Override
+  protected final MetaResponse getQuietResponse() {
+    return new MetaResponse(MetaResponse.NO_VALUE);
+  }
+
+  @Override
+  protected final void handleResponse(MetaResponse r) {
+    OperationStatus status;
+    if (r.is(MetaResponse.NO_VALUE)) {
+      status = STORED;
+    } else if (r.is(MetaResponse.NOT_STORED)) {
+      status = NOT_STORED;
+    } else if (r.is(MetaResponse.EXISTS)) {
+      status = EXISTS;
+    } else if (r.is(MetaResponse.NOT_FOUND)) {
+      status = NOT_FOUND;
+    } else {
+      status = unexpected(r);
+    }
+    getCallback().receivedStatus(status);
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public long getCasValue() {
+    return cas;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  private static char mode(StoreType t) {
+    switch (t) {
+    case add:
+      return 'E';
+    case replace:
+      return 'R';
+    default:
+      return 'S';
+    }
+  }
+
+  /**
+   * Set, add or replace sent as meta set.
+   */
+  static final class Store extends MetaStoreOperationImpl implements
+      StoreOperation {
+    private final StoreType type;
+
+    public Store(StoreType t, String key, int flags, int exp, byte[] data,
+        StoreOperation.Callback cb) {
+      super(key, flags, exp, 0, data, mode(t), cb);
+      type = t;
+    }
+
+    public StoreType getStoreType() {
+      return type;
+    }
+  }
+
+  /**
+   * Compare and swap sent as meta set with a CAS value.
+   */
+  static final class Cas extends MetaStoreOperationImpl implements
+      CASOperation {
+    private final StoreType type;
+
+    public Cas(StoreType t, String key, long cas, int flags, int exp,
+        byte[] data, StoreOperation.Callback cb) {
+      super(key, flags, exp, cas, data, mode(t), cb);
+      type = t;
+    }
+
+    public StoreType getStoreType() {
+      return type;
+    }
+  }
+
+  /**
+   * Append or prepend sent as meta set.
+   */
+  static final class Cat extends MetaStoreOperationImpl implements
+      ConcatenationOperation {
+    private final ConcatenationType type;
+
+    public Cat(ConcatenationType t, long cas, String key, byte[] data,
+        OperationCallback cb) {
+      super(key, 0, 0, cas, data, t == ConcatenationType.append ? 'A' : 'P',
+          cb);
+      type = t;
+    }
+
+    public ConcatenationType getStoreType() {
+      return type;
+    }
+  }
+}
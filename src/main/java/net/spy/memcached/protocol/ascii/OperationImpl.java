@@ -22,9 +22,9 @@
 
 package net.spy.memcached.protocol.ascii;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.Operation;
@@ -41,12 +41,19 @@ import net.spy.memcached.protocol.BaseOperationImpl;
 abstract class OperationImpl extends BaseOperationImpl implements Operation {
 
   protected static final byte[] CRLF = { '\r', '\n' };
-  private static final String CHARSET = "UTF-8";
+  /**
+   * The extra room needed on a command line for the noreply argument.
+   */
+  protected static final int NOREPLY_OVERHEAD = 8;
+  private static final String NOREPLY = "noreply";
+  private static final int MIN_LINE_SIZE = 64;
 
-  private final ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
   private OperationReadType readType = OperationReadType.LINE;
-  private boolean foundCr;
+  private byte[] lineBytes;
+  private ByteBuffer lineBuffer;
+  private int lineLength;
   private byte[] errorMsg;
+  private boolean noReply;
 
   protected OperationImpl() {
   }
@@ -109,6 +116,49 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
     bb.put(CRLF);
   }
 
+  /**
+   * Set the arguments of a command which supports noreply, appending it if
+   * this operation is sent without asking for a reply.
+   */
+  protected final void setNoReplyArguments(ByteBuffer bb, Object... args) {
+    if (noReply) {
+      Object[] withNoReply = Arrays.copyOf(args, args.length + 1);
+      withNoReply[args.length] = NOREPLY;
+      setArguments(bb, withNoReply);
+    } else {
+      setArguments(bb, args);
+    }
+  }
+
+  /**
+   * Send this operation with noreply, only used for commands which support
+   * it.
+   */
+  final void setNoReply(boolean to) {
+    noReply = to;
+  }
+
+  @Override
+  public boolean isNoReply() {
+    return noReply;
+  }
+
+  /**
+   * Complete an operation which was written as part of a batch instead of
+   * on its own.
+   *
+   * @param failure the status of the batch if it failed, null if the batch
+   *          was written (and confirmed, if fenced).
+   */
+  final synchronized void completeFolded(OperationStatus failure) {
+    if (getState() != OperationState.COMPLETE && !isCancelled()
+        && !isTimedOut()) {
+      getCallback().receivedStatus(failure == null ? getNoReplyStatus()
+          : failure);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
   OperationErrorType classifyError(String line) {
     OperationErrorType rv = null;
     if (line.startsWith("ERROR")) {
@@ -121,6 +171,13 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
     return rv;
   }
 
+  /**
+   * Read from the incoming {@link ByteBuffer}.
+   *
+   * Lines are located by scanning the buffer for the terminating newline and
+   * handed to {@link #handleLine(ByteBuffer, int, int)} in place. Only lines
+   * spanning more than one read are collected in a separate array first.
+   */
   @Override
   public void readFromBuffer(ByteBuffer data) throws IOException {
     // Loop while there's data remaining to get it all drained.
@@ -128,36 +185,82 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
       if (readType == OperationReadType.DATA) {
         handleRead(data);
       } else {
-        int offset = -1;
-        for (int i = 0; data.remaining() > 0; i++) {
-          byte b = data.get();
-          if (b == '\r') {
-            foundCr = true;
-          } else if (b == '\n') {
-            assert foundCr : "got a \\n without a \\r";
-            offset = i;
-            foundCr = false;
-            break;
-          } else {
-            assert !foundCr : "got a \\r without a \\n";
-            byteBuffer.write(b);
-          }
-        }
-        if (offset >= 0) {
-          String line = new String(byteBuffer.toByteArray(), CHARSET);
-          byteBuffer.reset();
-          OperationErrorType eType = classifyError(line);
-          if (eType != null) {
-            errorMsg = line.getBytes();
-            handleError(eType, line);
-          } else {
-            handleLine(line);
-          }
+        int start = data.position();
+        int nl = LineParser.indexOf(data, start, data.limit(), (byte) '\n');
+        if (nl < 0) {
+          appendLine(data, data.limit());
+        } else if (lineLength == 0) {
+          data.position(nl + 1);
+          finishLine(data, start, nl);
+        } else {
+          appendLine(data, nl);
+          data.position(nl + 1);
+          int length = lineLength;
+          lineLength = 0;
+          finishLine(lineBuffer, 0, length);
         }
       }
     }
   }
 
+  /**
+   * Keep the bytes from the current position up to the given index for a
+   * line which is not complete yet.
+   */
+  private void appendLine(ByteBuffer data, int to) {
+    int len = to - data.position();
+    if (lineBytes == null || lineBytes.length < lineLength + len) {
+      byte[] grown = new byte[Math.max(MIN_LINE_SIZE,
+          Math.max(lineLength + len, lineLength * 2))];
+      if (lineLength > 0) {
+        System.arraycopy(lineBytes, 0, grown, 0, lineLength);
+      }
+      lineBytes = grown;
+      lineBuffer = ByteBuffer.wrap(lineBytes);
+    }
+    data.get(lineBytes, lineLength, len);
+    lineLength += len;
+  }
+
+  private void finishLine(ByteBuffer b, int start, int nl)
+    throws IOException {
+    assert nl > start && b.get(nl - 1) == '\r' : "got a \\n without a \\r";
+    int end = nl - 1;
+    assert LineParser.indexOf(b, start, end, (byte) '\r') < 0
+      : "got a \\r without a \\n";
+    handleLine(b, start, end);
+  }
+
+  /**
+   * Handle a line which is still in the read buffer.
+   *
+   * The default implementation turns the line into a string (using a
+   * constant for well known status lines) and dispatches errors to
+   * {@link #handleError} and everything else to {@link #handleLine(String)}.
+   * Operations with hot response lines may override this to parse them
+   * without creating a string.
+   *
+   * @param b the buffer holding the line, its position and limit must not
+   *          be changed.
+   * @param start the absolute index of the first byte of the line.
+   * @param end the absolute index of the terminating carriage return.
+   * @throws IOException if the line reports an error.
+   */
+  protected void handleLine(ByteBuffer b, int start, int end)
+    throws IOException {
+    String line = LineParser.knownLine(b, start, end);
+    if (line == null) {
+      line = LineParser.decode(b, start, end, null);
+    }
+    OperationErrorType eType = classifyError(line);
+    if (eType != null) {
+      errorMsg = line.getBytes();
+      handleError(eType, line);
+    } else {
+      handleLine(line);
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -49,5 +49,6 @@ final class OptimizedGetImpl extends GetOperationImpl {
   public void addOperation(GetOperation o) {
     getKeys().addAll(o.getKeys());
     pcb.addCallbacks(o);
+    addFolded(o);
   }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Folds a run of noreply operations into a single write.
+ *
+ * Without a fence the batch completes its operations once written. With a
+ * fence a version command follows the run, and since the server answers in
+ * order its reply confirms every command before it was processed. Errors
+ * the server still sends back for noreply commands cannot be told apart,
+ * so they fail the whole batch.
+ */
+final class OptimizedNoReplyImpl extends OperationImpl {
+
+  private static final byte[] FENCE = "version\r\n".getBytes();
+
+  private final List<OperationImpl> ops = new ArrayList<OperationImpl>();
+  private final boolean fenced;
+  private OperationStatus failure;
+  private int byteCount;
+
+  /**
+   * Construct a batch starting with the given noreply operation.
+   */
+  public OptimizedNoReplyImpl(OperationImpl first, boolean fence) {
+    super();
+    setCallback(new BatchCallback());
+    setNoReply(!fence);
+    fenced = fence;
+    byteCount = fence ? FENCE.length : 0;
+    addOperation(first);
+  }
+
+  public void addOperation(OperationImpl op) {
+    assert op.isNoReply() : "Can't batch " + op;
+    ops.add(op);
+    addFolded(op);
+    byteCount += op.getBuffer().remaining();
+  }
+
+  public int size() {
+    return ops.size();
+  }
+
+  public int bytes() {
+    return byteCount;
+  }
+
+  @Override
+  public void initialize() {
+    ByteBuffer bb = ByteBuffer.allocate(byteCount);
+    for (OperationImpl op : ops) {
+      bb.put(op.getBuffer().duplicate());
+    }
+    if (fenced) {
+      bb.put(FENCE);
+    }
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  protected void handleLine(ByteBuffer b, int start, int end)
+    throws IOException {
+    // Errors are answers to the batched commands, not to the fence.
+    handleLine(LineParser.decode(b, start, end, null));
+  }
+
+  @Override
+  public void handleLine(String line) {
+    if (line.startsWith("VERSION ")) {
+      getCallback().receivedStatus(failure == null ? NO_REPLY : failure);
+      transitionState(OperationState.COMPLETE);
+    } else {
+      getLogger().warn("Error in noreply batch %s: %s", this, line);
+      if (failure == null) {
+        failure = new OperationStatus(false, line,
+          StatusCode.fromAsciiLine(line));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: noreply batch Operations: " + ops.size() + " Fenced: "
+      + fenced;
+  }
+
+  /**
+   * Completes the batched operations with the outcome of the batch.
+   */
+  private class BatchCallback implements OperationCallback {
+    private OperationStatus status;
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      OperationStatus f = status == null || status.isSuccess() ? null
+        : status;
+      for (OperationImpl op : ops) {
+        op.completeFolded(f);
+      }
+    }
+  }
+}
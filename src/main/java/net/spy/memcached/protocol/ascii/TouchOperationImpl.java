@@ -71,8 +71,9 @@ final class TouchOperationImpl extends OperationImpl implements TouchOperation {
   public void initialize() {
     ByteBuffer b = null;
     b = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
-      + String.valueOf(exp).length() + OVERHEAD);
-    b.put(("touch " + key + " " + exp + "\r\n").getBytes());
+      + String.valueOf(exp).length() + OVERHEAD
+      + (isNoReply() ? NOREPLY_OVERHEAD : 0));
+    setNoReplyArguments(b, "touch", key, exp);
     b.flip();
     setBuffer(b);
   }
@@ -74,12 +74,13 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
       while (writeQ.peek() instanceof GetOperation
           && og.size() < MAX_GET_OPTIMIZATION_COUNT) {
         GetOperation o = (GetOperation) writeQ.remove();
-        if (!o.isCancelled()) {
+        if (!o.isCancelled() && !o.isTimedOut()) {
           og.addOperation(o);
         }
       }
 
       // Initialize the new mega get
+      optimizedOp.setHandlingNode(this);
       optimizedOp.initialize();
       assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
       ProxyCallback pcb = (ProxyCallback) og.getCallback();
@@ -100,12 +101,13 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
           && og.size() < MAX_SET_OPTIMIZATION_COUNT
           && og.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
         CASOperation o = (CASOperation) writeQ.remove();
-        if (!o.isCancelled()) {
+        if (!o.isCancelled() && !o.isTimedOut()) {
           og.addOperation(o);
         }
       }
 
       // Initialize the new mega set
+      optimizedOp.setHandlingNode(this);
       optimizedOp.initialize();
       assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
     }
@@ -24,6 +24,8 @@
 package net.spy.memcached.protocol.binary;
 
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -110,6 +112,11 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new ReplicaGetsOperationImpl(key, index, callback);
   }
 
+  public BulkMutationOperation bulkMutate(Collection<BulkMutation> mutations,
+      BulkMutationOperation.Callback cb) {
+    return new BulkMutationOperationImpl(mutations, cb);
+  }
+
   public GetOperation get(Collection<String> value, Callback cb) {
     return new MultiGetOperationImpl(value, cb);
   }
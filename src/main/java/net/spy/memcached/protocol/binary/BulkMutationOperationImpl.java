@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * A run of quiet mutations terminated by a NOOP.
+ *
+ * The server only answers failed quiet commands (and touches, which have no
+ * quiet variant), so every key still unanswered when the NOOP comes back
+ * has succeeded.
+ */
+class BulkMutationOperationImpl extends MultiKeyOperationImpl implements
+    BulkMutationOperation {
+
+  static final byte DELETEQ = 0x14;
+  static final byte INCRQ = 0x15;
+  static final byte DECRQ = 0x16;
+
+  private static final int TOUCH_EXTRA_LEN = 4;
+  private static final int MUTATE_EXTRA_LEN = 20;
+
+  private final int terminalOpaque = generateOpaque();
+  private final Map<Integer, BulkMutation> unanswered =
+      new LinkedHashMap<Integer, BulkMutation>();
+  private final BulkMutationOperation.Callback mutationCallback;
+
+  public BulkMutationOperationImpl(Collection<BulkMutation> mutations,
+      BulkMutationOperation.Callback cb) {
+    super(DUMMY_OPCODE, -1, null);
+    mutationCallback = cb;
+    setCallback(new StatusReporter());
+    for (BulkMutation m : mutations) {
+      unanswered.put(generateOpaque(), m);
+      vbmap.put(m.getKey(), Short.valueOf((short) 0));
+    }
+  }
+
+  public synchronized Collection<BulkMutation> getMutations() {
+    return new ArrayList<BulkMutation>(unanswered.values());
+  }
+
+  public BulkMutationOperation.Callback getMutationCallback() {
+    return mutationCallback;
+  }
+
+  @Override
+  public void initialize() {
+    int size = MIN_RECV_PACKET;
+    for (BulkMutation m : unanswered.values()) {
+      size += MIN_RECV_PACKET + extraLength(m)
+        + KeyUtil.getKeyBytes(m.getKey()).length;
+      if (m.getType() == BulkMutation.Type.SET) {
+        size += m.getData().length;
+      }
+    }
+
+    ByteBuffer bb = allocateBuffer(size);
+    for (Map.Entry<Integer, BulkMutation> e : unanswered.entrySet()) {
+      BulkMutation m = e.getValue();
+      byte[] keyBytes = KeyUtil.getKeyBytes(m.getKey());
+      int extraLen = extraLength(m);
+      byte[] data = m.getType() == BulkMutation.Type.SET ? m.getData()
+        : EMPTY_BYTES;
+
+      bb.put(REQ_MAGIC);
+      bb.put(cmdMap(m.getType()));
+      bb.putShort((short) keyBytes.length);
+      bb.put((byte) extraLen);
+      bb.put((byte) 0); // data type
+      bb.putShort(getVBucket(m.getKey()));
+      bb.putInt(keyBytes.length + extraLen + data.length);
+      bb.putInt(e.getKey());
+      bb.putLong(0); // cas
+      switch (m.getType()) {
+      case SET:
+        bb.putInt(m.getFlags());
+        bb.putInt(m.getExpiration());
+        break;
+      case TOUCH:
+        bb.putInt(m.getExpiration());
+        break;
+      case INCR:
+      case DECR:
+        bb.putLong(m.getBy());
+        bb.putLong(m.getDefault());
+        bb.putInt(m.getExpiration());
+        break;
+      default:
+        break;
+      }
+      bb.put(keyBytes);
+      bb.put(data);
+    }
+    // The terminating noop
+    bb.put(REQ_MAGIC);
+    bb.put(NoopOperationImpl.CMD);
+    bb.putShort((short) 0);
+    bb.put((byte) 0); // extralen
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // reserved
+    bb.putInt(0);
+    bb.putInt(terminalOpaque);
+    bb.putLong(0); // cas
+
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  private static int extraLength(BulkMutation m) {
+    switch (m.getType()) {
+    case SET:
+      return StoreOperationImpl.EXTRA_LEN;
+    case TOUCH:
+      return TOUCH_EXTRA_LEN;
+    case INCR:
+    case DECR:
+      return MUTATE_EXTRA_LEN;
+    default:
+      return 0;
+    }
+  }
+
+  private static byte cmdMap(BulkMutation.Type t) {
+    switch (t) {
+    case SET:
+      return StoreOperationImpl.SETQ;
+    case DELETE:
+      return DELETEQ;
+    case TOUCH:
+      return TouchOperationImpl.CMD;
+    case INCR:
+      return INCRQ;
+    case DECR:
+      return DECRQ;
+    default:
+      throw new IllegalArgumentException("Unhandled mutation type: " + t);
+    }
+  }
+
+  @Override
+  protected void finishedPayload(byte[] pl) throws IOException {
+    if (responseOpaque == terminalOpaque) {
+      for (BulkMutation m : drainUnanswered()) {
+        mutationCallback.gotStatus(m.getKey(), STATUS_OK);
+      }
+      transitionState(OperationState.COMPLETE);
+    } else {
+      BulkMutation m;
+      synchronized (this) {
+        m = unanswered.remove(responseOpaque);
+      }
+      assert m != null : "No mutation for " + responseOpaque;
+      // Not my vbucket is reported like any other per key failure, the
+      // remaining keys of the run have already been applied.
+      mutationCallback.gotStatus(m.getKey(), errorCode == SUCCESS ? STATUS_OK
+        : new OperationStatus(false, new String(pl),
+          StatusCode.fromBinaryCode(errorCode)));
+    }
+    resetInput();
+  }
+
+  @Override
+  protected synchronized boolean opaqueIsValid() {
+    return responseOpaque == terminalOpaque
+        || unanswered.containsKey(responseOpaque);
+  }
+
+  private synchronized Collection<BulkMutation> drainUnanswered() {
+    Collection<BulkMutation> rv =
+        new ArrayList<BulkMutation>(unanswered.values());
+    unanswered.clear();
+    return rv;
+  }
+
+  /**
+   * Hands the status of the whole operation to the keys it never answered.
+   */
+  private class StatusReporter implements OperationCallback {
+    private OperationStatus failure;
+
+    public void receivedStatus(OperationStatus status) {
+      if (!status.isSuccess()) {
+        failure = status;
+      }
+    }
+
+    public void complete() {
+      OperationStatus status = failure;
+      if (status == null && hasErrored()) {
+        status = new OperationStatus(false, getException().getMessage(),
+          StatusCode.ERR_INTERNAL);
+      }
+      if (status == null) {
+        status = new OperationStatus(false, "Operation was not answered",
+          StatusCode.ERR_INTERNAL);
+      }
+      for (BulkMutation m : drainUnanswered()) {
+        mutationCallback.gotStatus(m.getKey(), status);
+      }
+      mutationCallback.complete();
+    }
+  }
+}
@@ -23,6 +23,8 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.ops.GetOperation;
 
 /**
@@ -47,12 +49,32 @@ class GetOperationImpl extends SingleKeyOperationImpl implements GetOperation {
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-    System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
-    GetOperation.Callback gcb = (GetOperation.Callback) getCallback();
-    gcb.gotData(key, flags, data);
+  protected boolean decodesPayloadView() {
+    return true;
+  }
+
+  @Override
+  protected void decodePayload(ByteBuffer pl) {
+    final int flags = pl.getInt();
+    deliverValue((GetOperation.Callback) getCallback(), key, flags, pl);
     getCallback().receivedStatus(STATUS_OK);
   }
+
+  /**
+   * Hand a value over to a get callback, as a view if the callback takes
+   * one and as a copy otherwise.
+   *
+   * @param cb the callback to notify.
+   * @param key the key of the value.
+   * @param flags the flags of the value.
+   * @param data the value, from position to limit.
+   */
+  static void deliverValue(GetOperation.Callback cb, String key, int flags,
+    ByteBuffer data) {
+    if (cb instanceof GetOperation.BufferCallback) {
+      ((GetOperation.BufferCallback) cb).gotData(key, flags, data.slice());
+    } else {
+      cb.gotData(key, flags, toByteArray(data));
+    }
+  }
 }
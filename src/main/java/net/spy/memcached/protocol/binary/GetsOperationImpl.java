@@ -23,6 +23,8 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.ops.GetsOperation;
 
 /**
@@ -48,10 +50,14 @@ public class GetsOperationImpl extends SingleKeyOperationImpl implements
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-    System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
+  protected boolean decodesPayloadView() {
+    return true;
+  }
+
+  @Override
+  protected void decodePayload(ByteBuffer pl) {
+    final int flags = pl.getInt();
+    final byte[] data = toByteArray(pl);
     GetsOperation.Callback gcb = (GetsOperation.Callback) getCallback();
     gcb.gotData(key, flags, responseCas, data);
     getCallback().receivedStatus(STATUS_OK);
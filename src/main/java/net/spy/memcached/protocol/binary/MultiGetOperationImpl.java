@@ -40,8 +40,6 @@ import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 
-import static net.spy.memcached.protocol.binary.GetOperationImpl.EXTRA_HDR_LEN;
-
 public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     GetOperation {
 
@@ -85,7 +83,7 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
       size += b.length;
     }
     // set up the initial header stuff
-    ByteBuffer bb = ByteBuffer.allocate(size);
+    ByteBuffer bb = allocateBuffer(size);
     for (Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
       final byte[] keyBytes = me.getValue();
       final String key = keys.get(me.getKey());
@@ -118,9 +116,32 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     setBuffer(bb);
   }
 
+  @Override
+  protected boolean decodesPayloadView() {
+    return true;
+  }
+
   @Override
   protected void finishedPayload(byte[] pl) throws IOException {
-    getStatusForErrorCode(errorCode, pl);
+    finishedPayload(ByteBuffer.wrap(pl));
+  }
+
+  @Override
+  protected void finishedPayload(ByteBuffer pl) throws IOException {
+    if (errorCode != SUCCESS) {
+      byte[] errPl = toByteArray(pl);
+      getStatusForErrorCode(errorCode, errPl);
+      if (responseOpaque != terminalOpaque) {
+        if (errorCode == ERR_NOT_MY_VBUCKET) {
+          retryKeys.add(keys.get(responseOpaque));
+        } else {
+          getLogger().warn("Error on key %s:  %s (%d)",
+            keys.get(responseOpaque), new String(errPl), errorCode);
+        }
+        resetInput();
+        return;
+      }
+    }
 
     if (responseOpaque == terminalOpaque) {
       if (retryKeys.size() > 0) {
@@ -133,17 +154,10 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
         getCallback().receivedStatus(STATUS_OK);
         transitionState(OperationState.COMPLETE);
       }
-    } else if (errorCode == ERR_NOT_MY_VBUCKET) {
-      retryKeys.add(keys.get(responseOpaque));
-    } else if (errorCode != SUCCESS) {
-      getLogger().warn("Error on key %s:  %s (%d)", keys.get(responseOpaque),
-          new String(pl), errorCode);
     } else {
-      final int flags = decodeInt(pl, 0);
-      final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-      System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
-      Callback cb = (Callback) getCallback();
-      cb.gotData(keys.get(responseOpaque), flags, data);
+      final int flags = pl.getInt();
+      GetOperationImpl.deliverValue((Callback) getCallback(),
+        keys.get(responseOpaque), flags, pl);
     }
     resetInput();
   }
@@ -83,6 +83,7 @@ public  abstract class OperationImpl extends BaseOperationImpl
   private final byte[] header = new byte[MIN_RECV_PACKET];
   private int headerOffset = 0;
   private byte[] payload = null;
+  private int payloadLength = 0;
   private byte[] errorMsg = null;
 
   // Response header fields
@@ -109,6 +110,7 @@ public  abstract class OperationImpl extends BaseOperationImpl
 
   protected void resetInput() {
     payload = null;
+    payloadLength = 0;
     payloadOffset = 0;
     headerOffset = 0;
   }
@@ -121,6 +123,11 @@ public  abstract class OperationImpl extends BaseOperationImpl
    * bytes, indicated by {@link #MIN_RECV_PACKET}). Then, the payload is read
    * (if one is available for this operation and can be loaded fully).
    *
+   * If the whole payload is already available in the buffer, it is handed
+   * over as a view on the buffer and only copied if the operation does not
+   * decode views (see {@link #decodesPayloadView()}). Only payloads which
+   * span more than one read are accumulated in a separate array.
+   *
    * @param buffer the buffer to read from.
    * @throws IOException if an error happened during parsing/reading.
    */
@@ -133,15 +140,14 @@ public  abstract class OperationImpl extends BaseOperationImpl
       }
     }
 
-    if (headerOffset >= MIN_RECV_PACKET && payload == null) {
-      finishedPayload(EMPTY_BYTES);
-    } else if (payload != null) {
-      readPayloadFromBuffer(buffer);
-    } else {
+    if (headerOffset < MIN_RECV_PACKET) {
       getLogger().debug("Only read %d of the %d needed to fill a header",
         headerOffset, MIN_RECV_PACKET);
+    } else if (payload == null && buffer.remaining() >= payloadLength) {
+      readPayloadView(buffer);
+    } else {
+      readPayloadFromBuffer(buffer);
     }
-
   }
 
   /**
@@ -169,13 +175,36 @@ public  abstract class OperationImpl extends BaseOperationImpl
       : "Unexpected response command value";
     keyLen = decodeShort(header, 2);
     errorCode = decodeShort(header, 6);
-    int bytesToRead = decodeInt(header, 8);
-    payload = new byte[bytesToRead];
+    payloadLength = decodeInt(header, 8);
     responseOpaque = decodeInt(header, 12);
     responseCas = decodeLong(header, 16);
     assert opaqueIsValid() : "Opaque is not valid";
   }
 
+  /**
+   * Finish a payload which is completely available in the buffer without
+   * copying it out first.
+   *
+   * @param buffer the buffer to read from.
+   * @throws IOException if an error occures during payload finishing.
+   */
+  private void readPayloadView(final ByteBuffer buffer) throws IOException {
+    getLogger().debug("Viewing %d payload bytes", payloadLength);
+    if (decodesPayloadView()) {
+      ByteBuffer view = buffer.slice();
+      view.limit(payloadLength);
+      buffer.position(buffer.position() + payloadLength);
+      finishedPayload(view.asReadOnlyBuffer());
+    } else {
+      byte[] pl = EMPTY_BYTES;
+      if (payloadLength > 0) {
+        pl = new byte[payloadLength];
+        buffer.get(pl);
+      }
+      finishedPayload(pl);
+    }
+  }
+
   /**
    * Read the payload from the buffer.
    *
@@ -184,6 +213,9 @@ public  abstract class OperationImpl extends BaseOperationImpl
    */
   private void readPayloadFromBuffer(final ByteBuffer buffer)
     throws IOException {
+    if (payload == null) {
+      payload = new byte[payloadLength];
+    }
     int toRead = payload.length - payloadOffset;
     int available = buffer.remaining();
     toRead = Math.min(toRead, available);
@@ -193,7 +225,11 @@ public  abstract class OperationImpl extends BaseOperationImpl
 
 
     if (payloadOffset == payload.length) {
-      finishedPayload(payload);
+      if (decodesPayloadView()) {
+        finishedPayload(ByteBuffer.wrap(payload));
+      } else {
+        finishedPayload(payload);
+      }
     }
   }
 
@@ -214,6 +250,51 @@ public  abstract class OperationImpl extends BaseOperationImpl
     }
   }
 
+  /**
+   * Finish a payload handed over as a view, only called for operations
+   * which return true from {@link #decodesPayloadView()}.
+   *
+   * Successful payloads are passed on to {@link #decodePayload(ByteBuffer)},
+   * all others are copied and follow {@link #finishedPayload(byte[])}.
+   *
+   * @param pl the payload, positioned at its first byte.
+   * @throws IOException if an error occures during payload finishing.
+   */
+  protected void finishedPayload(ByteBuffer pl) throws IOException {
+    if (errorCode == SUCCESS) {
+      decodePayload(pl);
+      transitionState(OperationState.COMPLETE);
+    } else {
+      finishedPayload(toByteArray(pl));
+    }
+  }
+
+  /**
+   * Whether this operation decodes its payload from a view on the read
+   * buffer (through {@link #finishedPayload(ByteBuffer)}) instead of a
+   * freshly allocated array.
+   *
+   * @return true if payload views are decoded, false by default.
+   */
+  protected boolean decodesPayloadView() {
+    return false;
+  }
+
+  /**
+   * Copy the remaining bytes of the given buffer into a new array.
+   *
+   * @param pl the buffer to copy.
+   * @return the copied bytes.
+   */
+  protected static byte[] toByteArray(ByteBuffer pl) {
+    if (!pl.hasRemaining()) {
+      return EMPTY_BYTES;
+    }
+    byte[] rv = new byte[pl.remaining()];
+    pl.get(rv);
+    return rv;
+  }
+
   /**
    * Get the OperationStatus object for the given error code.
    *
@@ -267,6 +348,19 @@ public  abstract class OperationImpl extends BaseOperationImpl
     getCallback().receivedStatus(STATUS_OK);
   }
 
+  /**
+   * Decode the given payload view for this command.
+   *
+   * The view is only valid for the duration of the call, so anything kept
+   * past it needs to be copied. Unless overridden, the payload is copied and
+   * decoded through {@link #decodePayload(byte[])}.
+   *
+   * @param pl the payload, positioned at its first byte.
+   */
+  protected void decodePayload(ByteBuffer pl) {
+    decodePayload(toByteArray(pl));
+  }
+
   /**
    * Validate an opaque value from the header. This may be overridden from a
    * subclass where the opaque isn't expected to always be the same as the
@@ -332,7 +426,7 @@ public  abstract class OperationImpl extends BaseOperationImpl
     final byte[] keyBytes = KeyUtil.getKeyBytes(key);
     int bufSize = MIN_RECV_PACKET + keyBytes.length + val.length;
 
-    ByteBuffer bb = ByteBuffer.allocate(bufSize + extraLen);
+    ByteBuffer bb = allocateBuffer(bufSize + extraLen);
     assert bb.order() == ByteOrder.BIG_ENDIAN;
     bb.put(REQ_MAGIC);
     bb.put(cmd);
@@ -402,6 +496,18 @@ public  abstract class OperationImpl extends BaseOperationImpl
     return extraLen;
   }
 
+  /**
+   * Give back the request buffer of an operation which was folded into
+   * another one and will therefore never be written itself.
+   *
+   * @param op the folded operation.
+   */
+  static void releaseFolded(Operation op) {
+    if (op instanceof OperationImpl) {
+      ((OperationImpl) op).releaseUnsentBuffer();
+    }
+  }
+
   /**
    * Generate an opaque ID.
    */
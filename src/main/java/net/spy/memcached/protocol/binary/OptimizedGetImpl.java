@@ -50,6 +50,8 @@ final class OptimizedGetImpl extends MultiGetOperationImpl {
    */
   public void addOperation(GetOperation o) {
     pcb.addCallbacks(o);
+    releaseFolded(o);
+    addFolded(o);
     for (String k : o.getKeys()) {
       addKey(k);
       setVBucket(k, ((VBucketAware) o).getVBucket(k));
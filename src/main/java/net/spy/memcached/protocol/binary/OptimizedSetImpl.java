@@ -64,6 +64,8 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
 
   public void addOperation(CASOperation op) {
     ops.add(op);
+    releaseFolded(op);
+    addFolded(op);
 
     // Count the bytes required by this operation.
     Iterator<String> is = op.getKeys().iterator();
@@ -85,7 +87,7 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   @Override
   public void initialize() {
     // Now create a buffer.
-    ByteBuffer bb = ByteBuffer.allocate(byteCount);
+    ByteBuffer bb = allocateBuffer(byteCount);
     for (CASOperation so : ops) {
       Iterator<String> is = so.getKeys().iterator();
       String k = is.next();
@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -212,6 +213,15 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
     return rv;
   }
 
+  /**
+   * Decode the string in the given buffer with the current character set.
+   */
+  protected String decodeStringFromBuffer(ByteBuffer data) {
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return decodeString(bytes);
+  }
+
   /**
    * Encode a string into the current character set.
    */
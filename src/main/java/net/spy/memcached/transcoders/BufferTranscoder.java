@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Transcoder} which can also decode values straight out of the
+ * buffer they were received into, without copying them into a
+ * {@link net.spy.memcached.CachedData} first.
+ *
+ * <p>Buffer decoding always happens synchronously on the thread handing out
+ * the buffer (usually the IO thread), so it should be reserved for cheap
+ * conversions. Everything else can be declined through
+ * {@link #decodesFromBuffer(int)} and will take the regular path.</p>
+ */
+public interface BufferTranscoder<T> extends Transcoder<T> {
+
+  /**
+   * Check whether values with the given flags should be decoded from a
+   * buffer.
+   *
+   * @param flags the flags of the value.
+   * @return true if {@link #decode(int, ByteBuffer)} should be used.
+   */
+  boolean decodesFromBuffer(int flags);
+
+  /**
+   * Decode the value in the given buffer.
+   *
+   * The buffer is only valid for the duration of the call and must not be
+   * kept around.
+   *
+   * @param flags the flags of the value.
+   * @param data the value, from position to limit.
+   * @return the decoded value.
+   */
+  T decode(int flags, ByteBuffer data);
+}
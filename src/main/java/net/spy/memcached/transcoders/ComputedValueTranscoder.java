@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.nio.ByteBuffer;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ComputedValue;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Transcoder storing a {@link ComputedValue} as the value encoded by another
+ * transcoder, prefixed with a marker, the expiry, the computation time and
+ * the flags of the value.
+ *
+ * Envelopes are stored with the flags {@code 0x40000000}, which needs
+ * servers storing 32 bit flags. The flags alone don't make an envelope:
+ * values stored with the same flags by another transcoder are only taken for
+ * one if they also start with the marker. Values stored without the envelope
+ * are decoded as values which never expire, so switching a key over doesn't
+ * need it to be flushed.
+ */
+public final class ComputedValueTranscoder<T> extends SpyObject implements
+    Transcoder<ComputedValue<T>> {
+
+  /**
+   * The flags of an envelope.
+   */
+  static final int FLAGS = 0x40000000;
+
+  /**
+   * The first bytes of an envelope, "SpCV".
+   */
+  static final int MARKER = 0x53704356;
+
+  private static final int HEADER = 20;
+
+  private final Transcoder<T> tc;
+
+  /**
+   * Construct a ComputedValueTranscoder for values encoded by the given
+   * transcoder.
+   */
+  public ComputedValueTranscoder(Transcoder<T> t) {
+    tc = t;
+  }
+
+  public boolean asyncDecode(CachedData d) {
+    return tc.asyncDecode(isEnvelope(d) ? unwrap(d) : d);
+  }
+
+  public CachedData encode(ComputedValue<T> o) {
+    CachedData d = tc.encode(o.getValue());
+    byte[] data = new byte[HEADER + d.getData().length];
+    ByteBuffer.wrap(data).putInt(MARKER).putLong(o.getExpiry())
+      .putInt((int) Math.min(o.getComputeTime(), Integer.MAX_VALUE))
+      .putInt(d.getFlags()).put(d.getData());
+    return new CachedData(FLAGS, data, getMaxSize());
+  }
+
+  public ComputedValue<T> decode(CachedData d) {
+    if (!isEnvelope(d)) {
+      return new ComputedValue<T>(tc.decode(d), Long.MAX_VALUE, 0);
+    }
+    CachedData value = unwrap(d);
+    ByteBuffer b = ByteBuffer.wrap(d.getData(), 4, HEADER - 4);
+    long expiry = b.getLong();
+    int computeTime = b.getInt();
+    return new ComputedValue<T>(tc.decode(value), expiry, computeTime);
+  }
+
+  private static boolean isEnvelope(CachedData d) {
+    byte[] data = d.getData();
+    return d.getFlags() == FLAGS && data.length >= 4
+      && ByteBuffer.wrap(data).getInt() == MARKER;
+  }
+
+  private CachedData unwrap(CachedData d) {
+    byte[] data = d.getData();
+    if (data.length < HEADER) {
+      throw new IllegalArgumentException("Envelope of " + data.length
+          + " bytes is too short");
+    }
+    byte[] value = new byte[data.length - HEADER];
+    System.arraycopy(data, HEADER, value, 0, value.length);
+    return new CachedData(ByteBuffer.wrap(data).getInt(HEADER - 4), value,
+        tc.getMaxSize());
+  }
+
+  public int getMaxSize() {
+    return tc.getMaxSize();
+  }
+}
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.CachedData;
 import net.spy.memcached.compat.SpyObject;
 
@@ -29,7 +31,7 @@ import net.spy.memcached.compat.SpyObject;
  * Transcoder that serializes and unserializes longs.
  */
 public final class IntegerTranscoder extends SpyObject implements
-    Transcoder<Integer> {
+    BufferTranscoder<Integer> {
 
   private static final int FLAGS = SerializingTranscoder.SPECIAL_INT;
 
@@ -51,6 +53,14 @@ public final class IntegerTranscoder extends SpyObject implements
     }
   }
 
+  public boolean decodesFromBuffer(int flags) {
+    return FLAGS == flags;
+  }
+
+  public Integer decode(int flags, ByteBuffer data) {
+    return tu.decodeInt(data);
+  }
+
   public int getMaxSize() {
     return CachedData.MAX_SIZE;
   }
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.CachedData;
 import net.spy.memcached.compat.SpyObject;
 
@@ -29,7 +31,7 @@ import net.spy.memcached.compat.SpyObject;
  * Transcoder that serializes and unserializes longs.
  */
 public final class LongTranscoder extends SpyObject
-  implements Transcoder<Long> {
+  implements BufferTranscoder<Long> {
 
   private static final int FLAGS = SerializingTranscoder.SPECIAL_LONG;
 
@@ -53,6 +55,14 @@ public final class LongTranscoder extends SpyObject
     }
   }
 
+  public boolean decodesFromBuffer(int flags) {
+    return FLAGS == flags;
+  }
+
+  public Long decode(int flags, ByteBuffer data) {
+    return tu.decodeLong(data);
+  }
+
   public int getMaxSize() {
     return CachedData.MAX_SIZE;
   }
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.transcoders;
 
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 import net.spy.memcached.CachedData;
@@ -31,7 +33,7 @@ import net.spy.memcached.util.StringUtils;
  * Transcoder that serializes and compresses objects.
  */
 public class SerializingTranscoder extends BaseSerializingTranscoder implements
-    Transcoder<Object> {
+    BufferTranscoder<Object> {
 
   // General flags
   static final int SERIALIZED = 1;
@@ -50,6 +52,12 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
 
   private final TranscoderUtils tu = new TranscoderUtils(true);
 
+  /**
+   * False if a subclass changes how values are decoded, which decoding from
+   * buffers would silently bypass.
+   */
+  private final boolean bufferDecoding = !overridesDecoding(getClass());
+
   /**
    * Get a serializing transcoder with the default max data size.
    */
@@ -121,6 +129,84 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
     return rv;
   }
 
+  /**
+   * Only plain strings and the specially handled types are decoded from
+   * buffers, compressed and serialized values take the asynchronous path.
+   * Nothing is decoded from buffers by subclasses overriding
+   * {@link #decode(CachedData)} or {@link #decodeString(byte[])}.
+   */
+  public boolean decodesFromBuffer(int flags) {
+    return bufferDecoding && (flags & (COMPRESSED | SERIALIZED)) == 0;
+  }
+
+  /**
+   * Check whether the given class overrides {@link #decode(CachedData)} or
+   * {@link #decodeString(byte[])}.
+   *
+   * Such subclasses predate decoding from buffers, and keep having every
+   * value decoded through their own code.
+   */
+  private static boolean overridesDecoding(Class<?> c) {
+    for (Class<?> k = c; k != SerializingTranscoder.class;
+        k = k.getSuperclass()) {
+      for (Method m : k.getDeclaredMethods()) {
+        Class<?>[] params = m.getParameterTypes();
+        if (params.length == 1
+            && (m.getName().equals("decode") && params[0] == CachedData.class
+            || m.getName().equals("decodeString")
+            && params[0] == byte[].class)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.transcoders.BufferTranscoder#decode(int,
+   * java.nio.ByteBuffer)
+   */
+  public Object decode(int flags, ByteBuffer data) {
+    assert decodesFromBuffer(flags) : "Cannot decode from buffer: " + flags;
+    Object rv = null;
+    switch (flags & SPECIAL_MASK) {
+    case 0:
+      rv = decodeStringFromBuffer(data);
+      break;
+    case SPECIAL_BOOLEAN:
+      rv = Boolean.valueOf(tu.decodeBoolean(data));
+      break;
+    case SPECIAL_INT:
+      rv = Integer.valueOf(tu.decodeInt(data));
+      break;
+    case SPECIAL_LONG:
+      rv = Long.valueOf(tu.decodeLong(data));
+      break;
+    case SPECIAL_DATE:
+      rv = new Date(tu.decodeLong(data));
+      break;
+    case SPECIAL_BYTE:
+      rv = Byte.valueOf(tu.decodeByte(data));
+      break;
+    case SPECIAL_FLOAT:
+      rv = Float.valueOf(Float.intBitsToFloat(tu.decodeInt(data)));
+      break;
+    case SPECIAL_DOUBLE:
+      rv = Double.valueOf(Double.longBitsToDouble(tu.decodeLong(data)));
+      break;
+    case SPECIAL_BYTEARRAY:
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      rv = bytes;
+      break;
+    default:
+      getLogger().warn("Undecodeable with flags %x", flags);
+    }
+    return rv;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -22,6 +22,7 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -70,6 +71,34 @@ public class TranscodeService extends SpyObject {
     return task;
   }
 
+  /**
+   * Perform a decode of a value which is only available as a buffer for the
+   * duration of the call.
+   *
+   * If the transcoder is a {@link BufferTranscoder} accepting the flags, the
+   * value is decoded right away in the calling thread. Otherwise it is
+   * copied once and decoded through {@link #decode(Transcoder, CachedData)}.
+   */
+  public <T> Future<T> decode(final Transcoder<T> tc, final int flags,
+      final ByteBuffer data) {
+    if (tc instanceof BufferTranscoder && data.remaining() <= tc.getMaxSize()
+        && ((BufferTranscoder<T>) tc).decodesFromBuffer(flags)) {
+      final BufferTranscoder<T> btc = (BufferTranscoder<T>) tc;
+      TranscodeService.Task<T> task =
+          new TranscodeService.Task<T>(new Callable<T>() {
+            public T call() {
+              return btc.decode(flags, data);
+            }
+          });
+      task.run();
+      return task;
+    }
+
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return decode(tc, new CachedData(flags, bytes, tc.getMaxSize()));
+  }
+
   /**
    * Shut down the pool.
    */
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
+
 /**
  * Utility class for transcoding Java types.
  */
@@ -72,6 +74,14 @@ public final class TranscoderUtils {
     return rv;
   }
 
+  public long decodeLong(ByteBuffer b) {
+    long rv = 0;
+    while (b.hasRemaining()) {
+      rv = (rv << 8) | (b.get() & 0xff);
+    }
+    return rv;
+  }
+
   public byte[] encodeInt(int in) {
     return encodeNum(in, 4);
   }
@@ -81,6 +91,12 @@ public final class TranscoderUtils {
     return (int) decodeLong(in);
   }
 
+  public int decodeInt(ByteBuffer in) {
+    assert in.remaining() <= 4 : "Too long to be an int (" + in.remaining()
+      + ") bytes";
+    return (int) decodeLong(in);
+  }
+
   public byte[] encodeByte(byte in) {
     return new byte[] { in };
   }
@@ -94,6 +110,15 @@ public final class TranscoderUtils {
     return rv;
   }
 
+  public byte decodeByte(ByteBuffer in) {
+    assert in.remaining() <= 1 : "Too long for a byte";
+    byte rv = 0;
+    if (in.hasRemaining()) {
+      rv = in.get();
+    }
+    return rv;
+  }
+
   public byte[] encodeBoolean(boolean b) {
     byte[] rv = new byte[1];
     rv[0] = (byte) (b ? '1' : '0');
@@ -104,4 +129,9 @@ public final class TranscoderUtils {
     assert in.length == 1 : "Wrong length for a boolean";
     return in[0] == '1';
   }
+
+  public boolean decodeBoolean(ByteBuffer in) {
+    assert in.remaining() == 1 : "Wrong length for a boolean";
+    return in.get() == '1';
+  }
 }
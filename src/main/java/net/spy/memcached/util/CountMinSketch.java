@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch estimating how often items were added in a fixed
+ * amount of memory.
+ *
+ * <p>
+ * Estimates never undercount and overcount by at most a small fraction of
+ * all additions, counters are updated conservatively to keep that error
+ * low for skewed distributions. Instances are not thread safe.
+ * </p>
+ */
+public final class CountMinSketch {
+
+  private final int mask;
+  private final int[][] counts;
+  private final int[] indexes;
+
+  /**
+   * Create a sketch.
+   *
+   * @param depth the number of hashed rows, more rows lower the chance of
+   *          a bad estimate
+   * @param width the number of counters in each row, rounded up to a power
+   *          of two, wider rows lower the error of estimates
+   */
+  public CountMinSketch(int depth, int width) {
+    if (depth < 1 || width < 1) {
+      throw new IllegalArgumentException("Depth and width must be positive");
+    }
+    int w = Integer.highestOneBit(width);
+    if (w < width) {
+      w <<= 1;
+    }
+    mask = w - 1;
+    counts = new int[depth][w];
+    indexes = new int[depth];
+  }
+
+  /**
+   * Count an item once.
+   *
+   * @param item the item to count
+   * @return the estimated count of the item, including this addition
+   */
+  public int add(Object item) {
+    int hash = item.hashCode();
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < counts.length; row++) {
+      int i = index(hash, row);
+      indexes[row] = i;
+      min = Math.min(min, counts[row][i]);
+    }
+    if (min == Integer.MAX_VALUE) {
+      return min;
+    }
+    int rv = min + 1;
+    for (int row = 0; row < counts.length; row++) {
+      if (counts[row][indexes[row]] < rv) {
+        counts[row][indexes[row]] = rv;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Get the estimated count of an item.
+   *
+   * @param item the item to look up
+   * @return the estimated count, never lower than the real count
+   */
+  public int estimate(Object item) {
+    int hash = item.hashCode();
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < counts.length; row++) {
+      min = Math.min(min, counts[row][index(hash, row)]);
+    }
+    return min;
+  }
+
+  /**
+   * Forget all counted items.
+   */
+  public void clear() {
+    for (int[] row : counts) {
+      Arrays.fill(row, 0);
+    }
+  }
+
+  private int index(int hash, int row) {
+    int h = (hash + row * 0x9E3779B9) * 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h & mask;
+  }
+}
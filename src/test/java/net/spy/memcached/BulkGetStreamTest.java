@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.internal.BulkGetSubscriber;
+import net.spy.memcached.internal.BulkGetSubscription;
+
+/**
+ * Test streaming bulk gets against a fake server.
+ */
+public class BulkGetStreamTest extends TestCase {
+
+  private FakeAsciiServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeAsciiServer();
+    client = new MemcachedClient(Collections.singletonList(
+      server.getAddress()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown(0, TimeUnit.MILLISECONDS);
+    server.close();
+    super.tearDown();
+  }
+
+  private static List<String> keys(String prefix, int n) {
+    List<String> rv = new ArrayList<String>(n);
+    for (int i = 0; i < n; i++) {
+      rv.add(prefix + i);
+    }
+    return rv;
+  }
+
+  public void testStreamsValuesAndMisses() throws Exception {
+    List<String> keys = keys("hit", 10);
+    keys.addAll(keys("miss", 10));
+    Recorder r = new Recorder(Long.MAX_VALUE);
+    client.getBulkStream(keys, r);
+
+    assertTrue(r.completed.await(5, TimeUnit.SECONDS));
+    assertEquals(10, r.values.size());
+    assertEquals("hit3", r.values.get("hit3"));
+    assertEquals(10, r.misses.size());
+    assertTrue(r.misses.contains("miss7"));
+    assertTrue(r.errors.isEmpty());
+  }
+
+  public void testEmptyStreamCompletes() throws Exception {
+    Recorder r = new Recorder(0);
+    client.getBulkStream(Collections.<String>emptyList(), r);
+    assertEquals(0, r.completed.getCount());
+  }
+
+  public void testHonoursDemand() throws Exception {
+    Recorder r = new Recorder(5);
+    BulkGetSubscription s = client.getBulkStream(keys("hit", 50),
+      client.getTranscoder(), r, 10);
+
+    r.awaitSignals(5);
+    Thread.sleep(100);
+    assertEquals(5, r.values.size());
+    assertEquals(1, server.getGets().size());
+    assertEquals(1, r.completed.getCount());
+
+    s.request(45);
+    assertTrue(r.completed.await(5, TimeUnit.SECONDS));
+    assertEquals(50, r.values.size());
+    for (String get : server.getGets()) {
+      assertTrue(get, get.split(" ").length <= 11);
+    }
+  }
+
+  public void testRequestFromWithinSignals() throws Exception {
+    Recorder r = new Recorder(1) {
+      @Override
+      public void onValue(String key, Object value) {
+        super.onValue(key, value);
+        subscription.request(1);
+      }
+    };
+    client.getBulkStream(keys("hit", 20), client.getTranscoder(), r, 3);
+    assertTrue(r.completed.await(5, TimeUnit.SECONDS));
+    assertEquals(20, r.values.size());
+  }
+
+  public void testCancelStopsTheStream() throws Exception {
+    List<String> keys = keys("hang", 1);
+    keys.addAll(keys("hit", 10));
+    Recorder r = new Recorder(Long.MAX_VALUE);
+    BulkGetSubscription s = client.getBulkStream(keys,
+      client.getTranscoder(), r, 100);
+    Thread.sleep(100);
+    s.cancel();
+    assertFalse(r.completed.await(100, TimeUnit.MILLISECONDS));
+    assertTrue(r.values.isEmpty());
+    assertTrue(r.misses.isEmpty());
+    assertTrue(r.errors.isEmpty());
+  }
+
+  public void testCancelFromWithinAMiss() throws Exception {
+    Recorder r = new Recorder(Long.MAX_VALUE) {
+      @Override
+      public void onMiss(String key) {
+        super.onMiss(key);
+        subscription.cancel();
+      }
+    };
+    client.getBulkStream(keys("miss", 10), client.getTranscoder(), r, 100);
+    Thread.sleep(100);
+    assertEquals(1, r.misses.size());
+    assertEquals(1, r.completed.getCount());
+  }
+
+  public void testRequestFromWithinSignalsOnTheIOThread() throws Exception {
+    final List<String> threads = new CopyOnWriteArrayList<String>();
+    Recorder r = new Recorder(1) {
+      @Override
+      public void onValue(String key, Object value) {
+        super.onValue(key, value);
+        threads.add(Thread.currentThread().getName());
+        subscription.request(1);
+      }
+    };
+    client.getBulkStream(keys("hit", 5), client.getTranscoder(), r, 1);
+    assertTrue(r.completed.await(5, TimeUnit.SECONDS));
+    assertEquals(5, r.values.size());
+    assertTrue(threads.toString(), threads.get(4).startsWith("Memcached IO"));
+  }
+
+  public void testCancelFromWithinAValueWhileAChunkIsParsed()
+    throws Exception {
+    final MemcachedClient nc = new MemcachedClient(
+      new ConnectionFactoryBuilder().setNearCacheMaxBytes(1 << 20)
+        .setNearCacheTTL(60000).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      NearCache cache = nc.getNearCache();
+      cache.put("cached", nc.getTranscoder().encode("local"), 0,
+        cache.stamps());
+      // The near cache hit is delivered on the requesting thread, while the
+      // IO thread is parsing the value of the other chunk.
+      Recorder r = new Recorder(1) {
+        @Override
+        public void onValue(String key, Object value) {
+          super.onValue(key, value);
+          if (key.equals("cached")) {
+            server.openGate();
+            try {
+              Thread.sleep(200);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            subscription.cancel();
+          }
+        }
+      };
+      final BulkGetSubscription s = nc.getBulkStream(
+        Arrays.asList("wait0", "cached"), nc.getTranscoder(), r, 1);
+      Thread.sleep(100);
+      assertEquals(1, server.getGets().size());
+
+      Thread requester = new Thread("requester") {
+        @Override
+        public void run() {
+          s.request(1);
+        }
+      };
+      requester.start();
+      requester.join(5000);
+      assertFalse("Deadlocked cancelling", requester.isAlive());
+      assertEquals(Collections.singleton("cached"), r.values.keySet());
+      assertTrue(r.misses.isEmpty());
+      assertEquals(1, r.completed.getCount());
+      // The IO thread is still responsive.
+      assertEquals("hit1", nc.get("hit1"));
+    } finally {
+      nc.shutdown(0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Record every signal, requesting the given number of keys up front.
+   */
+  private static class Recorder implements BulkGetSubscriber<Object> {
+
+    private final long initial;
+    protected volatile BulkGetSubscription subscription;
+    private final Map<String, Object> values =
+      new ConcurrentHashMap<String, Object>();
+    private final List<String> misses = new CopyOnWriteArrayList<String>();
+    private final List<Throwable> errors =
+      new CopyOnWriteArrayList<Throwable>();
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    Recorder(long n) {
+      initial = n;
+    }
+
+    void awaitSignals(int n) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (values.size() + misses.size() < n
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+    }
+
+    public void onSubscribe(BulkGetSubscription s) {
+      subscription = s;
+      if (initial > 0) {
+        s.request(initial);
+      }
+    }
+
+    public void onValue(String key, Object value) {
+      values.put(key, value);
+    }
+
+    public void onMiss(String key) {
+      misses.add(key);
+    }
+
+    public void onError(SocketAddress node, Collection<String> keys,
+        Throwable cause) {
+      errors.add(cause);
+    }
+
+    public void onComplete() {
+      completed.countDown();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.transcoders.IntegerTranscoder;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.TranscodeService;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the CoalescedGet.
+ */
+public class CoalescedGetTest extends TestCase {
+
+  private static final OperationStatus OK =
+      new OperationStatus(true, "END", StatusCode.SUCCESS);
+
+  private ConcurrentMap<String, CoalescedGet> pending;
+  private TranscodeService tcService;
+  private ExecutorService executor;
+  private CoalescedGet get;
+  private Operation op;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pending = new ConcurrentHashMap<String, CoalescedGet>();
+    tcService = new TranscodeService(true);
+    executor = Executors.newSingleThreadExecutor();
+    get = new CoalescedGet("k", pending, tcService, null, null, 1000,
+        executor);
+    op = new AsciiOperationFactory().get("k", get);
+    get.setOperation(op);
+    pending.put("k", get);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    tcService.shutdown();
+    executor.shutdown();
+    super.tearDown();
+  }
+
+  private void respond(CachedData d) {
+    get.gotData("k", d.getFlags(), d.getData());
+    get.receivedStatus(OK);
+    get.complete();
+  }
+
+  public void testEachCallerDecodesWithItsTranscoder() throws Exception {
+    Transcoder<Object> ser = new SerializingTranscoder();
+    GetFuture<Object> a = get.join(ser);
+    GetFuture<Object> b = get.join(ser);
+    GetFuture<Integer> c = get.join(new IntegerTranscoder());
+    ArrayList<String> value = new ArrayList<String>();
+    value.add("x");
+
+    respond(ser.encode(value));
+    assertEquals(value, a.get());
+    assertEquals(value, b.get());
+    assertNotSame("Callers must not share decoded objects", a.get(),
+        b.get());
+    // The integer transcoder does not understand serialized flags.
+    assertNull(c.get());
+    assertTrue(a.isDone());
+    assertSame(OK, a.getStatus());
+  }
+
+  public void testBufferViewWithSingleCaller() throws Exception {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    CachedData d = new IntegerTranscoder().encode(42);
+    get.gotData("k", d.getFlags(), ByteBuffer.wrap(d.getData()));
+    get.receivedStatus(OK);
+    get.complete();
+    assertEquals(42, a.get().intValue());
+  }
+
+  public void testBufferViewWithSeveralCallers() throws Exception {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    GetFuture<Integer> b = get.join(new IntegerTranscoder());
+    CachedData d = new IntegerTranscoder().encode(42);
+    get.gotData("k", d.getFlags(), ByteBuffer.wrap(d.getData()));
+    get.receivedStatus(OK);
+    get.complete();
+    assertEquals(42, a.get().intValue());
+    assertEquals(42, b.get().intValue());
+  }
+
+  public void testClosesOnFirstResponse() {
+    assertNotNull(get.join(new IntegerTranscoder()));
+    get.receivedStatus(OK);
+    assertFalse(pending.containsKey("k"));
+    assertNull(get.join(new IntegerTranscoder()));
+  }
+
+  public void testCancelDetachesOnlyTheCaller() throws Exception {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    GetFuture<Integer> b = get.join(new IntegerTranscoder());
+
+    assertTrue(a.cancel(true));
+    assertTrue(a.isCancelled());
+    assertTrue(a.isDone());
+    assertFalse(op.isCancelled());
+    assertFalse(b.isDone());
+    try {
+      a.get();
+      fail("Cancelled future returned a value");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CancellationException);
+    }
+
+    respond(new IntegerTranscoder().encode(7));
+    assertEquals(7, b.get().intValue());
+  }
+
+  public void testLastCancelCancelsOperation() {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    GetFuture<Integer> b = get.join(new IntegerTranscoder());
+    a.cancel(true);
+    b.cancel(true);
+    assertTrue(op.isCancelled());
+    assertFalse(pending.containsKey("k"));
+    assertNull(get.join(new IntegerTranscoder()));
+  }
+
+  public void testTimeoutOnlyFailsTheCaller() throws Exception {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    GetFuture<Integer> b = get.join(new IntegerTranscoder());
+    try {
+      a.get(10, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (CheckedOperationTimeoutException e) {
+      // pass
+    }
+    assertFalse(op.isTimedOut());
+    respond(new IntegerTranscoder().encode(3));
+    assertEquals(3, b.get().intValue());
+  }
+
+  public void testTimeoutIsCountedOncePerOperation() throws Exception {
+    final AtomicInteger timeouts = new AtomicInteger();
+    op.setHandlingNode(new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost", 11211)) {
+      @Override
+      public void setContinuousTimeout(boolean timedOut) {
+        if (timedOut) {
+          timeouts.incrementAndGet();
+        }
+      }
+    });
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    GetFuture<Integer> b = get.join(new IntegerTranscoder());
+    for (GetFuture<Integer> f : Arrays.asList(a, b)) {
+      try {
+        f.get(10, TimeUnit.MILLISECONDS);
+        fail("Expected a timeout");
+      } catch (CheckedOperationTimeoutException e) {
+        // pass
+      }
+    }
+    assertEquals(1, timeouts.get());
+  }
+
+  public void testAbortCancelsEveryCaller() {
+    GetFuture<Integer> a = get.join(new IntegerTranscoder());
+    get.abort();
+    assertTrue(a.isCancelled());
+    assertFalse(pending.containsKey("k"));
+  }
+}
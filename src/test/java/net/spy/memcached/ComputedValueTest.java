@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the early refresh decision of computed values.
+ */
+public class ComputedValueTest extends TestCase {
+
+  private final ComputedValue<String> cv =
+    new ComputedValue<String>("v", 10000, 100);
+
+  public void testExpiredValuesAreRefreshed() {
+    assertTrue(cv.shouldRefresh(10000, 0, 1.0));
+    assertTrue(cv.shouldRefresh(20000, 1.0, 1.0));
+  }
+
+  public void testRefreshGetsLikelierTowardsExpiry() {
+    // -ln(0.5) * 100ms is about 69ms ahead of expiry
+    assertFalse(cv.shouldRefresh(9900, 1.0, 0.5));
+    assertTrue(cv.shouldRefresh(9950, 1.0, 0.5));
+    // a small random number refreshes much earlier
+    assertTrue(cv.shouldRefresh(9600, 1.0, 0.001));
+    assertFalse(cv.shouldRefresh(9000, 1.0, 0.001));
+  }
+
+  public void testBetaScalesTheLead() {
+    assertFalse(cv.shouldRefresh(9800, 1.0, 0.5));
+    assertTrue(cv.shouldRefresh(9800, 4.0, 0.5));
+  }
+
+  public void testNoEarlyRefresh() {
+    assertFalse(cv.shouldRefresh(9999, 0, 0.001));
+    assertFalse(new ComputedValue<String>("v", 10000, 0)
+        .shouldRefresh(9999, 1.0, 0.001));
+    assertFalse(new ComputedValue<String>("v", Long.MAX_VALUE, 100)
+        .shouldRefresh(9999, 1.0, 0.001));
+  }
+}
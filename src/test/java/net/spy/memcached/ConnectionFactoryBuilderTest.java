@@ -39,9 +39,12 @@ import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.PlainCallbackHandler;
 import net.spy.memcached.compat.BaseMockCase;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationTracer;
 import net.spy.memcached.ops.OperationQueueFactory;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.SerializingTranscoder;
@@ -106,6 +109,26 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME);
     assertEquals(f.getAuthWaitTime(),
       DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME);
+    assertEquals(DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT,
+      f.getIOThreadCount());
+    assertFalse(f.useGatheringWrites());
+    assertEquals(DefaultConnectionFactory.DEFAULT_NEAR_CACHE_MAX_BYTES,
+        f.getNearCacheMaxBytes());
+    assertEquals(DefaultConnectionFactory.DEFAULT_NEAR_CACHE_TTL,
+        f.getNearCacheTTL());
+    assertFalse(f.shouldCoalesceGets());
+    assertEquals(DefaultConnectionFactory.DEFAULT_OPERATION_TIMEOUT_TICK,
+        f.getOperationTimeoutTick());
+    assertEquals(1, f.getConnectionsPerNode());
+    assertSame(PooledMemcachedNode.Selection.LEAST_OUTSTANDING,
+        f.getConnectionSelection());
+    assertFalse(f.useAsciiNoReply());
+    assertFalse(f.useNoReplyFence());
+    assertEquals(DefaultConnectionFactory.DEFAULT_EARLY_REFRESH_BETA,
+        f.getEarlyRefreshBeta(), 0.0);
+    assertEquals(0, f.getHotKeySampling());
+    assertEquals(1, f.getHotKeyReplicas());
+    assertNull(f.getOperationTracer());
   }
 
   public void testModifications() throws Exception {
@@ -118,6 +141,15 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         // none
       }
     };
+    OperationTracer tracer = new OperationTracer() {
+      public boolean isTraced(Operation op) {
+        return false;
+      }
+
+      public void traced(Operation op, Event event, long nanos) {
+        // none
+      }
+    };
     BlockingQueue<Operation> oQueue = new LinkedBlockingQueue<Operation>();
     BlockingQueue<Operation> rQueue = new LinkedBlockingQueue<Operation>();
     BlockingQueue<Operation> wQueue = new LinkedBlockingQueue<Operation>();
@@ -142,6 +174,20 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         .setAuthDescriptor(anAuthDescriptor)
         .setAuthWaitTime(3000)
         .setKeepAlive(true)
+        .setIOThreadCount(4)
+        .setUseGatheringWrites(true)
+        .setNearCacheMaxBytes(1 << 20)
+        .setNearCacheTTL(250)
+        .setShouldCoalesceGets(true)
+        .setOperationTimeoutTick(25)
+        .setConnectionsPerNode(4)
+        .setConnectionSelection(PooledMemcachedNode.Selection.ROUND_ROBIN)
+        .setAsciiNoReply(true)
+        .setNoReplyFence(true)
+        .setEarlyRefreshBeta(2.5)
+        .setHotKeySampling(64)
+        .setHotKeyReplicas(3)
+        .setOperationTracer(tracer)
         .build();
 
     assertEquals(4225, f.getOperationTimeout());
@@ -162,6 +208,21 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertEquals(f.getOpQueueMaxBlockTime(), 19);
     assertSame(anAuthDescriptor, f.getAuthDescriptor());
     assertEquals(f.getAuthWaitTime(), 3000);
+    assertEquals(4, f.getIOThreadCount());
+    assertTrue(f.useGatheringWrites());
+    assertEquals(1 << 20, f.getNearCacheMaxBytes());
+    assertEquals(250, f.getNearCacheTTL());
+    assertTrue(f.shouldCoalesceGets());
+    assertEquals(25, f.getOperationTimeoutTick());
+    assertEquals(4, f.getConnectionsPerNode());
+    assertSame(PooledMemcachedNode.Selection.ROUND_ROBIN,
+        f.getConnectionSelection());
+    assertTrue(f.useAsciiNoReply());
+    assertTrue(f.useNoReplyFence());
+    assertEquals(2.5, f.getEarlyRefreshBeta(), 0.0);
+    assertEquals(64, f.getHotKeySampling());
+    assertEquals(3, f.getHotKeyReplicas());
+    assertSame(tracer, f.getOperationTracer());
 
     MemcachedNode n = new MockMemcachedNode(
         InetSocketAddress.createUnresolved("localhost",
@@ -180,6 +241,24 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     }
   }
 
+  public void testLocatorSetterJump() {
+    MemcachedNode n = new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost",
+            TestConfig.PORT_NUMBER));
+    assertTrue(b.setLocatorType(Locator.JUMP).build()
+        .createLocator(Collections.singletonList(n))
+        instanceof JumpHashNodeLocator);
+  }
+
+  public void testLocatorSetterRendezvous() {
+    MemcachedNode n = new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost",
+            TestConfig.PORT_NUMBER));
+    assertTrue(b.setLocatorType(Locator.RENDEZVOUS).build()
+        .createLocator(Collections.singletonList(n))
+        instanceof RendezvousNodeLocator);
+  }
+
   public void testProtocolSetterBinary() {
     assertTrue(b.setProtocol(Protocol.BINARY).build().getOperationFactory()
         instanceof BinaryOperationFactory);
@@ -191,6 +270,29 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
 
   }
 
+  public void testProtocolSetterMeta() throws Exception {
+    ConnectionFactory f = b.setProtocol(Protocol.META).build();
+    assertTrue(f.getOperationFactory() instanceof MetaOperationFactory);
+    SocketChannel sc = SocketChannel.open();
+    try {
+      assertTrue(f.createMemcachedNode(
+          InetSocketAddress.createUnresolved("localhost",
+              TestConfig.PORT_NUMBER), sc, 1)
+          instanceof MetaMemcachedNodeImpl);
+    } finally {
+      sc.close();
+    }
+  }
+
+  public void testAsciiNoReplyFactory() {
+    assertTrue(((AsciiOperationFactory) b.setAsciiNoReply(true).build()
+        .getOperationFactory()).isNoReply());
+    assertTrue(((AsciiOperationFactory) b.setProtocol(Protocol.TEXT).build()
+        .getOperationFactory()).isNoReply());
+    assertTrue(b.setProtocol(Protocol.BINARY).build().getOperationFactory()
+        instanceof BinaryOperationFactory);
+  }
+
   public void testOverridingExecutorService() {
     ConnectionFactory factory = b.build();
     assertTrue(factory.isDefaultExecutorService());
@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny in-process server speaking just enough of the ascii protocol for
+ * tests that need a live connection, and for benchmarks measuring client
+ * round trips without network or server noise.
+ *
+ * Stores always succeed and keep the value until it is deleted. Gets return
+ * the stored value, or the key itself as the value of keys starting with
+ * "hit", are never answered if any key starts with "hang", and miss
+ * otherwise. Keys starting with "wait" are hits too, but are only answered
+ * once the gate has been opened. Stores of keys starting with "bad" fail with a client error
+ * even for noreply, as memcached does for bad data chunks; deletes, touches
+ * and increments succeed. Everything is only answered without noreply.
+ * Version requests are answered; everything else gets an error.
+ *
+ * The meta commands follow the same rules, keys starting with "stale" are
+ * hits which are flagged stale along with the win flag. Quiet requests are
+ * only answered if the answer is a hit or an error, and the requested
+ * return flags are echoed with made up values.
+ */
+public class FakeAsciiServer {
+
+  // Maps every byte to one char and back, so values pass through unchanged.
+  private static final String CHARSET = "ISO-8859-1";
+
+  private static final List<String> STORES =
+    Arrays.asList("set", "add", "replace", "append", "prepend");
+
+  private final ServerSocket server;
+  private final ConcurrentMap<String, String[]> items =
+    new ConcurrentHashMap<String, String[]>();
+  private final List<String> gets = new CopyOnWriteArrayList<String>();
+  private final List<String> writes = new CopyOnWriteArrayList<String>();
+  private final AtomicInteger versions = new AtomicInteger();
+  private final CountDownLatch gate = new CountDownLatch(1);
+
+  public FakeAsciiServer() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    Thread acceptor = new Thread("fake memcached") {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Socket s = server.accept();
+            s.setTcpNoDelay(true);
+            answer(s);
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public InetSocketAddress getAddress() {
+    return new InetSocketAddress("127.0.0.1", server.getLocalPort());
+  }
+
+  /**
+   * The get command lines received so far.
+   */
+  public List<String> getGets() {
+    return gets;
+  }
+
+  /**
+   * The store, delete, touch and increment command lines received so far.
+   */
+  public List<String> getWrites() {
+    return writes;
+  }
+
+  /**
+   * The number of version requests received so far.
+   */
+  public int getVersionCount() {
+    return versions.get();
+  }
+
+  /**
+   * Answer the gets of keys starting with "wait".
+   */
+  public void openGate() {
+    gate.countDown();
+  }
+
+  public void close() throws IOException {
+    server.close();
+  }
+
+  private void answer(final Socket s) {
+    Thread t = new Thread("fake memcached connection") {
+      @Override
+      public void run() {
+        try {
+          InputStream in = new BufferedInputStream(s.getInputStream(), 65536);
+          OutputStream out =
+            new BufferedOutputStream(s.getOutputStream(), 65536);
+          String line;
+          while ((line = readLine(in)) != null) {
+            out.write(respond(line, in).getBytes(CHARSET));
+            // Answer pipelined requests with as few writes as possible.
+            if (in.available() == 0) {
+              out.flush();
+            }
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private String respond(String line, InputStream in) throws IOException {
+    if (line.equals("version")) {
+      versions.incrementAndGet();
+      return "VERSION 1.0\r\n";
+    }
+    String[] args = line.split(" ");
+    if (args[0].length() == 2 && args[0].startsWith("m")) {
+      return respondMeta(args, line, in);
+    }
+    boolean noreply = args[args.length - 1].equals("noreply");
+    if (STORES.contains(args[0])) {
+      // <cmd> <key> <flags> <exptime> <bytes> [noreply]
+      writes.add(line);
+      String data = readData(in, Integer.parseInt(args[4]));
+      if (args[1].startsWith("bad")) {
+        return "CLIENT_ERROR bad data chunk\r\n";
+      }
+      items.put(args[1], new String[] {args[2], data});
+      return noreply ? "" : "STORED\r\n";
+    }
+    if (args[0].equals("delete") || args[0].equals("touch")
+        || args[0].equals("incr") || args[0].equals("decr")) {
+      writes.add(line);
+      if (args[0].equals("delete")) {
+        items.remove(args[1]);
+      }
+      return noreply ? "" : args[0].equals("delete") ? "DELETED\r\n"
+        : args[0].equals("touch") ? "TOUCHED\r\n" : "1\r\n";
+    }
+    if (!line.startsWith("get ")) {
+      return "ERROR\r\n";
+    }
+    gets.add(line);
+    StringBuilder sb = new StringBuilder();
+    for (String key : line.substring(4).split(" ")) {
+      if (key.startsWith("hang")) {
+        return "";
+      }
+      if (key.startsWith("wait")) {
+        awaitGate();
+      }
+      String[] item = lookup(key);
+      if (item != null) {
+        sb.append("VALUE ").append(key).append(' ').append(item[0])
+          .append(' ').append(item[1].length()).append("\r\n")
+          .append(item[1]).append("\r\n");
+      }
+    }
+    return sb.append("END\r\n").toString();
+  }
+
+  private String respondMeta(String[] args, String line, InputStream in)
+    throws IOException {
+    if (args[0].equals("mn")) {
+      return "MN\r\n";
+    }
+    String key = args[1];
+    String[] item = lookup(key);
+    boolean quiet = false;
+    boolean value = false;
+    String flags = "0";
+    StringBuilder ret = new StringBuilder();
+    for (int i = 2; i < args.length; i++) {
+      char f = args[i].charAt(0);
+      if (f == 'q') {
+        quiet = true;
+      } else if (f == 'v') {
+        value = true;
+      } else if (f == 'f') {
+        ret.append(" f").append(item == null ? "0" : item[0]);
+      } else if (f == 'F') {
+        flags = args[i].substring(1);
+      } else if (f == 'c') {
+        ret.append(" c1");
+      } else if (f == 'k') {
+        ret.append(" k").append(key);
+      } else if (f == 'O') {
+        ret.append(' ').append(args[i]);
+      }
+    }
+    if (args[0].equals("mg")) {
+      gets.add(line);
+      if (key.startsWith("hang")) {
+        return "";
+      }
+      if (key.startsWith("stale")) {
+        ret.append(" W X");
+        item = new String[] {"0", key};
+      } else if (item == null) {
+        return quiet ? "" : "EN" + ret + "\r\n";
+      }
+      return value ? "VA " + item[1].length() + ret + "\r\n" + item[1]
+        + "\r\n" : "HD" + ret + "\r\n";
+    }
+    writes.add(line);
+    if (args[0].equals("ms")) {
+      // ms <key> <datalen> <flags>*
+      String data = readData(in, Integer.parseInt(args[2]));
+      if (key.startsWith("bad")) {
+        return "CLIENT_ERROR bad data chunk\r\n";
+      }
+      items.put(key, new String[] {flags, data});
+    } else if (args[0].equals("ma")) {
+      return "VA 1" + ret + "\r\n1\r\n";
+    } else if (args[0].equals("md")) {
+      items.remove(key);
+    } else {
+      return "ERROR\r\n";
+    }
+    return quiet ? "" : "HD" + ret + "\r\n";
+  }
+
+  /**
+   * The flags and value of a key, or null on a miss.
+   */
+  private String[] lookup(String key) {
+    String[] item = items.get(key);
+    if (item == null && (key.startsWith("hit") || key.startsWith("wait"))) {
+      item = new String[] {"0", key};
+    }
+    return item;
+  }
+
+  private void awaitGate() throws IOException {
+    try {
+      gate.await();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted waiting for the gate");
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return null;
+      }
+      if (b != '\r') {
+        bos.write(b);
+      }
+    }
+    return bos.toString(CHARSET);
+  }
+
+  /**
+   * Read a data block of the given length and the line end following it.
+   */
+  private static String readData(InputStream in, int length)
+    throws IOException {
+    byte[] data = new byte[length];
+    int off = 0;
+    while (off < length) {
+      int n = in.read(data, off, length - off);
+      if (n < 0) {
+        throw new IOException("Unexpected end of stream");
+      }
+      off += n;
+    }
+    readLine(in);
+    return new String(data, CHARSET);
+  }
+}
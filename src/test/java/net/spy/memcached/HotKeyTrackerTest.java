@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.metrics.NoopMetricCollector;
+
+/**
+ * Test the hot key tracker.
+ */
+public class HotKeyTrackerTest extends TestCase {
+
+  private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+  private final MemcachedNode a =
+      new MockMemcachedNode(InetSocketAddress.createUnresolved("a", 11211));
+  private final MemcachedNode b =
+      new MockMemcachedNode(InetSocketAddress.createUnresolved("b", 11211));
+  private HotKeyTracker tracker;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tracker = new HotKeyTracker(1, 2, 1000, new NoopMetricCollector());
+  }
+
+  public void testNothingBeforeTheFirstWindowEnds() {
+    tracker.record("k", a, 0);
+    assertTrue(tracker.getHotKeys(WINDOW - 1).isEmpty());
+  }
+
+  public void testTopKeysPerNode() {
+    for (int i = 0; i < 100; i++) {
+      tracker.record("hot", a, 0);
+      tracker.record("k" + i, a, 0);
+      if (i % 2 == 0) {
+        tracker.record("warm", a, 0);
+        tracker.record("other", b, 0);
+      }
+    }
+    List<HotKey> keys = tracker.getHotKeys(WINDOW);
+    assertEquals(3, keys.size());
+    assertEquals("hot", keys.get(0).getKey());
+    assertEquals(100.0, keys.get(0).getRate(), 0.0);
+    assertEquals(String.valueOf(a.getSocketAddress()),
+        keys.get(0).getNode());
+    assertEquals("warm", keys.get(1).getKey());
+    assertEquals("other", keys.get(2).getKey());
+    assertEquals(String.valueOf(b.getSocketAddress()),
+        keys.get(2).getNode());
+    assertEquals(50.0, keys.get(2).getRate(), 0.0);
+  }
+
+  public void testRatesScaleWithSampling() {
+    tracker = new HotKeyTracker(10, 2, 1000, new NoopMetricCollector());
+    for (int i = 0; i < 5; i++) {
+      tracker.record("k", a, 0);
+    }
+    List<HotKey> keys = tracker.getHotKeys(2 * WINDOW);
+    assertEquals(1, keys.size());
+    assertEquals(25.0, keys.get(0).getRate(), 0.0);
+  }
+
+  public void testWindowsReset() {
+    tracker.record("old", a, 0);
+    tracker.record("new", a, WINDOW);
+    assertEquals("old", tracker.getHotKeys(WINDOW).get(0).getKey());
+    List<HotKey> keys = tracker.getHotKeys(2 * WINDOW);
+    assertEquals(1, keys.size());
+    assertEquals("new", keys.get(0).getKey());
+  }
+
+  public void testOnlyKeysAboveTheThresholdsAreHot() {
+    for (int i = 0; i < 50; i++) {
+      tracker.record("quiet", b, 0);
+    }
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 200; j++) {
+        tracker.record("even" + i, a, 0);
+      }
+    }
+    for (int i = 0; i < 1000; i++) {
+      tracker.record("hot", a, 0);
+    }
+    assertEquals(3, tracker.getHotKeys(WINDOW).size());
+    assertTrue(tracker.isHot("hot", a));
+    // Below the share of its node.
+    assertFalse(tracker.isHot(tracker.getHotKeys(WINDOW).get(1).getKey(),
+        a));
+    // Below the rate.
+    assertFalse(tracker.isHot("quiet", b));
+  }
+
+  public void testCooledKeysAreReported() {
+    tracker = new HotKeyTracker(1, 2, 1000, 0, 0, new NoopMetricCollector());
+    final List<String> cooled = new ArrayList<String>();
+    tracker.setListener(new HotKeyTracker.Listener() {
+      @Override
+      public void cooled(String key, MemcachedNode node) {
+        assertSame(a, node);
+        cooled.add(key);
+      }
+    });
+    tracker.record("k1", a, 0);
+    tracker.record("k2", a, 0);
+    assertFalse(tracker.isHot("k1", a));
+    tracker.record("k1", a, WINDOW);
+    assertTrue(tracker.isHot("k1", a));
+    assertTrue(tracker.isHot("k2", a));
+    assertFalse(tracker.isHot("k1", b));
+    assertTrue(cooled.isEmpty());
+    tracker.getHotKeys(2 * WINDOW);
+    assertTrue(tracker.isHot("k1", a));
+    assertFalse(tracker.isHot("k2", a));
+    assertEquals(Arrays.asList("k2"), cooled);
+  }
+
+  public void testJmx() throws Exception {
+    tracker.record("k", a, System.nanoTime() - WINDOW);
+    tracker.register();
+    ObjectName name = tracker.getObjectName();
+    assertNotNull(name);
+    try {
+      CompositeData[] keys = (CompositeData[]) ManagementFactory
+          .getPlatformMBeanServer().getAttribute(name, "HotKeys");
+      assertEquals(1, keys.length);
+      assertEquals("k", keys[0].get("key"));
+      assertEquals(1, ManagementFactory.getPlatformMBeanServer()
+          .getAttribute(name, "Sampling"));
+    } finally {
+      tracker.unregister();
+    }
+    assertNull(tracker.getObjectName());
+    assertFalse(ManagementFactory.getPlatformMBeanServer()
+        .isRegistered(name));
+  }
+}
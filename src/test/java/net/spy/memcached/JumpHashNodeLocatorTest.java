@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test the JumpHashNodeLocator.
+ */
+public class JumpHashNodeLocatorTest extends AbstractNodeLocationCase {
+
+  private static final int KEYS = 10000;
+
+  @Override
+  protected void setupNodes(int n) {
+    super.setupNodes(n);
+    locator = new JumpHashNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.KETAMA_HASH);
+  }
+
+  public void testJumpStaysInRange() {
+    for (int buckets = 1; buckets < 50; buckets++) {
+      for (long key = 0; key < 200; key++) {
+        int b = JumpHashNodeLocator.jump(key * 7919, buckets);
+        assertTrue(b >= 0 && b < buckets);
+      }
+    }
+  }
+
+  public void testJumpOnlyMovesToNewBucket() {
+    for (long key = 0; key < KEYS; key++) {
+      int before = JumpHashNodeLocator.jump(key, 10);
+      int after = JumpHashNodeLocator.jump(key, 11);
+      assertTrue(after == before || after == 10);
+    }
+  }
+
+  public void testAll() throws Exception {
+    setupNodes(4);
+    Collection<MemcachedNode> all = locator.getAll();
+    assertEquals(4, all.size());
+    for (MemcachedNode n : nodes) {
+      assertTrue(all.contains(n));
+    }
+  }
+
+  public void testPrimaryClone() throws Exception {
+    setupNodes(4);
+    NodeLocator ro = locator.getReadonlyCopy();
+    for (int i = 0; i < 100; i++) {
+      String k = "key" + i;
+      assertEquals(locator.getPrimary(k).toString(),
+          ro.getPrimary(k).toString());
+    }
+  }
+
+  public void testDistribution() {
+    setupNodes(10);
+    Map<MemcachedNode, Integer> counts = countKeys(locator);
+    int expected = KEYS / nodes.length;
+    for (MemcachedNode n : nodes) {
+      int c = counts.get(n);
+      assertTrue(n + " got " + c + " keys", Math.abs(c - expected)
+          < expected / 5);
+    }
+  }
+
+  public void testKeyMovementOnAdd() {
+    setupNodes(11);
+    List<MemcachedNode> ten = Arrays.asList(nodes).subList(0, 10);
+    NodeLocator before = new JumpHashNodeLocator(ten,
+        DefaultHashAlgorithm.KETAMA_HASH);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String k = "key" + i;
+      MemcachedNode was = before.getPrimary(k);
+      MemcachedNode is = locator.getPrimary(k);
+      if (was != is) {
+        assertSame("Keys may only move onto the new node", nodes[10], is);
+        moved++;
+      }
+    }
+    // Ideal movement is 1/11 of the keys.
+    assertTrue("Moved " + moved, Math.abs(moved - KEYS / 11) < KEYS / 55);
+  }
+
+  public void testKeyMovementOnRemoveLast() {
+    setupNodes(11);
+    NodeLocator after = new JumpHashNodeLocator(
+        Arrays.asList(nodes).subList(0, 10), DefaultHashAlgorithm.KETAMA_HASH);
+    for (int i = 0; i < KEYS; i++) {
+      String k = "key" + i;
+      MemcachedNode was = locator.getPrimary(k);
+      if (was != nodes[10]) {
+        assertSame(was, after.getPrimary(k));
+      }
+    }
+  }
+
+  public void testUpdateLocator() {
+    setupNodes(11);
+    NodeLocator before = new JumpHashNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.KETAMA_HASH);
+    locator.updateLocator(Arrays.asList(nodes).subList(0, 10));
+    assertEquals(10, locator.getAll().size());
+    for (int i = 0; i < 1000; i++) {
+      String k = "key" + i;
+      if (before.getPrimary(k) != nodes[10]) {
+        assertSame(before.getPrimary(k), locator.getPrimary(k));
+      }
+    }
+  }
+
+  public void testSequenceVisitsEveryOtherNodeOnce() {
+    setupNodes(7);
+    for (int i = 0; i < 500; i++) {
+      String k = "key" + i;
+      Set<MemcachedNode> seen = new HashSet<MemcachedNode>();
+      seen.add(locator.getPrimary(k));
+      for (Iterator<MemcachedNode> it = locator.getSequence(k);
+          it.hasNext();) {
+        assertTrue("Duplicate node for " + k, seen.add(it.next()));
+      }
+      assertEquals(nodes.length, seen.size());
+    }
+  }
+
+  public void testSequenceIsDeterministic() {
+    setupNodes(7);
+    for (int i = 0; i < 100; i++) {
+      String k = "key" + i;
+      assertEquals(sequence(locator, k), sequence(locator, k));
+    }
+    assertSequence("dustin", indexes(sequence(locator, "dustin")));
+  }
+
+  public void testSequenceSpreadsFailover() {
+    setupNodes(5);
+    Map<MemcachedNode, Integer> backups =
+        new IdentityHashMap<MemcachedNode, Integer>();
+    int owned = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String k = "key" + i;
+      if (locator.getPrimary(k) == nodes[0]) {
+        owned++;
+        MemcachedNode b = locator.getSequence(k).next();
+        Integer c = backups.get(b);
+        backups.put(b, c == null ? 1 : c + 1);
+      }
+    }
+    assertEquals(4, backups.size());
+    for (int c : backups.values()) {
+      assertTrue(Math.abs(c - owned / 4) < owned / 8);
+    }
+  }
+
+  public void testSeqOnlyOneServer() {
+    setupNodes(1);
+    assertSequence("noelani");
+  }
+
+  public void testSeqWithTwoNodes() {
+    setupNodes(2);
+    int primary = Arrays.asList(nodes).indexOf(locator.getPrimary("dustin"));
+    assertSequence("dustin", 1 - primary);
+  }
+
+  private List<MemcachedNode> sequence(NodeLocator l, String k) {
+    List<MemcachedNode> rv = new ArrayList<MemcachedNode>();
+    for (Iterator<MemcachedNode> it = l.getSequence(k); it.hasNext();) {
+      rv.add(it.next());
+    }
+    return rv;
+  }
+
+  private int[] indexes(List<MemcachedNode> seq) {
+    int[] rv = new int[seq.size()];
+    for (int i = 0; i < rv.length; i++) {
+      rv[i] = Arrays.asList(nodes).indexOf(seq.get(i));
+    }
+    return rv;
+  }
+
+  private Map<MemcachedNode, Integer> countKeys(NodeLocator l) {
+    Map<MemcachedNode, Integer> rv =
+        new IdentityHashMap<MemcachedNode, Integer>();
+    for (MemcachedNode n : l.getAll()) {
+      rv.put(n, 0);
+    }
+    for (int i = 0; i < KEYS; i++) {
+      MemcachedNode n = l.getPrimary("key" + i);
+      rv.put(n, rv.get(n) + 1);
+    }
+    return rv;
+  }
+}
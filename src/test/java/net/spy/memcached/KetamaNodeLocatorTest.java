@@ -30,6 +30,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 
 import org.jmock.Mock;
 
@@ -113,6 +115,34 @@ public class KetamaNodeLocatorTest extends AbstractNodeLocationCase {
         locator.getReadonlyCopy().getPrimary("some other key").toString());
   }
 
+  public void testContinuumMatchesSortedMap() {
+    setupNodes(4);
+    KetamaNodeLocator kl = (KetamaNodeLocator) locator;
+    TreeMap<Long, MemcachedNode> map = kl.getKetamaNodes();
+    assertEquals(4 * 160, map.size());
+
+    List<Long> hashes = new ArrayList<Long>(map.keySet());
+    hashes.add(0L);
+    hashes.add(map.lastKey() + 1);
+    hashes.add(0xffffffffL);
+    Random r = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      hashes.add(r.nextLong() & 0xffffffffL);
+    }
+    for (long h : hashes) {
+      Map.Entry<Long, MemcachedNode> e = map.ceilingEntry(h);
+      MemcachedNode expected = e == null ? map.firstEntry().getValue()
+          : e.getValue();
+      assertSame("Hash " + h, expected, kl.getNodeForKey(h));
+    }
+  }
+
+  public void testEmptyContinuum() {
+    KetamaNodeLocator.Continuum c = new KetamaNodeLocator.Continuum(
+        new TreeMap<Long, MemcachedNode>());
+    assertNull(c.getNodeForKey(42));
+  }
+
   public void testContinuumWrapping() {
     setupNodes(4);
     // This is the method by which I found something that would wrap
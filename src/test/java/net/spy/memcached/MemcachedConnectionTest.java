@@ -23,12 +23,39 @@
 package net.spy.memcached;
 
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.metrics.DummyMetricCollector;
+import net.spy.memcached.metrics.MetricGauge;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationTracer;
+import net.spy.memcached.protocol.BaseOperationImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 
 /**
@@ -54,6 +81,38 @@ public class MemcachedConnectionTest extends TestCase {
     assertNotNull(mcc.connectionsStatus());
   }
 
+  public void testMultipleIOThreads() throws Exception {
+    ConnectionFactory factory = new ConnectionFactoryBuilder()
+      .setIOThreadCount(2).build();
+    List<InetSocketAddress> addresses = AddrUtil.getAddresses(
+      TestConfig.IPV4_ADDR + ":11211 " + TestConfig.IPV4_ADDR + ":11212");
+    Collection<ConnectionObserver> observers =
+      new ArrayList<ConnectionObserver>();
+    MemcachedConnection mcc = new MemcachedConnection(10240, factory, addresses,
+      observers, FailureMode.Retry, new BinaryOperationFactory());
+    Thread second = findThread("Memcached IO #1 over");
+    try {
+      assertNotNull(second);
+      assertTrue(second.isAlive());
+      assertNull(findThread("Memcached IO #2 over"));
+    } finally {
+      mcc.shutdown();
+    }
+    // Shutdown waits for the additional selector threads to finish.
+    assertFalse(second.isAlive());
+  }
+
+  private static Thread findThread(String prefix) {
+    Thread[] threads = new Thread[Thread.activeCount() * 2];
+    int count = Thread.enumerate(threads);
+    for (int i = 0; i < count; i++) {
+      if (threads[i].getName().startsWith(prefix)) {
+        return threads[i];
+      }
+    }
+    return null;
+  }
+
   public void testBelongsToCluster() throws Exception {
     ConnectionFactory factory = new DefaultConnectionFactory();
     Collection<ConnectionObserver> observers =
@@ -73,4 +132,634 @@ public class MemcachedConnectionTest extends TestCase {
     assertTrue(conn.belongsToCluster(node));
     assertFalse(conn.belongsToCluster(node2));
   }
+
+  public void testExpiresUnansweredOperations() throws Exception {
+    // Nothing listens here, so operations are never answered.
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOpTimeout(100)
+        .setOperationTimeoutTick(10).build(),
+      Collections.singletonList(new InetSocketAddress("127.0.0.1", 1)));
+    try {
+      final CountDownLatch fired = new CountDownLatch(1);
+      GetFuture<Object> f = client.asyncGet("key");
+      f.addListener(new GetCompletionListener() {
+        @Override
+        public void onComplete(GetFuture<?> future) {
+          fired.countDown();
+        }
+      });
+      // Nobody waits on the future, the listener fires anyway.
+      assertTrue(fired.await(5, TimeUnit.SECONDS));
+      assertTrue(f.isDone());
+      assertSame(BaseOperationImpl.TIMED_OUT, f.getStatus());
+      try {
+        f.get(0, TimeUnit.MILLISECONDS);
+        fail("Expected the operation to time out");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+      }
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void testExpiryCanBeDisabled() throws Exception {
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOpTimeout(50)
+        .setOperationTimeoutTick(0).build(),
+      Collections.singletonList(new InetSocketAddress("127.0.0.1", 1)));
+    try {
+      GetFuture<Object> f = client.asyncGet("key");
+      Thread.sleep(300);
+      assertFalse(f.isDone());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void testConcurrentAddsAreAllHandled() throws Exception {
+    final FakeAsciiServer server = new FakeAsciiServer();
+    final MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setIOThreadCount(2)
+        .setConnectionsPerNode(4).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      final int perThread = 200;
+      final AtomicInteger misses = new AtomicInteger();
+      final AtomicInteger versions = new AtomicInteger();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 16; i++) {
+        final int id = i;
+        Thread t = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < perThread; j++) {
+              if (client.get("key" + id + "_" + j) == null) {
+                misses.incrementAndGet();
+              }
+            }
+            versions.addAndGet(client.getVersions().size());
+          }
+        };
+        t.start();
+        threads.add(t);
+      }
+      for (Thread t : threads) {
+        t.join(30000);
+      }
+      assertEquals(16 * perThread, misses.get());
+      assertEquals(16, versions.get());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testStagesCompleteFromCallbacks() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertNull(client.getStage("key").toCompletableFuture()
+        .get(5, TimeUnit.SECONDS));
+      assertTrue(client.getBulkStage(Arrays.asList("a", "b"))
+        .toCompletableFuture().get(5, TimeUnit.SECONDS).isEmpty());
+      assertTrue(client.getBulkStage(Collections.<String>emptyList())
+        .toCompletableFuture().get(5, TimeUnit.SECONDS).isEmpty());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testNoReplyWritesCompleteOnceWritten() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setAsciiNoReply(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 100; i++) {
+        sets.add(client.set("key" + i, 0, "value"));
+      }
+      for (Future<Boolean> f : sets) {
+        assertTrue(f.get(5, TimeUnit.SECONDS));
+      }
+      assertTrue(client.delete("key0").get(5, TimeUnit.SECONDS));
+      assertTrue(client.touch("key1", 10).get(5, TimeUnit.SECONDS));
+      // Answered operations still line up with their responses.
+      assertEquals("hit", client.get("hit"));
+
+      assertEquals(102, server.getWrites().size());
+      for (String line : server.getWrites()) {
+        assertTrue(line, line.endsWith(" noreply"));
+      }
+
+      // Mutations wait for the new value instead of taking the noreply
+      // -1 for a missing key and falling back to the default.
+      assertEquals(1L, (long) client.asyncIncr("key2", 1)
+        .get(5, TimeUnit.SECONDS));
+      assertEquals(1L, client.incr("key3", 1, 10));
+      assertEquals("incr key3 1", server.getWrites().get(103));
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testNoReplyFenceConfirmsBatches() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setAsciiNoReply(true)
+        .setNoReplyFence(true).setShouldOptimize(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 100; i++) {
+        sets.add(client.set("key" + i, 0, "value"));
+      }
+      for (Future<Boolean> f : sets) {
+        assertTrue(f.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(100, server.getWrites().size());
+      assertTrue(server.getVersionCount() >= 1);
+      assertTrue(server.getVersionCount() <= 100);
+
+      OperationFuture<Boolean> bad = client.set("bad", 0, "value");
+      assertFalse(bad.get(5, TimeUnit.SECONDS));
+      assertEquals("CLIENT_ERROR bad data chunk",
+        bad.getStatus().getMessage());
+      assertEquals("hit", client.get("hit"));
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testHotKeysAreReplicated() throws Exception {
+    FakeAsciiServer a = new FakeAsciiServer();
+    FakeAsciiServer b = new FakeAsciiServer();
+    final List<Operation> gets = new CopyOnWriteArrayList<Operation>();
+    OperationTracer tracer = new OperationTracer() {
+      @Override
+      public boolean isTraced(Operation op) {
+        return op instanceof GetOperation;
+      }
+
+      @Override
+      public void traced(Operation op, Event event, long nanos) {
+        if (event == Event.ENQUEUED) {
+          gets.add(op);
+        }
+      }
+    };
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOperationTracer(tracer).build(),
+      Arrays.asList(a.getAddress(), b.getAddress()));
+    try {
+      awaitConnected(client, 2);
+      client.setHotKeyReplicas("hitkey", 2);
+      assertTrue(client.set("hitkey", 0, "value").get(5, TimeUnit.SECONDS));
+      client.waitForQueues(5, TimeUnit.SECONDS);
+      assertEquals(1, a.getWrites().size());
+      assertEquals(1, b.getWrites().size());
+      assertTrue(a.getWrites().get(0).startsWith("set hitkey 0 0 5"));
+      assertTrue(b.getWrites().get(0).startsWith("set hitkey 0 0 5"));
+
+      for (int i = 0; i < 100; i++) {
+        assertEquals("value", client.get("hitkey"));
+      }
+      assertFalse(a.getGets().isEmpty());
+      assertFalse(b.getGets().isEmpty());
+      assertEquals(100, a.getGets().size() + b.getGets().size());
+      // The callers' own gets were sent, to either node.
+      assertEquals(100, gets.size());
+      Collection<SocketAddress> handledBy = new HashSet<SocketAddress>();
+      for (Operation op : gets) {
+        handledBy.add(op.getHandlingNode().getSocketAddress());
+      }
+      assertEquals(2, handledBy.size());
+
+      // Replicas which don't hold a key leave its gets to the primary.
+      client.setHotKeyReplicas("misskey", 2);
+      FakeAsciiServer primary = client.getNodeLocator().getPrimary("misskey")
+        .getSocketAddress().equals(a.getAddress()) ? a : b;
+      int primaryGets = primary.getGets().size();
+      for (int i = 0; i < 20; i++) {
+        assertNull(client.get("misskey"));
+      }
+      assertTrue(primary.getGets().size() - primaryGets >= 20);
+
+
+      assertTrue(client.touch("hitkey", 10).get(5, TimeUnit.SECONDS));
+      assertTrue(client.delete("hitkey").get(5, TimeUnit.SECONDS));
+      client.setHotKeyReplicas("hitkey", 1);
+      // Both nodes saw the touch or the deletes keeping the copies in sync.
+      client.waitForQueues(5, TimeUnit.SECONDS);
+      assertEquals(7, a.getWrites().size() + b.getWrites().size());
+      assertTrue(client.getHotKeys().isEmpty());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      a.close();
+      b.close();
+    }
+  }
+
+  public void testRedistributedWritesKeepReplicasInSync() throws Exception {
+    FakeAsciiServer a = new FakeAsciiServer();
+    FakeAsciiServer b = new FakeAsciiServer();
+    ServerSocket closed = new ServerSocket(0);
+    InetSocketAddress dead =
+      new InetSocketAddress("127.0.0.1", closed.getLocalPort());
+    closed.close();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder()
+        .setFailureMode(FailureMode.Redistribute).build(),
+      Arrays.asList(a.getAddress(), b.getAddress(), dead));
+    try {
+      awaitConnected(client, 2);
+      String key = null;
+      for (int i = 0; key == null; i++) {
+        if (dead.equals(client.getNodeLocator().getPrimary("hitkey" + i)
+            .getSocketAddress())) {
+          key = "hitkey" + i;
+        }
+      }
+      client.setHotKeyReplicas(key, 3);
+      assertTrue(client.set(key, 0, "value").get(5, TimeUnit.SECONDS));
+      assertTrue(client.delete(key).get(5, TimeUnit.SECONDS));
+      client.waitForQueues(5, TimeUnit.SECONDS);
+      // Whichever node took the redistributed writes, the other replica
+      // got the set and the delete as well.
+      for (FakeAsciiServer s : Arrays.asList(a, b)) {
+        assertEquals(2, s.getWrites().size());
+        assertTrue(s.getWrites().get(0).startsWith("set " + key + " "));
+        assertEquals("delete " + key, s.getWrites().get(1));
+      }
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      a.close();
+      b.close();
+    }
+  }
+
+  public void testBulkWritesKeepReplicasInSync() throws Exception {
+    FakeAsciiServer a = new FakeAsciiServer();
+    FakeAsciiServer b = new FakeAsciiServer();
+    final List<Operation> deletes = new CopyOnWriteArrayList<Operation>();
+    OperationTracer tracer = new OperationTracer() {
+      @Override
+      public boolean isTraced(Operation op) {
+        return op instanceof DeleteOperation;
+      }
+
+      @Override
+      public void traced(Operation op, Event event, long nanos) {
+        if (event == Event.ENQUEUED) {
+          deletes.add(op);
+        }
+      }
+    };
+    // Bulk mutations only take the bulk path with the binary protocol; the
+    // servers just swallow what they are sent.
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setOperationTracer(tracer).build(),
+      Arrays.asList(a.getAddress(), b.getAddress()));
+    try {
+      awaitConnected(client, 2);
+      client.setHotKeyReplicas("key", 2);
+      SocketAddress replica = client.getNodeLocator().getPrimary("key")
+        .getSocketAddress().equals(a.getAddress()) ? b.getAddress()
+        : a.getAddress();
+
+      client.deleteBulk(Arrays.asList("key", "other"));
+      assertEquals(1, deletes.size());
+      assertEquals(Collections.singleton("key"), new HashSet<String>(
+        ((KeyedOperation) deletes.get(0)).getKeys()));
+      assertEquals(replica,
+        deletes.get(0).getHandlingNode().getSocketAddress());
+
+      client.setBulk(Collections.singletonMap("key", "value"), 0);
+      client.touchBulk(Collections.singletonList("key"), 10);
+      assertEquals(3, deletes.size());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      a.close();
+      b.close();
+    }
+  }
+
+  private static void awaitConnected(MemcachedClient client, int nodes)
+    throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while (client.getAvailableServers().size() < nodes
+        && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(nodes, client.getAvailableServers().size());
+  }
+
+  public void testLatenciesAreRecordedPerTypeAndNode() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder()
+        .setEnableMetrics(MetricType.PERFORMANCE).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertEquals("hit", client.get("hit"));
+      assertTrue(client.set("key", 0, "value").get(5, TimeUnit.SECONDS));
+      assertTrue(client.delete("key").get(5, TimeUnit.SECONDS));
+      assertEquals(2, client.getBulk("hit1", "hit2").size());
+
+      OperationLatencies latencies = client.getOperationLatencies();
+      assertEquals(Collections.singleton(server.getAddress()),
+        latencies.getNodes());
+      for (OperationLatencies.Type type : Arrays.asList(
+          OperationLatencies.Type.GET, OperationLatencies.Type.SET,
+          OperationLatencies.Type.DELETE,
+          OperationLatencies.Type.MULTIGET)) {
+        for (OperationLatencies.Phase phase
+            : OperationLatencies.Phase.values()) {
+          assertEquals(type + " " + phase, 1, latencies.getSnapshot(type,
+            server.getAddress(), phase).getCount());
+        }
+      }
+      assertTrue(latencies.getSnapshot(OperationLatencies.Type.GET,
+        OperationLatencies.Phase.WIRE).getMax() > 0);
+      assertEquals(0, latencies.getSnapshot(OperationLatencies.Type.CAS,
+        OperationLatencies.Phase.WIRE).getCount());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testLatenciesOfConcurrentGets() throws Exception {
+    for (Protocol protocol : Arrays.asList(Protocol.TEXT, Protocol.META)) {
+      assertLatenciesOfConcurrentGets(protocol);
+    }
+  }
+
+  /**
+   * Hold the IO thread after the first get was written, so the gets issued
+   * meanwhile are folded into one operation once it goes on.
+   */
+  private void assertLatenciesOfConcurrentGets(Protocol protocol)
+    throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    OperationTracer tracer = new OperationTracer() {
+      @Override
+      public boolean isTraced(Operation op) {
+        return writing.getCount() > 0;
+      }
+
+      @Override
+      public void traced(Operation op, Event event, long nanos) {
+        if (event == Event.WRITE_COMPLETE && writing.getCount() > 0) {
+          writing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(protocol)
+        .setShouldOptimize(true).setEnableMetrics(MetricType.PERFORMANCE)
+        .setOperationTracer(tracer).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      List<Future<Object>> gets = new ArrayList<Future<Object>>();
+      gets.add(client.asyncGet("hit0"));
+      assertTrue(writing.await(5, TimeUnit.SECONDS));
+      for (int i = 1; i <= 100; i++) {
+        gets.add(client.asyncGet("hit" + i));
+      }
+      Thread.sleep(100);
+      release.countDown();
+      for (int i = 0; i < gets.size(); i++) {
+        assertEquals("hit" + i, gets.get(i).get(5, TimeUnit.SECONDS));
+      }
+      if (protocol == Protocol.TEXT) {
+        // The folded gets were sent as a single command.
+        assertTrue(server.getGets().toString(),
+          server.getGets().size() < gets.size());
+      }
+
+      // The merged operation is recorded after the callbacks it completed.
+      OperationLatencies latencies = client.getOperationLatencies();
+      long end = System.currentTimeMillis() + 5000;
+      while (latencies.getSnapshot(OperationLatencies.Type.GET,
+          OperationLatencies.Phase.CALLBACK).getCount() < gets.size()
+          && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      for (OperationLatencies.Phase phase
+          : OperationLatencies.Phase.values()) {
+        assertEquals(protocol + " " + phase, gets.size(), latencies
+          .getSnapshot(OperationLatencies.Type.GET, phase).getCount());
+        assertEquals(protocol + " " + phase, 0, latencies.getSnapshot(
+          OperationLatencies.Type.MULTIGET, phase).getCount());
+      }
+      // The folded gets waited in the queues while the IO thread was held.
+      assertTrue(latencies.getSnapshot(OperationLatencies.Type.GET,
+        OperationLatencies.Phase.QUEUE).getValueAtPercentile(50)
+        >= TimeUnit.MILLISECONDS.toNanos(100));
+    } finally {
+      release.countDown();
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testSampledOperationsAreTraced() throws Exception {
+    final AtomicInteger sampled = new AtomicInteger();
+    final List<Operation> ops = new ArrayList<Operation>();
+    final List<OperationTracer.Event> events =
+      new ArrayList<OperationTracer.Event>();
+    final List<Long> times = new ArrayList<Long>();
+    OperationTracer tracer = new OperationTracer() {
+      @Override
+      public boolean isTraced(Operation op) {
+        return sampled.getAndIncrement() % 2 == 0;
+      }
+
+      @Override
+      public synchronized void traced(Operation op, Event event,
+          long nanos) {
+        ops.add(op);
+        events.add(event);
+        times.add(nanos);
+      }
+    };
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOperationTracer(tracer).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      final CountDownLatch listened = new CountDownLatch(1);
+      client.asyncGet("hit").addListener(new GetCompletionListener() {
+        @Override
+        public void onComplete(GetFuture<?> future) throws Exception {
+          listened.countDown();
+        }
+      });
+      assertTrue(listened.await(5, TimeUnit.SECONDS));
+      assertEquals("hit2", client.get("hit2"));
+
+      long end = System.currentTimeMillis() + 5000;
+      while (System.currentTimeMillis() < end) {
+        synchronized (tracer) {
+          if (events.size() == OperationTracer.Event.values().length) {
+            break;
+          }
+        }
+        Thread.sleep(10);
+      }
+      synchronized (tracer) {
+        assertEquals(2, sampled.get());
+        List<OperationTracer.Event> all =
+          Arrays.asList(OperationTracer.Event.values());
+        assertEquals(new HashSet<OperationTracer.Event>(all),
+          new HashSet<OperationTracer.Event>(events));
+        // Listeners may finish before the callback returns.
+        int ordered = all.indexOf(OperationTracer.Event.CALLBACK_DONE);
+        assertEquals(all.subList(0, ordered), events.subList(0, ordered));
+        assertEquals(1, new HashSet<Operation>(ops).size());
+        assertEquals(ops.get(0).getCreationTimestamp(),
+          times.get(0).longValue());
+        for (int i = 1; i < ordered; i++) {
+          assertTrue(events.get(i) + " is in order",
+            times.get(i) >= times.get(i - 1));
+        }
+      }
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+
+  public void testNodeGaugesAndHandles() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    DummyMetricCollector collector = new DummyMetricCollector();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setEnableMetrics(MetricType.DEBUG)
+        .setMetricCollector(collector).build(),
+      Collections.singletonList(server.getAddress()));
+    String node = String.valueOf(server.getAddress());
+    try {
+      assertTrue(client.set("key", 0, "value").get(5, TimeUnit.SECONDS));
+      assertEquals("hit", client.get("hit"));
+
+      Map<String, MetricGauge> gauges = collector.getGauges();
+      assertEquals(5, gauges.size());
+      assertEquals(0, gauges.get("[MEM] Input Queue: " + node).getValue());
+      assertEquals(0, gauges.get("[MEM] Write Queue: " + node).getValue());
+      assertEquals(0, gauges.get("[MEM] Read Queue: " + node).getValue());
+      assertEquals(0,
+        gauges.get("[MEM] Bytes To Write: " + node).getValue());
+      assertEquals(0,
+        gauges.get("[MEM] Reconnect Attempts: " + node).getValue());
+      // Updated through the handles resolved by the connection.
+      assertEquals(2, (int) collector.getMetrics()
+        .get("[MEM] Response Rate: Success"));
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+    assertTrue(collector.getGauges().isEmpty());
+  }
+
+  public void testMetaCommandsArePipelined() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.META)
+        .setShouldOptimize(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      Map<String, Object> values =
+        client.getBulk(Arrays.asList("hit1", "miss1", "hit2"));
+      assertEquals(2, values.size());
+      assertEquals("hit1", values.get("hit1"));
+      assertEquals("hit2", values.get("hit2"));
+      assertEquals(3, server.getGets().size());
+      for (String line : server.getGets()) {
+        assertTrue(line, line.startsWith("mg ") && line.contains(" q O"));
+      }
+
+      List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 100; i++) {
+        sets.add(client.set("key" + i, 0, "value"));
+      }
+      for (Future<Boolean> f : sets) {
+        assertTrue(f.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(100, server.getWrites().size());
+      assertTrue(server.getWrites().get(0).startsWith("ms key0 5 F0 T0"));
+
+      assertEquals("hit3", client.get("hit3"));
+      assertNull(client.get("miss2"));
+      assertTrue(client.delete("key1").get(5, TimeUnit.SECONDS));
+      assertEquals(1, client.incr("counter", 1, 0, 0));
+      assertTrue(client.invalidate("key2", 30).get(5, TimeUnit.SECONDS));
+
+      MetaValue<Object> stale =
+        client.asyncMetaGet("stale1", 30, 0).get(5, TimeUnit.SECONDS);
+      assertEquals("stale1", stale.getValue());
+      assertTrue(stale.isStale());
+      assertTrue(stale.isWin());
+      assertFalse(stale.isWinTokenSent());
+      MetaValue<Object> miss =
+        client.asyncMetaGet("miss3", 30, 0).get(5, TimeUnit.SECONDS);
+      assertNull(miss.getValue());
+      assertFalse(miss.isWin());
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
+  public void testWaitingForAComputationTimesOut() throws Exception {
+    FakeAsciiServer server = new FakeAsciiServer();
+    final MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOpTimeout(200).build(),
+      Collections.singletonList(server.getAddress()));
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread loader = new Thread() {
+      @Override
+      public void run() {
+        client.getOrCompute("computed", 60, new Callable<Object>() {
+          public Object call() throws Exception {
+            loading.countDown();
+            release.await();
+            return "value";
+          }
+        });
+      }
+    };
+    try {
+      loader.start();
+      assertTrue(loading.await(5, TimeUnit.SECONDS));
+      try {
+        client.getOrCompute("computed", 60, new Callable<Object>() {
+          public Object call() {
+            throw new AssertionError("Computed twice");
+          }
+        });
+        fail("Expected a timeout");
+      } catch (OperationTimeoutException e) {
+        // pass
+      }
+    } finally {
+      release.countDown();
+      loader.join(5000);
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+      server.close();
+    }
+  }
 }
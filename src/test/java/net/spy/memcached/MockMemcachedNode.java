@@ -32,6 +32,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.BufferPool;
 
 /**
  * A MockMemcachedNode.
@@ -221,4 +222,14 @@ public class MockMemcachedNode implements MemcachedNode {
 
   }
 
+  @Override
+  public BufferPool getBufferPool() {
+    return null;
+  }
+
+  @Override
+  public int getOutstandingOps() {
+    return 0;
+  }
+
 }
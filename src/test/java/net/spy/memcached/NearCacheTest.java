@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.metrics.DummyMetricCollector;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the NearCache.
+ */
+public class NearCacheTest extends TestCase {
+
+  private DummyMetricCollector metrics;
+  private NearCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    metrics = new DummyMetricCollector();
+    metrics.addMeter(NearCache.HIT_METRIC);
+    metrics.addMeter(NearCache.MISS_METRIC);
+    metrics.addMeter(NearCache.EVICTION_METRIC);
+    cache = new NearCache(100000, 60000, metrics, 1);
+  }
+
+  private static CachedData data(int size) {
+    return new CachedData(0, new byte[size], CachedData.MAX_SIZE);
+  }
+
+  private int meter(String name) {
+    Map<String, Integer> m = metrics.getMetrics();
+    return m.get(name);
+  }
+
+  public void testHitAndMiss() {
+    assertNull(cache.get("k"));
+    CachedData d = data(10);
+    cache.put("k", d, 0, cache.stamps());
+    assertSame(d, cache.get("k"));
+    assertEquals(1, meter(NearCache.HIT_METRIC));
+    assertEquals(1, meter(NearCache.MISS_METRIC));
+    assertEquals(1, cache.size());
+  }
+
+  public void testInvalidate() {
+    cache.put("k", data(10), 0, cache.stamps());
+    cache.invalidate("k");
+    assertNull(cache.get("k"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  public void testInvalidationBeatsInFlightRead() {
+    long[] stamps = cache.stamps();
+    cache.invalidate("k");
+    cache.put("k", data(10), 0, stamps);
+    assertNull(cache.get("k"));
+
+    cache.put("k", data(10), 0, cache.stamps());
+    assertNotNull(cache.get("k"));
+  }
+
+  public void testInvalidationOnlyBlocksItsKey() {
+    long[] stamps = cache.stamps();
+    cache.invalidate("other");
+    cache.put("k", data(10), 0, stamps);
+    assertNotNull(cache.get("k"));
+    cache.put("other", data(10), 0, stamps);
+    assertNull(cache.get("other"));
+  }
+
+  public void testForgottenInvalidationsBlockOlderReads() {
+    long[] stamps = cache.stamps();
+    for (int i = 0; i <= NearCache.MAX_INVALIDATIONS; i++) {
+      cache.invalidate("k" + i);
+    }
+    cache.put("k", data(10), 0, stamps);
+    assertNull(cache.get("k"));
+    cache.put("k", data(10), 0, cache.stamps());
+    assertNotNull(cache.get("k"));
+  }
+
+  public void testClear() {
+    long[] stamps = cache.stamps();
+    cache.put("a", data(10), 0, stamps);
+    cache.put("b", data(10), 0, stamps);
+    cache.clear();
+    assertEquals(0, cache.size());
+    cache.put("c", data(10), 0, stamps);
+    assertNull(cache.get("c"));
+  }
+
+  public void testTTL() throws Exception {
+    cache = new NearCache(100000, 20, metrics, 1);
+    cache.put("k", data(10), 0, cache.stamps());
+    assertNotNull(cache.get("k"));
+    Thread.sleep(50);
+    assertNull(cache.get("k"));
+    assertEquals(0, cache.size());
+  }
+
+  public void testExpirationCapsTTL() {
+    // Already expired absolute time.
+    int past = (int) (System.currentTimeMillis() / 1000) - 10;
+    cache.put("k", data(10), past, cache.stamps());
+    assertNull(cache.get("k"));
+    cache.put("k", data(10), -1, cache.stamps());
+    assertNull(cache.get("k"));
+    cache.put("k", data(10), 60, cache.stamps());
+    assertNotNull(cache.get("k"));
+  }
+
+  public void testLRUEviction() {
+    long w = NearCache.weigh("k0", data(100));
+    cache = new NearCache(3 * w, 60000, metrics, 1);
+    cache.put("k0", data(100), 0, cache.stamps());
+    cache.put("k1", data(100), 0, cache.stamps());
+    cache.put("k2", data(100), 0, cache.stamps());
+    // Touch k0 so k1 becomes the eldest.
+    assertNotNull(cache.get("k0"));
+    cache.put("k3", data(100), 0, cache.stamps());
+    assertEquals(3, cache.size());
+    assertNull(cache.get("k1"));
+    assertNotNull(cache.get("k0"));
+    assertNotNull(cache.get("k2"));
+    assertNotNull(cache.get("k3"));
+    assertEquals(1, meter(NearCache.EVICTION_METRIC));
+    assertTrue(cache.getWeight() <= 3 * w);
+  }
+
+  public void testOversizedValueIsNotCached() {
+    cache = new NearCache(1000, 60000, metrics, 1);
+    cache.put("k", data(2000), 0, cache.stamps());
+    assertNull(cache.get("k"));
+    assertEquals(0, meter(NearCache.EVICTION_METRIC));
+  }
+
+  public void testReplaceKeepsWeight() {
+    cache.put("k", data(100), 0, cache.stamps());
+    cache.put("k", data(10), 0, cache.stamps());
+    assertEquals(1, cache.size());
+    assertEquals(NearCache.weigh("k", data(10)), cache.getWeight());
+  }
+
+  public void testSegmentsRoundedUp() {
+    cache = new NearCache(100000, 60000, metrics, 3);
+    assertTrue(cache.toString().contains("segments=4"));
+  }
+
+  public void testInvalidArguments() {
+    try {
+      new NearCache(0, 1000, metrics);
+      fail("Accepted an empty budget");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    try {
+      new NearCache(1000, 0, metrics);
+      fail("Accepted a zero TTL");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testClientServesHitsLocally() throws Exception {
+    // Nothing listens here, so anything not answered locally stays pending.
+    MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setNearCacheMaxBytes(1 << 20)
+          .setNearCacheTTL(60000).setOpTimeout(100).build(),
+        Collections.singletonList(new InetSocketAddress("127.0.0.1", 1)));
+    try {
+      Transcoder<Object> tc = client.getTranscoder();
+      NearCache nc = client.getNearCache();
+      assertNotNull(nc);
+      nc.put("a", tc.encode("value a"), 0, nc.stamps());
+      nc.put("b", tc.encode("value b"), 0, nc.stamps());
+
+      GetFuture<Object> f = client.asyncGet("a");
+      assertTrue(f.isDone());
+      assertEquals("value a", f.get(0, TimeUnit.MILLISECONDS));
+      assertSame(NearCache.HIT_STATUS, f.getStatus());
+
+      BulkFuture<Map<String, Object>> bf = client.asyncGetBulk("a", "b");
+      assertTrue(bf.isDone());
+      Map<String, Object> m = bf.get(0, TimeUnit.MILLISECONDS);
+      assertEquals("value a", m.get("a"));
+      assertEquals("value b", m.get("b"));
+
+      // Only the missing key goes to the network.
+      BulkFuture<Map<String, Object>> partial =
+          client.asyncGetBulk(Arrays.asList("a", "c"));
+      assertFalse(partial.isDone());
+      assertEquals("value a", partial.getSome(10, TimeUnit.MILLISECONDS)
+          .get("a"));
+
+      client.delete("a");
+      client.set("b", 0, "other");
+      assertNull(nc.get("a"));
+      assertNull(nc.get("b"));
+    } finally {
+      client.shutdown(0, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test spreading operations over several connections to a server.
+ */
+public class PooledMemcachedNodeTest extends TestCase {
+
+  private static final InetSocketAddress ADDR =
+    new InetSocketAddress("127.0.0.1", 11211);
+
+  private static PooledMemcachedNode pool(PooledMemcachedNode.Selection s,
+      MemcachedNode... nodes) {
+    return new PooledMemcachedNode(ADDR, nodes, s, false);
+  }
+
+  public void testRoundRobin() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    Conn c = new Conn();
+    PooledMemcachedNode p =
+      pool(PooledMemcachedNode.Selection.ROUND_ROBIN, a, b, c);
+    Map<MemcachedNode, Integer> counts = new HashMap<MemcachedNode, Integer>();
+    for (int i = 0; i < 300; i++) {
+      MemcachedNode n = p.select();
+      Integer count = counts.get(n);
+      counts.put(n, count == null ? 1 : count + 1);
+    }
+    assertEquals(100, counts.get(a).intValue());
+    assertEquals(100, counts.get(b).intValue());
+    assertEquals(100, counts.get(c).intValue());
+  }
+
+  public void testLeastOutstanding() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    Conn c = new Conn();
+    a.outstanding = 5;
+    b.outstanding = 2;
+    c.outstanding = 7;
+    PooledMemcachedNode p =
+      pool(PooledMemcachedNode.Selection.LEAST_OUTSTANDING, a, b, c);
+    for (int i = 0; i < 10; i++) {
+      assertSame(b, p.select());
+    }
+    b.outstanding = 9;
+    assertSame(a, p.select());
+  }
+
+  public void testSkipsInactiveConnections() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    Conn c = new Conn();
+    a.active = false;
+    c.authenticated = false;
+    for (PooledMemcachedNode.Selection s
+        : PooledMemcachedNode.Selection.values()) {
+      PooledMemcachedNode p = pool(s, a, b, c);
+      for (int i = 0; i < 10; i++) {
+        assertSame(b, p.select());
+      }
+    }
+  }
+
+  public void testSpreadsWhileAllAreDown() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    a.active = false;
+    b.active = false;
+    PooledMemcachedNode p =
+      pool(PooledMemcachedNode.Selection.LEAST_OUTSTANDING, a, b);
+    assertFalse(p.isActive());
+    assertNotSame(p.select(), p.select());
+    b.active = true;
+    assertTrue(p.isActive());
+    assertSame(b, p.select());
+  }
+
+  public void testAggregates() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    a.outstanding = 3;
+    b.outstanding = 4;
+    PooledMemcachedNode p =
+      pool(PooledMemcachedNode.Selection.ROUND_ROBIN, a, b);
+    assertSame(ADDR, p.getSocketAddress());
+    assertEquals(7, p.getOutstandingOps());
+    assertEquals(2, p.getConnections().size());
+  }
+
+  public void testDelegatesToConnections() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    AsciiOperationFactory f = new AsciiOperationFactory();
+    a.queued.add(f.noop(null));
+    b.queued.add(f.noop(null));
+    b.queued.add(f.noop(null));
+    PooledMemcachedNode p =
+      pool(PooledMemcachedNode.Selection.ROUND_ROBIN, a, b);
+    p.setupResend();
+    assertEquals(1, a.resends);
+    assertEquals(1, b.resends);
+    assertEquals(3, p.destroyInputQueue().size());
+    assertNull(p.getChannel());
+    assertEquals(a.getSelectionOps(), p.getSelectionOps());
+  }
+
+  public void testConnectedNeedingAuth() {
+    Conn a = new Conn();
+    Conn b = new Conn();
+    PooledMemcachedNode p = new PooledMemcachedNode(ADDR,
+      new MemcachedNode[] {a, b},
+      PooledMemcachedNode.Selection.ROUND_ROBIN, true);
+    p.connected(b);
+    p.connected(a);
+    assertSame(b, p.pollConnected());
+    assertSame(a, p.pollConnected());
+    assertNull(p.pollConnected());
+
+    PooledMemcachedNode noAuth =
+      pool(PooledMemcachedNode.Selection.ROUND_ROBIN, a, b);
+    noAuth.connected(a);
+    assertNull(noAuth.pollConnected());
+  }
+
+  public void testConnectionOpensAllConnections() throws Exception {
+    ServerSocket server =
+      new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    server.setSoTimeout(5000);
+    ConnectionFactory factory = new ConnectionFactoryBuilder()
+      .setConnectionsPerNode(3).setIOThreadCount(2).build();
+    Collection<ConnectionObserver> observers =
+      new ArrayList<ConnectionObserver>();
+    MemcachedConnection mcc = new MemcachedConnection(10240, factory,
+      Collections.singletonList(
+        (InetSocketAddress) server.getLocalSocketAddress()),
+      observers, FailureMode.Redistribute, new AsciiOperationFactory());
+    List<Socket> accepted = new ArrayList<Socket>();
+    try {
+      for (int i = 0; i < 3; i++) {
+        accepted.add(server.accept());
+      }
+      Collection<MemcachedNode> all = mcc.getLocator().getAll();
+      assertEquals(1, all.size());
+      MemcachedNode node = all.iterator().next();
+      assertTrue(node instanceof PooledMemcachedNode);
+      List<MemcachedNode> conns =
+        ((PooledMemcachedNode) node).getConnections();
+      assertEquals(3, conns.size());
+      assertEquals(3, new HashSet<MemcachedNode>(conns).size());
+      for (MemcachedNode c : conns) {
+        assertEquals(server.getLocalSocketAddress(), c.getSocketAddress());
+      }
+      assertNotNull(mcc.connectionsStatus());
+    } finally {
+      mcc.shutdown();
+      for (Socket s : accepted) {
+        s.close();
+      }
+      server.close();
+    }
+  }
+
+  private static final class Conn extends MockMemcachedNode {
+    private boolean active = true;
+    private boolean authenticated = true;
+    private int outstanding = 0;
+    private int resends = 0;
+    private final List<Operation> queued = new ArrayList<Operation>();
+
+    Conn() {
+      super(ADDR);
+    }
+
+    @Override
+    public void setupResend() {
+      resends++;
+    }
+
+    @Override
+    public Collection<Operation> destroyInputQueue() {
+      return queued;
+    }
+
+    @Override
+    public boolean isActive() {
+      return active;
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+      return authenticated;
+    }
+
+    @Override
+    public int getOutstandingOps() {
+      return outstanding;
+    }
+
+    // Connections of a pool share their address but are distinct.
+    @Override
+    public boolean equals(Object o) {
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+}
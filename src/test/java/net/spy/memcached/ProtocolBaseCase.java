@@ -29,15 +29,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
@@ -417,6 +421,85 @@ public abstract class ProtocolBaseCase extends ClientBaseCase {
     assertEquals("val2", vals.get("test2"));
   }
 
+  public void testStages() throws Exception {
+    assertNull(client.getStage("stage1").toCompletableFuture().get());
+    assertTrue(client.setStage("stage1", 5, "val1").toCompletableFuture()
+        .get());
+    assertEquals("val1", client.getStage("stage1").toCompletableFuture()
+        .get());
+
+    long cas = client.gets("stage1").getCas();
+    assertSame(CASResponse.OK, client.casStage("stage1", cas, 5, "val2")
+        .toCompletableFuture().get());
+    assertSame(CASResponse.EXISTS, client.casStage("stage1", cas, 5, "val3")
+        .toCompletableFuture().get());
+
+    Map<String, Object> vals = client.getBulkStage(
+        Arrays.asList("stage1", "stage2")).toCompletableFuture().get();
+    assertEquals(1, vals.size());
+    assertEquals("val2", vals.get("stage1"));
+
+    assertTrue(client.deleteStage("stage1").toCompletableFuture().get());
+    assertFalse(client.deleteStage("stage1").toCompletableFuture().get());
+
+    assertEquals(-1L, (long) client.incrStage("stage3", 1)
+        .toCompletableFuture().get());
+    client.set("stage3", 5, "10").get();
+    assertEquals(15L, (long) client.incrStage("stage3", 5)
+        .toCompletableFuture().get());
+  }
+
+  public void testBulkMutations() throws Exception {
+    Map<String, Object> items = new HashMap<String, Object>();
+    items.put("bulk1", "val1");
+    items.put("bulk2", "10");
+    Map<String, OperationStatus> st = client.setBulk(items, 5).get();
+    assertEquals(2, st.size());
+    assertTrue(st.get("bulk1").isSuccess());
+    assertTrue(st.get("bulk2").isSuccess());
+    assertEquals(items, client.getBulk(items.keySet()));
+
+    st = client.incrBulk(Arrays.asList("bulk2", "bulk3"), 5).get();
+    assertTrue(st.get("bulk2").isSuccess());
+    assertFalse(st.get("bulk3").isSuccess());
+    assertEquals("15", client.get("bulk2"));
+
+    st = client.deleteBulk(Arrays.asList("bulk1", "bulk2", "bulk3")).get();
+    assertTrue(st.get("bulk1").isSuccess());
+    assertTrue(st.get("bulk2").isSuccess());
+    assertSame(StatusCode.ERR_NOT_FOUND, st.get("bulk3").getStatusCode());
+    assertEquals(0, client.getBulk(items.keySet()).size());
+  }
+
+  public void testGetOrCompute() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    Callable<String> loader = new Callable<String>() {
+      public String call() {
+        return "computed" + calls.incrementAndGet();
+      }
+    };
+    assertEquals("computed1", client.getOrCompute("compute1", 60, loader));
+    assertEquals("computed1", client.getOrCompute("compute1", 60, loader));
+    assertEquals(1, calls.get());
+
+    client.set("compute2", 5, "plain").get();
+    assertEquals("plain", client.getOrCompute("compute2", 60, loader));
+    assertEquals(1, calls.get());
+  }
+
+  public void testStagesCompose() throws Exception {
+    assertEquals("val1!", client.setStage("stage1", 5, "val1")
+        .thenCompose(new Function<Boolean, CompletionStage<Object>>() {
+          public CompletionStage<Object> apply(Boolean stored) {
+            return client.getStage("stage1");
+          }
+        }).thenApply(new Function<Object, String>() {
+          public String apply(Object v) {
+            return v + "!";
+          }
+        }).toCompletableFuture().get());
+  }
+
   public void testGetBulkVararg() throws Exception {
     assertEquals(0, client.getBulk("test1", "test2", "test3").size());
     client.set("test1", 5, "val1");
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test the RendezvousNodeLocator.
+ */
+public class RendezvousNodeLocatorTest extends AbstractNodeLocationCase {
+
+  private static final int KEYS = 10000;
+
+  @Override
+  protected void setupNodes(int n) {
+    setupNodes(n, Collections.<InetSocketAddress, Integer>emptyMap());
+  }
+
+  private void setupNodes(int n, Map<InetSocketAddress, Integer> weights) {
+    super.setupNodes(n);
+    for (int i = 0; i < nodeMocks.length; i++) {
+      nodeMocks[i].expects(atLeastOnce()).method("getSocketAddress")
+          .will(returnValue(address(i)));
+    }
+    locator = new RendezvousNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.KETAMA_HASH, weights);
+  }
+
+  private static InetSocketAddress address(int i) {
+    return InetSocketAddress.createUnresolved("127.0.0.1", 10000 + i);
+  }
+
+  public void testAll() throws Exception {
+    setupNodes(4);
+    Collection<MemcachedNode> all = locator.getAll();
+    assertEquals(4, all.size());
+    for (MemcachedNode n : nodes) {
+      assertTrue(all.contains(n));
+    }
+  }
+
+  public void testPrimaryClone() throws Exception {
+    setupNodes(4);
+    NodeLocator ro = locator.getReadonlyCopy();
+    for (int i = 0; i < 100; i++) {
+      String k = "key" + i;
+      assertEquals(locator.getPrimary(k).toString(),
+          ro.getPrimary(k).toString());
+    }
+  }
+
+  public void testDistribution() {
+    setupNodes(10);
+    Map<MemcachedNode, Integer> counts = countKeys(locator);
+    int expected = KEYS / nodes.length;
+    for (MemcachedNode n : nodes) {
+      int c = counts.get(n);
+      assertTrue(n + " got " + c + " keys", Math.abs(c - expected)
+          < expected / 5);
+    }
+  }
+
+  public void testWeightedDistribution() {
+    Map<InetSocketAddress, Integer> weights =
+        new HashMap<InetSocketAddress, Integer>();
+    weights.put(address(0), 3);
+    weights.put(address(1), 1);
+    setupNodes(2, weights);
+    Map<MemcachedNode, Integer> counts = countKeys(locator);
+    int heavy = counts.get(nodes[0]);
+    // Three quarters of the keys should land on the heavier node.
+    assertTrue("Heavy node got " + heavy, Math.abs(heavy - KEYS * 3 / 4)
+        < KEYS / 20);
+  }
+
+  public void testInvalidWeight() {
+    Map<InetSocketAddress, Integer> weights =
+        new HashMap<InetSocketAddress, Integer>();
+    weights.put(address(1), 0);
+    try {
+      setupNodes(2, weights);
+      fail("Accepted a zero weight");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testKeyMovementOnAdd() {
+    setupNodes(11);
+    NodeLocator before = new RendezvousNodeLocator(
+        Arrays.asList(nodes).subList(0, 10), DefaultHashAlgorithm.KETAMA_HASH);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String k = "key" + i;
+      MemcachedNode was = before.getPrimary(k);
+      MemcachedNode is = locator.getPrimary(k);
+      if (was != is) {
+        assertSame("Keys may only move onto the new node", nodes[10], is);
+        moved++;
+      }
+    }
+    // Ideal movement is 1/11 of the keys.
+    assertTrue("Moved " + moved, Math.abs(moved - KEYS / 11) < KEYS / 55);
+  }
+
+  public void testKeyMovementOnRemoveFromMiddle() {
+    setupNodes(10);
+    List<MemcachedNode> without = new ArrayList<MemcachedNode>(
+        Arrays.asList(nodes));
+    without.remove(4);
+    NodeLocator after = new RendezvousNodeLocator(without,
+        DefaultHashAlgorithm.KETAMA_HASH);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String k = "key" + i;
+      MemcachedNode was = locator.getPrimary(k);
+      if (was == nodes[4]) {
+        moved++;
+      } else {
+        assertSame(was, after.getPrimary(k));
+      }
+    }
+    assertTrue("Moved " + moved, Math.abs(moved - KEYS / 10) < KEYS / 50);
+  }
+
+  public void testSequenceMatchesRemoval() {
+    setupNodes(6);
+    for (int i = 0; i < 500; i++) {
+      String k = "key" + i;
+      List<MemcachedNode> remaining = new ArrayList<MemcachedNode>(
+          Arrays.asList(nodes));
+      remaining.remove(locator.getPrimary(k));
+      for (Iterator<MemcachedNode> it = locator.getSequence(k);
+          it.hasNext();) {
+        // Each failover node is where the key would live without the nodes
+        // returned before it.
+        MemcachedNode expected = new RendezvousNodeLocator(remaining,
+            DefaultHashAlgorithm.KETAMA_HASH).getPrimary(k);
+        MemcachedNode n = it.next();
+        assertSame(expected, n);
+        remaining.remove(n);
+      }
+      assertTrue(remaining.isEmpty());
+    }
+  }
+
+  public void testSequenceVisitsEveryOtherNodeOnce() {
+    setupNodes(7);
+    for (int i = 0; i < 500; i++) {
+      String k = "key" + i;
+      Set<MemcachedNode> seen = new HashSet<MemcachedNode>();
+      seen.add(locator.getPrimary(k));
+      for (Iterator<MemcachedNode> it = locator.getSequence(k);
+          it.hasNext();) {
+        assertTrue("Duplicate node for " + k, seen.add(it.next()));
+      }
+      assertEquals(nodes.length, seen.size());
+    }
+  }
+
+  public void testUpdateLocator() {
+    setupNodes(5);
+    Set<MemcachedNode> owned = new HashSet<MemcachedNode>();
+    locator.updateLocator(Arrays.asList(nodes).subList(0, 3));
+    assertEquals(3, locator.getAll().size());
+    for (int i = 0; i < 1000; i++) {
+      owned.add(locator.getPrimary("key" + i));
+    }
+    assertEquals(3, owned.size());
+    assertFalse(owned.contains(nodes[3]));
+    assertFalse(owned.contains(nodes[4]));
+  }
+
+  public void testSeqOnlyOneServer() {
+    setupNodes(1);
+    assertSequence("noelani");
+  }
+
+  public void testSeqWithTwoNodes() {
+    setupNodes(2);
+    int primary = Arrays.asList(nodes).indexOf(locator.getPrimary("dustin"));
+    assertSequence("dustin", 1 - primary);
+  }
+
+  private Map<MemcachedNode, Integer> countKeys(NodeLocator l) {
+    Map<MemcachedNode, Integer> rv =
+        new IdentityHashMap<MemcachedNode, Integer>();
+    for (MemcachedNode n : l.getAll()) {
+      rv.put(n, 0);
+    }
+    for (int i = 0; i < KEYS; i++) {
+      MemcachedNode n = l.getPrimary("key" + i);
+      rv.put(n, rv.get(n) + 1);
+    }
+    return rv;
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the completion of an OperationCompletableFuture from its operations.
+ */
+public class OperationCompletableFutureTest extends TestCase {
+
+  private OperationCompletableFuture<String> future;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    future = new OperationCompletableFuture<String>();
+  }
+
+  private Operation op(final String value) {
+    return new AsciiOperationFactory().get("key", new GetOperation.Callback() {
+      public void gotData(String key, int flags, byte[] data) {
+        // ignored
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        future.operationsComplete(value);
+      }
+    });
+  }
+
+  public void testCompletesWithValue() throws Exception {
+    future.setOperation(op("a"));
+    assertTrue(future.operationsComplete("a"));
+    assertEquals("a", future.get());
+    assertFalse(future.operationsComplete("b"));
+    assertEquals("a", future.get());
+  }
+
+  public void testCancelledOperation() throws Exception {
+    Operation op = op("a");
+    future.setOperation(op);
+    op.cancel();
+    assertTrue(future.isCancelled());
+    try {
+      future.get();
+      fail("Expected cancellation");
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+
+  public void testCancelCancelsOperations() {
+    Operation a = op("a");
+    Operation b = op("b");
+    future.setOperations(Arrays.asList(a, b));
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertTrue(a.isCancelled());
+    assertTrue(b.isCancelled());
+  }
+
+  public void testTimedOutOperation() throws Exception {
+    Operation op = op("a");
+    future.setOperation(op);
+    op.timeOut();
+    assertTrue(future.isCompletedExceptionally());
+    try {
+      future.get();
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+  }
+
+  public void testAnyFailedOperationFailsTheFuture() throws Exception {
+    Operation ok = op("a");
+    Operation timedOut = op("b");
+    future.setOperations(Arrays.asList(ok, timedOut));
+    timedOut.timeOut();
+    assertTrue(future.isCompletedExceptionally());
+  }
+}
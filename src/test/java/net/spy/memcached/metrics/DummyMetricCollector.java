@@ -31,9 +31,11 @@ import java.util.HashMap;
 public class DummyMetricCollector implements MetricCollector {
 
   private HashMap<String, Integer> metrics;
+  private HashMap<String, MetricGauge> gauges;
 
   public DummyMetricCollector() {
     metrics = new HashMap<String, Integer>();
+    gauges = new HashMap<String, MetricGauge>();
   }
 
   @Override
@@ -96,6 +98,55 @@ public class DummyMetricCollector implements MetricCollector {
     metrics.put(name, metrics.get(name) + amount);
   }
 
+  @Override
+  public CounterHandle getCounter(final String name) {
+    return new CounterHandle() {
+      @Override
+      public void increment(int amount) {
+        incrementCounter(name, amount);
+      }
+
+      @Override
+      public void decrement(int amount) {
+        decrementCounter(name, amount);
+      }
+    };
+  }
+
+  @Override
+  public MeterHandle getMeter(final String name) {
+    return new MeterHandle() {
+      @Override
+      public void mark() {
+        markMeter(name);
+      }
+    };
+  }
+
+  @Override
+  public HistogramHandle getHistogram(final String name) {
+    return new HistogramHandle() {
+      @Override
+      public void update(int amount) {
+        updateHistogram(name, amount);
+      }
+    };
+  }
+
+  @Override
+  public void addGauge(String name, MetricGauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  @Override
+  public void removeGauge(String name) {
+    gauges.remove(name);
+  }
+
+  public HashMap<String, MetricGauge> getGauges() {
+    return gauges;
+  }
+
   public HashMap<String, Integer> getMetrics() {
     return metrics;
   }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the latency histogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testBucketsStayWithinOnePercent() {
+    for (long v = 1; v < LatencyHistogram.MAX_VALUE; v = v * 3 + 1) {
+      int i = LatencyHistogram.index(v);
+      assertTrue(LatencyHistogram.lowestValue(i) <= v);
+      assertTrue(LatencyHistogram.highestValue(i) >= v);
+      assertTrue(LatencyHistogram.highestValue(i)
+          - LatencyHistogram.lowestValue(i) <= v / 100);
+    }
+    assertEquals(LatencyHistogram.BUCKETS - 1,
+        LatencyHistogram.index(Long.MAX_VALUE));
+    assertEquals(0, LatencyHistogram.index(-5));
+  }
+
+  public void testPercentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      h.record(i * 1000L);
+    }
+    LatencyHistogram.Snapshot s = h.snapshot();
+    assertEquals(1000, s.getCount());
+    assertEquals(500000, s.getValueAtPercentile(50), 5000);
+    assertEquals(990000, s.getValueAtPercentile(99), 9900);
+    assertEquals(999000, s.getValueAtPercentile(99.9), 9990);
+    assertEquals(1000000, s.getMax(), 10000);
+    assertEquals(500500, s.getMean(), 5005);
+  }
+
+  public void testMerge() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    b.record(20);
+    b.record(30);
+    LatencyHistogram.Snapshot s = a.snapshot().merge(b.snapshot());
+    assertEquals(3, s.getCount());
+    assertEquals(10, s.getValueAtPercentile(0));
+    assertEquals(30, s.getMax());
+    assertEquals(1, a.snapshot().getCount());
+  }
+
+  public void testEmpty() {
+    LatencyHistogram.Snapshot s = new LatencyHistogram().snapshot();
+    assertEquals(0, s.getCount());
+    assertEquals(0, s.getValueAtPercentile(99));
+    assertEquals(0, s.getMax());
+    assertEquals(0.0, s.getMean(), 0.0);
+  }
+}
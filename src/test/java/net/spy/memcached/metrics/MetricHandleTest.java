@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the metric handles of the collectors.
+ */
+public class MetricHandleTest extends TestCase {
+
+  public void testAbstractHandlesUpdateByName() {
+    final Map<String, Integer> updates = new HashMap<String, Integer>();
+    MetricCollector collector = new AbstractMetricCollector() {
+      private void add(String name, int amount) {
+        Integer old = updates.get(name);
+        updates.put(name, (old == null ? 0 : old) + amount);
+      }
+
+      @Override
+      public void addCounter(String name) {
+        return;
+      }
+
+      @Override
+      public void removeCounter(String name) {
+        return;
+      }
+
+      @Override
+      public void incrementCounter(String name, int amount) {
+        add(name, amount);
+      }
+
+      @Override
+      public void decrementCounter(String name, int amount) {
+        add(name, -amount);
+      }
+
+      @Override
+      public void addMeter(String name) {
+        return;
+      }
+
+      @Override
+      public void removeMeter(String name) {
+        return;
+      }
+
+      @Override
+      public void markMeter(String name) {
+        add(name, 1);
+      }
+
+      @Override
+      public void addHistogram(String name) {
+        return;
+      }
+
+      @Override
+      public void removeHistogram(String name) {
+        return;
+      }
+
+      @Override
+      public void updateHistogram(String name, int amount) {
+        add(name, amount);
+      }
+    };
+    CounterHandle counter = collector.getCounter("c");
+    counter.increment(3);
+    counter.decrement(1);
+    collector.getMeter("m").mark();
+    collector.getHistogram("h").update(7);
+    assertEquals(2, (int) updates.get("c"));
+    assertEquals(1, (int) updates.get("m"));
+    assertEquals(7, (int) updates.get("h"));
+  }
+
+  public void testNoopHandles() {
+    MetricCollector collector = new NoopMetricCollector();
+    assertSame(NoopMetricHandle.INSTANCE, collector.getCounter("c"));
+    assertSame(NoopMetricHandle.INSTANCE, collector.getMeter("m"));
+    assertSame(NoopMetricHandle.INSTANCE, collector.getHistogram("h"));
+    collector.addGauge("g", new MetricGauge() {
+      @Override
+      public long getValue() {
+        throw new AssertionError("Gauges of the noop collector are not read");
+      }
+    });
+  }
+
+  public void testUnregisteredMetricsHaveNoopHandles() {
+    System.setProperty("net.spy.metrics.reporter.interval", "3600");
+    try {
+      DefaultMetricCollector collector = new DefaultMetricCollector();
+      assertSame(NoopMetricHandle.INSTANCE, collector.getMeter("m"));
+      collector.addMeter("m");
+      assertNotSame(NoopMetricHandle.INSTANCE, collector.getMeter("m"));
+      collector.getMeter("m").mark();
+    } finally {
+      System.clearProperty("net.spy.metrics.reporter.interval");
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the lock-free MPSC operation queue.
+ */
+public class MpscOperationQueueTest extends TestCase {
+
+  private static Operation op() {
+    return new AsciiOperationFactory().noop(new OperationCallback() {
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    });
+  }
+
+  public void testFactory() {
+    BlockingQueue<Operation> q = new MpscOperationQueueFactory(3).create();
+    assertTrue(q instanceof MpscOperationQueue);
+    assertEquals(3, q.remainingCapacity());
+  }
+
+  public void testInvalidCapacity() {
+    try {
+      new MpscOperationQueue(0);
+      fail("Accepted a zero capacity");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testFifoAndBound() {
+    MpscOperationQueue q = new MpscOperationQueue(3);
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+    assertNull(q.peek());
+
+    Operation a = op();
+    Operation b = op();
+    Operation c = op();
+    assertTrue(q.offer(a));
+    assertTrue(q.offer(b));
+    assertTrue(q.offer(c));
+    // Capacity is honoured exactly even though the ring is rounded up.
+    assertFalse(q.offer(op()));
+    assertEquals(3, q.size());
+    assertEquals(0, q.remainingCapacity());
+
+    assertSame(a, q.peek());
+    assertSame(a, q.poll());
+    assertTrue(q.offer(a));
+    assertSame(b, q.poll());
+    assertSame(c, q.poll());
+    assertSame(a, q.poll());
+    assertNull(q.poll());
+    assertEquals(0, q.size());
+  }
+
+  public void testWrapsAround() {
+    MpscOperationQueue q = new MpscOperationQueue(2);
+    for (int i = 0; i < 100; i++) {
+      Operation o = op();
+      assertTrue(q.offer(o));
+      assertSame(o, q.poll());
+    }
+    assertTrue(q.isEmpty());
+  }
+
+  public void testDrainToAndIterator() {
+    MpscOperationQueue q = new MpscOperationQueue(8);
+    List<Operation> added = new ArrayList<Operation>();
+    for (int i = 0; i < 5; i++) {
+      Operation o = op();
+      added.add(o);
+      q.add(o);
+    }
+    List<Operation> seen = new ArrayList<Operation>();
+    for (Operation o : q) {
+      seen.add(o);
+    }
+    assertEquals(added, seen);
+
+    List<Operation> drained = new ArrayList<Operation>();
+    assertEquals(2, q.drainTo(drained, 2));
+    assertEquals(added.subList(0, 2), drained);
+    assertEquals(3, q.drainTo(drained));
+    assertEquals(added, drained);
+    assertEquals(0, q.drainTo(drained));
+  }
+
+  public void testTimedOfferHonoursTimeout() throws Exception {
+    MpscOperationQueue q = new MpscOperationQueue(1);
+    assertTrue(q.offer(op(), 10, TimeUnit.MILLISECONDS));
+    long start = System.nanoTime();
+    assertFalse(q.offer(op(), 50, TimeUnit.MILLISECONDS));
+    long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Gave up after " + took + "ms", took >= 50);
+    assertTrue("Blocked for " + took + "ms", took < 5000);
+  }
+
+  public void testTimedOfferSucceedsOnceDrained() throws Exception {
+    final MpscOperationQueue q = new MpscOperationQueue(1);
+    q.add(op());
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          return;
+        }
+        q.poll();
+      }
+    };
+    consumer.start();
+    Operation o = op();
+    assertTrue(q.offer(o, 5, TimeUnit.SECONDS));
+    consumer.join();
+    assertSame(o, q.poll());
+  }
+
+  public void testInterruptedOffer() {
+    MpscOperationQueue q = new MpscOperationQueue(1);
+    q.add(op());
+    Thread.currentThread().interrupt();
+    try {
+      q.offer(op(), 1, TimeUnit.SECONDS);
+      fail("Expected interruption");
+    } catch (InterruptedException e) {
+      // expected
+    }
+  }
+
+  public void testConcurrentProducers() throws Exception {
+    final int producers = 8;
+    final int perProducer = 5000;
+    final MpscOperationQueue q = new MpscOperationQueue(64);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger failures = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < producers; i++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < perProducer; j++) {
+              if (!q.offer(op(), 10, TimeUnit.SECONDS)) {
+                failures.incrementAndGet();
+              }
+            }
+          } catch (InterruptedException e) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+
+    start.countDown();
+    Set<Operation> received = new HashSet<Operation>();
+    List<Operation> batch = new ArrayList<Operation>();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (received.size() < producers * perProducer
+        && System.currentTimeMillis() < deadline) {
+      batch.clear();
+      q.drainTo(batch, 16);
+      received.addAll(batch);
+      assertTrue(q.size() <= 64);
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(producers * perProducer, received.size());
+    assertTrue(q.isEmpty());
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.metrics.AbstractMetricCollector;
+
+/**
+ * Test the request buffer pool.
+ */
+public class BufferPoolTest extends TestCase {
+
+  private CountingCollector metrics;
+  private BufferPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    metrics = new CountingCollector();
+    pool = new BufferPool(1024, 2, metrics);
+  }
+
+  public void testBorrowLimitsToSize() {
+    ByteBuffer b = pool.borrow(100);
+    assertEquals(0, b.position());
+    assertEquals(100, b.limit());
+    assertEquals(128, b.capacity());
+    assertEquals(64, pool.borrow(1).capacity());
+    assertEquals(1024, pool.borrow(1024).capacity());
+  }
+
+  public void testReleasedBufferIsReused() {
+    ByteBuffer b = pool.borrow(100);
+    b.put((byte) 1);
+    pool.release(b);
+    assertEquals(1, pool.idle(100));
+
+    ByteBuffer again = pool.borrow(120);
+    assertSame(b, again);
+    assertEquals(0, again.position());
+    assertEquals(120, again.limit());
+    assertEquals(1, metrics.hits);
+    assertEquals(1, metrics.misses);
+  }
+
+  public void testOversizeIsNotPooled() {
+    ByteBuffer b = pool.borrow(1025);
+    assertEquals(1025, b.capacity());
+    pool.release(b);
+    assertNotSame(b, pool.borrow(1025));
+    assertEquals(2, metrics.misses);
+  }
+
+  public void testForeignBuffersAreDropped() {
+    pool.release(ByteBuffer.allocate(100));
+    pool.release(ByteBuffer.allocateDirect(128));
+    assertEquals(0, pool.idle(100));
+  }
+
+  public void testClassesAreBounded() {
+    ByteBuffer a = pool.borrow(64);
+    ByteBuffer b = pool.borrow(64);
+    ByteBuffer c = pool.borrow(64);
+    pool.release(a);
+    pool.release(b);
+    pool.release(c);
+    assertEquals(2, pool.idle(64));
+  }
+
+  static class CountingCollector extends AbstractMetricCollector {
+    private int hits;
+    private int misses;
+
+    public void markMeter(String name) {
+      if (BufferPool.HIT_METRIC.equals(name)) {
+        hits++;
+      } else if (BufferPool.MISS_METRIC.equals(name)) {
+        misses++;
+      }
+    }
+
+    public void addCounter(String name) {
+    }
+
+    public void removeCounter(String name) {
+    }
+
+    public void incrementCounter(String name, int amount) {
+    }
+
+    public void decrementCounter(String name, int amount) {
+    }
+
+    public void addMeter(String name) {
+    }
+
+    public void removeMeter(String name) {
+    }
+
+    public void addHistogram(String name) {
+    }
+
+    public void removeHistogram(String name) {
+    }
+
+    public void updateHistogram(String name, int amount) {
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.BinaryConnectionFactory;
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the write path of the TCP node against a loopback socket.
+ */
+public class TCPMemcachedNodeImplTest extends TestCase {
+
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private SocketChannel accepted;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    client = SocketChannel.open(server.socket().getLocalSocketAddress());
+    accepted = server.accept();
+    client.configureBlocking(false);
+    accepted.configureBlocking(false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.close();
+    accepted.close();
+    server.close();
+    super.tearDown();
+  }
+
+  private MemcachedNode createNode(boolean gathering) {
+    return createNode(new ConnectionFactoryBuilder(
+        new BinaryConnectionFactory()).setUseGatheringWrites(gathering));
+  }
+
+  private MemcachedNode createNode(ConnectionFactoryBuilder builder) {
+    ConnectionFactory cf = builder.build();
+    return cf.createMemcachedNode(client.socket().getRemoteSocketAddress(),
+        client, 64);
+  }
+
+  private void writeAll(MemcachedNode node, Operation[] ops)
+    throws Exception {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (Operation op : ops) {
+      op.setHandlingNode(node);
+      op.initialize();
+      ByteBuffer b = op.getBuffer().duplicate();
+      byte[] bytes = new byte[b.remaining()];
+      b.get(bytes);
+      expected.write(bytes);
+      node.addOp(op);
+    }
+
+    node.copyInputQueue();
+    ByteBuffer received = ByteBuffer.allocate(expected.size());
+    node.fillWriteBuffer(false);
+    while (node.getBytesRemainingToWrite() > 0 || received.hasRemaining()) {
+      if (node.getBytesRemainingToWrite() > 0) {
+        node.writeSome();
+        node.fillWriteBuffer(false);
+      }
+      accepted.read(received);
+    }
+    assertTrue(Arrays.equals(expected.toByteArray(), received.array()));
+  }
+
+  private Operation[] createOps() {
+    OperationFactory of = new BinaryConnectionFactory().getOperationFactory();
+    byte[] big = new byte[300000];
+    Arrays.fill(big, (byte) 'x');
+    return new Operation[] {
+      of.store(StoreType.set, "big", 0, 0, big,
+          new NoopCallback()),
+      of.delete("small", new NoopCallback()),
+      of.store(StoreType.add, "other", 1, 0,
+          new byte[100], new NoopCallback()),
+    };
+  }
+
+  public void testCopyingWrites() throws Exception {
+    Operation[] ops = createOps();
+    writeAll(createNode(false), ops);
+    for (Operation op : ops) {
+      assertEquals(OperationState.READING, op.getState());
+    }
+  }
+
+  public void testGatheringWrites() throws Exception {
+    MemcachedNode node = createNode(true);
+    Operation[] ops = createOps();
+    writeAll(node, ops);
+    for (Operation op : ops) {
+      assertEquals(OperationState.READING, op.getState());
+      assertNull(op.getBuffer());
+    }
+    assertEquals(0, node.getBytesRemainingToWrite());
+  }
+
+  public void testUnfinishedGatheredOpsAreResent() throws Exception {
+    MemcachedNode node = createNode(true);
+    OperationFactory of = new BinaryConnectionFactory().getOperationFactory();
+    Operation[] ops = new Operation[] {
+      of.store(StoreType.set, "huge", 0, 0, new byte[8 * 1024 * 1024],
+          new NoopCallback()),
+      of.delete("small", new NoopCallback()),
+    };
+    long total = 0;
+    for (Operation op : ops) {
+      op.setHandlingNode(node);
+      op.initialize();
+      total += op.getBuffer().remaining();
+      node.addOp(op);
+    }
+    node.copyInputQueue();
+    node.fillWriteBuffer(false);
+    // Nothing is read on the other side, so the socket fills up halfway
+    // through the first operation.
+    while (node.writeSome() > 0) {
+      assertTrue(node.getBytesRemainingToWrite() > 0);
+    }
+
+    node.setupResend();
+    for (Operation op : ops) {
+      assertFalse(op.isCancelled());
+      assertEquals(OperationState.WRITING, op.getState());
+    }
+    assertSame(ops[0], node.getCurrentWriteOp());
+    assertSame(ops[0], node.getCurrentReadOp());
+    node.fillWriteBuffer(false);
+    assertEquals(total, node.getBytesRemainingToWrite());
+  }
+
+  public void testResendFitsABoundedWriteQueue() throws Exception {
+    MemcachedNode node = createNode(new ConnectionFactoryBuilder(
+        new BinaryConnectionFactory()).setUseGatheringWrites(true)
+        .setWriteOpQueueFactory(new ArrayOperationQueueFactory(2)));
+    OperationFactory of = new BinaryConnectionFactory().getOperationFactory();
+    Operation[] ops = new Operation[] {
+      of.store(StoreType.set, "huge", 0, 0, new byte[8 * 1024 * 1024],
+          new NoopCallback()),
+      of.delete("small", new NoopCallback()),
+      of.delete("queued1", new NoopCallback()),
+      of.delete("queued2", new NoopCallback()),
+    };
+    for (Operation op : ops) {
+      op.setHandlingNode(node);
+      op.initialize();
+    }
+    node.addOp(ops[0]);
+    node.addOp(ops[1]);
+    node.copyInputQueue();
+    node.fillWriteBuffer(false);
+    while (node.writeSome() > 0) {
+      assertTrue(node.getBytesRemainingToWrite() > 0);
+    }
+    // Refill the write queue the gathered operations left.
+    node.addOp(ops[2]);
+    node.addOp(ops[3]);
+    node.copyInputQueue();
+
+    node.setupResend();
+    assertFalse(ops[0].isCancelled());
+    assertFalse(ops[1].isCancelled());
+    assertTrue(ops[2].isCancelled());
+    assertTrue(ops[3].isCancelled());
+    assertSame(ops[0], node.getCurrentWriteOp());
+    assertSame(ops[0], node.getCurrentReadOp());
+  }
+
+  private static class NoopCallback implements StoreOperation.Callback,
+    DeleteOperation.Callback {
+    public void gotData(String key, long cas) {
+      // nothing
+    }
+
+    public void gotData(long cas) {
+      // nothing
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // nothing
+    }
+
+    public void complete() {
+      // nothing
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the timing wheel expiring operations.
+ */
+public class TimerWheelTest extends TestCase {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private List<Operation> expired;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    expired = new ArrayList<Operation>();
+  }
+
+  private static Operation op() {
+    return new AsciiOperationFactory().get("key", new GetOperation.Callback() {
+      public void gotData(String key, int flags, byte[] data) {
+        // ignored
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    });
+  }
+
+  public void testExpiresAfterDeadline() {
+    TimerWheel wheel = new TimerWheel(10);
+    long start = System.nanoTime();
+    Operation o = op();
+    assertTrue(wheel.schedule(o, 50));
+
+    wheel.expire(start + 40 * MS, expired);
+    assertTrue(expired.isEmpty());
+    assertTrue(wheel.nextDelay(start + 40 * MS) > 0);
+
+    wheel.expire(start + 100 * MS, expired);
+    assertEquals(1, expired.size());
+    assertSame(o, expired.get(0));
+    assertEquals(-1, wheel.nextDelay(start + 100 * MS));
+  }
+
+  public void testNeverExpiresEarly() {
+    TimerWheel wheel = new TimerWheel(10, 4);
+    long start = System.nanoTime();
+    Operation o = op();
+    long deadline = System.nanoTime() + 25 * MS;
+    wheel.schedule(o, 25);
+    for (long now = start; now < deadline; now += MS) {
+      wheel.expire(now, expired);
+      assertTrue("Expired at " + (now - start), expired.isEmpty());
+    }
+    wheel.expire(deadline + 20 * MS, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testSpansSeveralRounds() {
+    TimerWheel wheel = new TimerWheel(1, 4);
+    long start = System.nanoTime();
+    Operation o = op();
+    wheel.schedule(o, 50);
+    for (int i = 0; i < 40; i++) {
+      wheel.expire(start + i * MS, expired);
+    }
+    assertTrue(expired.isEmpty());
+    wheel.expire(start + 60 * MS, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testFinishedOperationsAreDropped() {
+    TimerWheel wheel = new TimerWheel(10);
+    long start = System.nanoTime();
+    Operation cancelled = op();
+    Operation timedOut = op();
+    Operation pending = op();
+    wheel.schedule(cancelled, 10);
+    wheel.schedule(timedOut, 10);
+    wheel.schedule(pending, 10);
+    cancelled.cancel();
+    timedOut.timeOut();
+
+    wheel.expire(start + 100 * MS, expired);
+    assertEquals(1, expired.size());
+    assertSame(pending, expired.get(0));
+    assertEquals(-1, wheel.nextDelay(start + 100 * MS));
+  }
+
+  public void testScheduledOnlyOnce() {
+    TimerWheel wheel = new TimerWheel(10);
+    long start = System.nanoTime();
+    Operation o = op();
+    assertTrue(wheel.schedule(o, 10));
+    // A second schedule keeps the first deadline.
+    assertFalse(wheel.schedule(o, 1000));
+    wheel.expire(start + 100 * MS, expired);
+    assertEquals(1, expired.size());
+    expired.clear();
+    wheel.expire(start + 2000 * MS, expired);
+    assertTrue(expired.isEmpty());
+  }
+
+  public void testWakeupOnlyWhenIdle() {
+    TimerWheel wheel = new TimerWheel(10);
+    long start = System.nanoTime();
+    assertTrue(wheel.schedule(op(), 100));
+    assertFalse(wheel.schedule(op(), 100));
+    wheel.expire(start, expired);
+    assertFalse(wheel.schedule(op(), 100));
+    wheel.expire(start + 1000 * MS, expired);
+    assertEquals(3, expired.size());
+    assertTrue(wheel.schedule(op(), 100));
+  }
+
+  public void testInvalidArguments() {
+    try {
+      new TimerWheel(0);
+      fail("Accepted a zero tick");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    try {
+      new TimerWheel(10, 0);
+      fail("Accepted an empty wheel");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+}
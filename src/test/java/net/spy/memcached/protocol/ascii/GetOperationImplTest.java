@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Test the parsing of ascii get responses.
+ */
+public class GetOperationImplTest extends TestCase {
+
+  private static final String RESPONSE = "VALUE k1 5 3\r\nabc\r\n"
+      + "VALUE k\u00e92 0 0\r\n\r\n"
+      + "VALUE k3 4294967295 10\r\n0123456789\r\nEND\r\n";
+
+  private static ByteBuffer direct(byte[] bytes, int from, int to) {
+    ByteBuffer b = ByteBuffer.allocateDirect(to - from);
+    b.put(bytes, from, to - from);
+    b.flip();
+    return b;
+  }
+
+  private static void assertValues(Collector c) {
+    assertEquals(Arrays.asList("k1", "k\u00e92", "k3"), c.keys);
+    assertEquals(Arrays.asList(5, 0, -1), c.flags);
+    assertEquals(Arrays.asList("abc", "", "0123456789"), c.values);
+    assertTrue(c.status.isSuccess());
+  }
+
+  public void testWholeResponse() throws Exception {
+    for (boolean buffers : new boolean[] {true, false}) {
+      Collector c = collector(buffers);
+      GetOperationImpl op = new GetOperationImpl(
+          Arrays.asList("k1", "k\u00e92", "k3"), c);
+      byte[] bytes = RESPONSE.getBytes("UTF-8");
+      op.readFromBuffer(direct(bytes, 0, bytes.length));
+      assertSame(OperationState.COMPLETE, op.getState());
+      assertValues(c);
+      assertEquals(buffers ? 3 : 0, c.views);
+    }
+  }
+
+  public void testEverySplit() throws Exception {
+    byte[] bytes = RESPONSE.getBytes("UTF-8");
+    for (int split = 1; split < bytes.length; split++) {
+      Collector c = collector(true);
+      GetOperationImpl op = new GetOperationImpl(
+          Arrays.asList("k1", "k\u00e92", "k3"), c);
+      op.readFromBuffer(direct(bytes, 0, split));
+      op.readFromBuffer(ByteBuffer.wrap(bytes, split, bytes.length - split));
+      assertSame("Split at " + split, OperationState.COMPLETE,
+          op.getState());
+      assertValues(c);
+    }
+  }
+
+  public void testMiss() throws Exception {
+    Collector c = collector(true);
+    GetOperationImpl op = new GetOperationImpl("k1", c);
+    op.readFromBuffer(ByteBuffer.wrap("END\r\n".getBytes()));
+    assertSame(OperationState.COMPLETE, op.getState());
+    assertTrue(c.keys.isEmpty());
+    assertFalse(c.status.isSuccess());
+  }
+
+  public void testGetsCas() throws Exception {
+    final long[] cas = new long[1];
+    GetsOperationImpl op = new GetsOperationImpl("k", new GetsOperation
+        .Callback() {
+      public void gotData(String key, int flags, long c, byte[] data) {
+        cas[0] = c;
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        // nothing
+      }
+
+      public void complete() {
+        // nothing
+      }
+    });
+    op.readFromBuffer(ByteBuffer.wrap(
+        "VALUE k 1 2 9223372036854775807\r\nxy\r\nEND\r\n".getBytes()));
+    assertEquals(Long.MAX_VALUE, cas[0]);
+  }
+
+  private static Collector collector(boolean buffers) {
+    return buffers ? new BufferCollector() : new Collector();
+  }
+
+  private static class Collector implements GetOperation.Callback {
+    private final List<String> keys = new ArrayList<String>();
+    private final List<Integer> flags = new ArrayList<Integer>();
+    private final List<String> values = new ArrayList<String>();
+    protected int views = 0;
+    private OperationStatus status;
+
+    public void gotData(String key, int f, byte[] data) {
+      keys.add(key);
+      flags.add(f);
+      values.add(new String(data));
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      // nothing
+    }
+  }
+
+  private static class BufferCollector extends Collector
+    implements GetOperation.BufferCallback {
+    public void gotData(String key, int f, ByteBuffer data) {
+      assertTrue(data.isReadOnly());
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      views++;
+      gotData(key, f, bytes);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the in place line parsing helpers.
+ */
+public class LineParserTest extends TestCase {
+
+  private static ByteBuffer direct(String s) {
+    byte[] bytes = s.getBytes(LineParser.UTF_8);
+    ByteBuffer b = ByteBuffer.allocateDirect(bytes.length);
+    b.put(bytes);
+    b.flip();
+    return b;
+  }
+
+  public void testIndexOf() {
+    ByteBuffer b = ByteBuffer.wrap("a b c".getBytes());
+    assertEquals(1, LineParser.indexOf(b, 0, 5, (byte) ' '));
+    assertEquals(3, LineParser.indexOf(b, 2, 5, (byte) ' '));
+    assertEquals(-1, LineParser.indexOf(b, 4, 5, (byte) ' '));
+  }
+
+  public void testParseLong() {
+    ByteBuffer b = direct("x 18446744073 y");
+    assertEquals(18446744073L, LineParser.parseLong(b, 2, 13));
+    assertEquals(0, LineParser.parseLong(direct("0"), 0, 1));
+    try {
+      LineParser.parseLong(b, 0, 3);
+      fail("Parsed a non number");
+    } catch (NumberFormatException e) {
+      // pass
+    }
+    try {
+      LineParser.parseLong(b, 2, 2);
+      fail("Parsed an empty number");
+    } catch (NumberFormatException e) {
+      // pass
+    }
+  }
+
+  public void testKnownLines() {
+    ByteBuffer b = direct("xSTORED\r\n");
+    assertSame("STORED", LineParser.knownLine(b, 1, 7));
+    assertNull(LineParser.knownLine(b, 0, 7));
+    assertNull(LineParser.knownLine(b, 1, 6));
+  }
+
+  public void testDecode() {
+    assertEquals("k\u00e9", LineParser.decode(direct("-k\u00e9-"), 1, 4, null));
+    assertEquals("k\u00e9", LineParser.decode(direct("-k\u00e9-"), 1, 4, new byte[1]));
+    ByteBuffer heap = ByteBuffer.wrap("--k\u00e9-".getBytes(LineParser.UTF_8), 1,
+        4).slice();
+    assertEquals("k\u00e9", LineParser.decode(heap, 1, 4, null));
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.OperationFactoryTestBase;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.MetaGetOperation;
+
+/**
+ * Test the cloning of meta operations.
+ */
+public class MetaOperationFactoryTest extends OperationFactoryTestBase {
+
+  @Override
+  protected OperationFactory getOperationFactory() {
+    return new MetaOperationFactory();
+  }
+
+  public void testMetaGetOperationCloning() {
+    MetaGetOperation op = ((MetaOperationFactory) ofact).metaGet(TEST_KEY,
+        30, 10, null);
+    MetaGetOperation op2 = cloneOne(MetaGetOperation.class, op);
+    assertKey(op2);
+    assertEquals(30, op2.getRecacheTtl());
+    assertEquals(10, op2.getVivifyTtl());
+  }
+
+  public void testInvalidateOperationCloning() {
+    DeleteOperation op = ((MetaOperationFactory) ofact).invalidate(TEST_KEY,
+        30, null);
+    MetaDeleteOperationImpl op2 = cloneOne(MetaDeleteOperationImpl.class, op);
+    assertKey(op2);
+    assertTrue(op2.isInvalidate());
+    assertEquals(30, op2.getStaleTtl());
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.ConcatenationType;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.MetaGetOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the encoding of meta commands and the parsing of their responses.
+ */
+public class MetaOperationImplTest extends TestCase {
+
+  private final MetaOperationFactory factory = new MetaOperationFactory();
+
+  private static String request(Operation op) {
+    op.initialize();
+    return new String(op.getBuffer().array(), 0, op.getBuffer().limit());
+  }
+
+  public void testCommandLines() {
+    Collector c = new Collector();
+    assertEquals("mg k v f\r\n", request(factory.get("k", c)));
+    assertEquals("mg k v f c\r\n", request(factory.gets("k", null)));
+    assertEquals("mg k v f c T10\r\n",
+        request(factory.getAndTouch("k", 10, null)));
+    assertEquals("mg k T10\r\n", request(factory.touch("k", 10, c)));
+    assertEquals("mg k v f c R30 N5\r\n",
+        request(factory.metaGet("k", 30, 5, c)));
+    assertEquals("ms k 3 F1 T2 MS\r\nabc\r\n", request(factory.store(
+        StoreType.set, "k", 1, 2, "abc".getBytes(), c)));
+    assertEquals("ms k 3 F1 T2 ME\r\nabc\r\n", request(factory.store(
+        StoreType.add, "k", 1, 2, "abc".getBytes(), c)));
+    assertEquals("ms k 3 F1 T2 C9 MR\r\nabc\r\n", request(factory.cas(
+        StoreType.replace, "k", 9, 1, 2, "abc".getBytes(), c)));
+    assertEquals("ms k 3 MP\r\nabc\r\n", request(factory.cat(
+        ConcatenationType.prepend, 0, "k", "abc".getBytes(), c)));
+    assertEquals("md k\r\n", request(factory.delete("k", c)));
+    assertEquals("md k C9\r\n", request(factory.delete("k", 9, c)));
+    assertEquals("md k I T30\r\n", request(factory.invalidate("k", 30, c)));
+    assertEquals("ma k v D2 MI\r\n", request(factory.mutate(Mutator.incr,
+        "k", 2, 5, -1, c)));
+    assertEquals("ma k v D2 MD N0 J5\r\n", request(factory.mutate(
+        Mutator.decr, "k", 2, 5, 0, c)));
+  }
+
+  public void testGetResponseSplitEverywhere() throws Exception {
+    byte[] bytes = "VA 3 f5\r\nabc\r\n".getBytes();
+    for (int split = 1; split < bytes.length; split++) {
+      Collector c = new Collector();
+      Operation op = factory.get("k", c);
+      op.readFromBuffer(ByteBuffer.wrap(bytes, 0, split));
+      op.readFromBuffer(ByteBuffer.wrap(bytes, split, bytes.length - split));
+      assertSame("Split at " + split, OperationState.COMPLETE, op.getState());
+      assertEquals(Arrays.asList("k:5:abc"), c.values);
+      assertTrue(c.status.isSuccess());
+    }
+  }
+
+  public void testResponseStatuses() throws Exception {
+    Collector c = new Collector();
+    read(factory.get("k", c), "EN\r\n");
+    assertTrue(c.values.isEmpty());
+    assertSame(StatusCode.ERR_NOT_FOUND, c.status.getStatusCode());
+    read(factory.store(StoreType.add, "k", 0, 0, new byte[1], c), "NS\r\n");
+    assertSame(StatusCode.ERR_NOT_STORED, c.status.getStatusCode());
+    read(factory.cas(StoreType.set, "k", 1, 0, 0, new byte[1], c), "EX\r\n");
+    assertSame(StatusCode.ERR_EXISTS, c.status.getStatusCode());
+    read(factory.delete("k", c), "HD\r\n");
+    assertTrue(c.status.isSuccess());
+    read(factory.mutate(Mutator.incr, "k", 1, 0, -1, c), "VA 2\r\n42\r\n");
+    assertEquals("42", c.status.getMessage());
+    read(factory.mutate(Mutator.incr, "k", 1, 0, -1, c), "NF\r\n");
+    assertFalse(c.status.isSuccess());
+  }
+
+  public void testMetaGetFlags() throws Exception {
+    Collector c = new Collector();
+    read(factory.metaGet("k", 30, 0, c), "VA 1 f2 c7 W X\r\nv\r\n");
+    assertEquals(Arrays.asList("k:2:v"), c.values);
+    assertEquals(7, c.cas);
+    assertEquals(MetaGetOperation.WIN | MetaGetOperation.STALE, c.meta);
+    read(factory.metaGet("k", 30, 0, c), "EN Z\r\n");
+    assertEquals(Arrays.asList("k:2:v", "k:null"), c.values);
+    assertEquals(MetaGetOperation.WIN_TOKEN_SENT, c.meta);
+  }
+
+  public void testPipeline() throws Exception {
+    Collector c = new Collector();
+    MetaPipelineImpl pipeline = new MetaPipelineImpl();
+    MetaOperationImpl[] ops = {
+      (MetaOperationImpl) factory.get("a", c),
+      (MetaOperationImpl) factory.get("b", c),
+      (MetaOperationImpl) factory.store(StoreType.set, "c", 0, 0,
+          "x".getBytes(), c),
+      (MetaOperationImpl) factory.delete("d", c),
+    };
+    for (MetaOperationImpl op : ops) {
+      op.initialize();
+      pipeline.addOperation(op);
+    }
+    assertEquals("mg a v f q O0\r\nmg b v f q O1\r\n"
+        + "ms c 1 F0 T0 MS q O2\r\nx\r\nmd d O3\r\nmn\r\n",
+        request(pipeline));
+    read(pipeline, "NF O3\r\nVA 1 f0 O0\r\nA\r\nMN\r\n");
+    assertSame(OperationState.COMPLETE, pipeline.getState());
+    for (MetaOperationImpl op : ops) {
+      assertSame(OperationState.COMPLETE, op.getState());
+    }
+    assertEquals(Arrays.asList("a:0:A"), c.values);
+    assertEquals(Arrays.asList(StatusCode.ERR_NOT_FOUND, StatusCode.SUCCESS,
+        StatusCode.ERR_NOT_FOUND, StatusCode.SUCCESS), c.codes);
+  }
+
+  public void testPipelineError() throws Exception {
+    Collector c = new Collector();
+    MetaPipelineImpl pipeline = new MetaPipelineImpl();
+    MetaOperationImpl get = (MetaOperationImpl) factory.get("a", c);
+    MetaOperationImpl store = (MetaOperationImpl) factory.store(
+        StoreType.set, "b", 0, 0, "x".getBytes(), c);
+    pipeline.addOperation(get);
+    pipeline.addOperation(store);
+    pipeline.initialize();
+    read(pipeline, "VA 1 O0\r\nA\r\nCLIENT_ERROR bad data chunk\r\nMN\r\n");
+    assertEquals(Arrays.asList("a:0:A"), c.values);
+    assertEquals(Arrays.asList(StatusCode.SUCCESS, StatusCode.ERR_INTERNAL),
+        c.codes);
+    assertEquals("CLIENT_ERROR bad data chunk", c.status.getMessage());
+  }
+
+  public void testMultiGet() throws Exception {
+    Collector c = new Collector();
+    Operation op = factory.get(Arrays.asList("a", "b", "c"), c);
+    assertEquals("mg a v f q O0\r\nmg b v f q O1\r\nmg c v f q O2\r\n"
+        + "mn\r\n", request(op));
+    read(op, "VA 1 f0 O2\r\nC\r\nVA 1 f0 O0\r\nA\r\nMN\r\n");
+    assertSame(OperationState.COMPLETE, op.getState());
+    assertEquals(Arrays.asList("c:0:C", "a:0:A"), c.values);
+    assertEquals(Arrays.asList(StatusCode.SUCCESS), c.codes);
+    assertEquals(1, c.completed);
+  }
+
+  private static void read(Operation op, String response) throws Exception {
+    op.readFromBuffer(ByteBuffer.wrap(response.getBytes()));
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  private static class Collector implements GetOperation.Callback,
+      StoreOperation.Callback, DeleteOperation.Callback,
+      MetaGetOperation.Callback {
+    private final List<String> values = new ArrayList<String>();
+    private final List<StatusCode> codes = new ArrayList<StatusCode>();
+    private OperationStatus status;
+    private long cas;
+    private int meta;
+    private int completed;
+
+    public void gotData(String key, int flags, byte[] data) {
+      values.add(key + ":" + flags + ":" + new String(data));
+    }
+
+    public void gotData(String key, int flags, long c, byte[] data, int m) {
+      values.add(data == null ? key + ":null"
+          : key + ":" + flags + ":" + new String(data));
+      cas = c;
+      meta = m;
+    }
+
+    public void gotData(String key, long c) {
+      cas = c;
+    }
+
+    public void gotData(long c) {
+      cas = c;
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+      codes.add(s.getStatusCode());
+    }
+
+    public void complete() {
+      completed++;
+    }
+  }
+}
@@ -22,10 +22,15 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import java.nio.ByteBuffer;
+
 import net.spy.memcached.OperationFactory;
 import net.spy.memcached.OperationFactoryTestBase;
 import net.spy.memcached.ops.Mutator;
 import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TouchOperation;
 
 /**
  * An OperationFactoryTest.
@@ -70,4 +75,33 @@ public class OperationFactoryTest extends OperationFactoryTestBase {
     assertSame(Mutator.decr, op2.getType());
     assertCallback(op2);
   }
+
+  public void testNoReplyCommandLines() {
+    OperationFactory f = new AsciiOperationFactory(true);
+    assertEquals("set " + TEST_KEY + " 1 2 3 noreply\r\nabc\r\n",
+      commandLine(f.store(StoreType.set, TEST_KEY, 1, 2, "abc".getBytes(),
+        storeCallback)));
+    assertEquals("delete " + TEST_KEY + " noreply\r\n",
+      commandLine(f.delete(TEST_KEY, deleteCallback)));
+    assertEquals("touch " + TEST_KEY + " 5 noreply\r\n",
+      commandLine(f.touch(TEST_KEY, 5, genericCallback)));
+    assertEquals("incr " + TEST_KEY + " 7\r\n",
+      commandLine(f.mutate(Mutator.incr, TEST_KEY, 7, 0, 0,
+        genericCallback)));
+
+    MutatorOperation op = f.mutate(Mutator.decr, TEST_KEY, 1, 0, 0,
+      genericCallback);
+    assertFalse(op.isNoReply());
+    TouchOperation touch = f.touch(TEST_KEY, 5, genericCallback);
+    assertTrue(f.clone(touch).iterator().next().isNoReply());
+    assertFalse(ofact.delete(TEST_KEY, deleteCallback).isNoReply());
+  }
+
+  private static String commandLine(Operation op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer();
+    byte[] bytes = new byte[b.remaining()];
+    b.get(bytes);
+    return new String(bytes);
+  }
 }
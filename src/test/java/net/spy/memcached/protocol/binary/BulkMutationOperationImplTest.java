@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Test the encoding and decoding of pipelined bulk mutations.
+ */
+public class BulkMutationOperationImplTest extends TestCase {
+
+  private StatusCollector cb;
+  private BulkMutationOperationImpl op;
+  private List<Integer> opaques;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cb = new StatusCollector();
+    op = new BulkMutationOperationImpl(Arrays.asList(
+        BulkMutation.set("s", 3, 10, "abc".getBytes()),
+        BulkMutation.delete("d"),
+        BulkMutation.touch("t", 20),
+        BulkMutation.mutate(Mutator.incr, "i", 2, 1, 30)), cb);
+    op.initialize();
+    opaques = new ArrayList<Integer>();
+  }
+
+  private static ByteBuffer response(byte cmd, int opaque, int status,
+      String body) {
+    byte[] b = body.getBytes();
+    ByteBuffer bb = ByteBuffer.allocate(24 + b.length);
+    bb.put((byte) 0x81);
+    bb.put(cmd);
+    bb.putShort((short) 0);
+    bb.put((byte) 0);
+    bb.put((byte) 0);
+    bb.putShort((short) status);
+    bb.putInt(b.length);
+    bb.putInt(opaque);
+    bb.putLong(0);
+    bb.put(b);
+    bb.flip();
+    return bb;
+  }
+
+  private List<Byte> readCommands() {
+    List<Byte> cmds = new ArrayList<Byte>();
+    ByteBuffer b = op.getBuffer().duplicate();
+    while (b.hasRemaining()) {
+      int start = b.position();
+      assertEquals((byte) 0x80, b.get());
+      cmds.add(b.get());
+      b.position(start + 8);
+      int bodyLen = b.getInt();
+      opaques.add(b.getInt());
+      b.position(start + 24 + bodyLen);
+    }
+    return cmds;
+  }
+
+  public void testEncodesQuietRunAndNoop() {
+    assertEquals(Arrays.asList(StoreOperationImpl.SETQ,
+        BulkMutationOperationImpl.DELETEQ, TouchOperationImpl.CMD,
+        BulkMutationOperationImpl.INCRQ, NoopOperationImpl.CMD),
+        readCommands());
+
+    ByteBuffer b = op.getBuffer().duplicate();
+    assertEquals(8 + 1 + 3, b.getInt(8));
+    assertEquals(3, b.getInt(24));
+    assertEquals(10, b.getInt(28));
+    assertEquals("s", new String(new byte[] {b.get(32)}));
+    assertEquals(op.getBuffer().remaining(),
+        24 + 8 + 1 + 3 + 24 + 1 + 24 + 4 + 1 + 24 + 20 + 1 + 24);
+  }
+
+  public void testNoopAnswersUnansweredKeys() throws Exception {
+    readCommands();
+    op.readFromBuffer(response(BulkMutationOperationImpl.DELETEQ,
+        opaques.get(1), 1, "Not found"));
+    op.readFromBuffer(response(TouchOperationImpl.CMD, opaques.get(2), 0,
+        ""));
+    assertEquals(2, cb.statuses.size());
+    assertEquals(2, op.getMutations().size());
+    assertEquals(OperationState.WRITE_QUEUED, op.getState());
+
+    op.readFromBuffer(response(NoopOperationImpl.CMD, opaques.get(4), 0,
+        ""));
+    assertEquals(OperationState.COMPLETE, op.getState());
+    assertEquals(Arrays.asList("d", "t", "s", "i"),
+        new ArrayList<String>(cb.statuses.keySet()));
+    assertEquals(StatusCode.ERR_NOT_FOUND,
+        cb.statuses.get("d").getStatusCode());
+    assertTrue(cb.statuses.get("t").isSuccess());
+    assertTrue(cb.statuses.get("s").isSuccess());
+    assertTrue(cb.statuses.get("i").isSuccess());
+    assertEquals(1, cb.completes);
+  }
+
+  public void testInternalErrorIsAKeyStatus() throws Exception {
+    readCommands();
+    op.readFromBuffer(response(StoreOperationImpl.SETQ, opaques.get(0),
+        0x84, "oops"));
+    assertFalse(op.hasErrored());
+    assertEquals(StatusCode.ERR_INTERNAL,
+        cb.statuses.get("s").getStatusCode());
+  }
+
+  public void testCancelAnswersRemainingKeys() throws Exception {
+    readCommands();
+    op.readFromBuffer(response(BulkMutationOperationImpl.DELETEQ,
+        opaques.get(1), 1, "Not found"));
+    op.cancel();
+    assertEquals(4, cb.statuses.size());
+    assertEquals(StatusCode.ERR_NOT_FOUND,
+        cb.statuses.get("d").getStatusCode());
+    assertEquals(StatusCode.CANCELLED, cb.statuses.get("s").getStatusCode());
+    assertEquals(StatusCode.CANCELLED, cb.statuses.get("i").getStatusCode());
+    assertEquals(1, cb.completes);
+  }
+
+  static class StatusCollector implements BulkMutationOperation.Callback {
+    final Map<String, OperationStatus> statuses =
+      new LinkedHashMap<String, OperationStatus>();
+    int completes;
+
+    public void gotStatus(String key, OperationStatus status) {
+      assertNull("Second status for " + key, statuses.put(key, status));
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // not used
+    }
+
+    public void complete() {
+      completes++;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.BufferPool;
+
+/**
+ * Test the decoding of binary get responses.
+ */
+public class GetOperationImplTest extends TestCase {
+
+  private static final byte[] VALUE = "some value".getBytes();
+
+  private static ByteBuffer response(int opaque, int flags, byte[] value) {
+    ByteBuffer b = ByteBuffer.allocate(24 + 4 + value.length);
+    b.put((byte) 0x81);
+    b.put(GetOperationImpl.GET_CMD);
+    b.putShort((short) 0);
+    b.put((byte) 4);
+    b.put((byte) 0);
+    b.putShort((short) 0);
+    b.putInt(4 + value.length);
+    b.putInt(opaque);
+    b.putLong(0);
+    b.putInt(flags);
+    b.put(value);
+    b.flip();
+    return b;
+  }
+
+  public void testBufferCallbackGetsView() throws Exception {
+    BufferCollector cb = new BufferCollector();
+    GetOperationImpl op = new GetOperationImpl("k", cb);
+    ByteBuffer b = response(op.opaque, 42, VALUE);
+
+    op.readFromBuffer(b);
+
+    assertEquals(0, b.remaining());
+    assertEquals(OperationState.COMPLETE, op.getState());
+    assertEquals(42, cb.flags);
+    assertNull(cb.bytes);
+    assertTrue(cb.wasReadOnly);
+    assertEquals(new String(VALUE), new String(cb.copy));
+    assertTrue(cb.status.isSuccess());
+  }
+
+  public void testBufferCallbackAcrossReads() throws Exception {
+    BufferCollector cb = new BufferCollector();
+    GetOperationImpl op = new GetOperationImpl("k", cb);
+    ByteBuffer b = response(op.opaque, 7, VALUE);
+
+    ByteBuffer first = b.duplicate();
+    first.limit(30);
+    op.readFromBuffer(first);
+    assertNull(cb.status);
+    b.position(30);
+    op.readFromBuffer(b);
+
+    assertEquals(OperationState.COMPLETE, op.getState());
+    assertEquals(7, cb.flags);
+    assertEquals(new String(VALUE), new String(cb.copy));
+  }
+
+  public void testArrayCallbackGetsCopy() throws Exception {
+    BufferCollector cb = new BufferCollector();
+    GetOperationImpl op = new GetOperationImpl("k", new ArrayOnly(cb));
+    op.readFromBuffer(response(op.opaque, 3, VALUE));
+
+    assertEquals(3, cb.flags);
+    assertNull(cb.copy);
+    assertEquals(new String(VALUE), new String(cb.bytes));
+  }
+
+  private static GetOperationImpl pooledOp(final BufferPool pool) {
+    GetOperationImpl op = new GetOperationImpl("k", new BufferCollector());
+    op.setHandlingNode(new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost", 11211)) {
+      @Override
+      public BufferPool getBufferPool() {
+        return pool;
+      }
+    });
+    op.initialize();
+    return op;
+  }
+
+  public void testBufferReturnedAfterWrite() {
+    BufferPool pool = new BufferPool(new NoopMetricCollector());
+    GetOperationImpl op = pooledOp(pool);
+    ByteBuffer b = op.getBuffer();
+    assertEquals(25, b.remaining());
+
+    op.writing();
+    assertSame(b, op.getBuffer());
+    op.writeComplete();
+    assertNull(op.getBuffer());
+    assertSame(b, pool.borrow(25));
+  }
+
+  public void testBufferReturnedOnCancelBeforeWrite() {
+    BufferPool pool = new BufferPool(new NoopMetricCollector());
+    GetOperationImpl op = pooledOp(pool);
+    ByteBuffer b = op.getBuffer();
+    op.cancel();
+    assertNull(op.getBuffer());
+    assertSame(b, pool.borrow(25));
+  }
+
+  public void testBufferKeptOnCancelWhileWriting() {
+    BufferPool pool = new BufferPool(new NoopMetricCollector());
+    GetOperationImpl op = pooledOp(pool);
+    ByteBuffer b = op.getBuffer();
+    op.writing();
+    op.timeOut();
+    op.cancel();
+    assertSame(b, op.getBuffer());
+    assertNotSame(b, pool.borrow(25));
+  }
+
+  private static class BufferCollector implements GetOperation.BufferCallback {
+    private int flags;
+    private byte[] bytes;
+    private byte[] copy;
+    private boolean wasReadOnly;
+    private OperationStatus status;
+
+    public void gotData(String key, int f, ByteBuffer data) {
+      flags = f;
+      wasReadOnly = data.isReadOnly();
+      copy = new byte[data.remaining()];
+      data.get(copy);
+    }
+
+    public void gotData(String key, int f, byte[] data) {
+      flags = f;
+      bytes = data;
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      // nothing
+    }
+  }
+
+  private static class ArrayOnly implements GetOperation.Callback {
+    private final GetOperation.Callback delegate;
+
+    public ArrayOnly(GetOperation.Callback d) {
+      delegate = d;
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      delegate.gotData(key, flags, data);
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      delegate.receivedStatus(s);
+    }
+
+    public void complete() {
+      delegate.complete();
+    }
+  }
+}
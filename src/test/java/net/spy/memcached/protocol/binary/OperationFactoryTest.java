@@ -22,9 +22,16 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
 import net.spy.memcached.OperationFactory;
 import net.spy.memcached.OperationFactoryTestBase;
+import net.spy.memcached.ops.BulkMutation;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.TouchOperation;
 
@@ -59,4 +66,22 @@ public class OperationFactoryTest extends OperationFactoryTestBase {
     assertSame(callback, op2.getCallback());
   }
 
+  public void testBulkMutationOperationCloning() {
+    BulkMutationOperation.Callback callback = (BulkMutationOperation.Callback)
+      mock(BulkMutationOperation.Callback.class).proxy();
+    BulkMutationOperation op = ofact.bulkMutate(Arrays.asList(
+        BulkMutation.delete("k1"), BulkMutation.touch("k2", 5)), callback);
+
+    Collection<Operation> ops = ofact.clone(op);
+    assertEquals(2, ops.size());
+    Collection<String> keys = new ArrayList<String>();
+    for (Operation o : ops) {
+      BulkMutationOperation bo = (BulkMutationOperation) o;
+      assertEquals(1, bo.getMutations().size());
+      assertSame(callback, bo.getMutationCallback());
+      keys.addAll(bo.getKeys());
+    }
+    assertEquals(Arrays.asList("k1", "k2"), keys);
+  }
+
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ComputedValue;
+
+/**
+ * Test the computed value transcoder.
+ */
+public class ComputedValueTranscoderTest extends TestCase {
+
+  private SerializingTranscoder inner;
+  private ComputedValueTranscoder<Object> tc;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    inner = new SerializingTranscoder();
+    inner.setCompressionThreshold(64);
+    tc = new ComputedValueTranscoder<Object>(inner);
+  }
+
+  public void testRoundTrip() throws Exception {
+    CachedData cd = tc.encode(new ComputedValue<Object>("value", 1234L, 56));
+    assertEquals(ComputedValueTranscoder.FLAGS, cd.getFlags());
+    assertFalse(tc.asyncDecode(cd));
+    ComputedValue<Object> cv = tc.decode(cd);
+    assertEquals("value", cv.getValue());
+    assertEquals(1234L, cv.getExpiry());
+    assertEquals(56L, cv.getComputeTime());
+  }
+
+  public void testCompressedValue() throws Exception {
+    char[] chars = new char[1024];
+    Arrays.fill(chars, 'x');
+    String big = new String(chars);
+    CachedData cd = tc.encode(new ComputedValue<Object>(big,
+        Long.MAX_VALUE, 0));
+    assertTrue(cd.getData().length < big.length());
+    assertTrue(tc.asyncDecode(cd));
+    assertEquals(big, tc.decode(cd).getValue());
+  }
+
+  public void testPlainValue() throws Exception {
+    ComputedValue<Object> cv = tc.decode(inner.encode(42));
+    assertEquals(42, cv.getValue());
+    assertEquals(Long.MAX_VALUE, cv.getExpiry());
+    assertFalse(cv.shouldRefresh(System.currentTimeMillis(), 1.0, 0.001));
+  }
+
+  public void testPlainValueWithEnvelopeFlags() throws Exception {
+    ComputedValue<Object> cv = tc.decode(new CachedData(
+        ComputedValueTranscoder.FLAGS, "abc".getBytes(), CachedData.MAX_SIZE));
+    assertEquals("abc", cv.getValue());
+    assertEquals(Long.MAX_VALUE, cv.getExpiry());
+  }
+
+  public void testTruncatedEnvelope() throws Exception {
+    byte[] data = ByteBuffer.allocate(7)
+        .putInt(ComputedValueTranscoder.MARKER).array();
+    try {
+      tc.decode(new CachedData(ComputedValueTranscoder.FLAGS, data,
+          CachedData.MAX_SIZE));
+      fail("Decoded a truncated envelope");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -22,6 +22,8 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
+
 import junit.framework.TestCase;
 import net.spy.memcached.CachedData;
 
@@ -47,4 +49,12 @@ public class LongTranscoderTest extends TestCase {
     assertNull(tc.decode(new CachedData(cd.getFlags() + 1, cd.getData(),
         CachedData.MAX_SIZE)));
   }
+
+  public void testDecodeFromBuffer() throws Exception {
+    CachedData cd = tc.encode(923L);
+    assertTrue(tc.decodesFromBuffer(cd.getFlags()));
+    assertFalse(tc.decodesFromBuffer(cd.getFlags() + 1));
+    assertEquals(923,
+        tc.decode(cd.getFlags(), ByteBuffer.wrap(cd.getData())).longValue());
+  }
 }
@@ -22,6 +22,7 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Calendar;
 
@@ -137,4 +138,56 @@ public class SerializingTranscoderTest extends BaseTranscoderCase {
   protected int getStringFlags() {
     return 0;
   }
+
+  private Object decodeFromBuffer(Object o) {
+    CachedData cd = tc.encode(o);
+    assertTrue(tc.decodesFromBuffer(cd.getFlags()));
+    ByteBuffer b = ByteBuffer.allocateDirect(cd.getData().length);
+    b.put(cd.getData());
+    b.flip();
+    return tc.decode(cd.getFlags(), b);
+  }
+
+  public void testDecodeFromBuffer() throws Exception {
+    assertEquals("hello", decodeFromBuffer("hello"));
+    assertEquals(Integer.valueOf(-29), decodeFromBuffer(-29));
+    assertEquals(Long.valueOf(Long.MAX_VALUE),
+        decodeFromBuffer(Long.MAX_VALUE));
+    assertEquals(Boolean.TRUE, decodeFromBuffer(true));
+    assertEquals(Byte.valueOf((byte) 4), decodeFromBuffer((byte) 4));
+    assertEquals(Double.valueOf(1.5), decodeFromBuffer(1.5d));
+    assertEquals("[1, 2, 3]",
+        Arrays.toString((byte[]) decodeFromBuffer(new byte[] {1, 2, 3})));
+  }
+
+  public void testNoBufferDecodeForSerialized() throws Exception {
+    CachedData cd = tc.encode(Calendar.getInstance());
+    assertFalse(tc.decodesFromBuffer(cd.getFlags()));
+  }
+
+  public void testNoBufferDecodeWhenDecodeIsOverridden() throws Exception {
+    SerializingTranscoder custom = new SerializingTranscoder() {
+      @Override
+      public Object decode(CachedData d) {
+        return "custom";
+      }
+    };
+    CachedData cd = custom.encode("hello");
+    assertFalse(custom.decodesFromBuffer(cd.getFlags()));
+    TranscodeService service = new TranscodeService(false);
+    try {
+      assertEquals("custom", service.decode(custom, cd.getFlags(),
+          ByteBuffer.wrap(cd.getData())).get());
+    } finally {
+      service.shutdown();
+    }
+
+    SerializingTranscoder strings = new SerializingTranscoder() {
+      @Override
+      protected String decodeString(byte[] data) {
+        return "custom";
+      }
+    };
+    assertFalse(strings.decodesFromBuffer(strings.encode("x").getFlags()));
+  }
 }
@@ -22,6 +22,7 @@
 
 package net.spy.memcached.transcoders;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -84,4 +85,22 @@ public class TranscoderUtilsTest extends TestCase {
     assertEquals("[0, 0, 0, 0, 0, 0, 0, 1]",
         Arrays.toString(new TranscoderUtils(false).encodeLong(1)));
   }
+
+  public void testBufferDecode() {
+    assertEquals(1L, tu.decodeLong(ByteBuffer.wrap(tu.encodeLong(1))));
+    assertEquals(Long.MIN_VALUE,
+        tu.decodeLong(ByteBuffer.wrap(tu.encodeLong(Long.MIN_VALUE))));
+    assertEquals(-1, tu.decodeInt(ByteBuffer.wrap(tu.encodeInt(-1))));
+    assertEquals((byte) 0x81,
+        tu.decodeByte(ByteBuffer.wrap(tu.encodeByte((byte) 0x81))));
+    assertTrue(tu.decodeBoolean(ByteBuffer.wrap(tu.encodeBoolean(true))));
+    assertFalse(tu.decodeBoolean(ByteBuffer.wrap(tu.encodeBoolean(false))));
+  }
+
+  public void testBufferDecodeRespectsPosition() {
+    ByteBuffer b = ByteBuffer.wrap(new byte[] {9, 9, 0, 1, 0, 9});
+    b.position(2);
+    b.limit(5);
+    assertEquals(256, tu.decodeInt(b));
+  }
 }
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2009-2014 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the count-min sketch.
+ */
+public class CountMinSketchTest extends TestCase {
+
+  public void testCountsItems() {
+    CountMinSketch sketch = new CountMinSketch(4, 64);
+    assertEquals(0, sketch.estimate("a"));
+    assertEquals(1, sketch.add("a"));
+    assertEquals(2, sketch.add("a"));
+    assertEquals(2, sketch.estimate("a"));
+  }
+
+  public void testNeverUndercounts() {
+    CountMinSketch sketch = new CountMinSketch(2, 16);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add("k" + (i % 100));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertTrue(sketch.estimate("k" + i) >= 10);
+    }
+  }
+
+  public void testHeavyHitterStandsOut() {
+    CountMinSketch sketch = new CountMinSketch(4, 1024);
+    for (int i = 0; i < 10000; i++) {
+      sketch.add("k" + i);
+      if (i % 10 == 0) {
+        sketch.add("hot");
+      }
+    }
+    assertTrue(sketch.estimate("hot") >= 1000);
+    assertTrue(sketch.estimate("k1") < 100);
+  }
+
+  public void testClear() {
+    CountMinSketch sketch = new CountMinSketch(4, 64);
+    sketch.add("a");
+    sketch.clear();
+    assertEquals(0, sketch.estimate("a"));
+  }
+
+  public void testInvalidDimensions() {
+    try {
+      new CountMinSketch(0, 64);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}